@@ -20,8 +20,10 @@ import jetbrains.communicator.core.Pico;
 import jetbrains.communicator.core.transport.GetProjectsDataXmlMessage;
 import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
 import jetbrains.communicator.core.transport.Transport;
+import jetbrains.communicator.core.transport.VFileContentTransfer;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.vfs.ProjectsData;
+import jetbrains.communicator.core.vfs.RemoteContentCache;
 import jetbrains.communicator.core.vfs.VFile;
 import jetbrains.communicator.ide.CanceledException;
 import jetbrains.communicator.ide.IDEFacade;
@@ -79,19 +81,21 @@ public class Helper {
               @Override
               public void run() {
 
-                final Semaphore semaphore = new Semaphore(1);
+                VFileContentTransfer transfer = new VFileContentTransfer(user, vFile, RemoteContentCache.getInstance());
+                final Semaphore semaphore = new Semaphore(0);
                 try {
-                  semaphore.acquire();
-
-                  transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(vFile) {
-                    @Override
-                    public void processResponse(Element responseElement) {
-                      super.processResponse(responseElement);
-                      semaphore.release();
-                    }
-                  });
-
-                  semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS);
+                  // one round trip per chunk
+                  while (!transfer.isDone()) {
+                    transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(transfer) {
+                      @Override
+                      public void processResponse(Element responseElement) {
+                        super.processResponse(responseElement);
+                        semaphore.release();
+                      }
+                    });
+
+                    if (!semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS)) break;
+                  }
 
                 } catch (InterruptedException ignored) {
                   // noop
@@ -13,21 +13,44 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package jetbrains.communicator.core.transport;
 
 import jetbrains.communicator.core.vfs.VFile;
 import org.jdom.Element;
 
 /**
+ * Requests contents of a remote file.
+ * <p/>
+ * Peers which understand {@link #PROTOCOL_ATTR} return contents in chunks of {@link #CHUNK_SIZE},
+ * tagged with the content hash. The requester can send the hash of a copy it already holds,
+ * together with block signatures of this copy; then the response says that the file is unchanged,
+ * or contains a delta against the copy. Older peers return whole contents as element text.
+ *
  * @author Kir
+ * @see VFileContentTransfer
  */
 public class GetVFileContentsXmlMessage implements XmlMessage {
   public static final String TAG = "fillContents";
-  private final VFile myFile;
 
-  public GetVFileContentsXmlMessage(VFile file) {
-    myFile = file;
+  public static final String PROTOCOL_ATTR = "protocol";
+  public static final String PROTOCOL_VERSION = "2";
+  public static final String KNOWN_HASH_ATTR = "knownHash";
+  public static final String SIGNATURES_ELEMENT = "signatures";
+  public static final String BLOCK_SIZE_ATTR = "blockSize";
+  public static final String HASH_ATTR = "contentHash";
+  public static final String LENGTH_ATTR = "length";
+  public static final String OFFSET_ATTR = "offset";
+  public static final String UNCHANGED_ATTR = "unchanged";
+  public static final String CHUNK_ELEMENT = "chunk";
+  public static final String DELTA_ELEMENT = "delta";
+  public static final String ERROR_ATTR = "error";
+
+  public static final int CHUNK_SIZE = 64 * 1024;
+
+  private final VFileContentTransfer myTransfer;
+
+  public GetVFileContentsXmlMessage(VFileContentTransfer transfer) {
+    myTransfer = transfer;
   }
 
   public String getTagName() {
@@ -43,13 +66,14 @@ public class GetVFileContentsXmlMessage implements XmlMessage {
   }
 
   public void fillRequest(Element element) {
-    myFile.saveTo(element);
+    myTransfer.fillRequest(element);
   }
 
   public void processResponse(Element responseElement) {
-    VFile from = VFile.createFrom(responseElement);
-    if (from != null) {
-      myFile.setContents(from.getContents());
-    }
+    myTransfer.processResponse(responseElement);
+  }
+
+  public VFile getFile() {
+    return myTransfer.getFile();
   }
 }
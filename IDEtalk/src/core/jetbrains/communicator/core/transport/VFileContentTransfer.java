@@ -0,0 +1,199 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.transport;
+
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.vfs.ContentDelta;
+import jetbrains.communicator.core.vfs.RemoteContentCache;
+import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.util.StringUtil;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+import org.jetbrains.annotations.Nullable;
+
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
+/**
+ * Requester side of a remote file contents transfer, which may take several
+ * {@link GetVFileContentsXmlMessage} round trips: one per chunk, and one more if the file
+ * was changed in the middle of the transfer or a delta cannot be applied.
+ * When the transfer is done, the contents are set to the file and cached.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class VFileContentTransfer {
+  private static final Logger LOG = Logger.getLogger(VFileContentTransfer.class);
+  private static final int MAX_RESTARTS = 3;
+
+  private final User myUser;
+  private final VFile myFile;
+  private final RemoteContentCache myCache;
+  @Nullable
+  private RemoteContentCache.Entry myCached;
+
+  private String myHash;
+  private StringBuilder myContents;
+  private int myRestarts;
+  private boolean myDone;
+
+  public VFileContentTransfer(User user, VFile file, RemoteContentCache cache) {
+    myUser = user;
+    myFile = file;
+    myCache = cache;
+    myCached = cache.get(user, file);
+  }
+
+  public VFile getFile() {
+    return myFile;
+  }
+
+  public boolean isDone() {
+    return myDone;
+  }
+
+  public GetVFileContentsXmlMessage createMessage() {
+    return new GetVFileContentsXmlMessage(this);
+  }
+
+  void fillRequest(Element element) {
+    // the contents the file may hold are not needed by the peer
+    VFile file = (VFile)myFile.clone();
+    file.setContents(null);
+    file.saveTo(element);
+    element.setAttribute(PROTOCOL_ATTR, PROTOCOL_VERSION);
+
+    if (myContents != null) {
+      element.setAttribute(HASH_ATTR, myHash);
+      element.setAttribute(OFFSET_ATTR, String.valueOf(myContents.length()));
+    }
+    else if (myCached != null) {
+      String contents = myCached.getContents();
+      int blockSize = ContentDelta.getBlockSize(contents.length());
+      element.setAttribute(KNOWN_HASH_ATTR, myCached.getHash());
+
+      Element signatures = new Element(SIGNATURES_ELEMENT, element.getNamespace());
+      signatures.setAttribute(BLOCK_SIZE_ATTR, String.valueOf(blockSize));
+      signatures.setText(ContentDelta.createSignatures(contents, blockSize));
+      element.addContent(signatures);
+    }
+  }
+
+  void processResponse(Element response) {
+    String error = response.getAttributeValue(ERROR_ATTR);
+    if (error != null) {
+      LOG.info("Request for " + myFile + " was rejected: " + error);
+      finish(null, null);
+      return;
+    }
+
+    String hash = response.getAttributeValue(HASH_ATTR);
+    if (hash == null) {
+      // no such file, or a peer which always sends whole contents
+      VFile from = VFile.createFrom(response);
+      finish(from == null ? null : from.getContents(), null);
+      return;
+    }
+
+    if ("true".equals(response.getAttributeValue(UNCHANGED_ATTR))) {
+      if (myCached != null && hash.equals(myCached.getHash())) {
+        finish(myCached.getContents(), hash);
+      }
+      else {
+        restart(false);
+      }
+      return;
+    }
+
+    Element delta = response.getChild(DELTA_ELEMENT, response.getNamespace());
+    if (delta != null) {
+      processDelta(delta, hash);
+      return;
+    }
+
+    Element chunk = response.getChild(CHUNK_ELEMENT, response.getNamespace());
+    if (chunk != null) {
+      processChunk(chunk, hash, Integer.parseInt(response.getAttributeValue(LENGTH_ATTR)));
+      return;
+    }
+
+    LOG.info("Unexpected response for " + myFile + ": " + response);
+    finish(null, null);
+  }
+
+  private void processDelta(Element delta, String hash) {
+    if (myCached == null) {
+      restart(false);
+      return;
+    }
+
+    try {
+      int blockSize = Integer.parseInt(delta.getAttributeValue(BLOCK_SIZE_ATTR));
+      String contents = ContentDelta.createFrom(delta).apply(myCached.getContents(), blockSize);
+      if (hash.equals(ContentDelta.hash(contents))) {
+        finish(contents, hash);
+        return;
+      }
+      LOG.info("Delta of " + myFile + " does not match the content hash");
+    }
+    catch (RuntimeException e) {
+      LOG.info("Cannot apply delta of " + myFile + ": " + e.getMessage());
+    }
+    restart(false);
+  }
+
+  private void processChunk(Element chunk, String hash, int length) {
+    int offset = Integer.parseInt(chunk.getAttributeValue(OFFSET_ATTR));
+    if (offset == 0) {
+      myHash = hash;
+      myContents = new StringBuilder(length);
+    }
+    else if (myContents == null || !hash.equals(myHash) || offset != myContents.length()) {
+      restart(true);
+      return;
+    }
+
+    myContents.append(StringUtil.fromXMLSafeString(chunk.getText()));
+    if (myContents.length() < length) return;
+
+    String contents = myContents.toString();
+    if (contents.length() == length && hash.equals(ContentDelta.hash(contents))) {
+      finish(contents, hash);
+    }
+    else {
+      LOG.info("Contents of " + myFile + " do not match the content hash");
+      restart(true);
+    }
+  }
+
+  /** Requests whole contents again, e.g. the file was changed during the transfer */
+  private void restart(boolean useCache) {
+    myHash = null;
+    myContents = null;
+    if (!useCache) {
+      myCached = null;
+    }
+    if (++myRestarts > MAX_RESTARTS) {
+      finish(null, null);
+    }
+  }
+
+  private void finish(@Nullable String contents, @Nullable String hash) {
+    myDone = true;
+    myFile.setContents(contents);
+    if (contents != null) {
+      myCache.put(myUser, myFile, contents, hash != null ? hash : ContentDelta.hash(contents));
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import jetbrains.communicator.util.StringUtil;
+import org.jdom.Element;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * rsync-like delta of file contents.
+ * <p/>
+ * The side which holds an old copy of the contents sends signatures of its blocks: a weak rolling
+ * checksum and a strong hash per block. The side with the new contents finds these blocks
+ * in it at any offset and describes the new contents as a sequence of block copies
+ * and literal text, which is usually much shorter than the contents for small edits.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class ContentDelta {
+  public static final String COPY_ELEMENT = "copy";
+  public static final String DATA_ELEMENT = "data";
+  public static final String BLOCK_ATTR = "block";
+  public static final String COUNT_ATTR = "count";
+
+  public static final int MIN_BLOCK_SIZE = 256;
+  private static final int MAX_BLOCKS = 2000;
+  private static final int WEAK_LENGTH = 8;
+  private static final int STRONG_LENGTH = 16;
+  private static final int SIGNATURE_LENGTH = WEAK_LENGTH + STRONG_LENGTH;
+
+  private final List<Object> myOperations = new ArrayList<Object>();
+
+  private ContentDelta() {
+  }
+
+  /** Returns a hash identifying the contents */
+  public static String hash(String contents) {
+    return toHex(md5(contents), 32);
+  }
+
+  public static int getBlockSize(int contentLength) {
+    return Math.max(MIN_BLOCK_SIZE, (contentLength + MAX_BLOCKS - 1) / MAX_BLOCKS);
+  }
+
+  /** Creates signatures of the blocks of the old contents */
+  public static String createSignatures(String contents, int blockSize) {
+    StringBuilder result = new StringBuilder(contents.length() / blockSize * SIGNATURE_LENGTH);
+    for (int start = 0; start + blockSize <= contents.length(); start += blockSize) {
+      result.append(toHex(weakChecksum(contents, start, blockSize), WEAK_LENGTH));
+      result.append(strongHash(contents, start, blockSize));
+    }
+    return result.toString();
+  }
+
+  /** Describes the new contents in terms of the blocks of the old contents, whose signatures are given */
+  public static ContentDelta create(String contents, int blockSize, String signatures) {
+    Map<Integer, List<Integer>> weakToBlocks = new HashMap<Integer, List<Integer>>();
+    int blockCount = signatures.length() / SIGNATURE_LENGTH;
+    for (int i = 0; i < blockCount; i++) {
+      int weak = (int)Long.parseLong(signatures.substring(i * SIGNATURE_LENGTH, i * SIGNATURE_LENGTH + WEAK_LENGTH), 16);
+      List<Integer> blocks = weakToBlocks.get(weak);
+      if (blocks == null) {
+        blocks = new ArrayList<Integer>(1);
+        weakToBlocks.put(weak, blocks);
+      }
+      blocks.add(i);
+    }
+
+    ContentDelta delta = new ContentDelta();
+    int literalStart = 0;
+    int pos = 0;
+    int a = 0;
+    int b = 0;
+    boolean checksumValid = false;
+    while (pos + blockSize <= contents.length()) {
+      if (!checksumValid) {
+        a = 0;
+        b = 0;
+        for (int i = 0; i < blockSize; i++) {
+          char c = contents.charAt(pos + i);
+          a += c;
+          b += (blockSize - i) * c;
+        }
+        checksumValid = true;
+      }
+
+      int block = findBlock(weakToBlocks.get(((b & 0xffff) << 16) | (a & 0xffff)), signatures, contents, pos, blockSize);
+      if (block >= 0) {
+        delta.addLiteral(contents.substring(literalStart, pos));
+        delta.addCopy(block);
+        pos += blockSize;
+        literalStart = pos;
+        checksumValid = false;
+      }
+      else {
+        if (pos + blockSize < contents.length()) {
+          char removed = contents.charAt(pos);
+          char added = contents.charAt(pos + blockSize);
+          a += added - removed;
+          b += a - blockSize * removed;
+        }
+        pos++;
+      }
+    }
+    delta.addLiteral(contents.substring(literalStart));
+    return delta;
+  }
+
+  /** Restores the new contents from the old ones */
+  public String apply(String oldContents, int blockSize) {
+    StringBuilder result = new StringBuilder(oldContents.length());
+    for (Object operation : myOperations) {
+      if (operation instanceof String) {
+        result.append((String)operation);
+      }
+      else {
+        int[] copy = (int[])operation;
+        int start = copy[0] * blockSize;
+        int end = start + copy[1] * blockSize;
+        if (start < 0 || end > oldContents.length()) {
+          throw new IllegalArgumentException("Block " + copy[0] + " is out of contents");
+        }
+        result.append(oldContents, start, end);
+      }
+    }
+    return result.toString();
+  }
+
+  /** Returns the length of the text which is not copied from the old contents */
+  public int getLiteralLength() {
+    int result = 0;
+    for (Object operation : myOperations) {
+      if (operation instanceof String) {
+        result += ((String)operation).length();
+      }
+    }
+    return result;
+  }
+
+  public void saveTo(Element root) {
+    for (Object operation : myOperations) {
+      if (operation instanceof String) {
+        Element data = new Element(DATA_ELEMENT, root.getNamespace());
+        data.setText(StringUtil.toXMLSafeString((String)operation));
+        root.addContent(data);
+      }
+      else {
+        Element copy = new Element(COPY_ELEMENT, root.getNamespace());
+        copy.setAttribute(BLOCK_ATTR, String.valueOf(((int[])operation)[0]));
+        copy.setAttribute(COUNT_ATTR, String.valueOf(((int[])operation)[1]));
+        root.addContent(copy);
+      }
+    }
+  }
+
+  public static ContentDelta createFrom(Element root) {
+    ContentDelta delta = new ContentDelta();
+    for (Object o : root.getChildren()) {
+      Element element = (Element)o;
+      if (DATA_ELEMENT.equals(element.getName())) {
+        delta.addLiteral(StringUtil.fromXMLSafeString(element.getText()));
+      }
+      else if (COPY_ELEMENT.equals(element.getName())) {
+        int block = Integer.parseInt(element.getAttributeValue(BLOCK_ATTR));
+        int count = Integer.parseInt(element.getAttributeValue(COUNT_ATTR));
+        delta.myOperations.add(new int[]{block, count});
+      }
+    }
+    return delta;
+  }
+
+  private void addLiteral(String text) {
+    if (text.length() > 0) {
+      myOperations.add(text);
+    }
+  }
+
+  private void addCopy(int block) {
+    if (!myOperations.isEmpty()) {
+      Object last = myOperations.get(myOperations.size() - 1);
+      if (last instanceof int[] && ((int[])last)[0] + ((int[])last)[1] == block) {
+        ((int[])last)[1]++;
+        return;
+      }
+    }
+    myOperations.add(new int[]{block, 1});
+  }
+
+  private static int findBlock(List<Integer> candidates, String signatures, String contents, int pos, int blockSize) {
+    if (candidates == null) return -1;
+
+    String strong = strongHash(contents, pos, blockSize);
+    for (Integer block : candidates) {
+      int start = block * SIGNATURE_LENGTH + WEAK_LENGTH;
+      if (signatures.regionMatches(start, strong, 0, STRONG_LENGTH)) {
+        return block;
+      }
+    }
+    return -1;
+  }
+
+  private static int weakChecksum(String contents, int start, int length) {
+    int a = 0;
+    int b = 0;
+    for (int i = 0; i < length; i++) {
+      char c = contents.charAt(start + i);
+      a += c;
+      b += (length - i) * c;
+    }
+    return ((b & 0xffff) << 16) | (a & 0xffff);
+  }
+
+  private static String strongHash(String contents, int start, int length) {
+    return toHex(md5(contents.substring(start, start + length)), STRONG_LENGTH);
+  }
+
+  private static byte[] md5(String s) {
+    try {
+      return MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8"));
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes, int length) {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; result.length() < length; i++) {
+      result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+      result.append(Character.forDigit(bytes[i] & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  private static String toHex(int value, int length) {
+    String hex = Integer.toHexString(value);
+    StringBuilder result = new StringBuilder(length);
+    for (int i = hex.length(); i < length; i++) {
+      result.append('0');
+    }
+    return result.append(hex).toString();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import jetbrains.communicator.core.users.User;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recently received contents of remote files, used to avoid resending unchanged files
+ * and to request changed ones as deltas. Least recently used contents are dropped when
+ * the cache exceeds its size.
+ */
+public class RemoteContentCache {
+  private static final int MAX_TOTAL_LENGTH = 8 * 1024 * 1024;
+  private static final RemoteContentCache ourInstance = new RemoteContentCache(MAX_TOTAL_LENGTH);
+
+  private final int myMaxTotalLength;
+  private final Map<String, Entry> myEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+  private int myTotalLength;
+
+  public RemoteContentCache(int maxTotalLength) {
+    myMaxTotalLength = maxTotalLength;
+  }
+
+  public static RemoteContentCache getInstance() {
+    return ourInstance;
+  }
+
+  @Nullable
+  public synchronized Entry get(User user, VFile file) {
+    return myEntries.get(getKey(user, file));
+  }
+
+  public synchronized void put(User user, VFile file, String contents, String hash) {
+    remove(getKey(user, file));
+    if (contents.length() > myMaxTotalLength / 2) return;
+
+    myEntries.put(getKey(user, file), new Entry(contents, hash));
+    myTotalLength += contents.length();
+
+    Iterator<Entry> iterator = myEntries.values().iterator();
+    while (myTotalLength > myMaxTotalLength && iterator.hasNext()) {
+      myTotalLength -= iterator.next().getContents().length();
+      iterator.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    myEntries.clear();
+    myTotalLength = 0;
+  }
+
+  private void remove(String key) {
+    Entry old = myEntries.remove(key);
+    if (old != null) {
+      myTotalLength -= old.getContents().length();
+    }
+  }
+
+  private static String getKey(User user, VFile file) {
+    return user.getTransportCode() + ':' + user.getName() + ':' + file.getProjectName() + ':' + file.getFullPath();
+  }
+
+  public static class Entry {
+    private final String myContents;
+    private final String myHash;
+
+    Entry(String contents, String hash) {
+      myContents = contents;
+      myHash = hash;
+    }
+
+    public String getContents() {
+      return myContents;
+    }
+
+    public String getHash() {
+      return myHash;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import org.picocontainer.Disposable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Kir
@@ -45,7 +46,8 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   private final Object myUser2MessagesLock = new Object();
   private final Map<User,List<Message>> myUser2Messages = new HashMap<User, List<Message>>();
   private final EventBroadcaster myEventBroadcaster;
-  private boolean myDispatching;
+  private PendingMessagesLog myLog;
+  private final AtomicInteger myDispatchCount = new AtomicInteger();
 
   protected AbstractMessageDispatcher(EventBroadcaster eventBroadcaster, File dataDir) {
     myDataDir = dataDir;
@@ -64,7 +66,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   protected boolean performDispatch(User user, Message message) {
     try {
-      myDispatching = true;
+      myDispatchCount.incrementAndGet();
       if (LOG.isDebugEnabled()) {
         //noinspection HardCodedStringLiteral
         LOG.debug("Start dispatching " + message + " to " + user);
@@ -74,15 +76,24 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       synchronized(myUser2MessagesLock) {
         List<Message> userMessages = getMessages(user);
         if (result) {
-          userMessages.remove(message);
+          int index = userMessages.indexOf(message);
+          if (index >= 0) {
+            userMessages.remove(index);
+            logRemove(user, index);
+          }
           if (userMessages.size() == 0) {
             myUser2Messages.remove(user);
+            if (index >= 0) {
+              logRemoveUser(user);
+            }
           }
         }
         else if (!userMessages.contains(message) ){
           userMessages.add(message);
+          logAdd(user, message);
         }
       }
+      save();
 
       if (LOG.isDebugEnabled()) {
         //noinspection HardCodedStringLiteral
@@ -90,7 +101,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       }
       return result;
     } finally {
-      myDispatching = false;
+      myDispatchCount.decrementAndGet();
     }
   }
 
@@ -123,15 +134,11 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   }
 
   public boolean sendNow(User user, Message message) {
-    boolean result = performDispatch(user, message);
-    if (result) {
-      save();
-    }
-    return result;
+    return performDispatch(user, message);
   }
 
   boolean isMessageDispatchInProgress() {
-    return myDispatching;
+    return myDispatchCount.get() > 0;
   }
 
   protected void addPendingMessage(User user, Message message) {
@@ -145,24 +152,29 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
           LOG.debug("Added pending message " + message + "\nfor user " + user);
         }
         userMessages.add(message);
-        save();
+        logAdd(user, message);
       }
     }
+    save();
   }
 
   protected void removePendingMessage(User user, int messageIndex) {
     synchronized(myUser2MessagesLock) {
       List<Message> userMessages = getMessages(user);
       userMessages.remove(messageIndex);
-      save();
+      logRemove(user, messageIndex);
     }
+    save();
   }
 
   protected void clearAll() {
     synchronized (myUser2MessagesLock) {
       myUser2Messages.clear();
-      save();
+      if (myLog != null) {
+        myLog.logClear();
+      }
     }
+    save();
   }
 
   private List<Message> getMessages(User user) {
@@ -177,11 +189,23 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   }
 
   protected final void load() {
+    if (myDataDir == null || !myDataDir.exists()) return;
+
+    if (myLog == null) {
+      myLog = new PendingMessagesLog(new File(getFileName()), getXStream(), myUser2MessagesLock, new PendingMessagesLog.StateProvider() {
+        public Map<User, List<Message>> copyState() {
+          Map<User, List<Message>> result = new HashMap<User, List<Message>>();
+          for (Map.Entry<User, List<Message>> entry : myUser2Messages.entrySet()) {
+            result.put(entry.getKey(), new ArrayList<Message>(entry.getValue()));
+          }
+          return result;
+        }
+      });
+    }
+
+    Map<User, List<Message>> state = myLog.load();
     synchronized (myUser2MessagesLock) {
-      Object pendingEventsStorable = XMLUtil.fromXml(getXStream(), getFileName(), false);
-      if (pendingEventsStorable instanceof MessagesStorable) {
-        loadFromStorableMessages((MessagesStorable) pendingEventsStorable);
-      }
+      loadFromStorableMessages(new MessagesStorable(state));
     }
   }
 
@@ -196,26 +220,41 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   private void removeUser(User user) {
     synchronized (myUser2MessagesLock) {
-      myUser2Messages.remove(user);
-      save();
+      if (myUser2Messages.remove(user) != null) {
+        logRemoveUser(user);
+      }
+    }
+    save();
+  }
+
+  private void logAdd(User user, Message message) {
+    if (myLog != null) {
+      myLog.logAdd(user, message);
     }
   }
 
+  private void logRemove(User user, int index) {
+    if (myLog != null) {
+      myLog.logRemove(user, index);
+    }
+  }
+
+  private void logRemoveUser(User user) {
+    if (myLog != null) {
+      myLog.logRemoveUser(user);
+    }
+  }
+
+  /** Writes the logged queue operations to disk. Must not be called under the queue lock. */
   @SuppressWarnings({"HardCodedStringLiteral"})
   protected void save() {
-    if (myDataDir == null || !myDataDir.exists()) return;
+    if (myLog == null) return;
 
     LOG.debug("Save start");
-    synchronized(myUser2MessagesLock) {
-      XMLUtil.toXml(getXStream(), getFileName(), createStorableMessages());
-    }
+    myLog.flush();
     LOG.debug("Save finish");
   }
 
-  protected MessagesStorable createStorableMessages() {
-    return new MessagesStorable(myUser2Messages);
-  }
-
   @SuppressWarnings({"HardCodedStringLiteral"})
   private XStream getXStream() {
     if (myXStream == null) {
@@ -24,128 +24,242 @@ import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.ide.IDEFacade;
-import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 /**
+ * Delivers pending network messages in background.
+ * <p/>
+ * Messages of every user form a FIFO queue, which is drained by one worker at a time, so messages
+ * reach a user in the order they were sent. Queues of different users are drained in parallel
+ * by a bounded pool of workers, so an unreachable user does not delay delivery to the others.
+ * After a failed delivery the queue of the user is retried by a timer with an exponentially growing
+ * delay, which is reset when the user comes online or a message is delivered to the user.
+ *
  * @author Kir
  */
-public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher, Runnable {
+public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher {
   private static final Logger LOG = Logger.getLogger(AsyncMessageDispatcherImpl.class);
 
   private static final String FILE_NAME = "pendingNetworkMessages.xml";
+  static final int MAX_PARALLEL_DELIVERIES = 4;
+  static final long INITIAL_RETRY_DELAY = 1000;
+  static final long MAX_RETRY_DELAY = 5 * 60 * 1000;
+
   private final MyEventListener myEventListener;
   private final IDEFacade myIdeFacade;
+  private final ScheduledThreadPoolExecutor myExecutor;
 
-  private final Object myWorkingThreadLock = new Object();
-  private Thread myWorkingThread;
-  private Thread myThread;
-
-  private boolean myShouldDeliverNow;
+  private final Object myQueuesLock = new Object();
+  /** guarded by myQueuesLock */
+  private final Map<User, UserQueue> myQueues = new HashMap<User, UserQueue>();
 
   public AsyncMessageDispatcherImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster, ideFacade.getCacheDir());
 
     myIdeFacade = ideFacade;
-    myEventListener = new MyEventListener(broadcaster);
+    myExecutor = new ScheduledThreadPoolExecutor(MAX_PARALLEL_DELIVERIES, new ThreadFactory() {
+      private int myCount;
 
-    start();
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "Network Message Dispatcher " + ++myCount);
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    myExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    myEventListener = new MyEventListener(broadcaster);
   }
 
-  private void start() {
-    assert !isRunning(): "Already started";
-    Thread t = new Thread(this, "Network Message Dispatcher");
-    t.setDaemon(true);
-    t.start();
+  public boolean isRunning() {
+    return !myExecutor.isTerminated();
   }
 
-  public boolean isRunning() {
-    return myThread != null && myThread.isAlive();
+  private boolean notDisposed() {
+    return !myExecutor.isShutdown();
   }
 
-  public void run() {
-    LOG.debug("Starting " + Thread.currentThread().getName());
+  public void dispose() {
+    myEventListener.dispose();
 
-    synchronized (myWorkingThreadLock) {
-      myWorkingThread = Thread.currentThread();
-      myThread = Thread.currentThread();
-    }
+    myExecutor.shutdown();
     try {
-      LOG.debug("Started Network Message Dispatcher thread");
-      while (notDisposed()) {
-        synchronized(myWorkingThreadLock) {
-          while (!myShouldDeliverNow && notDisposed()) {
-            myWorkingThreadLock.wait();
-          }
-          myShouldDeliverNow = false;
-        }
-        LOG.debug("Process pending network messages");
-
-        if (notDisposed()) {
-          dispatchAllMessages();
-        }
-      }
-    } catch (InterruptedException e) {
-      LOG.warn(e.getMessage(), e);
+      myExecutor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
-    finally {
-      synchronized(myWorkingThreadLock) {
-        myWorkingThread = null;
+
+    super.dispose();
+  }
+
+  protected String getEventsFileName() {
+    return FILE_NAME;
+  }
+
+  public void sendLater(User user, Message message) {
+    addPendingMessage(user, message);
+    triggerDelivery(user);
+  }
+
+  /**
+   * Sends the message in the calling thread, bypassing the queue of the user.
+   * If recent deliveries to the user failed, the caller is not blocked by another attempt:
+   * the message is queued and will be sent when the user is retried.
+   */
+  @Override
+  public boolean sendNow(User user, Message message) {
+    if (getRetryDelay(user) > 0) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Delivery to " + user + " is postponed, queue " + message);
       }
+      addPendingMessage(user, message);
+      triggerDelivery(user);
+      return false;
     }
+
+    boolean result = performDispatch(user, message);
+    deliveryFinished(user, result);
+    // on failure the message is queued, and the queue is retried after the delay
+    triggerDelivery(user);
+    return result;
   }
 
-  private boolean notDisposed() {
-    return myWorkingThread != null;
+  public IDEFacade getIdeFacade() {
+    return myIdeFacade;
+  }
+
+  void triggerDelivery() {
+    for (User user : getUsersWithMessages()) {
+      triggerDelivery(user);
+    }
   }
 
-  private void dispatchAllMessages() {
-    User[] usersWithMessages = getUsersWithMessages();
-    for (int i = 0; i < usersWithMessages.length && isRunning(); i++) {
-      User user = usersWithMessages[i];
-      Message[] pendingMessages = getPendingMessages(user);
-      for (int j = 0; j < pendingMessages.length && isRunning(); j++) {
-        performDispatch(user, pendingMessages[j]);
+  /** Schedules delivery of the queued messages of the user, after the retry delay if recent deliveries failed */
+  private void triggerDelivery(User user) {
+    if (getPendingMessages(user).length == 0) return;
+
+    synchronized (myQueuesLock) {
+      if (!notDisposed()) return;
+
+      UserQueue queue = getQueue(user);
+      if (queue.myTask != null) {
+        // the queue is being drained or waits for the retry; new messages are picked up then
+        return;
       }
+      long delay = Math.max(0, queue.myRetryTime - System.currentTimeMillis());
+      queue.myTask = myExecutor.schedule(new DeliveryTask(user), delay, TimeUnit.MILLISECONDS);
     }
-    save();
   }
 
-  public void dispose() {
-    myEventListener.dispose();
+  private void resetRetryDelay(User user) {
+    synchronized (myQueuesLock) {
+      UserQueue queue = myQueues.get(user);
+      if (queue == null) return;
+
+      queue.myFailures = 0;
+      queue.myRetryTime = 0;
+      if (queue.myTask != null && !queue.myRunning && queue.myTask.cancel(false)) {
+        queue.myTask = null;
+      }
+    }
+  }
 
-    synchronized(myWorkingThreadLock) {
-      myWorkingThread = null;
-      myWorkingThreadLock.notifyAll();
+  long getRetryDelay(User user) {
+    synchronized (myQueuesLock) {
+      UserQueue queue = myQueues.get(user);
+      return queue == null ? 0 : Math.max(0, queue.myRetryTime - System.currentTimeMillis());
     }
-    new WaitFor(10000){
-      protected boolean condition() {
-        return !isRunning();
+  }
+
+  private void deliveryFinished(User user, boolean delivered) {
+    synchronized (myQueuesLock) {
+      UserQueue queue = getQueue(user);
+      if (delivered) {
+        queue.myFailures = 0;
+        queue.myRetryTime = 0;
+      }
+      else {
+        queue.myFailures++;
+        long delay = INITIAL_RETRY_DELAY << Math.min(queue.myFailures - 1, 16);
+        queue.myRetryTime = System.currentTimeMillis() + Math.min(delay, MAX_RETRY_DELAY);
       }
-    };
 
-    super.dispose();
+      if (queue.myTask == null && queue.myFailures == 0) {
+        myQueues.remove(user);
+      }
+    }
   }
 
-  protected String getEventsFileName() {
-    return FILE_NAME;
+  private UserQueue getQueue(User user) {
+    UserQueue queue = myQueues.get(user);
+    if (queue == null) {
+      queue = new UserQueue();
+      myQueues.put(user, queue);
+    }
+    return queue;
   }
 
-  public void sendLater(User user, Message message) {
-    synchronized(myWorkingThreadLock) {
-      addPendingMessage(user, message);
-      triggerDelivery();
+  /** @return false if a message could not be delivered; the rest of the queue is left for the next attempt */
+  private boolean deliverPendingMessages(User user) {
+    Message[] pendingMessages = getPendingMessages(user);
+    while (pendingMessages.length > 0) {
+      for (Message message : pendingMessages) {
+        if (!notDisposed()) return true;
+        if (!performDispatch(user, message)) {
+          return false;
+        }
+      }
+      pendingMessages = getPendingMessages(user);
     }
+    return true;
   }
 
-  public IDEFacade getIdeFacade() {
-    return myIdeFacade;
+  private static class UserQueue {
+    /** Scheduled or running delivery, null if there is none */
+    private ScheduledFuture<?> myTask;
+    private boolean myRunning;
+    private int myFailures;
+    private long myRetryTime;
   }
 
-  void triggerDelivery() {
-    synchronized(myWorkingThreadLock) {
-      myShouldDeliverNow = true;
-      myWorkingThreadLock.notifyAll();
+  private class DeliveryTask implements Runnable {
+    private final User myUser;
+
+    DeliveryTask(User user) {
+      myUser = user;
+    }
+
+    public void run() {
+      synchronized (myQueuesLock) {
+        getQueue(myUser).myRunning = true;
+      }
+
+      boolean delivered = false;
+      try {
+        LOG.debug("Process pending network messages of " + myUser);
+        delivered = deliverPendingMessages(myUser);
+      }
+      catch (RuntimeException e) {
+        LOG.error(e.getMessage(), e);
+      }
+      finally {
+        synchronized (myQueuesLock) {
+          UserQueue queue = getQueue(myUser);
+          queue.myTask = null;
+          queue.myRunning = false;
+        }
+        deliveryFinished(myUser, delivered);
+      }
+
+      // retry after a failure, or deliver messages added after the queue was drained, but before the task was finished
+      triggerDelivery(myUser);
     }
   }
 
@@ -164,6 +278,7 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     public void afterChange(IDEtalkEvent event) {
       event.accept(new EventVisitor(){
         @Override public void visitUserOnline(UserEvent.Online online) {
+          resetRetryDelay(online.getUser());
           triggerDelivery();
         }
       });
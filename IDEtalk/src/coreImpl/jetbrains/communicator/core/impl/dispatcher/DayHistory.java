@@ -17,43 +17,18 @@ package jetbrains.communicator.core.impl.dispatcher;
 
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.users.User;
-import jetbrains.communicator.util.TimeUtil;
 
-import java.util.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * Day file of the former XML history format, only read to migrate it to {@link HistoryStore}.
+ *
  * @author Kir
 */
 class DayHistory {
   private final Map<User, List<LocalMessage>> myData = new HashMap<User, List<LocalMessage>>();
-  private transient Date myOldestDate;
-  private transient boolean myHasFullHistory;
-
-  private List<LocalMessage> getMessages(User user) {
-    List<LocalMessage> list = myData.get(user);
-    if (list == null) {
-      list = new ArrayList<LocalMessage>();
-      myData.put(user, list);
-    }
-    return list;
-  }
-
-  public List<LocalMessage> readMessages(User user) {
-    return Collections.unmodifiableList(getMessages(user));
-  }
-
-  public void addMessage(User user, LocalMessage message) {
-    if (myOldestDate == null || myOldestDate.after(message.getWhen())) {
-      myOldestDate = TimeUtil.getDay(message.getWhen());
-    }
-    getMessages(user).add(message);
-  }
-
-  public void clear() {
-    myOldestDate = null;
-    myHasFullHistory = false;
-    myData.clear();
-  }
 
   public Iterable<? extends User> keySet() {
     return myData.keySet();
@@ -63,35 +38,6 @@ class DayHistory {
     return myData.get(user);
   }
 
-  public boolean hasHistorySince(Date since) {
-    if (myHasFullHistory) return true;
-    return myOldestDate != null && since != null && !since.before(myOldestDate) ;
-  }
-
-  public void copyTo(DayHistory history) {
-    for (User user : keySet()) {
-      for (LocalMessage message : readMessages(user)) {
-        history.addMessage(user, message);
-      }
-    }
-  }
-
-  public void setHasFullHistory() {
-    myHasFullHistory = true;
-  }
-
-  public void resort() {
-    for (User user : myData.keySet()) {
-      List<LocalMessage> list = myData.get(user);
-      Collections.sort(list, new Comparator<LocalMessage>() {
-        public int compare(LocalMessage o1, LocalMessage o2) {
-          return o1.getWhen().compareTo(o2.getWhen());
-        }
-      });
-    }
-  }
-
-
   public String toString() {
     return myData.toString();
   }
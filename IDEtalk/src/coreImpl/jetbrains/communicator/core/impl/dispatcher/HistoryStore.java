@@ -0,0 +1,436 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.LocalMessage;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Append-only store of the message history.
+ * <p/>
+ * Messages are appended to one segment file per day, <code>yyyy-MM-dd.log</code>. A record consists of the user,
+ * the message timestamp and the message serialized with XStream. On startup only the record headers are read,
+ * to build an in-memory index (user, timestamp) -> (segment, offset); message bodies are read on demand.
+ * Day files of the former XML format are migrated to segments when the store is opened.
+ */
+class HistoryStore {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(HistoryStore.class);
+
+  @NonNls
+  static final String SEGMENT_SUFFIX = ".log";
+  @NonNls
+  private static final String LEGACY_SUFFIX = ".xml";
+  @NonNls
+  private static final String ENCODING = "UTF-8";
+  private static final int MAX_USER_LENGTH = 0x10000;
+
+  private final File myDir;
+  private final XStream myXStream;
+  private final UserConverter myUserConverter;
+  @NonNls
+  private final SimpleDateFormat myDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+  /** Entries of every user, sorted by timestamp */
+  private final Map<User, List<Entry>> myIndex = new HashMap<User, List<Entry>>();
+  /** Entries added since the last flush, in the order of addition */
+  private final List<Entry> myUnsaved = new ArrayList<Entry>();
+  /** Guards the segment files. Taken before the store monitor, which is not held while appending */
+  private final Object myWriteLock = new Object();
+
+  HistoryStore(File dir, XStream xStream, UserConverter userConverter) {
+    myDir = dir;
+    myXStream = xStream;
+    myUserConverter = userConverter;
+  }
+
+  /** Builds the index from the segment files and migrates the history files of the former format. */
+  void open() {
+    synchronized (myWriteLock) {
+      synchronized (this) {
+        myDir.mkdirs();
+
+        for (File segment : listFiles(SEGMENT_SUFFIX)) {
+          indexSegment(segment);
+        }
+
+        File[] legacyFiles = listFiles(LEGACY_SUFFIX);
+        if (legacyFiles.length > 0) {
+          migrate(legacyFiles);
+        }
+      }
+    }
+  }
+
+  synchronized void add(User user, LocalMessage message) {
+    Entry entry = new Entry(user, message.getWhen().getTime(), null, -1);
+    entry.myMessage = message;
+    addToIndex(entry);
+    myUnsaved.add(entry);
+  }
+
+  /** Returns messages of the user which are newer than <code>since</code>, oldest messages go first. */
+  synchronized LocalMessage[] getMessages(User user, @Nullable Date since) {
+    List<Entry> entries = myIndex.get(user);
+    if (entries == null) {
+      return new LocalMessage[0];
+    }
+
+    int from = since == null ? 0 : upperBound(entries, since.getTime());
+    List<Entry> found = new ArrayList<Entry>(entries.subList(from, entries.size()));
+    readMessages(found);
+
+    List<LocalMessage> result = new ArrayList<LocalMessage>(found.size());
+    for (Entry entry : found) {
+      if (entry.myMessage != null) {
+        result.add(entry.myMessage);
+      }
+      else {
+        entries.remove(entry);
+      }
+    }
+    return result.toArray(new LocalMessage[result.size()]);
+  }
+
+  /**
+   * Appends the messages added since the last flush to their segments. Queries and additions are not blocked meanwhile.
+   * If saving fails, the messages are kept for the next flush.
+   */
+  void flush() throws IOException {
+    synchronized (myWriteLock) {
+      List<Entry> entries;
+      synchronized (this) {
+        if (myUnsaved.isEmpty()) return;
+        entries = new ArrayList<Entry>(myUnsaved);
+        myUnsaved.clear();
+      }
+
+      boolean saved = false;
+      try {
+        append(entries);
+        saved = true;
+      }
+      finally {
+        if (!saved) {
+          synchronized (this) {
+            myUnsaved.addAll(0, entries);
+          }
+        }
+      }
+    }
+  }
+
+  void clear() {
+    synchronized (myWriteLock) {
+      synchronized (this) {
+        myIndex.clear();
+        myUnsaved.clear();
+
+        Thread thread = Thread.currentThread();
+        for (File file : myDir.listFiles()) {
+          if (thread.isInterrupted()) return;
+          file.delete();
+        }
+      }
+    }
+  }
+
+  synchronized boolean isEmpty() {
+    String[] files = myDir.list();
+    return myUnsaved.isEmpty() && (files == null || files.length == 0);
+  }
+
+  /**
+   * Appends the records of the given entries to their segments. Either all of the records are written, or the segments
+   * are truncated to their former length and the failure is rethrown.
+   */
+  private void append(List<Entry> entries) throws IOException {
+    Map<String, List<Entry>> bySegment = new LinkedHashMap<String, List<Entry>>();
+    for (Entry entry : entries) {
+      String segment = myDateFormat.format(new Date(entry.myWhen)) + SEGMENT_SUFFIX;
+      List<Entry> list = bySegment.get(segment);
+      if (list == null) {
+        list = new ArrayList<Entry>();
+        bySegment.put(segment, list);
+      }
+      list.add(entry);
+    }
+
+    Map<File, Long> formerLengths = new LinkedHashMap<File, Long>();
+    boolean completed = false;
+    try {
+      for (Map.Entry<String, List<Entry>> segmentEntries : bySegment.entrySet()) {
+        String segment = segmentEntries.getKey();
+        File file = new File(myDir, segment);
+        long offset = file.length();
+        formerLengths.put(file, offset);
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true));
+        try {
+          for (Entry entry : segmentEntries.getValue()) {
+            byte[] record = createRecord(entry);
+            out.write(record);
+            entry.mySegment = segment;
+            entry.myOffset = offset;
+            offset += record.length;
+          }
+        }
+        finally {
+          out.close();
+        }
+      }
+      completed = true;
+    }
+    finally {
+      if (!completed) {
+        for (Map.Entry<File, Long> formerLength : formerLengths.entrySet()) {
+          truncate(formerLength.getKey(), formerLength.getValue());
+        }
+      }
+    }
+  }
+
+  private byte[] createRecord(Entry entry) throws IOException {
+    byte[] user = myUserConverter.toString(entry.myUser).getBytes(ENCODING);
+    byte[] message = myXStream.toXML(entry.myMessage).getBytes(ENCODING);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(user.length + message.length + 16);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(user.length);
+    out.write(user);
+    out.writeLong(entry.myWhen);
+    out.writeInt(message.length);
+    out.write(message);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private void indexSegment(File file) {
+    String segment = file.getName();
+    long length = file.length();
+    long validLength = 0;
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      while (validLength < length) {
+        int userLength = in.readInt();
+        if (userLength < 0 || userLength > MAX_USER_LENGTH) break;
+        byte[] user = new byte[userLength];
+        in.readFully(user);
+        long when = in.readLong();
+        int messageLength = in.readInt();
+        if (messageLength < 0) break;
+        skipFully(in, messageLength);
+
+        User owner = (User)myUserConverter.fromString(new String(user, ENCODING));
+        addToIndex(new Entry(owner, when, segment, validLength));
+        validLength += 4 + userLength + 8 + 4 + messageLength;
+      }
+    }
+    catch (EOFException e) {
+      // incomplete last record, the IDE was terminated while saving
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to read history from " + file, e);
+      return;
+    }
+    finally {
+      close(in);
+    }
+
+    if (validLength < length) {
+      truncate(file, validLength);
+    }
+  }
+
+  private void readMessages(List<Entry> entries) {
+    Map<String, List<Entry>> bySegment = new HashMap<String, List<Entry>>();
+    for (Entry entry : entries) {
+      if (entry.myMessage == null) {
+        List<Entry> list = bySegment.get(entry.mySegment);
+        if (list == null) {
+          list = new ArrayList<Entry>();
+          bySegment.put(entry.mySegment, list);
+        }
+        list.add(entry);
+      }
+    }
+
+    for (Map.Entry<String, List<Entry>> segmentEntries : bySegment.entrySet()) {
+      File file = new File(myDir, segmentEntries.getKey());
+      RandomAccessFile in = null;
+      try {
+        in = new RandomAccessFile(file, "r");
+        for (Entry entry : segmentEntries.getValue()) {
+          entry.myMessage = readMessage(in, entry);
+        }
+      }
+      catch (IOException e) {
+        LOG.warn("Unable to read history from " + file, e);
+      }
+      finally {
+        close(in);
+      }
+    }
+  }
+
+  @Nullable
+  private LocalMessage readMessage(RandomAccessFile in, Entry entry) throws IOException {
+    in.seek(entry.myOffset);
+    in.skipBytes(in.readInt());
+    in.readLong();
+    byte[] message = new byte[in.readInt()];
+    in.readFully(message);
+    try {
+      return (LocalMessage)myXStream.fromXML(new String(message, ENCODING));
+    }
+    catch (RuntimeException e) {
+      LOG.info("Unable to restore history message: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /** A legacy file is only deleted once all of its messages were appended, otherwise it is migrated again on next start. */
+  private void migrate(File[] legacyFiles) {
+    for (File file : legacyFiles) {
+      DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, file.getAbsolutePath(), false);
+      if (dayHistory == null) {
+        LOG.warn("Unable to read history from " + file);
+        continue;
+      }
+
+      List<Entry> entries = new ArrayList<Entry>();
+      for (User user : dayHistory.keySet()) {
+        for (LocalMessage message : dayHistory.get(user)) {
+          Entry entry = new Entry(user, message.getWhen().getTime(), null, -1);
+          entry.myMessage = message;
+          entries.add(entry);
+        }
+      }
+
+      try {
+        append(entries);
+      }
+      catch (IOException e) {
+        LOG.error("Unable to migrate history from " + file, e);
+        continue;
+      }
+
+      for (Entry entry : entries) {
+        addToIndex(entry);
+      }
+      file.delete();
+    }
+  }
+
+  private void addToIndex(Entry entry) {
+    List<Entry> entries = myIndex.get(entry.myUser);
+    if (entries == null) {
+      entries = new ArrayList<Entry>();
+      myIndex.put(entry.myUser, entries);
+    }
+    entries.add(upperBound(entries, entry.myWhen), entry);
+  }
+
+  /** Returns the index of the first entry newer than <code>when</code> */
+  private static int upperBound(List<Entry> entries, long when) {
+    int low = 0;
+    int high = entries.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (entries.get(mid).myWhen <= when) {
+        low = mid + 1;
+      }
+      else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private File[] listFiles(final String suffix) {
+    File[] files = myDir.listFiles(new FilenameFilter() {
+      public boolean accept(File dir, String name) {
+        return name.endsWith(suffix);
+      }
+    });
+    if (files == null) return new File[0];
+
+    Arrays.sort(files);
+    return files;
+  }
+
+  private static void skipFully(DataInputStream in, int count) throws IOException {
+    while (count > 0) {
+      int skipped = (int)in.skip(count);
+      if (skipped <= 0) {
+        if (in.read() < 0) throw new EOFException();
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+
+  private static void truncate(File file, long length) {
+    RandomAccessFile out = null;
+    try {
+      out = new RandomAccessFile(file, "rw");
+      out.setLength(length);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to truncate " + file, e);
+    }
+    finally {
+      close(out);
+    }
+  }
+
+  private static void close(@Nullable Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      }
+      catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private static class Entry {
+    private final User myUser;
+    private final long myWhen;
+    private String mySegment;
+    private long myOffset;
+    private LocalMessage myMessage;
+
+    Entry(User user, long when, String segment, long offset) {
+      myUser = user;
+      myWhen = when;
+      mySegment = segment;
+      myOffset = offset;
+    }
+  }
+}
@@ -26,12 +26,23 @@ import java.util.Map;
  */
 public class MessagesStorable {
   private final Map<User, List<Message>> myUser2Messages;
+  /** Generation of the {@link PendingMessagesLog} to be replayed over this snapshot */
+  private long myLogGeneration;
 
   public MessagesStorable(Map<User,List<Message>> user2Messages) {
+    this(user2Messages, 0);
+  }
+
+  public MessagesStorable(Map<User,List<Message>> user2Messages, long logGeneration) {
     myUser2Messages = user2Messages;
+    myLogGeneration = logGeneration;
   }
 
   public Map<User,List<Message>> getUser2Messages() {
     return myUser2Messages;
   }
+
+  public long getLogGeneration() {
+    return myLogGeneration;
+  }
 }
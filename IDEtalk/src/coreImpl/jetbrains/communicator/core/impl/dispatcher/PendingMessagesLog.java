@@ -0,0 +1,401 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of the pending messages queue.
+ * <p/>
+ * Every queue mutation is recorded as an operation (add a message, remove the message at an index, remove a user,
+ * clear), so persisting it costs O(1) I/O. The state is restored by replaying the log over the last snapshot,
+ * which is the XML file the queue was saved to before. When the log grows, it is compacted in the background:
+ * a new snapshot is written and the log is started over.
+ * <p/>
+ * Operations are queued in memory under the dispatcher lock and written by {@link #flush()}, which must be called
+ * without holding that lock, so the lock is never held during disk I/O.
+ */
+class PendingMessagesLog {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(PendingMessagesLog.class);
+
+  private static final int MAGIC = 0x49544c31;
+  private static final int COMPACTION_THRESHOLD = 1000;
+  @NonNls
+  private static final String ENCODING = "UTF-8";
+
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+  private static final byte REMOVE_USER = 3;
+  private static final byte CLEAR = 4;
+
+  interface StateProvider {
+    /** Returns a copy of the queue; called under the dispatcher lock */
+    Map<User, List<Message>> copyState();
+  }
+
+  private final File mySnapshotFile;
+  private final File myLogFile;
+  private final XStream myXStream;
+  private final Object myStateLock;
+  private final StateProvider myStateProvider;
+
+  /** guarded by myStateLock */
+  private final List<byte[]> myQueue = new ArrayList<byte[]>();
+
+  private final Object myWriteLock = new Object();
+  /** guarded by myWriteLock */
+  private long myGeneration;
+  /** guarded by myWriteLock */
+  private int myRecordCount;
+  private boolean myCompactionScheduled;
+
+  PendingMessagesLog(File snapshotFile, XStream xStream, Object stateLock, StateProvider stateProvider) {
+    mySnapshotFile = snapshotFile;
+    myLogFile = new File(snapshotFile.getPath() + ".log");
+    myXStream = xStream;
+    myStateLock = stateLock;
+    myStateProvider = stateProvider;
+  }
+
+  /** Restores the queue from the snapshot and the log. */
+  Map<User, List<Message>> load() {
+    synchronized (myWriteLock) {
+      Map<User, List<Message>> state = new HashMap<User, List<Message>>();
+      Object storable = XMLUtil.fromXml(myXStream, mySnapshotFile.getAbsolutePath(), false);
+      if (storable instanceof MessagesStorable) {
+        state.putAll(((MessagesStorable)storable).getUser2Messages());
+        myGeneration = ((MessagesStorable)storable).getLogGeneration();
+      }
+      else {
+        myGeneration = 0;
+      }
+
+      myRecordCount = 0;
+      if (!replay(state)) {
+        // no log, or a stale one which is already contained in the snapshot
+        resetLog();
+      }
+      if (removePlaceholders(state)) {
+        // the indices in the log refer to the queue with the messages which could not be restored,
+        // so later operations have to be logged over a snapshot without them
+        writeSnapshot(state);
+      }
+      return state;
+    }
+  }
+
+  void logAdd(User user, Message message) {
+    enqueue(ADD, user, message, -1);
+  }
+
+  void logRemove(User user, int index) {
+    enqueue(REMOVE, user, null, index);
+  }
+
+  void logRemoveUser(User user) {
+    enqueue(REMOVE_USER, user, null, -1);
+  }
+
+  void logClear() {
+    enqueue(CLEAR, null, null, -1);
+  }
+
+  /** Writes the queued operations to disk. */
+  void flush() {
+    boolean compact;
+    synchronized (myWriteLock) {
+      List<byte[]> records;
+      synchronized (myStateLock) {
+        if (myQueue.isEmpty()) return;
+        records = new ArrayList<byte[]>(myQueue);
+        myQueue.clear();
+      }
+
+      OutputStream out = null;
+      try {
+        out = new BufferedOutputStream(new FileOutputStream(myLogFile, true));
+        for (byte[] record : records) {
+          out.write(record);
+        }
+        myRecordCount += records.size();
+      }
+      catch (IOException e) {
+        LOG.error("Unable to write " + myLogFile + ": " + e.getMessage(), e);
+      }
+      finally {
+        close(out);
+      }
+
+      compact = myRecordCount > COMPACTION_THRESHOLD && !myCompactionScheduled;
+      myCompactionScheduled |= compact;
+    }
+
+    if (compact) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          compact();
+        }
+      }, "Pending Messages Compaction");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /** Replaces the snapshot with the current state and starts the log over. */
+  void compact() {
+    synchronized (myWriteLock) {
+      myCompactionScheduled = false;
+
+      Map<User, List<Message>> state;
+      synchronized (myStateLock) {
+        // the queued operations are contained in the state
+        state = myStateProvider.copyState();
+        myQueue.clear();
+      }
+
+      writeSnapshot(state);
+    }
+  }
+
+  /** Replaces the snapshot with the given state and starts the log over; called under myWriteLock */
+  private void writeSnapshot(Map<User, List<Message>> state) {
+    long generation = myGeneration + 1;
+    File tempFile = new File(mySnapshotFile.getPath() + ".tmp");
+    XMLUtil.toXml(myXStream, tempFile.getAbsolutePath(), new MessagesStorable(state, generation));
+    mySnapshotFile.delete();
+    if (!tempFile.renameTo(mySnapshotFile)) {
+      LOG.warn("Unable to replace " + mySnapshotFile);
+      return;
+    }
+
+    // if the IDE terminates now, the log is discarded on next start as its generation is outdated
+    myGeneration = generation;
+    resetLog();
+  }
+
+  private void enqueue(byte type, @Nullable User user, @Nullable Message message, int index) {
+    byte[] record;
+    try {
+      record = createRecord(type, user, message, index);
+    }
+    catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      return;
+    }
+
+    synchronized (myStateLock) {
+      myQueue.add(record);
+    }
+  }
+
+  private byte[] createRecord(byte type, @Nullable User user, @Nullable Message message, int index) throws IOException {
+    ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    DataOutputStream payload = new DataOutputStream(payloadBytes);
+    payload.writeByte(type);
+    if (user != null) {
+      writeString(payload, myXStream.toXML(user));
+    }
+    if (type == ADD) {
+      writeString(payload, myXStream.toXML(message));
+    }
+    else if (type == REMOVE) {
+      payload.writeInt(index);
+    }
+    payload.close();
+
+    byte[] data = payloadBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(data);
+
+    ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(data.length + 12);
+    DataOutputStream record = new DataOutputStream(recordBytes);
+    record.writeInt(data.length);
+    record.writeLong(crc.getValue());
+    record.write(data);
+    record.close();
+    return recordBytes.toByteArray();
+  }
+
+  /**
+   * Applies the log to the given state.
+   *
+   * @return false if there is no log of the current generation
+   */
+  private boolean replay(Map<User, List<Message>> state) {
+    if (!myLogFile.exists()) return false;
+
+    long validLength = 0;
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(myLogFile)));
+      if (in.readInt() != MAGIC || in.readLong() != myGeneration) return false;
+      validLength = 12;
+
+      while (true) {
+        int length = in.readInt();
+        long checksum = in.readLong();
+        if (length < 1 || length > myLogFile.length()) break;
+        byte[] data = new byte[length];
+        in.readFully(data);
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if (crc.getValue() != checksum) break;
+
+        try {
+          apply(state, new DataInputStream(new ByteArrayInputStream(data)));
+        }
+        catch (RuntimeException e) {
+          LOG.info("Unable to replay pending messages operation: " + e.getMessage());
+        }
+        myRecordCount++;
+        validLength += 12 + length;
+      }
+    }
+    catch (EOFException e) {
+      // end of the log, or an incomplete record written when the IDE terminated
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to read " + myLogFile + ": " + e.getMessage(), e);
+    }
+    finally {
+      close(in);
+    }
+
+    if (validLength == 0) return false;
+    if (validLength < myLogFile.length()) {
+      truncate(validLength);
+    }
+    return true;
+  }
+
+  private void apply(Map<User, List<Message>> state, DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    if (type == CLEAR) {
+      state.clear();
+      return;
+    }
+
+    User user = (User)myXStream.fromXML(readString(in));
+    List<Message> messages = state.get(user);
+    switch (type) {
+      case ADD:
+        if (messages == null) {
+          messages = new ArrayList<Message>(5);
+          state.put(user, messages);
+        }
+        // keep a placeholder for a message which cannot be restored, so the indices of later operations stay valid
+        messages.add(readMessage(in));
+        break;
+      case REMOVE:
+        int index = in.readInt();
+        if (messages != null && index >= 0 && index < messages.size()) {
+          messages.remove(index);
+        }
+        break;
+      case REMOVE_USER:
+        state.remove(user);
+        break;
+      default:
+        throw new IOException("Unknown record type " + type);
+    }
+  }
+
+  @Nullable
+  private Message readMessage(DataInputStream in) throws IOException {
+    String xml = readString(in);
+    try {
+      return (Message)myXStream.fromXML(xml);
+    }
+    catch (RuntimeException e) {
+      LOG.info("Unable to restore pending message: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /** @return true if any placeholder was removed */
+  private static boolean removePlaceholders(Map<User, List<Message>> state) {
+    boolean removed = false;
+    for (List<Message> messages : state.values()) {
+      removed |= messages.removeAll(Collections.<Message>singleton(null));
+    }
+    return removed;
+  }
+
+  private void resetLog() {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myLogFile)));
+      out.writeInt(MAGIC);
+      out.writeLong(myGeneration);
+      myRecordCount = 0;
+    }
+    catch (IOException e) {
+      LOG.error("Unable to write " + myLogFile + ": " + e.getMessage(), e);
+    }
+    finally {
+      close(out);
+    }
+  }
+
+  private void truncate(long length) {
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(myLogFile, "rw");
+      file.setLength(length);
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to truncate " + myLogFile, e);
+    }
+    finally {
+      close(file);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(ENCODING);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, ENCODING);
+  }
+
+  private static void close(@Nullable Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      }
+      catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+}
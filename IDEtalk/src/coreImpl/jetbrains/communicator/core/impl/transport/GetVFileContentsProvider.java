@@ -15,28 +15,145 @@
  */
 package jetbrains.communicator.core.impl.transport;
 
-import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
 import jetbrains.communicator.core.users.UserModel;
+import jetbrains.communicator.core.vfs.ContentDelta;
 import jetbrains.communicator.core.vfs.VFile;
 import jetbrains.communicator.ide.IDEFacade;
+import jetbrains.communicator.util.StringUtil;
 import org.jdom.Element;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jetbrains.communicator.core.transport.GetVFileContentsXmlMessage.*;
+
 /**
+ * Returns contents of a local file. For requesters which support it, contents are returned
+ * in chunks, and not returned at all if the requester already has them; contents which differ
+ * a little from the requester's copy are returned as a delta.
+ *
  * @author Kir
  */
 public class GetVFileContentsProvider extends FileAccessProvider {
+  private static final int SERVED_CONTENTS_LIMIT = 8;
+
+  /** Recently served contents by hash, so next chunks do not require reading the file again */
+  private final Map<String, String> myServedContents = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > SERVED_CONTENTS_LIMIT;
+    }
+  };
 
   public GetVFileContentsProvider(IDEFacade ideFacade, UserModel userModel) {
     super(ideFacade, userModel);
   }
 
   public String getTagName() {
-    return GetVFileContentsXmlMessage.TAG;
+    return TAG;
   }
 
   protected void doProcess(Element request, Element response) {
     VFile from = VFile.createFrom(request);
-    myIdeFacade.fillFileContents(from);
+    if (!PROTOCOL_VERSION.equals(request.getAttributeValue(PROTOCOL_ATTR))) {
+      myIdeFacade.fillFileContents(from);
+      from.saveTo(response);
+      return;
+    }
+
+    String requestedHash = request.getAttributeValue(HASH_ATTR);
+    String contents = requestedHash == null ? null : getServedContents(requestedHash);
+    String hash = requestedHash;
+    if (contents == null) {
+      myIdeFacade.fillFileContents(from);
+      contents = from.getContents();
+      if (contents == null) {
+        from.saveTo(response);
+        return;
+      }
+      hash = ContentDelta.hash(contents);
+      putServedContents(hash, contents);
+    }
+
+    from.setContents(null);
     from.saveTo(response);
+    response.setAttribute(HASH_ATTR, hash);
+    response.setAttribute(LENGTH_ATTR, String.valueOf(contents.length()));
+
+    String offset = request.getAttributeValue(OFFSET_ATTR);
+    try {
+      if (offset != null && hash.equals(requestedHash)) {
+        addChunk(response, contents, parseInt(OFFSET_ATTR, offset, 0, contents.length()));
+      }
+      else if (hash.equals(request.getAttributeValue(KNOWN_HASH_ATTR))) {
+        response.setAttribute(UNCHANGED_ATTR, "true");
+      }
+      else if (!addDelta(request, response, contents)) {
+        addChunk(response, contents, 0);
+      }
+    }
+    catch (IllegalArgumentException e) {
+      // the request comes from a remote peer, a malformed one must neither break nor block this side
+      response.removeAttribute(HASH_ATTR);
+      response.removeAttribute(LENGTH_ATTR);
+      response.setAttribute(ERROR_ATTR, "Malformed request: " + e.getMessage());
+    }
+  }
+
+  private static boolean addDelta(Element request, Element response, String contents) {
+    Element signatures = request.getChild(SIGNATURES_ELEMENT, request.getNamespace());
+    if (signatures == null) return false;
+
+    String blockSize = signatures.getAttributeValue(BLOCK_SIZE_ATTR);
+    int size = parseInt(BLOCK_SIZE_ATTR, blockSize, ContentDelta.MIN_BLOCK_SIZE, Integer.MAX_VALUE);
+    if (size > contents.length()) {
+      // no block of the requester's copy fits into the contents
+      return false;
+    }
+    ContentDelta delta = ContentDelta.create(contents, size, signatures.getText());
+    int literalLength = delta.getLiteralLength();
+    if (literalLength > CHUNK_SIZE || literalLength > contents.length() / 2) {
+      // the copy of the requester is too different, send the contents
+      return false;
+    }
+
+    Element deltaElement = new Element(DELTA_ELEMENT, response.getNamespace());
+    deltaElement.setAttribute(BLOCK_SIZE_ATTR, blockSize);
+    delta.saveTo(deltaElement);
+    response.addContent(deltaElement);
+    return true;
+  }
+
+  private static void addChunk(Element response, String contents, int offset) {
+    int start = Math.min(offset, contents.length());
+    int end = Math.min(start + CHUNK_SIZE, contents.length());
+    if (end < contents.length() && Character.isHighSurrogate(contents.charAt(end - 1))) {
+      end--;
+    }
+
+    Element chunk = new Element(CHUNK_ELEMENT, response.getNamespace());
+    chunk.setAttribute(OFFSET_ATTR, String.valueOf(start));
+    chunk.setText(StringUtil.toXMLSafeString(contents.substring(start, end)));
+    response.addContent(chunk);
+  }
+
+  private static int parseInt(String name, String value, int min, int max) {
+    int result = Integer.parseInt(value);
+    if (result < min || result > max) {
+      throw new IllegalArgumentException(name + " " + result + " is out of range [" + min + ", " + max + "]");
+    }
+    return result;
+  }
+
+  private String getServedContents(String hash) {
+    synchronized (myServedContents) {
+      return myServedContents.get(hash);
+    }
+  }
+
+  private void putServedContents(String hash, String contents) {
+    synchronized (myServedContents) {
+      myServedContents.put(hash, contents);
+    }
   }
 }
@@ -26,18 +26,27 @@ import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.XMLUtil;
 
 import java.io.File;
+import java.util.concurrent.*;
 
 /**
+ * User model stored in {@link #FILE_NAME}. Changes are not written immediately:
+ * a burst of changes (like a roster update) is saved once, {@link #SAVE_DELAY} ms after its first change.
+ *
  * @author Kir
  */
 public class PersistentUserModelImpl extends UserModelImpl {
 
   public static final String FILE_NAME = "userModel.xml";
+  static final long SAVE_DELAY = 500;
 
   private final transient File myDataDir;
   private final transient XStream myXStream;
   private final transient IDEtalkAdapter mySaver;
-  private transient boolean mySaved;
+  private transient volatile boolean mySaved;
+
+  private final transient ScheduledExecutorService mySaveExecutor;
+  private final transient Object mySaveLock = new Object();
+  private transient ScheduledFuture<?> myPendingSave;
 
   public PersistentUserModelImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster);
@@ -46,6 +55,14 @@ public class PersistentUserModelImpl extends UserModelImpl {
     myXStream.alias("user", UserImpl.class);
     myXStream.alias("users", getClass());
 
+    mySaveExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "IDEtalk User Model Saver");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
     readAll();
 
     mySaver = new IDEtalkAdapter() {
@@ -53,12 +70,12 @@ public class PersistentUserModelImpl extends UserModelImpl {
         event.accept(new EventVisitor(){
           @Override public void visitUserAdded(UserEvent.Added event) {
             super.visitUserAdded(event);
-            saveAll();
+            scheduleSave();
           }
 
           @Override public void visitUserRemoved(UserEvent.Removed event) {
             super.visitUserRemoved(event);
-            saveAll();
+            scheduleSave();
           }
 
           @Override public void visitUserUpdated(UserEvent.Updated event) {
@@ -68,13 +85,13 @@ public class PersistentUserModelImpl extends UserModelImpl {
                 BaseUserImpl.DISPLAY_NAME.equals(event.getPropertyName()) ||
                 BaseUserImpl.GROUP.equals(event.getPropertyName())
                 ) {
-              saveAll();
+              scheduleSave();
             }
           }
 
           @Override public void visitGroupEvent(GroupEvent event) {
             super.visitGroupEvent(event);
-            saveAll();
+            scheduleSave();
           }
         });
       }
@@ -83,15 +100,50 @@ public class PersistentUserModelImpl extends UserModelImpl {
   }
 
   public void dispose() {
-    synchronized(myUsersGroupsLock) {
-      myUsers.clear();
-      myGroups.clear();
+    myBroadcaster.removeListener(mySaver);
+
+    // the users file is deleted below, so a scheduled save is dropped; a save which is already running must finish first
+    synchronized (mySaveLock) {
+      myPendingSave = null;
+    }
+    mySaveExecutor.shutdownNow();
+    try {
+      mySaveExecutor.awaitTermination(10, TimeUnit.SECONDS);
     }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    clearUsersAndGroups();
     new File(getUsersFileName()).delete();
-    myBroadcaster.removeListener(mySaver);
     super.dispose();
   }
 
+  private void scheduleSave() {
+    synchronized (mySaveLock) {
+      if (myPendingSave != null || mySaveExecutor.isShutdown()) return;
+
+      myPendingSave = mySaveExecutor.schedule(new Runnable() {
+        public void run() {
+          synchronized (mySaveLock) {
+            myPendingSave = null;
+          }
+          saveAll();
+        }
+      }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Writes scheduled changes now */
+  void savePendingChanges() {
+    synchronized (mySaveLock) {
+      if (myPendingSave == null) return;
+      myPendingSave.cancel(false);
+      myPendingSave = null;
+    }
+    saveAll();
+  }
+
   void saveAll() {
     synchronized (myUsersGroupsLock) {
       XMLUtil.toXml(myXStream, getUsersFileName(), this);
@@ -103,8 +155,7 @@ public class PersistentUserModelImpl extends UserModelImpl {
     Object persistentModel = XMLUtil.fromXml(myXStream, getUsersFileName(), false);
     if (persistentModel instanceof PersistentUserModelImpl) {
       PersistentUserModelImpl model = (PersistentUserModelImpl) persistentModel;
-      myGroups.addAll(model.myGroups);
-      myUsers.addAll(model.myUsers);
+      restoreUsersAndGroups(model.myUsers, model.myGroups);
     }
   }
 
@@ -15,11 +15,11 @@
  */
 package jetbrains.communicator.core.impl.users;
 
+import com.intellij.openapi.util.Pair;
 import jetbrains.communicator.core.*;
 import jetbrains.communicator.core.transport.TransportEvent;
 import jetbrains.communicator.core.users.*;
 import jetbrains.communicator.util.StringUtil;
-import jetbrains.communicator.util.UIUtil;
 import org.jetbrains.annotations.NotNull;
 import org.picocontainer.Disposable;
 
@@ -38,6 +38,15 @@ public class UserModelImpl implements UserModel, Disposable {
 
   protected final transient Object myUsersGroupsLock = new Object();
 
+  // Indexes over myUsers, guarded by myUsersGroupsLock
+  private final transient Map<Pair<String, String>, User> myUsersByName = new HashMap<Pair<String, String>, User>();
+  private final transient Map<User, String> myUserGroups = new HashMap<User, String>();
+  private final transient Map<String, Integer> myGroupSizes = new HashMap<String, Integer>();
+  // Sorted view is built on first request and then kept up to date user by user
+  private transient TreeMap<SortKey, User> mySortedUsers;
+  private final transient Map<User, SortKey> mySortKeys = new HashMap<User, SortKey>();
+  private transient int myModificationCount;
+
   private final transient AtomicReference<User[]> myCachedUsers = new AtomicReference<User[]>();
 
   public UserModelImpl(EventBroadcaster eventBroadcaster) {
@@ -71,8 +80,15 @@ public class UserModelImpl implements UserModel, Disposable {
     myBroadcaster.doChange(new UserEvent.Added(user), new Runnable() {
       @Override
       public void run() {
+        SortKey sortKey = new SortKey(user);
         synchronized (myUsersGroupsLock) {
-          myUsers.add(user);
+          if (myUsers.add(user)) {
+            index(user);
+            if (mySortedUsers != null) {
+              mySortedUsers.put(sortKey, user);
+              mySortKeys.put(user, sortKey);
+            }
+          }
           myGroups.add(user.getGroup());
         }
       }
@@ -91,7 +107,9 @@ public class UserModelImpl implements UserModel, Disposable {
       @Override
       public void run() {
         synchronized (myUsersGroupsLock) {
-          myUsers.remove(user);
+          if (myUsers.remove(user)) {
+            unindex(user);
+          }
         }
       }
     });
@@ -102,14 +120,7 @@ public class UserModelImpl implements UserModel, Disposable {
     Set<String> result = new TreeSet<String>();
     synchronized (myUsersGroupsLock) {
       result.addAll(myGroups);
-    }
-
-    String lastGroup = null;
-    for (User user : getAllUsers()) {
-      if (!user.getGroup().equals(lastGroup)) {
-        lastGroup = user.getGroup();
-        result.add(lastGroup);
-      }
+      result.addAll(myGroupSizes.keySet());
     }
     return result.toArray(new String[result.size()]);
   }
@@ -117,34 +128,46 @@ public class UserModelImpl implements UserModel, Disposable {
   @Override
   public User[] getUsers(String groupName) {
     List<User> result = new ArrayList<User>();
-    for (User user : getAllUsers()) {
-      if (user.getGroup().equals(groupName)) {
-        result.add(user);
+    while (true) {
+      buildSortedView();
+      synchronized (myUsersGroupsLock) {
+        if (mySortedUsers == null) continue;
+
+        for (Map.Entry<SortKey, User> entry : mySortedUsers.tailMap(SortKey.first(groupName)).entrySet()) {
+          if (!entry.getKey().myGroup.equals(groupName)) break;
+          result.add(entry.getValue());
+        }
+        return result.toArray(new User[result.size()]);
       }
     }
-    return result.toArray(new User[result.size()]);
   }
 
   @NotNull
   @Override
   public User[] getAllUsers() {
-    User[] usersList = myCachedUsers.get();
-    if (usersList != null) {
-      return usersList;
-    }
+    while (true) {
+      User[] usersList = myCachedUsers.get();
+      if (usersList != null) {
+        return usersList;
+      }
 
-    usersList = getUsersList();
-    Arrays.sort(usersList, new Comparator<User>() {
-      @Override
-      public int compare(User u1, User u2) {
-        if (u1.getGroup().equals(u2.getGroup())) {
-          return UIUtil.compareUsers(u1, u2);
-        }
-        return u1.getGroup().compareTo(u2.getGroup());
+      buildSortedView();
+      int modificationCount;
+      synchronized (myUsersGroupsLock) {
+        if (mySortedUsers == null) continue;
+        usersList = mySortedUsers.values().toArray(new User[mySortedUsers.size()]);
+        modificationCount = myModificationCount;
       }
-    });
 
-    return myCachedUsers.compareAndSet(null, usersList) ? usersList : getAllUsers();
+      if (myCachedUsers.compareAndSet(null, usersList)) {
+        synchronized (myUsersGroupsLock) {
+          if (modificationCount != myModificationCount) {
+            myCachedUsers.compareAndSet(usersList, null);
+          }
+        }
+        return usersList;
+      }
+    }
   }
 
   @Override
@@ -156,12 +179,10 @@ public class UserModelImpl implements UserModel, Disposable {
 
   @Override
   public String getGroup(User user) {
-    for (User user1 : getUsersList()) {
-      if (user1.equals(user)) {
-        return user1.getGroup();
-      }
+    synchronized (myUsersGroupsLock) {
+      User inModel = myUsersByName.get(key(user));
+      return inModel != null ? inModel.getGroup() : null;
     }
-    return null;
   }
 
   @Override
@@ -215,12 +236,9 @@ public class UserModelImpl implements UserModel, Disposable {
 
   @Override
   public User findUser(String userName, String transportCode) {
-    for (User user : getUsersList()) {
-      if (user.getName().equals(userName) && user.getTransportCode().equals(transportCode)) {
-        return user;
-      }
+    synchronized (myUsersGroupsLock) {
+      return myUsersByName.get(Pair.create(userName, transportCode));
     }
-    return null;
   }
 
   @Override
@@ -267,8 +285,10 @@ public class UserModelImpl implements UserModel, Disposable {
           myGroups.remove(oldGroup);
           for (final User user : users) {
             user.setGroup(newName, null);
+            updateGroupIndex(user);
           }
           myGroups.add(newName);
+          resetSortedView();
         }
       }
     });
@@ -276,9 +296,174 @@ public class UserModelImpl implements UserModel, Disposable {
     return newName;
   }
 
-  private User[] getUsersList() {
+  /** Used when the model is read from disk */
+  protected void restoreUsersAndGroups(Collection<User> users, Collection<String> groups) {
+    synchronized (myUsersGroupsLock) {
+      myGroups.addAll(groups);
+      for (User user : users) {
+        if (myUsers.add(user)) {
+          index(user);
+        }
+      }
+      resetSortedView();
+    }
+    myCachedUsers.set(null);
+  }
+
+  protected void clearUsersAndGroups() {
     synchronized (myUsersGroupsLock) {
-      return myUsers.toArray(new User[myUsers.size()]);
+      myUsers.clear();
+      myGroups.clear();
+      myUsersByName.clear();
+      myUserGroups.clear();
+      myGroupSizes.clear();
+      resetSortedView();
+    }
+    myCachedUsers.set(null);
+  }
+
+  private static Pair<String, String> key(User user) {
+    return Pair.create(user.getName(), user.getTransportCode());
+  }
+
+  private void index(User user) {
+    myUsersByName.put(key(user), user);
+    myUserGroups.put(user, user.getGroup());
+    changeGroupSize(user.getGroup(), 1);
+    myModificationCount ++;
+  }
+
+  private void unindex(User user) {
+    myUsersByName.remove(key(user));
+    String group = myUserGroups.remove(user);
+    if (group != null) {
+      changeGroupSize(group, -1);
+    }
+    SortKey sortKey = mySortKeys.remove(user);
+    if (sortKey != null) {
+      mySortedUsers.remove(sortKey);
+    }
+    myModificationCount ++;
+  }
+
+  private void updateGroupIndex(User user) {
+    String oldGroup = myUserGroups.get(user);
+    if (oldGroup != null && !oldGroup.equals(user.getGroup())) {
+      changeGroupSize(oldGroup, -1);
+      changeGroupSize(user.getGroup(), 1);
+      myUserGroups.put(user, user.getGroup());
+    }
+    myModificationCount ++;
+  }
+
+  private void changeGroupSize(String group, int delta) {
+    Integer size = myGroupSizes.get(group);
+    int newSize = (size == null ? 0 : size) + delta;
+    if (newSize > 0) {
+      myGroupSizes.put(group, newSize);
+    }
+    else {
+      myGroupSizes.remove(group);
+    }
+  }
+
+  private void resetSortedView() {
+    mySortedUsers = null;
+    mySortKeys.clear();
+    myModificationCount ++;
+  }
+
+  private void buildSortedView() {
+    while (true) {
+      User[] users;
+      int modificationCount;
+      synchronized (myUsersGroupsLock) {
+        if (mySortedUsers != null) return;
+        users = myUsers.toArray(new User[myUsers.size()]);
+        modificationCount = myModificationCount;
+      }
+
+      // User state is read outside of the lock - it may call transports
+      TreeMap<SortKey, User> sortedUsers = new TreeMap<SortKey, User>();
+      Map<User, SortKey> sortKeys = new HashMap<User, SortKey>();
+      for (User user : users) {
+        SortKey sortKey = new SortKey(user);
+        sortedUsers.put(sortKey, user);
+        sortKeys.put(user, sortKey);
+      }
+
+      synchronized (myUsersGroupsLock) {
+        if (modificationCount == myModificationCount) {
+          mySortedUsers = sortedUsers;
+          mySortKeys.putAll(sortKeys);
+          return;
+        }
+      }
+    }
+  }
+
+  /** Moves the changed user to its new place in indexes, without touching other users */
+  private void updateIndex(User user) {
+    User inModel;
+    boolean hasSortedView;
+    synchronized (myUsersGroupsLock) {
+      inModel = myUsersByName.get(key(user));
+      if (inModel == null) return;
+      hasSortedView = mySortedUsers != null;
+    }
+
+    SortKey newKey = hasSortedView ? new SortKey(inModel) : null;
+    synchronized (myUsersGroupsLock) {
+      if (!myUserGroups.containsKey(inModel)) return;
+
+      updateGroupIndex(inModel);
+      if (newKey != null && mySortedUsers != null) {
+        SortKey oldKey = mySortKeys.put(inModel, newKey);
+        if (oldKey != null) {
+          mySortedUsers.remove(oldKey);
+        }
+        mySortedUsers.put(newKey, inModel);
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the user properties which define the users order: by group,
+   * then as in {@link jetbrains.communicator.util.UIUtil#compareUsers}
+   */
+  private static final class SortKey implements Comparable<SortKey> {
+    private final String myGroup;
+    private final boolean myOnline;
+    private final String myDisplayName;
+    private final String myName;
+    private final String myTransportCode;
+
+    SortKey(User user) {
+      this(user.getGroup(), user.isOnline(), user.getDisplayName(), user.getName(), user.getTransportCode());
+    }
+
+    private SortKey(String group, boolean online, String displayName, String name, String transportCode) {
+      myGroup = group;
+      myOnline = online;
+      myDisplayName = displayName;
+      myName = name;
+      myTransportCode = transportCode;
+    }
+
+    static SortKey first(String group) {
+      return new SortKey(group, true, "", "", "");
+    }
+
+    @Override
+    public int compareTo(SortKey o) {
+      int result = myGroup.compareTo(o.myGroup);
+      if (result != 0) return result;
+      if (myOnline != o.myOnline) return myOnline ? -1 : 1;
+      result = myDisplayName.compareTo(o.myDisplayName);
+      if (result != 0) return result;
+      result = myName.compareTo(o.myName);
+      if (result != 0) return result;
+      return myTransportCode.compareTo(o.myTransportCode);
     }
   }
 
@@ -294,6 +479,13 @@ public class UserModelImpl implements UserModel, Disposable {
         @Override
         public void visitUserEvent(UserEvent event) {
           super.visitUserEvent(event);
+          updateIndex(event.getUser());
+          myCachedUsers.set(null);
+        }
+
+        @Override
+        public void visitGroupEvent(GroupEvent event) {
+          super.visitGroupEvent(event);
           myCachedUsers.set(null);
         }
       });
@@ -31,6 +31,8 @@ import javax.swing.*;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreePath;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Kir Maximov
@@ -44,6 +46,9 @@ public class UsersTreeModel extends DefaultTreeModel implements Disposable {
   private final IDEtalkAdapter myListener;
   private final LocalMessageDispatcher myLocalMessageDispatcher;
 
+  private final List<GroupEvent.Updated> myPendingGroupRenames = new ArrayList<GroupEvent.Updated>();
+  private boolean myUpdateScheduled;
+
   public UsersTreeModel(JTree tree, UserModel userModel, LocalMessageDispatcher localMessageDispatcher) {
     super(new RootNode(userModel, localMessageDispatcher));
     myUserModel = userModel;
@@ -87,13 +92,30 @@ public class UsersTreeModel extends DefaultTreeModel implements Disposable {
     myBroadcaster.addListener(myListener);
   }
 
+  /**
+   * Rebuilds the tree in the event dispatch thread. A burst of events, like a roster
+   * batch from the server, results in a single rebuild.
+   */
   void updateTree(final GroupEvent updated) {
+    synchronized (myPendingGroupRenames) {
+      if (updated instanceof GroupEvent.Updated) {
+        myPendingGroupRenames.add((GroupEvent.Updated) updated);
+      }
+      if (myUpdateScheduled) return;
+      myUpdateScheduled = true;
+    }
 
     UIUtil.invokeLater(new Runnable() {
       public void run() {
+        List<GroupEvent.Updated> renames;
+        synchronized (myPendingGroupRenames) {
+          myUpdateScheduled = false;
+          renames = new ArrayList<GroupEvent.Updated>(myPendingGroupRenames);
+          myPendingGroupRenames.clear();
+        }
+
         TreeState state = new TreeState(myTree);
-        if (updated instanceof GroupEvent.Updated) {
-          GroupEvent.Updated evt = ((GroupEvent.Updated) updated);
+        for (GroupEvent.Updated evt : renames) {
           state.addReplacement(evt.getOldGroup(), evt.getNewGroup());
         }
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Single daemon thread for short timed tasks of Jabber transports: response timeouts,
+ * batched roster updates. Tasks should not block.
+ */
+final class JabberScheduler {
+  private static final ScheduledExecutorService ourScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      @SuppressWarnings({"HardCodedStringLiteral"})
+      Thread thread = new Thread(r, "IDEtalk Jabber Scheduler");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  private JabberScheduler() {
+  }
+
+  static ScheduledExecutorService getInstance() {
+    return ourScheduler;
+  }
+}
@@ -36,7 +36,6 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 import org.jivesoftware.smack.*;
 import org.jivesoftware.smack.filter.PacketTypeFilter;
-import org.jivesoftware.smack.filter.ThreadFilter;
 import org.jivesoftware.smack.packet.Message;
 import org.jivesoftware.smack.packet.Packet;
 import org.jivesoftware.smack.packet.PacketExtension;
@@ -60,6 +59,8 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private static final Logger LOG = Logger.getLogger(JabberTransport.class);
 
   private static final int RESPONSE_TIMEOUT = 120*1000;
+  /** Roster and presence changes arriving within this time are processed together */
+  private static final int ROSTER_BATCH_WINDOW = 200;
   @NonNls public static final String CODE = "Jabber";
 
   private final JabberUI myUI;
@@ -82,6 +83,8 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private final Map<User, UserPresence> myUser2Presence = new HashMap<User, UserPresence>();
   private final Set<String> myIDEtalkUsers = new HashSet<String>();
   private final Map<String, String> myUser2Thread = Collections.synchronizedMap(new HashMap<String, String>());
+  private final PendingResponses myPendingResponses;
+  private final RosterUpdates myRosterUpdates;
 
   @NonNls
   private static final String RESPONSE = "response";
@@ -105,6 +108,13 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     myUserFinder = userFinder;
     myIdeFacade = messageDispatcher.getIdeFacade();
     myIgnoreList = new IgnoreList(myIdeFacade);
+    myPendingResponses = new PendingResponses(myIdeFacade, RESPONSE_TIMEOUT, myThreadIdPrefix);
+    myRosterUpdates = new RosterUpdates(myIdeFacade, ROSTER_BATCH_WINDOW, new RosterUpdates.Processor() {
+      @Override
+      public void process(Collection<String> entries, Collection<String> jabberIds) {
+        processRosterChanges(entries, jabberIds);
+      }
+    });
 
     myFacade.addConnectionListener(this);
     getBroadcaster().addListener(myUserModelListener);
@@ -205,36 +215,28 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   }
 
   @Override
-  public synchronized void sendXmlMessage(User user, final XmlMessage xmlMessage) {
+  public void sendXmlMessage(User user, final XmlMessage xmlMessage) {
     if (!myUI.connectAndLogin(null)) {
       return;
     }
 
-    final String threadId = getThreadId(user);
-    final PacketCollector packetCollector = myFacade.getConnection().createPacketCollector(new ThreadFilter(threadId));
-    doSendMessage(xmlMessage, user, threadId);
-
     if (xmlMessage.needsResponse()) {
-      //noinspection HardCodedStringLiteral
-      final Runnable responseWaiterRunnable = new Runnable() {
-        @Override
-        public void run() {
-          try {
-            processResponse(xmlMessage, packetCollector);
-          }
-          finally {
-            packetCollector.cancel();
-          }
-        }
-      };
-      myIdeFacade.runOnPooledThread(responseWaiterRunnable);
+      // Each request has its own thread, the response is matched by MyMessageListener
+      String threadId = myPendingResponses.register(xmlMessage);
+      try {
+        doSendMessage(xmlMessage, user, threadId);
+      }
+      catch (RuntimeException e) {
+        myPendingResponses.cancel(threadId);
+        throw e;
+      }
     }
     else {
-      packetCollector.cancel();
+      doSendMessage(xmlMessage, user, getThreadId(user));
     }
   }
 
-  String getThreadId(User user) {
+  synchronized String getThreadId(User user) {
     String id = myUser2Thread.get(user.getName());
     if (id == null) {
       id = myThreadIdPrefix + myCurrentThreadId ++;
@@ -268,28 +270,6 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     return myPresenceMode == null || myPresenceMode != presenceMode;
   }
 
-  private static void processResponse(XmlMessage xmlMessage, PacketCollector collector) {
-    boolean gotResponse = false;
-
-    while (!gotResponse) {
-
-      Message response = (Message) collector.nextResult(RESPONSE_TIMEOUT);
-      if (response == null) break;
-
-      final Collection<PacketExtension> extensions = response.getExtensions();
-      for (PacketExtension o : extensions) {
-        if (o instanceof JDOMExtension) {
-          JDOMExtension extension = (JDOMExtension) o;
-          if (RESPONSE.equals(extension.getElement().getName())) {
-            xmlMessage.processResponse(extension.getElement());
-            gotResponse = true;
-            break;
-          }
-        }
-      }
-    }
-  }
-
   private Message doSendMessage(XmlMessage xmlMessage, User user, String threadId) {
     Element element = new Element(xmlMessage.getTagName(), xmlMessage.getTagNamespace());
     xmlMessage.fillRequest(element);
@@ -359,9 +339,11 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
     }
     myRosterListener = null;
 
+    myRosterUpdates.clear();
     myIDEtalkUsers.clear();
     myUser2Presence.clear();
     myUser2Thread.clear();
+    myPendingResponses.clear();
 
     if (onError && reconnectEnabledAndNotStarted()) {
       LOG.warn(getMsg("jabber.server.was.disconnected", myReconnectTimeout / 1000));
@@ -377,6 +359,23 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   public void dispose() {
     getBroadcaster().removeListener(myUserModelListener);
     myFacade.removeConnectionListener(this);
+    myPendingResponses.dispose();
+    myRosterUpdates.clear();
+  }
+
+  private void processRosterChanges(Collection<String> entries, Collection<String> jabberIds) {
+    if (!isOnline()) return;
+
+    Roster roster = getRoster();
+    for (String address : entries) {
+      RosterEntry rosterEntry = roster.getEntry(address);
+      if (rosterEntry != null) {
+        addJabberUserToUserModelOrUpdateInfo(rosterEntry);
+      }
+    }
+    for (String jabberId : jabberIds) {
+      updateUserPresence(jabberId);
+    }
   }
 
   private void updateUserPresence(String jabberId) {
@@ -545,22 +544,22 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
   private class MyRosterListener implements RosterListener {
     @Override
     public void entriesAdded(Collection addresses) {
-      updateJabberUsers(false);
+      myRosterUpdates.entriesChanged(addresses);
     }
 
     @Override
     public void entriesUpdated(Collection addresses) {
-      updateJabberUsers(false);
+      myRosterUpdates.entriesChanged(addresses);
     }
 
     @Override
     public void entriesDeleted(Collection addresses) {
-      updateJabberUsers(false);
+      // Contacts removed from the roster stay in the user model until explicit synchronization
     }
 
     @Override
     public void presenceChanged(final String string) {
-      updateUserPresence(string);
+      myRosterUpdates.presenceChanged(string);
     }
   }
 
@@ -678,10 +677,6 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
         return;
       }
 
-      if (myIgnoreList.isIgnored(packet.getFrom())) {
-        return;
-      }
-
       Element element = null;
       for (PacketExtension o : message.getExtensions()) {
         if (o instanceof JDOMExtension) {
@@ -689,7 +684,16 @@ public class JabberTransport implements Transport, ConnectionListener, Disposabl
         }
       }
 
-      if (element != null && !RESPONSE.equals(element.getName())) {
+      if (element != null && RESPONSE.equals(element.getName())) {
+        myPendingResponses.responseReceived(message.getThread(), element);
+        return;
+      }
+
+      if (myIgnoreList.isIgnored(packet.getFrom())) {
+        return;
+      }
+
+      if (element != null) {
         processAndSendResponse(element, message);
       }
       else if (element == null && message.getBody() != null) {
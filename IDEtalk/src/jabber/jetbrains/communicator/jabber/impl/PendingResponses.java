@@ -0,0 +1,127 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.core.transport.XmlMessage;
+import jetbrains.communicator.ide.IDEFacade;
+import org.apache.log4j.Logger;
+import org.jdom.Element;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requests sent via Jabber which wait for a response. Every request gets its own
+ * thread id, the response carries the same thread id back and is matched with the request
+ * here. Requests without response are dropped after a timeout by a sweeper running
+ * on {@link JabberScheduler}, so no thread waits for a response.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class PendingResponses {
+  private static final Logger LOG = Logger.getLogger(PendingResponses.class);
+
+  private final IDEFacade myIdeFacade;
+  private final long myTimeout;
+  private final String myThreadIdPrefix;
+  private final AtomicLong myRequestCounter = new AtomicLong();
+  private final ConcurrentMap<String, Request> myRequests = new ConcurrentHashMap<String, Request>();
+  private final ScheduledFuture<?> mySweeper;
+
+  PendingResponses(IDEFacade ideFacade, long timeout, String threadIdPrefix) {
+    myIdeFacade = ideFacade;
+    myTimeout = timeout;
+    myThreadIdPrefix = threadIdPrefix;
+
+    long sweepInterval = Math.max(10, timeout / 20);
+    mySweeper = JabberScheduler.getInstance().scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        expireRequests();
+      }
+    }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /** @return thread id to be sent with the request */
+  String register(XmlMessage message) {
+    String threadId = myThreadIdPrefix + "-r" + myRequestCounter.incrementAndGet();
+    myRequests.put(threadId, new Request(message, System.currentTimeMillis() + myTimeout));
+    return threadId;
+  }
+
+  void cancel(String threadId) {
+    myRequests.remove(threadId);
+  }
+
+  /** @return true if response matched a pending request */
+  boolean responseReceived(String threadId, final Element response) {
+    if (threadId == null) return false;
+
+    final Request request = myRequests.remove(threadId);
+    if (request == null) {
+      LOG.debug("Unexpected or late response, thread " + threadId);
+      return false;
+    }
+
+    myIdeFacade.runOnPooledThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          request.myMessage.processResponse(response);
+        }
+        catch (Throwable e) {
+          LOG.error(e.getMessage(), e);
+        }
+      }
+    });
+    return true;
+  }
+
+  int size() {
+    return myRequests.size();
+  }
+
+  void clear() {
+    myRequests.clear();
+  }
+
+  void dispose() {
+    mySweeper.cancel(false);
+    clear();
+  }
+
+  private void expireRequests() {
+    long now = System.currentTimeMillis();
+    for (Iterator<Map.Entry<String, Request>> it = myRequests.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<String, Request> entry = it.next();
+      if (entry.getValue().myDeadline < now) {
+        LOG.info("No response for " + entry.getValue().myMessage.getTagName() + ", thread " + entry.getKey());
+        it.remove();
+      }
+    }
+  }
+
+  private static class Request {
+    private final XmlMessage myMessage;
+    private final long myDeadline;
+
+    Request(XmlMessage message, long deadline) {
+      myMessage = message;
+      myDeadline = deadline;
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.ide.IDEFacade;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects roster changes and presence changes coming from the Jabber server and hands them
+ * over in batches. The first change starts a short window, changes arriving within the window
+ * are merged: a contact is reported once per batch however many times it changed, and for
+ * presence only the last Jabber id of the contact is kept. This way a presence storm after
+ * login or a big roster push results in one pass over the changed contacts instead of
+ * a full roster walk per packet.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class RosterUpdates {
+  private static final Logger LOG = Logger.getLogger(RosterUpdates.class);
+
+  private final IDEFacade myIdeFacade;
+  private final Processor myProcessor;
+  private final long myWindow;
+
+  private final Object myLock = new Object();
+  private final Object myFlushLock = new Object();
+  private Set<String> myEntries = new LinkedHashSet<String>();
+  private Map<String, String> myPresences = new LinkedHashMap<String, String>();
+  private ScheduledFuture<?> myScheduledFlush;
+
+  RosterUpdates(IDEFacade ideFacade, long window, Processor processor) {
+    myIdeFacade = ideFacade;
+    myWindow = window;
+    myProcessor = processor;
+  }
+
+  void entriesChanged(Collection<?> addresses) {
+    synchronized (myLock) {
+      for (Object address : addresses) {
+        myEntries.add(JabberTransport.getSimpleId(address.toString()));
+      }
+      scheduleFlush();
+    }
+  }
+
+  void presenceChanged(String jabberId) {
+    synchronized (myLock) {
+      myPresences.put(JabberTransport.getSimpleId(jabberId), jabberId);
+      scheduleFlush();
+    }
+  }
+
+  /** Drops not yet processed changes */
+  void clear() {
+    synchronized (myLock) {
+      myEntries.clear();
+      myPresences.clear();
+      if (myScheduledFlush != null) {
+        myScheduledFlush.cancel(false);
+        myScheduledFlush = null;
+      }
+    }
+  }
+
+  boolean hasPendingChanges() {
+    synchronized (myLock) {
+      return !myEntries.isEmpty() || !myPresences.isEmpty();
+    }
+  }
+
+  /** Processes collected changes in the calling thread */
+  void flush() {
+    synchronized (myFlushLock) {
+      Set<String> entries;
+      Collection<String> presences;
+      synchronized (myLock) {
+        myScheduledFlush = null;
+        if (myEntries.isEmpty() && myPresences.isEmpty()) return;
+
+        entries = myEntries;
+        presences = myPresences.values();
+        myEntries = new LinkedHashSet<String>();
+        myPresences = new LinkedHashMap<String, String>();
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Roster batch: " + entries.size() + " entries, " + presences.size() + " presences");
+      }
+      // Roster entries go first, so that contacts just added get their presence in the same batch
+      myProcessor.process(entries, presences);
+    }
+  }
+
+  private void scheduleFlush() {
+    if (myScheduledFlush != null) return;
+
+    myScheduledFlush = JabberScheduler.getInstance().schedule(new Runnable() {
+      @Override
+      public void run() {
+        myIdeFacade.runOnPooledThread(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        });
+      }
+    }, myWindow, TimeUnit.MILLISECONDS);
+  }
+
+  interface Processor {
+    /**
+     * @param entries   bare Jabber ids of added or updated roster entries
+     * @param jabberIds full Jabber ids of contacts whose presence changed, one per contact
+     */
+    void process(Collection<String> entries, Collection<String> jabberIds);
+  }
+}
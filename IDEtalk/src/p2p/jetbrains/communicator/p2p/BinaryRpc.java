@@ -0,0 +1,266 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact binary framing of P2P calls, an alternative to XML-RPC over HTTP.
+ * <p/>
+ * A peer which supports it listens on the port next to its XML-RPC port. A connection starts with
+ * a handshake, both sides send {@link #MAGIC} and the protocol version. Then the client sends
+ * request frames and the server answers with response frames, matched by the request id, so several
+ * requests can be in flight on one connection. A frame is its length followed by the body:
+ * <pre>
+ * request:  int id, string method, int parameter count, parameters
+ * response: int id, byte status, result value (OK) or error string (ERROR)
+ * </pre>
+ * Values are typed like XML-RPC values: strings, integers, booleans, doubles, dates, byte arrays,
+ * vectors and hashtables. Lengths and sizes read from the wire are checked against the rest of the frame.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+final class BinaryRpc {
+  static final int MAGIC = 0x49445450;
+  static final byte VERSION = 1;
+  static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+  static final byte OK = 0;
+  static final byte ERROR = 1;
+
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  private static final byte INTEGER = 2;
+  private static final byte BOOLEAN = 3;
+  private static final byte DOUBLE = 4;
+  private static final byte DATE = 5;
+  private static final byte BYTES = 6;
+  private static final byte VECTOR = 7;
+  private static final byte HASHTABLE = 8;
+
+  private static final String ENCODING = "UTF-8";
+  /** Collections are not pre-sized beyond this, whatever size the other side claims */
+  private static final int MAX_INITIAL_CAPACITY = 64;
+
+  private BinaryRpc() {
+  }
+
+  /** Binary calls can be switched off with -Didetalk.p2p.binary=false, then only XML-RPC is used */
+  static boolean isEnabled() {
+    return !"false".equals(System.getProperty("idetalk.p2p.binary"));
+  }
+
+  static int getBinaryPort(int xmlRpcPort) {
+    return xmlRpcPort + 1;
+  }
+
+  static void writeHandshake(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    out.flush();
+  }
+
+  /** @return the protocol version of the other side */
+  static byte readHandshake(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new NotSupportedException("Unexpected handshake");
+    }
+    return in.readByte();
+  }
+
+  static byte[] createRequest(int id, String method, List<?> parameters) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0); // frame length placeholder
+    out.writeInt(id);
+    writeString(out, method);
+    out.writeInt(parameters.size());
+    for (Object parameter : parameters) {
+      writeValue(out, parameter);
+    }
+    out.close();
+    return toFrame(bytes.toByteArray());
+  }
+
+  static byte[] createResponse(int id, byte status, Object value) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0); // frame length placeholder
+    out.writeInt(id);
+    out.writeByte(status);
+    if (status == OK) {
+      writeValue(out, value);
+    }
+    else {
+      writeString(out, String.valueOf(value));
+    }
+    out.close();
+    return toFrame(bytes.toByteArray());
+  }
+
+  private static byte[] toFrame(byte[] frame) {
+    int length = frame.length - 4;
+    frame[0] = (byte)(length >>> 24);
+    frame[1] = (byte)(length >>> 16);
+    frame[2] = (byte)(length >>> 8);
+    frame[3] = (byte)length;
+    return frame;
+  }
+
+  /** Reads the body of a frame whose first length byte is already read */
+  static DataInputStream readFrame(int firstByte, DataInputStream in) throws IOException {
+    int length = (firstByte << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+    if (length < 4 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Bad frame length " + length);
+    }
+    byte[] body = new byte[length];
+    in.readFully(body);
+    return new DataInputStream(new ByteArrayInputStream(body));
+  }
+
+  static void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NULL);
+    }
+    else if (value instanceof String) {
+      out.writeByte(STRING);
+      writeString(out, (String)value);
+    }
+    else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer)value);
+    }
+    else if (value instanceof Boolean) {
+      out.writeByte(BOOLEAN);
+      out.writeBoolean((Boolean)value);
+    }
+    else if (value instanceof Double) {
+      out.writeByte(DOUBLE);
+      out.writeDouble((Double)value);
+    }
+    else if (value instanceof Date) {
+      out.writeByte(DATE);
+      out.writeLong(((Date)value).getTime());
+    }
+    else if (value instanceof byte[]) {
+      out.writeByte(BYTES);
+      out.writeInt(((byte[])value).length);
+      out.write((byte[])value);
+    }
+    else if (value instanceof List) {
+      out.writeByte(VECTOR);
+      out.writeInt(((List)value).size());
+      for (Object o : (List)value) {
+        writeValue(out, o);
+      }
+    }
+    else if (value instanceof Map) {
+      out.writeByte(HASHTABLE);
+      out.writeInt(((Map)value).size());
+      for (Object o : ((Map)value).entrySet()) {
+        Map.Entry entry = (Map.Entry)o;
+        writeValue(out, entry.getKey());
+        writeValue(out, entry.getValue());
+      }
+    }
+    else {
+      throw new IOException("Unsupported value type " + value.getClass().getName());
+    }
+  }
+
+  static Object readValue(DataInputStream in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case NULL:
+        return null;
+      case STRING:
+        return readString(in);
+      case INTEGER:
+        return in.readInt();
+      case BOOLEAN:
+        return in.readBoolean();
+      case DOUBLE:
+        return in.readDouble();
+      case DATE:
+        return new Date(in.readLong());
+      case BYTES:
+        byte[] bytes = new byte[readLength(in, 1)];
+        in.readFully(bytes);
+        return bytes;
+      case VECTOR:
+        // every element takes at least one byte
+        int size = readLength(in, 1);
+        Vector<Object> vector = new Vector<Object>(Math.min(size, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+          vector.add(readValue(in));
+        }
+        return vector;
+      case HASHTABLE:
+        // every entry takes at least two bytes
+        int count = readLength(in, 2);
+        Hashtable<Object, Object> hashtable = new Hashtable<Object, Object>(Math.min(count, MAX_INITIAL_CAPACITY));
+        for (int i = 0; i < count; i++) {
+          Object key = readValue(in);
+          Object value = readValue(in);
+          if (key == null || value == null) {
+            throw new IOException("Null key or value in hashtable");
+          }
+          hashtable.put(key, value);
+        }
+        return hashtable;
+      default:
+        throw new IOException("Unknown value type " + type);
+    }
+  }
+
+  static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(ENCODING);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[readLength(in, 1)];
+    in.readFully(bytes);
+    return new String(bytes, ENCODING);
+  }
+
+  /**
+   * Reads a length and checks that the rest of the frame can hold that many items.
+   * The frame is already read into memory, so {@code available()} is the number of remaining bytes.
+   */
+  private static int readLength(DataInputStream in, int minItemSize) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > MAX_FRAME_LENGTH || (long)length * minItemSize > in.available()) {
+      throw new IOException("Bad length " + length);
+    }
+    return length;
+  }
+
+  /** The peer does not accept binary connections, XML-RPC should be used */
+  static class NotSupportedException extends IOException {
+    NotSupportedException(String message) {
+      super(message);
+    }
+  }
+
+  /** The call reached the peer, but failed there */
+  static class RemoteException extends IOException {
+    RemoteException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.util.XmlRpcTarget;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * Sends {@link BinaryRpc} calls over pooled keep-alive connections.
+ * <p/>
+ * Up to {@link #MAX_CONNECTIONS_PER_PEER} connections are kept per peer; a call uses the least loaded one,
+ * so concurrent calls to a peer are pipelined instead of waiting for each other. Connections idle
+ * for {@link #KEEP_ALIVE_TIMEOUT} are closed. If a peer cannot be connected on the binary port, the call fails
+ * with {@link BinaryRpc.NotSupportedException}, so the caller can fall back to XML-RPC for that call. Peers which
+ * answer with a different protocol are remembered for {@link #NOT_SUPPORTED_TIMEOUT}, calls to them fail
+ * with {@link BinaryRpc.NotSupportedException} immediately.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class BinaryRpcClient {
+  private static final Logger LOG = Logger.getLogger(BinaryRpcClient.class);
+
+  static final int MAX_CONNECTIONS_PER_PEER = 2;
+  static final int CONNECT_TIMEOUT = 5 * 1000;
+  static final int RESPONSE_TIMEOUT = 60 * 1000;
+  static final int KEEP_ALIVE_TIMEOUT = 60 * 1000;
+  static final long NOT_SUPPORTED_TIMEOUT = 5 * 60 * 1000;
+
+  private final Object myLock = new Object();
+  /** guarded by myLock */
+  private final Map<String, Peer> myPeers = new HashMap<String, Peer>();
+
+  /**
+   * @param target the XML-RPC address of the peer, the binary port is derived from it
+   * @throws BinaryRpc.NotSupportedException if the peer does not accept binary calls
+   */
+  @Nullable
+  Object execute(XmlRpcTarget target, String method, List<?> parameters) throws IOException {
+    InetAddress address = target.getAddress();
+    int port = BinaryRpc.getBinaryPort(target.getPort());
+    String key = address.getHostAddress() + ':' + port;
+
+    Connection connection = getConnection(key);
+    if (connection != null) {
+      try {
+        return connection.call(method, parameters);
+      }
+      catch (ConnectionClosedException e) {
+        // the connection was closed while idle, retry with a new one
+      }
+    }
+
+    return openConnection(key, address, port).call(method, parameters);
+  }
+
+  /** Closes all connections */
+  void shutdown() {
+    List<Connection> connections = new ArrayList<Connection>();
+    synchronized (myLock) {
+      for (Peer peer : myPeers.values()) {
+        connections.addAll(peer.myConnections);
+      }
+      myPeers.clear();
+    }
+    for (Connection connection : connections) {
+      connection.close(new ConnectionClosedException());
+    }
+  }
+
+  int getConnectionCount() {
+    synchronized (myLock) {
+      int result = 0;
+      for (Peer peer : myPeers.values()) {
+        result += peer.myConnections.size();
+      }
+      return result;
+    }
+  }
+
+  /** @return an existing connection to use, or null if a new connection should be opened */
+  @Nullable
+  private Connection getConnection(String key) throws BinaryRpc.NotSupportedException {
+    synchronized (myLock) {
+      Peer peer = myPeers.get(key);
+      if (peer == null) return null;
+
+      if (peer.myNotSupportedUntil > System.currentTimeMillis()) {
+        throw new BinaryRpc.NotSupportedException("Binary calls are not supported by " + key);
+      }
+
+      Connection best = null;
+      for (Connection connection : peer.myConnections) {
+        if (best == null || connection.getCallCount() < best.getCallCount()) {
+          best = connection;
+        }
+      }
+      if (best != null && (best.getCallCount() == 0 || peer.myConnections.size() >= MAX_CONNECTIONS_PER_PEER)) {
+        return best;
+      }
+      return null;
+    }
+  }
+
+  private Connection openConnection(String key, InetAddress address, int port) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT);
+    }
+    catch (IOException e) {
+      // nothing listens on the binary port (e.g. the peer is restarting) or it is unreachable; the call falls back to XML-RPC
+      // and binary calls are tried again next time
+      close(socket);
+      throw new BinaryRpc.NotSupportedException(e.getMessage());
+    }
+
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(CONNECT_TIMEOUT);
+
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      BinaryRpc.writeHandshake(out);
+      BinaryRpc.readHandshake(in);
+
+      Connection connection = new Connection(key, socket, in, out);
+      synchronized (myLock) {
+        getPeer(key).myConnections.add(connection);
+      }
+      connection.start();
+      return connection;
+    }
+    catch (BinaryRpc.NotSupportedException e) {
+      // something else listens on the port
+      markNotSupported(key, socket);
+      throw e;
+    }
+    catch (EOFException e) {
+      // something else listens on the port and closed the connection on the handshake
+      markNotSupported(key, socket);
+      throw new BinaryRpc.NotSupportedException(e.getMessage());
+    }
+    catch (IOException e) {
+      close(socket);
+      throw new BinaryRpc.NotSupportedException(e.getMessage());
+    }
+  }
+
+  private void markNotSupported(String key, Socket socket) {
+    close(socket);
+    synchronized (myLock) {
+      getPeer(key).myNotSupportedUntil = System.currentTimeMillis() + NOT_SUPPORTED_TIMEOUT;
+    }
+  }
+
+  private Peer getPeer(String key) {
+    Peer peer = myPeers.get(key);
+    if (peer == null) {
+      peer = new Peer();
+      myPeers.put(key, peer);
+    }
+    return peer;
+  }
+
+  private void removeConnection(Connection connection) {
+    synchronized (myLock) {
+      Peer peer = myPeers.get(connection.myKey);
+      if (peer != null) {
+        peer.myConnections.remove(connection);
+        if (peer.myConnections.isEmpty() && peer.myNotSupportedUntil == 0) {
+          myPeers.remove(connection.myKey);
+        }
+      }
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    }
+    catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static class Peer {
+    private final List<Connection> myConnections = new ArrayList<Connection>();
+    private long myNotSupportedUntil;
+  }
+
+  private class Connection implements Runnable {
+    private final String myKey;
+    private final Socket mySocket;
+    private final DataInputStream myIn;
+    private final DataOutputStream myOut;
+
+    /** guarded by this */
+    private final Map<Integer, Call> myCalls = new HashMap<Integer, Call>();
+    private int myNextId;
+    private boolean myClosed;
+
+    Connection(String key, Socket socket, DataInputStream in, DataOutputStream out) {
+      myKey = key;
+      mySocket = socket;
+      myIn = in;
+      myOut = out;
+    }
+
+    void start() {
+      Thread thread = new Thread(this, "P2P Binary Client " + myKey);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    synchronized int getCallCount() {
+      return myCalls.size();
+    }
+
+    @Nullable
+    Object call(String method, List<?> parameters) throws IOException {
+      Call call = new Call();
+      int id;
+      synchronized (this) {
+        if (myClosed) throw new ConnectionClosedException();
+        id = myNextId++;
+        myCalls.put(id, call);
+      }
+
+      try {
+        byte[] request = BinaryRpc.createRequest(id, method, parameters);
+        synchronized (myOut) {
+          myOut.write(request);
+          myOut.flush();
+        }
+      }
+      catch (IOException e) {
+        close(e);
+        throw e;
+      }
+
+      try {
+        return call.waitForResult();
+      }
+      finally {
+        synchronized (this) {
+          myCalls.remove(id);
+        }
+      }
+    }
+
+    public void run() {
+      try {
+        while (true) {
+          mySocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+          int firstByte;
+          try {
+            firstByte = myIn.read();
+          }
+          catch (SocketTimeoutException e) {
+            synchronized (this) {
+              if (myCalls.isEmpty()) {
+                // idle connection; calls started after this point will be retried on a new connection
+                myClosed = true;
+                break;
+              }
+            }
+            continue;
+          }
+          if (firstByte < 0) {
+            throw new EOFException("Connection closed by " + myKey);
+          }
+
+          mySocket.setSoTimeout(RESPONSE_TIMEOUT);
+          DataInputStream response = BinaryRpc.readFrame(firstByte, myIn);
+          int id = response.readInt();
+          Call call;
+          synchronized (this) {
+            call = myCalls.remove(id);
+          }
+          if (call == null) continue;   // the call has timed out
+
+          if (response.readByte() == BinaryRpc.OK) {
+            call.setResult(BinaryRpc.readValue(response), null);
+          }
+          else {
+            call.setResult(null, new BinaryRpc.RemoteException(BinaryRpc.readString(response)));
+          }
+        }
+        close(new ConnectionClosedException());
+      }
+      catch (IOException e) {
+        close(e);
+      }
+    }
+
+    void close(IOException reason) {
+      List<Call> calls;
+      synchronized (this) {
+        myClosed = true;
+        calls = new ArrayList<Call>(myCalls.values());
+        myCalls.clear();
+      }
+      BinaryRpcClient.close(mySocket);
+      removeConnection(this);
+
+      for (Call call : calls) {
+        call.setResult(null, reason);
+      }
+    }
+  }
+
+  private static class Call {
+    private boolean myDone;
+    private Object myResult;
+    private IOException myError;
+
+    synchronized void setResult(Object result, IOException error) {
+      myResult = result;
+      myError = error;
+      myDone = true;
+      notifyAll();
+    }
+
+    synchronized Object waitForResult() throws IOException {
+      long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT;
+      try {
+        while (!myDone) {
+          long timeout = deadline - System.currentTimeMillis();
+          if (timeout <= 0) {
+            throw new SocketTimeoutException("No response in " + RESPONSE_TIMEOUT + "ms");
+          }
+          wait(timeout);
+        }
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      }
+
+      if (myError != null) throw myError;
+      return myResult;
+    }
+  }
+
+  /** The connection was closed before the call was sent */
+  private static class ConnectionClosedException extends IOException {
+  }
+}
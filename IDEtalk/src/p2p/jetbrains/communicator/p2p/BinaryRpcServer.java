@@ -0,0 +1,298 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts {@link BinaryRpc} connections and invokes the same handlers which serve XML-RPC calls.
+ * Requests of a connection are executed in parallel, responses are sent as soon as they are ready.
+ * At most {@link #MAX_QUEUED_REQUESTS} requests wait for execution, further requests are answered with an error.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class BinaryRpcServer {
+  private static final Logger LOG = Logger.getLogger(BinaryRpcServer.class);
+
+  private static final int MAX_PARALLEL_REQUESTS = 4;
+  static final int MAX_QUEUED_REQUESTS = 64;
+
+  private final Map<String, Object> myHandlers;
+  private final List<Socket> myConnections = new ArrayList<Socket>();
+  private ServerSocket myServerSocket;
+  private ThreadPoolExecutor myExecutor;
+
+  BinaryRpcServer(Map<String, Object> handlers) {
+    myHandlers = handlers;
+  }
+
+  /** @return false if the port cannot be bound */
+  synchronized boolean start(int port) {
+    if (myServerSocket != null) return true;
+
+    try {
+      myServerSocket = new ServerSocket(port);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot start binary P2P server on port " + port + ": " + e.getMessage());
+      return false;
+    }
+
+    myExecutor = new ThreadPoolExecutor(MAX_PARALLEL_REQUESTS, MAX_PARALLEL_REQUESTS, 60, TimeUnit.SECONDS,
+                                        new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new DaemonThreadFactory("P2P Request"));
+    myExecutor.allowCoreThreadTimeOut(true);
+
+    final ServerSocket serverSocket = myServerSocket;
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        acceptConnections(serverSocket);
+      }
+    }, "P2P Binary Server " + port);
+    thread.setDaemon(true);
+    thread.start();
+    return true;
+  }
+
+  synchronized void stop() {
+    if (myServerSocket == null) return;
+
+    close(myServerSocket);
+    myServerSocket = null;
+    for (Socket connection : myConnections) {
+      close(connection);
+    }
+    myConnections.clear();
+    myExecutor.shutdown();
+    myExecutor = null;
+  }
+
+  synchronized int getPort() {
+    return myServerSocket == null ? -1 : myServerSocket.getLocalPort();
+  }
+
+  private void acceptConnections(ServerSocket serverSocket) {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      }
+      catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          LOG.info(e.getMessage());
+        }
+        continue;
+      }
+
+      synchronized (this) {
+        if (myServerSocket != serverSocket) {
+          close(socket);
+          return;
+        }
+        myConnections.add(socket);
+      }
+
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          serve(socket);
+        }
+      }, "P2P Binary Connection " + socket.getRemoteSocketAddress());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      socket.setSoTimeout(BinaryRpcClient.KEEP_ALIVE_TIMEOUT);
+      BinaryRpc.readHandshake(in);
+      BinaryRpc.writeHandshake(out);
+
+      while (true) {
+        // the client closes idle connections itself, give it twice as much time
+        socket.setSoTimeout(2 * BinaryRpcClient.KEEP_ALIVE_TIMEOUT);
+        int firstByte = in.read();
+        if (firstByte < 0) break;
+
+        socket.setSoTimeout(BinaryRpcClient.RESPONSE_TIMEOUT);
+        final DataInputStream request = BinaryRpc.readFrame(firstByte, in);
+        final int id = request.readInt();
+        final String method = BinaryRpc.readString(request);
+        final List<Object> parameters = new ArrayList<Object>();
+        for (int i = request.readInt(); i > 0; i--) {
+          parameters.add(BinaryRpc.readValue(request));
+        }
+
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+          executor = myExecutor;
+        }
+        if (executor == null) break;
+
+        try {
+          executor.execute(new Runnable() {
+            public void run() {
+              sendResponse(out, method, createResponse(id, method, parameters));
+            }
+          });
+        }
+        catch (RejectedExecutionException e) {
+          LOG.debug("Rejecting " + method + " from " + socket.getRemoteSocketAddress() + ", too many requests");
+          sendResponse(out, method, BinaryRpc.createResponse(id, BinaryRpc.ERROR, "Server is busy"));
+        }
+      }
+    }
+    catch (SocketTimeoutException e) {
+      LOG.debug("Closing idle connection " + socket.getRemoteSocketAddress());
+    }
+    catch (SocketException e) {
+      // connection closed
+    }
+    catch (IOException e) {
+      LOG.info("Binary P2P connection " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+    }
+    finally {
+      close(socket);
+      synchronized (this) {
+        myConnections.remove(socket);
+      }
+    }
+  }
+
+  private static void sendResponse(DataOutputStream out, String method, @Nullable byte[] response) {
+    if (response == null) return;
+    try {
+      synchronized (out) {
+        out.write(response);
+        out.flush();
+      }
+    }
+    catch (IOException e) {
+      LOG.debug("Cannot send response to " + method + ": " + e.getMessage());
+    }
+  }
+
+  @Nullable
+  private byte[] createResponse(int id, String method, List<Object> parameters) {
+    try {
+      try {
+        return BinaryRpc.createResponse(id, BinaryRpc.OK, invoke(method, parameters));
+      }
+      catch (InvocationTargetException e) {
+        LOG.info("Call " + method + " failed", e.getCause());
+        return BinaryRpc.createResponse(id, BinaryRpc.ERROR, e.getCause());
+      }
+      catch (Exception e) {
+        LOG.info("Call " + method + " failed: " + e.getMessage());
+        return BinaryRpc.createResponse(id, BinaryRpc.ERROR, e.getMessage());
+      }
+    }
+    catch (IOException e) {
+      LOG.error(e.getMessage(), e);
+      return null;
+    }
+  }
+
+  /** Finds the handler method like XML-RPC does: by the handler id, method name and parameter types */
+  private Object invoke(String fullMethodName, List<Object> parameters) throws Exception {
+    int dot = fullMethodName.lastIndexOf('.');
+    Object handler = dot < 0 ? null : myHandlers.get(fullMethodName.substring(0, dot));
+    if (handler == null) {
+      throw new NoSuchMethodException("No handler for " + fullMethodName);
+    }
+
+    String methodName = fullMethodName.substring(dot + 1);
+    for (Method method : handler.getClass().getMethods()) {
+      if (method.getName().equals(methodName) && isApplicable(method.getParameterTypes(), parameters)) {
+        // as the XML-RPC invoker does, methods like wait() or notify() must not be callable remotely
+        if (method.getDeclaringClass() == Object.class) {
+          throw new IllegalAccessException("Methods defined in java.lang.Object can't be called: " + fullMethodName);
+        }
+        return method.invoke(handler, parameters.toArray());
+      }
+    }
+    throw new NoSuchMethodException(fullMethodName + parameters);
+  }
+
+  private static boolean isApplicable(Class<?>[] types, List<Object> parameters) {
+    if (types.length != parameters.size()) return false;
+
+    for (int i = 0; i < types.length; i++) {
+      Object parameter = parameters.get(i);
+      Class<?> type = types[i];
+      if (type == int.class) type = Integer.class;
+      else if (type == boolean.class) type = Boolean.class;
+      else if (type == double.class) type = Double.class;
+
+      if (parameter == null ? types[i].isPrimitive() : !type.isInstance(parameter)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void close(ServerSocket socket) {
+    try {
+      socket.close();
+    }
+    catch (IOException e) {
+      // ignore
+    }
+  }
+
+  private static void close(Socket socket) {
+    try {
+      socket.close();
+    }
+    catch (IOException e) {
+      // ignore
+    }
+  }
+
+  static class DaemonThreadFactory implements ThreadFactory {
+    private final String myName;
+    private int myCount;
+
+    DaemonThreadFactory(String name) {
+      myName = name;
+    }
+
+    public synchronized Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, myName + ' ' + ++myCount);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import com.intellij.util.Time;
+import gnu.trove.THashSet;
+import jetbrains.communicator.core.Pico;
+import jetbrains.communicator.core.users.PresenceMode;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserPresence;
+import jetbrains.communicator.ide.IDEFacade;
+import jetbrains.communicator.util.StringUtil;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven discovery of IDEtalk users in the local network.<p/>
+ *
+ * Every peer announces itself with JOIN when it starts, repeats the announcement
+ * as a HEARTBEAT every {@link #HEARTBEAT_INTERVAL} (and immediately when its presence changes)
+ * and says LEAVE when it goes away. Peers which hear a JOIN answer with their own heartbeat
+ * after a small random delay, so that a newcomer learns about everybody within a second.<p/>
+ *
+ * The information about remote users is soft state: an entry expires when several heartbeats
+ * announced by the peer in a row are missed. Only changes are reported to
+ * {@link UserMonitorClient} - a user comes online, changes its presence or projects, or goes offline.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class LanPresence implements PresenceChannel.Receiver {
+  private static final Logger LOG = Logger.getLogger(LanPresence.class);
+
+  static final String ENABLED_PROPERTY = "idetalk.p2p.presence";
+  static final long HEARTBEAT_INTERVAL = 10 * Time.SECOND;
+  private static final int MISSED_HEARTBEATS = 3;
+  private static final long MAX_REPLY_DELAY = 500;
+
+  private static final byte[] MAGIC = "IDEtalk presence".getBytes();
+  private static final int VERSION = 1;
+
+  static final byte JOIN = 1;
+  static final byte HEARTBEAT = 2;
+  static final byte LEAVE = 3;
+
+  private final PresenceChannel myChannel;
+  private final UserMonitorClient myClient;
+  private final IDEFacade myIdeFacade;
+  private final long myHeartbeatInterval;
+  private final Random myRandom = new Random();
+
+  // Accessed from the executor thread only
+  private final Map<String, Peer> myPeers = new HashMap<String, Peer>();
+  private ScheduledFuture<?> myPendingReply;
+
+  private final Set<User> myOnlineUsers = Collections.synchronizedSet(new THashSet<User>());
+  private volatile ScheduledThreadPoolExecutor myExecutor;
+
+  public LanPresence(UserMonitorClient client, IDEFacade ideFacade) {
+    this(new MulticastPresenceChannel(), client, ideFacade, HEARTBEAT_INTERVAL);
+  }
+
+  LanPresence(PresenceChannel channel, UserMonitorClient client, IDEFacade ideFacade, long heartbeatInterval) {
+    myChannel = channel;
+    myClient = client;
+    myIdeFacade = ideFacade;
+    myHeartbeatInterval = heartbeatInterval;
+  }
+
+  /** Presence announcements are switched off in unit tests and by -Didetalk.p2p.presence=false */
+  public static boolean isEnabled() {
+    return !Pico.isUnitTest() && !"false".equals(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  public synchronized void start() {
+    if (myExecutor != null) return;
+
+    try {
+      myChannel.open(this);
+    }
+    catch (IOException e) {
+      LOG.info("LAN presence is not available: " + e.getMessage());
+      return;
+    }
+
+    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new BinaryRpcServer.DaemonThreadFactory("IDEtalk LAN Presence"));
+    executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    myExecutor = executor;
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        send(JOIN);
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        send(HEARTBEAT);
+      }
+    }, myHeartbeatInterval, myHeartbeatInterval, TimeUnit.MILLISECONDS);
+
+    long expirationCheck = Math.max(10, myHeartbeatInterval / 4);
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        expirePeers();
+      }
+    }, expirationCheck, expirationCheck, TimeUnit.MILLISECONDS);
+  }
+
+  /** Tell other peers about changed own state without waiting for the next heartbeat */
+  public void announce() {
+    ScheduledThreadPoolExecutor executor = myExecutor;
+    if (executor == null) return;
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          send(HEARTBEAT);
+        }
+      });
+    }
+    catch (RejectedExecutionException ignored) {
+      // stopped
+    }
+  }
+
+  public synchronized void stop() {
+    ScheduledThreadPoolExecutor executor = myExecutor;
+    if (executor == null) return;
+    myExecutor = null;
+
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    send(LEAVE);
+    myChannel.close();
+
+    myPeers.clear();
+    myOnlineUsers.clear();
+  }
+
+  public boolean isOnline(User user) {
+    return myOnlineUsers.contains(user);
+  }
+
+  @Override
+  public void receive(byte[] data, int length, final InetAddress from) {
+    final Announcement announcement = Announcement.decode(data, length);
+    if (announcement == null) return;
+
+    ScheduledThreadPoolExecutor executor = myExecutor;
+    if (executor == null) return;
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          process(announcement, from);
+        }
+      });
+    }
+    catch (RejectedExecutionException ignored) {
+      // stopped
+    }
+  }
+
+  private void process(Announcement announcement, InetAddress from) {
+    String key = announcement.myUser + '@' + from.getHostAddress() + ':' + announcement.myPort;
+
+    if (announcement.myType == LEAVE) {
+      removePeer(key);
+      return;
+    }
+
+    Peer peer = myPeers.get(key);
+    OnlineUserInfo info = new OnlineUserInfo(from, announcement.myPort, announcement.myProjects, announcement.myPresence);
+    if (peer == null || !peer.myInfo.equals(info)) {
+      User user = myClient.userOnline(announcement.myUser, info);
+      if (peer == null) {
+        peer = new Peer(user);
+        myPeers.put(key, peer);
+        myOnlineUsers.add(user);
+      }
+      peer.myInfo = info;
+    }
+    // Every peer tells how often it sends heartbeats
+    long interval = announcement.myHeartbeatInterval;
+    peer.myExpiresAt = System.currentTimeMillis() + MISSED_HEARTBEATS * interval + interval / 2;
+
+    if (announcement.myType == JOIN && !isSelf(announcement)) {
+      scheduleReply();
+    }
+  }
+
+  private boolean isSelf(Announcement announcement) {
+    return announcement.myPort == myClient.getPort() && announcement.myUser.equals(getSelfName());
+  }
+
+  private void scheduleReply() {
+    ScheduledThreadPoolExecutor executor = myExecutor;
+    if (executor == null || myPendingReply != null && !myPendingReply.isDone()) return;
+
+    long delay = myRandom.nextInt((int) Math.min(MAX_REPLY_DELAY, myHeartbeatInterval / 4) + 1);
+    try {
+      myPendingReply = executor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          send(HEARTBEAT);
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException ignored) {
+      // stopped
+    }
+  }
+
+  private void expirePeers() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, Peer> entry : new ArrayList<Map.Entry<String, Peer>>(myPeers.entrySet())) {
+      if (entry.getValue().myExpiresAt < now) {
+        LOG.debug("Presence of " + entry.getKey() + " expired");
+        removePeer(entry.getKey());
+      }
+    }
+  }
+
+  private void removePeer(String key) {
+    Peer peer = myPeers.remove(key);
+    if (peer == null) return;
+
+    for (Peer other : myPeers.values()) {
+      if (other.myUser.equals(peer.myUser)) return; // The same user is still online from another address
+    }
+    myOnlineUsers.remove(peer.myUser);
+    myClient.userOffline(peer.myUser);
+  }
+
+  private void send(byte type) {
+    String[] projects = myIdeFacade != null ? myIdeFacade.getProjects() : new String[0];
+    Announcement announcement = new Announcement(type, getSelfName(), myClient.getPort(), myHeartbeatInterval,
+                                                 myClient.getOwnPresence(), Arrays.asList(projects));
+    try {
+      myChannel.send(announcement.encode());
+    }
+    catch (IOException e) {
+      LOG.debug("Cannot send presence announcement: " + e.getMessage());
+    }
+  }
+
+  protected String getSelfName() {
+    return StringUtil.getMyUsername();
+  }
+
+  private static class Peer {
+    private final User myUser;
+    private OnlineUserInfo myInfo;
+    private long myExpiresAt;
+
+    Peer(User user) {
+      myUser = user;
+    }
+  }
+
+  static class Announcement {
+    final byte myType;
+    final String myUser;
+    final int myPort;
+    final long myHeartbeatInterval;
+    final UserPresence myPresence;
+    final Collection<String> myProjects;
+
+    Announcement(byte type, String user, int port, long heartbeatInterval, UserPresence presence, Collection<String> projects) {
+      myType = type;
+      myUser = user;
+      myPort = port;
+      myHeartbeatInterval = heartbeatInterval;
+      myPresence = presence;
+      myProjects = projects;
+    }
+
+    byte[] encode() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.write(MAGIC);
+      out.writeByte(VERSION);
+      out.writeByte(myType);
+      out.writeInt(myPort);
+      out.writeInt((int) myHeartbeatInterval);
+      out.writeUTF(myPresence.getPresenceMode().name());
+      out.writeUTF(myUser);
+
+      // Projects which do not fit into a single datagram are not announced
+      List<byte[]> projects = new ArrayList<byte[]>();
+      int size = bytes.size() + 2;
+      for (String project : myProjects) {
+        byte[] encoded = encodeUTF(project);
+        if (size + encoded.length > MulticastPresenceChannel.MAX_MESSAGE_SIZE) break;
+        size += encoded.length;
+        projects.add(encoded);
+      }
+      out.writeShort(projects.size());
+      for (byte[] project : projects) {
+        out.write(project);
+      }
+      out.flush();
+      return bytes.toByteArray();
+    }
+
+    private static byte[] encodeUTF(String s) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      new DataOutputStream(bytes).writeUTF(s);
+      return bytes.toByteArray();
+    }
+
+    static Announcement decode(byte[] data, int length) {
+      if (length < MAGIC.length) return null;
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (data[i] != MAGIC[i]) return null;
+      }
+
+      try {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, MAGIC.length, length - MAGIC.length));
+        in.readByte(); // version, later versions may only append fields
+        byte type = in.readByte();
+        int port = in.readInt();
+        int heartbeatInterval = in.readInt();
+        PresenceMode mode = PresenceMode.valueOf(in.readUTF());
+        String user = in.readUTF();
+        int projectsCount = in.readShort();
+        Collection<String> projects = new THashSet<String>();
+        for (int i = 0; i < projectsCount; i++) {
+          projects.add(in.readUTF());
+        }
+        if (type != JOIN && type != HEARTBEAT && type != LEAVE || heartbeatInterval <= 0) return null;
+        return new Announcement(type, user, port, heartbeatInterval, new UserPresence(mode), projects);
+      }
+      catch (IOException e) {
+        LOG.debug("Malformed presence announcement: " + e.getMessage());
+      }
+      catch (IllegalArgumentException e) {
+        LOG.debug("Malformed presence announcement: " + e.getMessage());
+      }
+      return null;
+    }
+  }
+}
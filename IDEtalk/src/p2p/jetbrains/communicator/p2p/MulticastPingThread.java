@@ -36,7 +36,7 @@ class MulticastPingThread extends Thread {
 
   public static final int MULTICAST_PORT = 2863;
   static final String PING_MESSAGE = "Is there anybody out there?";
-  private static final String MULTICAST_ADORES = "239.203.13.64";
+  static final String MULTICAST_ADORES = "239.203.13.64";
   private static final int BUFFER_SIZE = PING_MESSAGE.getBytes().length + 6;
   private static final int ALLOWED_FAILURES = 3000;
 
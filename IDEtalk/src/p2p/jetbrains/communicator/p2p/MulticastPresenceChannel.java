@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.*;
+import java.util.Collection;
+
+/**
+ * Presence channel on top of a single long-lived multicast socket. The socket
+ * shares the multicast group and port with {@link MulticastPingThread}, so
+ * peers which do not know about presence announcements just ignore them.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class MulticastPresenceChannel implements PresenceChannel {
+  private static final Logger LOG = Logger.getLogger(MulticastPresenceChannel.class);
+
+  static final int MAX_MESSAGE_SIZE = 1400;
+
+  private volatile MulticastSocket mySocket;
+  private Collection<InetAddress> myInterfaces;
+  private Thread myReader;
+
+  @Override
+  public synchronized void open(final Receiver receiver) throws IOException {
+    if (mySocket != null) return;
+
+    final MulticastSocket socket = new MulticastSocket(MulticastPingThread.MULTICAST_PORT);
+    InetAddress group = InetAddress.getByName(MulticastPingThread.MULTICAST_ADORES);
+    myInterfaces = NetworkUtil.getSelfAddresses();
+    for (InetAddress address : myInterfaces) {
+      try {
+        NetworkInterface networkInterface = NetworkInterface.getByInetAddress(address);
+        socket.joinGroup(new InetSocketAddress(group, MulticastPingThread.MULTICAST_PORT), networkInterface);
+      }
+      catch (IOException e) {
+        LOG.debug("Cannot join multicast group on " + address + ": " + e.getMessage());
+      }
+    }
+    mySocket = socket;
+
+    myReader = new Thread("IDEtalk LAN Presence Listener") {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[MAX_MESSAGE_SIZE];
+        while (!socket.isClosed()) {
+          try {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            receiver.receive(buffer, packet.getLength(), packet.getAddress());
+          }
+          catch (IOException e) {
+            if (!socket.isClosed()) {
+              LOG.debug(e.getMessage(), e);
+            }
+          }
+          catch (RuntimeException e) {
+            LOG.error(e.getMessage(), e);
+          }
+        }
+      }
+    };
+    myReader.setDaemon(true);
+    myReader.start();
+  }
+
+  @Override
+  public synchronized void send(byte[] message) throws IOException {
+    MulticastSocket socket = mySocket;
+    if (socket == null) return;
+
+    DatagramPacket packet = new DatagramPacket(message, message.length,
+        InetAddress.getByName(MulticastPingThread.MULTICAST_ADORES), MulticastPingThread.MULTICAST_PORT);
+    IOException lastError = null;
+    int sent = 0;
+    for (InetAddress address : myInterfaces) {
+      try {
+        socket.setInterface(address);
+        socket.send(packet);
+        sent ++;
+      }
+      catch (IOException e) {
+        lastError = e;
+      }
+    }
+    if (sent == 0 && lastError != null) {
+      throw lastError;
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (mySocket != null) {
+      mySocket.close();
+      mySocket = null;
+    }
+    if (myReader != null) {
+      myReader.interrupt();
+      myReader = null;
+    }
+  }
+}
@@ -34,6 +34,8 @@ import java.util.*;
 public class NetworkUtil {
   private static final Logger LOG = Logger.getLogger(NetworkUtil.class);
 
+  private static final BinaryRpcClient ourBinaryClient = new BinaryRpcClient();
+
   private static final TimeoutCachedValue<List<InetAddress>> ourInterfaces = new TimeoutCachedValue<List<InetAddress>>(30 * 1000) {
     @Override
     protected List<InetAddress> calculate() {
@@ -85,6 +87,19 @@ public class NetworkUtil {
       assert o != null : "Null parameter in position " + i;
     }
 
+    if (BinaryRpc.isEnabled()) {
+      try {
+        return ourBinaryClient.execute(target, fullMethodName, parameters);
+      }
+      catch (BinaryRpc.NotSupportedException e) {
+        // an old client, use XML-RPC
+      }
+      catch (IOException e) {
+        LOG.info(buildFullLogLine(logLine, parameters) + ' ' + e.getLocalizedMessage());
+        return null;
+      }
+    }
+
     try {
       return new XmlRpcClient(url).execute(fullMethodName, new Vector<Object>(parameters));
     }
@@ -100,6 +115,11 @@ public class NetworkUtil {
     return null;
   }
 
+  /** Closes the pooled connections to other peers */
+  static void closeConnections() {
+    ourBinaryClient.shutdown();
+  }
+
   private static String buildFullLogLine(String logLine, List<?> parameters) {
     return logLine + '(' + parameters + ')';
   }
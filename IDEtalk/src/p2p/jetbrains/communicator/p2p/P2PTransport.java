@@ -67,6 +67,8 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
   static final int XML_RPC_PORT = MulticastPingThread.MULTICAST_PORT + 1;
 
   private final UserMonitorThread myUserMonitorThread;
+  private final BinaryRpcServer myBinaryRpcServer;
+  private final LanPresence myLanPresence;
 
   private final Object myLock = new Object();
   private final Map<User, OnlineUserInfo> myUserToInfo = new THashMap<User, OnlineUserInfo>();
@@ -102,6 +104,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
 
     myOwnPresence = new UserPresence(true);
     myUserMonitorThread = new UserMonitorThread(this, waitUserResponsesTimeout);
+    myLanPresence = new LanPresence(this, getIdeFacade());
 
     Map<String, Object> handlers = CustomPortServerManager.EP_NAME.findExtension(P2PCustomPortServerManager.class).handlers;
     for (P2PCommand command : new P2PCommand[]{
@@ -110,6 +113,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }) {
       handlers.put(command.getXmlRpcId(), command);
     }
+    myBinaryRpcServer = new BinaryRpcServer(handlers);
 
     startup();
 
@@ -175,6 +179,12 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
 
   private void doStart() {
     BuiltInServerManager.getInstance().waitForStart();
+    if (BinaryRpc.isEnabled()) {
+      myBinaryRpcServer.start(BinaryRpc.getBinaryPort(XML_RPC_PORT));
+    }
+    if (LanPresence.isEnabled()) {
+      myLanPresence.start();
+    }
     myUserMonitorThread.start();
     myUserMonitorThread.triggerFindNow();
     new WaitFor() {
@@ -195,7 +205,10 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
   public void dispose() {
     try {
       myEventBroadcaster.removeListener(myUserAddedCallbackListener);
+      myLanPresence.stop();
       myUserMonitorThread.shutdown();
+      myBinaryRpcServer.stop();
+      NetworkUtil.closeConnections();
     }
     catch (Throwable e) {
       LOG.info(e);
@@ -356,6 +369,9 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }
 
     myOwnPresence = userPresence;
+    if (userPresence.isOnline()) {
+      myLanPresence.announce();
+    }
   }
 
   private boolean selfBecomeAvailable(UserPresence userPresence) {
@@ -417,6 +433,51 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }
   }
 
+  @Override
+  public User userOnline(String remoteUsername, @NotNull final OnlineUserInfo onlineUserInfo) {
+    final User user = myUserModel.createUser(remoteUsername, CODE);
+    IDEtalkEvent event = null;
+    synchronized (myLock) {
+      if (!myOnlineUsers.contains(user)) {
+        event = new UserEvent.Online(user);
+      }
+      else {
+        UserPresence oldPresence = getNotNullOnlineInfo(user).getPresence();
+        if (!oldPresence.equals(onlineUserInfo.getPresence())) {
+          event = new UserEvent.Updated(user, "presence", oldPresence, onlineUserInfo.getPresence());
+        }
+        else {
+          myUserToInfo.put(user, onlineUserInfo);
+        }
+      }
+    }
+
+    if (event != null) {
+      dispatchEvents(Collections.singletonList(new Pair<IDEtalkEvent, Runnable>(event, new MySyncRunnable() {
+        @Override
+        protected void execute() {
+          myOnlineUsers.add(user);
+          myUserToInfo.put(user, onlineUserInfo);
+        }
+      })));
+    }
+    return user;
+  }
+
+  @Override
+  public void userOffline(final User user) {
+    synchronized (myLock) {
+      if (!myOnlineUsers.contains(user)) return;
+    }
+    dispatchEvents(Collections.singletonList(new Pair<IDEtalkEvent, Runnable>(new UserEvent.Offline(user), new MySyncRunnable() {
+      @Override
+      protected void execute() {
+        myOnlineUsers.remove(user);
+        myUserToInfo.remove(user);
+      }
+    })));
+  }
+
   void flushCurrentUsers() {
     myUserMonitorThread.flushOnlineUsers();
   }
@@ -457,7 +518,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     List<Pair<IDEtalkEvent, Runnable>> events = new SmartList<Pair<IDEtalkEvent, Runnable>>();
     synchronized (myLock) {
       for (final User user : myOnlineUsers) {
-        if (!onlineUsers.contains(user)) {
+        if (!onlineUsers.contains(user) && !myLanPresence.isOnline(user)) {
           // User was removed
           events.add(new Pair<IDEtalkEvent, Runnable>(new UserEvent.Offline(user), new MySyncRunnable() {
             @Override
@@ -472,7 +533,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
           UserPresence oldPresence = getNotNullOnlineInfo(user).getPresence();
           final OnlineUserInfo onlineUserInfo = myUserToInfoNew.get(user);
           if (onlineUserInfo == null) {
-            return;
+            continue; // Known from presence announcements only
           }
 
           UserPresence newPresence = onlineUserInfo.getPresence();
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Datagram channel used by {@link LanPresence} to exchange presence announcements.
+ * Every message sent is delivered (with no guarantee) to all peers listening on the channel,
+ * including the sender itself.
+ */
+interface PresenceChannel {
+
+  void open(Receiver receiver) throws IOException;
+
+  void send(byte[] message) throws IOException;
+
+  void close();
+
+  interface Receiver {
+    void receive(byte[] data, int length, InetAddress from);
+  }
+}
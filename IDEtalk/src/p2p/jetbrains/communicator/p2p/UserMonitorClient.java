@@ -27,6 +27,12 @@ public interface UserMonitorClient {
   void setOnlineUsers(Collection<User> onlineUsers);
 
   User createUser(String remoteUsername, OnlineUserInfo onlineUserInfo);
+
+  /** Incremental update from {@link LanPresence}: user appeared or its info has changed */
+  User userOnline(String remoteUsername, OnlineUserInfo onlineUserInfo);
+  /** Incremental update from {@link LanPresence}: user left or its presence expired */
+  void userOffline(User user);
+
   int getPort();
   UserPresence getOwnPresence();
 }
@@ -35,7 +35,8 @@ import java.util.*;
  * @author Kir Maximov
  *         <p/>
  *         This thread periodically scans the local network via multicast
- *         request and passes obtained users to UserMonitorClient
+ *         request and passes obtained users to UserMonitorClient.
+ *         Users with newer clients are also discovered by {@link LanPresence} between scans
  */
 @SuppressWarnings({"HardCodedStringLiteral"})
 public class UserMonitorThread extends Thread {
@@ -44,6 +45,8 @@ public class UserMonitorThread extends Thread {
   static final long WAIT_USER_RESPONSES_TIMEOUT = 3000;
   static final String SCAN_TIMEOUT_PROPERTY = "ideTalk.scanTimeout";
   static final long TIMEOUT_BETWEEN_SCANS = 3 * Time.MINUTE;
+  // Peers announcing their presence are tracked by LanPresence, scans are needed for older clients only
+  static final long TIMEOUT_BETWEEN_SCANS_WITH_PRESENCE = 15 * Time.MINUTE;
 
   private final MulticastPingThread[] myMulticastThreads;
   private final UserMonitorClient myClient;
@@ -73,7 +76,7 @@ public class UserMonitorThread extends Thread {
     String timeout = System.getProperty(SCAN_TIMEOUT_PROPERTY);
 
     if (com.intellij.openapi.util.text.StringUtil.isEmptyOrSpaces(timeout)) {
-      myScansTimeout = TIMEOUT_BETWEEN_SCANS;
+      myScansTimeout = LanPresence.isEnabled() ? TIMEOUT_BETWEEN_SCANS_WITH_PRESENCE : TIMEOUT_BETWEEN_SCANS;
     }
     else {
       try {
@@ -59,13 +59,17 @@ public class SendXmlMessageP2PCommand extends BaseP2PCommand {
 
   private Element createResponse(Element rootElement, String remoteUser) {
     Element response = new Element("response", Transport.NAMESPACE);
-    XmlResponseProvider provider = XmlResponseProvider.getProvider(rootElement, myEventBroadcaster);
+    XmlResponseProvider provider = getProvider(rootElement);
     if (provider.processAndFillResponse(response, rootElement, myTransport, remoteUser)) {
       return response;
     }
     return null;
   }
 
+  protected XmlResponseProvider getProvider(Element rootElement) {
+    return XmlResponseProvider.getProvider(rootElement, myEventBroadcaster);
+  }
+
   public static Message createNetworkMessage(final XmlMessage message) {
     Element element = new Element(message.getTagName(), message.getTagNamespace());
     message.fillRequest(element);
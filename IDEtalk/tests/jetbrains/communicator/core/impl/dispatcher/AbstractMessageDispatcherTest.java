@@ -15,13 +15,20 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import com.thoughtworks.xstream.XStream;
 import jetbrains.communicator.core.impl.BaseTestCase;
 import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockUser;
 import jetbrains.communicator.p2p.commands.P2PNetworkMessage;
+import jetbrains.communicator.util.XMLUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.*;
 
 /**
  * @author kir
@@ -146,4 +153,94 @@ public class AbstractMessageDispatcherTest extends BaseTestCase {
     dispatcher.dispose();
   }
 
-}
\ No newline at end of file
+  public void testPersistencyOfQueueOperations() throws Exception {
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"1"}));
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"2"}));
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"3"}));
+    myDispatcher.removePendingMessage(myUser, 1);
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    Message[] messages = dispatcher.getPendingMessages(myUser);
+    assertEquals("Queue operations should be replayed", 2, messages.length);
+    assertEquals("1", ((P2PNetworkMessage) messages[0]).getParameters()[0]);
+    assertEquals("3", ((P2PNetworkMessage) messages[1]).getParameters()[0]);
+    dispatcher.dispose();
+
+    getBroadcaster().fireEvent(new UserEvent.Removed(myUser));
+    dispatcher = createDispatcher();
+    assertEquals(0, dispatcher.getPendingMessages(myUser).length);
+    dispatcher.dispose();
+  }
+
+  public void testRecoveryFromPartialRecord() throws Exception {
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"1"}));
+
+    File log = new File(myIdeFacade.getCacheDir(), "test.xml.log");
+    long length = log.length();
+    FileOutputStream out = new FileOutputStream(log, true);
+    out.write(new byte[]{0, 0, 1, 0, 1, 2, 3});
+    out.close();
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    assertEquals(1, dispatcher.getPendingMessages(myUser).length);
+    assertEquals("Partial record should be dropped", length, log.length());
+
+    dispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"2"}));
+    dispatcher.dispose();
+
+    dispatcher = createDispatcher();
+    assertEquals(2, dispatcher.getPendingMessages(myUser).length);
+    dispatcher.dispose();
+  }
+
+  public void testLogCompaction() throws Exception {
+    final Map<User, List<Message>> state = new HashMap<User, List<Message>>();
+    File snapshot = new File(myIdeFacade.getCacheDir(), "compaction.xml");
+    PendingMessagesLog log = new PendingMessagesLog(snapshot, XMLUtil.createXStream(), state, new PendingMessagesLog.StateProvider() {
+      public Map<User, List<Message>> copyState() {
+        return new HashMap<User, List<Message>>(state);
+      }
+    });
+    log.load();
+
+    Message message = new P2PNetworkMessage("foo", "foo2", new String[]{"1"});
+    state.put(myUser, new ArrayList<Message>(Arrays.asList(message)));
+    log.logAdd(myUser, message);
+    log.flush();
+    log.compact();
+
+    File logFile = new File(myIdeFacade.getCacheDir(), "compaction.xml.log");
+    assertEquals("Log should be started over", 12, logFile.length());
+
+    Map<User, List<Message>> restored = new PendingMessagesLog(snapshot, XMLUtil.createXStream(), new Object(), null).load();
+    assertEquals("Messages should be restored from the snapshot", 1, restored.get(myUser).size());
+  }
+
+  public void testReplayWithUnreadableMessage() throws Exception {
+    File snapshot = new File(myIdeFacade.getCacheDir(), "unreadable.xml");
+    // messages of this class cannot be restored by the default XStream
+    XStream writingXStream = XMLUtil.createXStream();
+    writingXStream.alias("no.such.Message", MockMessage.class);
+
+    PendingMessagesLog log = new PendingMessagesLog(snapshot, writingXStream, new Object(), null);
+    log.load();
+    log.logAdd(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"1"}));
+    log.logAdd(myUser, new MockMessage());
+    log.logAdd(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"3"}));
+    log.flush();
+
+    log = new PendingMessagesLog(snapshot, XMLUtil.createXStream(), new Object(), null);
+    List<Message> messages = log.load().get(myUser);
+    assertEquals("Unreadable message should be dropped", 2, messages.size());
+
+    // deliver the last message
+    messages.remove(1);
+    log.logRemove(myUser, 1);
+    log.flush();
+
+    messages = new PendingMessagesLog(snapshot, XMLUtil.createXStream(), new Object(), null).load().get(myUser);
+    assertEquals(1, messages.size());
+    assertEquals("Removal should apply to the message it was logged for",
+                 "1", ((P2PNetworkMessage) messages.get(0)).getParameters()[0]);
+  }
+}
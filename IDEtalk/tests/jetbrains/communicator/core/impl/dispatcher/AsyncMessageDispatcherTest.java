@@ -15,14 +15,18 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.impl.BaseTestCase;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockMessage;
+import jetbrains.communicator.mock.MockTransport;
 import jetbrains.communicator.mock.MockUser;
 import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.util.*;
+
 /**
  * @author kir
  */
@@ -122,8 +126,16 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     mockMessage.waitUntilDispatchingStarted();
     myDispatcher.sendLater(user2, new MockMessage(true));
 
-    assertEquals("Messages not delivered yet", 2,
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 1;
+      }
+    };
+
+    assertEquals("Message to user2 should not wait for user1", 1,
         myDispatcher.getUsersWithMessages().length);
+    assertSame(user1, myDispatcher.getUsersWithMessages()[0]);
 
     triggerMessageProcessing(mockMessage);
 
@@ -137,6 +149,203 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     assertEquals("All messages should be delivered", 0, myDispatcher.getUsersWithMessages().length);
   }
 
+  public void testHealthyPeersAreServedInParallel() throws Exception {
+    LatencyTransport transport = new LatencyTransport();
+    int peers = AsyncMessageDispatcherImpl.MAX_PARALLEL_DELIVERIES;
+    int messagesPerPeer = 2;
+    long latency = 300;
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < peers; i++) {
+      MockUser peer = transport.createPeer("peer" + i, latency, true);
+      for (int j = 0; j < messagesPerPeer; j++) {
+        myDispatcher.sendLater(peer, new PeerMessage(j));
+      }
+    }
+    waitForDelivery();
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals(peers * messagesPerPeer, transport.getDeliveredCount());
+    long serialTime = peers * messagesPerPeer * latency;
+    assertTrue("Peers should be served in parallel: " + elapsed + "ms, serial delivery takes " + serialTime + "ms",
+               elapsed < serialTime / 2);
+  }
+
+  public void testUnreachablePeerDoesNotStallOthers() throws Exception {
+    LatencyTransport transport = new LatencyTransport();
+    MockUser deadPeer = transport.createPeer("dead", 3000, false);
+    final MockUser healthyPeer = transport.createPeer("healthy", 50, true);
+
+    myDispatcher.sendLater(deadPeer, new PeerMessage(0));
+    for (int i = 0; i < 5; i++) {
+      myDispatcher.sendLater(healthyPeer, new PeerMessage(i));
+    }
+
+    new WaitFor(1500) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getPendingMessages(healthyPeer).length == 0;
+      }
+    };
+
+    assertEquals("Healthy peer should get messages while the dead one times out",
+                 "[0, 1, 2, 3, 4]", transport.getReceived(healthyPeer).toString());
+    assertEquals(1, myDispatcher.getPendingMessages(deadPeer).length);
+  }
+
+  public void testMessagesToPeerAreOrdered() throws Exception {
+    LatencyTransport transport = new LatencyTransport();
+    MockUser peer = transport.createPeer("peer", 5, true);
+
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 20; i++) {
+      myDispatcher.sendLater(peer, new PeerMessage(i));
+      expected.add(i);
+    }
+    waitForDelivery();
+
+    assertEquals(expected, transport.getReceived(peer));
+  }
+
+  public void testFailedPeerIsRetriedWithBackoff() throws Exception {
+    LatencyTransport transport = new LatencyTransport();
+    final MockUser peer = transport.createPeer("peer", 0, false);
+
+    myDispatcher.sendLater(peer, new PeerMessage(0));
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getRetryDelay(peer) > 0;
+      }
+    };
+    assertEquals(1, transport.getAttempts(peer));
+
+    assertFalse("Peer in backoff should not be contacted synchronously", myDispatcher.sendNow(peer, new PeerMessage(1)));
+    myDispatcher.sendLater(peer, new PeerMessage(2));
+    Thread.sleep(AsyncMessageDispatcherImpl.INITIAL_RETRY_DELAY / 3);
+    assertEquals("Peer should not be retried before the backoff delay", 1, transport.getAttempts(peer));
+    assertEquals(3, myDispatcher.getPendingMessages(peer).length);
+
+    // no event: the queue is retried by the timer
+    transport.setReachable(peer, true);
+    waitForDelivery();
+
+    assertEquals("[0, 1, 2]", transport.getReceived(peer).toString());
+    assertEquals(4, transport.getAttempts(peer));
+    assertEquals(0, myDispatcher.getRetryDelay(peer));
+  }
+
+  public void testSendNowSkipsQueue() throws Exception {
+    LatencyTransport transport = new LatencyTransport();
+    MockUser peer = transport.createPeer("peer", 0, true);
+    NotifyableMessage blockingMessage = new NotifyableMessage(true, myLog);
+    myDispatcher.sendLater(peer, blockingMessage);
+    blockingMessage.waitUntilDispatchingStarted();
+
+    assertTrue(myDispatcher.sendNow(peer, new PeerMessage(0)));
+    assertEquals("[0]", transport.getReceived(peer).toString());
+    assertEquals("Queued message is still being delivered", 1, myDispatcher.getPendingMessages(peer).length);
+
+    triggerMessageProcessing(blockingMessage);
+  }
+
+  private void waitForDelivery() {
+    new WaitFor(10000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 0;
+      }
+    };
+  }
+
+  /** Fake transport which simulates network latency and unreachable peers */
+  private static class LatencyTransport extends MockTransport {
+    private final Map<User, Long> myLatencies = new HashMap<User, Long>();
+    private final Set<User> myReachablePeers = new HashSet<User>();
+    private final Map<User, List<Integer>> myReceived = new HashMap<User, List<Integer>>();
+    private final Map<User, Integer> myAttempts = new HashMap<User, Integer>();
+
+    synchronized MockUser createPeer(String name, long latency, boolean reachable) {
+      MockUser peer = new MockUser(name, null);
+      peer.setOnline(true);
+      peer.setTransport(this);
+      myLatencies.put(peer, latency);
+      setReachable(peer, reachable);
+      return peer;
+    }
+
+    synchronized void setReachable(User peer, boolean reachable) {
+      if (reachable) {
+        myReachablePeers.add(peer);
+      }
+      else {
+        myReachablePeers.remove(peer);
+      }
+    }
+
+    boolean deliver(User peer, int id) {
+      long latency;
+      synchronized (this) {
+        Integer attempts = myAttempts.get(peer);
+        myAttempts.put(peer, attempts == null ? 1 : attempts + 1);
+        latency = myLatencies.get(peer);
+      }
+
+      try {
+        Thread.sleep(latency);
+      }
+      catch (InterruptedException e) {
+        return false;
+      }
+
+      synchronized (this) {
+        if (!myReachablePeers.contains(peer)) return false;
+
+        List<Integer> received = myReceived.get(peer);
+        if (received == null) {
+          received = new ArrayList<Integer>();
+          myReceived.put(peer, received);
+        }
+        received.add(id);
+        return true;
+      }
+    }
+
+    synchronized List<Integer> getReceived(User peer) {
+      List<Integer> received = myReceived.get(peer);
+      return received == null ? new ArrayList<Integer>() : new ArrayList<Integer>(received);
+    }
+
+    synchronized int getAttempts(User peer) {
+      Integer attempts = myAttempts.get(peer);
+      return attempts == null ? 0 : attempts;
+    }
+
+    synchronized int getDeliveredCount() {
+      int result = 0;
+      for (List<Integer> received : myReceived.values()) {
+        result += received.size();
+      }
+      return result;
+    }
+  }
+
+  private static class PeerMessage implements Message {
+    private final int myId;
+
+    PeerMessage(int id) {
+      myId = id;
+    }
+
+    public boolean send(User user) {
+      return ((LatencyTransport)user.getTransport()).deliver(user, myId);
+    }
+
+    public String toString() {
+      return "PeerMessage" + myId;
+    }
+  }
+
   private static class NotifyableMessage extends MockMessage {
     private boolean myDispatchingStarted;
     private boolean myProcessed;
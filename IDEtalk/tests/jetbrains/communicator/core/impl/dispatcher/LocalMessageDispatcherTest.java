@@ -31,6 +31,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Date;
 
 /**
@@ -252,6 +253,46 @@ public class LocalMessageDispatcherTest extends BaseTestCase {
     assertEquals(2, messages.length);
   }
 
+  public void testHistoryIsAppended() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "first"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    File[] segments = new File(myIdeFacade.getCacheDir(), "history").listFiles();
+    assertEquals(1, segments.length);
+    long length = segments[0].length();
+
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "second"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+    assertTrue("Expect the new message to be appended", segments[0].length() > length);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("first", ((MockMessage) messages[0]).getMessage());
+    assertEquals("second", ((MockMessage) messages[1]).getMessage());
+  }
+
+  public void testHistoryRecoveryFromPartialRecord() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "complete"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    File segment = new File(myIdeFacade.getCacheDir(), "history").listFiles()[0];
+    long length = segment.length();
+    FileOutputStream out = new FileOutputStream(segment, true);
+    out.write(new byte[]{0, 0, 0, 10, 'u', 's'});
+    out.close();
+
+    LocalMessageDispatcherImpl localMessageDispatcher = createLocalMessageDispatcher();
+    assertEquals("Partial record should be dropped", length, segment.length());
+
+    localMessageDispatcher.sendNow(myUser, new MockMessage(new Date(), "next"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("complete", ((MockMessage) messages[0]).getMessage());
+    assertEquals("next", ((MockMessage) messages[1]).getMessage());
+  }
+
   private Date yesterday() {
     return new Date(System.currentTimeMillis() - 1000 * 3600 * 24);
   }
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.transport;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
+import jetbrains.communicator.core.transport.Transport;
+import jetbrains.communicator.core.transport.VFileContentTransfer;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.vfs.ContentDelta;
+import jetbrains.communicator.core.vfs.RemoteContentCache;
+import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.mock.MockTransport;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+
+import java.io.StringReader;
+import java.util.Random;
+
+public class GetVFileContentsProviderTest extends BaseTestCase {
+  private MockIDEFacade myIdeFacade;
+  private MockTransport myTransport;
+  private User myUser;
+  private GetVFileContentsProvider myProvider;
+  private RemoteContentCache myCache;
+  private VFile myFile;
+
+  private int myRoundTrips;
+  private int myResponseLength;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    UserModelImpl userModel = new UserModelImpl(getBroadcaster());
+    disposeOnTearDown(userModel);
+    myIdeFacade = new MockIDEFacade(getClass());
+    myTransport = new MockTransport();
+
+    myUser = userModel.createUser("user", MockTransport.NAME);
+    userModel.addUser(myUser);
+    myUser.setCanAccessMyFiles(true, userModel);
+
+    myProvider = new GetVFileContentsProvider(myIdeFacade, userModel);
+    myCache = new RemoteContentCache(1024 * 1024);
+    myFile = VFile.create("a path");
+  }
+
+  public void testSmallFile() throws Exception {
+    myIdeFacade.setReturnedFileText(myFile, "some tex&&&<<>t" + '\u0000');
+
+    assertEquals("some tex&&&<<>t" + '\u0000', transfer(true));
+    assertEquals(1, myRoundTrips);
+  }
+
+  public void testNoSuchFile() throws Exception {
+    assertNull(transfer(true));
+    assertEquals(1, myRoundTrips);
+  }
+
+  public void testBigFileIsChunked() throws Exception {
+    String text = createText(3 * GetVFileContentsXmlMessage.CHUNK_SIZE + 100);
+    myIdeFacade.setReturnedFileText(myFile, text);
+
+    assertEquals(text, transfer(true));
+    assertEquals(4, myRoundTrips);
+  }
+
+  public void testUnchangedFileIsNotResent() throws Exception {
+    String text = createText(100000);
+    myIdeFacade.setReturnedFileText(myFile, text);
+    transfer(true);
+
+    assertEquals(text, transfer(true));
+    assertEquals(1, myRoundTrips);
+    assertTrue("Response length: " + myResponseLength, myResponseLength < 1000);
+  }
+
+  public void testSmallEditIsSentAsDelta() throws Exception {
+    String text = createText(100000);
+    myIdeFacade.setReturnedFileText(myFile, text);
+    transfer(true);
+
+    String changed = text.substring(0, 50000) + "a small edit" + text.substring(50100);
+    myIdeFacade.setReturnedFileText(myFile, changed);
+
+    assertEquals(changed, transfer(true));
+    assertEquals(1, myRoundTrips);
+    assertTrue("Response length: " + myResponseLength, myResponseLength < 5000);
+  }
+
+  public void testChangedFileIsResent() throws Exception {
+    myIdeFacade.setReturnedFileText(myFile, createText(10000));
+    transfer(true);
+
+    Random random = new Random(5);
+    char[] chars = new char[10000];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char)('a' + random.nextInt(26));
+    }
+    String text = new String(chars);
+    myIdeFacade.setReturnedFileText(myFile, text);
+
+    assertEquals(text, transfer(true));
+    assertEquals(1, myRoundTrips);
+  }
+
+  public void testOldRequester() throws Exception {
+    myIdeFacade.setReturnedFileText(myFile, "some text");
+
+    Element request = new Element(GetVFileContentsXmlMessage.TAG, Transport.NAMESPACE);
+    myFile.saveTo(request);
+    Element response = new Element("response", Transport.NAMESPACE);
+    assertTrue(myProvider.processAndFillResponse(response, request, myTransport, myUser.getName()));
+
+    assertEquals("some text", VFile.createFrom(response).getContents());
+  }
+
+  public void testOldPeer() throws Exception {
+    myIdeFacade.setReturnedFileText(myFile, "some text");
+
+    assertEquals("some text", transfer(false));
+    assertEquals(1, myRoundTrips);
+  }
+
+  public void testMalformedRequestIsRejected() throws Exception {
+    String text = createText(10000);
+    myIdeFacade.setReturnedFileText(myFile, text);
+
+    assertRejected(createSignaturesRequest("0"));
+    assertRejected(createSignaturesRequest("-1"));
+    assertRejected(createSignaturesRequest("not a number"));
+    assertRejected(createSignaturesRequest(null));
+
+    Element signatures = createSignaturesRequest(String.valueOf(ContentDelta.MIN_BLOCK_SIZE));
+    signatures.getChild(GetVFileContentsXmlMessage.SIGNATURES_ELEMENT, Transport.NAMESPACE).setText("not a signature, not hex");
+    assertRejected(signatures);
+
+    assertRejected(createChunkRequest(ContentDelta.hash(text), "-5"));
+    assertRejected(createChunkRequest(ContentDelta.hash(text), String.valueOf(text.length() + 1)));
+    assertRejected(createChunkRequest(ContentDelta.hash(text), "many"));
+  }
+
+  public void testTooBigBlockSizeReturnsContents() throws Exception {
+    myIdeFacade.setReturnedFileText(myFile, "some text");
+
+    Element response = process(createSignaturesRequest(String.valueOf(Integer.MAX_VALUE)));
+    assertNull(response.getAttributeValue(GetVFileContentsXmlMessage.ERROR_ATTR));
+    assertEquals("some text", response.getChild(GetVFileContentsXmlMessage.CHUNK_ELEMENT, Transport.NAMESPACE).getText());
+  }
+
+  private Element createSignaturesRequest(String blockSize) {
+    Element request = createRequest();
+    request.setAttribute(GetVFileContentsXmlMessage.KNOWN_HASH_ATTR, ContentDelta.hash("old text"));
+    Element signatures = new Element(GetVFileContentsXmlMessage.SIGNATURES_ELEMENT, Transport.NAMESPACE);
+    if (blockSize != null) {
+      signatures.setAttribute(GetVFileContentsXmlMessage.BLOCK_SIZE_ATTR, blockSize);
+    }
+    request.addContent(signatures);
+    return request;
+  }
+
+  private Element createChunkRequest(String hash, String offset) {
+    Element request = createRequest();
+    request.setAttribute(GetVFileContentsXmlMessage.HASH_ATTR, hash);
+    request.setAttribute(GetVFileContentsXmlMessage.OFFSET_ATTR, offset);
+    return request;
+  }
+
+  private Element createRequest() {
+    Element request = new Element(GetVFileContentsXmlMessage.TAG, Transport.NAMESPACE);
+    myFile.saveTo(request);
+    request.setAttribute(GetVFileContentsXmlMessage.PROTOCOL_ATTR, GetVFileContentsXmlMessage.PROTOCOL_VERSION);
+    return request;
+  }
+
+  private Element process(Element request) {
+    Element response = new Element("response", Transport.NAMESPACE);
+    assertTrue(myProvider.processAndFillResponse(response, request, myTransport, myUser.getName()));
+    return response;
+  }
+
+  private void assertRejected(Element request) {
+    Element response = process(request);
+    assertNotNull("Request should be rejected", response.getAttributeValue(GetVFileContentsXmlMessage.ERROR_ATTR));
+    assertNull(response.getAttributeValue(GetVFileContentsXmlMessage.HASH_ATTR));
+    assertNull(response.getChild(GetVFileContentsXmlMessage.CHUNK_ELEMENT, Transport.NAMESPACE));
+    assertNull(response.getChild(GetVFileContentsXmlMessage.DELTA_ELEMENT, Transport.NAMESPACE));
+  }
+
+  private String transfer(boolean newPeer) throws Exception {
+    myRoundTrips = 0;
+    myResponseLength = 0;
+    VFile file = VFile.create(myFile.getFullPath());
+    VFileContentTransfer transfer = new VFileContentTransfer(myUser, file, myCache);
+
+    while (!transfer.isDone()) {
+      GetVFileContentsXmlMessage message = transfer.createMessage();
+      Element request = new Element(message.getTagName(), message.getTagNamespace());
+      message.fillRequest(request);
+      if (!newPeer) {
+        request.removeAttribute(GetVFileContentsXmlMessage.PROTOCOL_ATTR);
+      }
+
+      Element response = new Element("response", Transport.NAMESPACE);
+      assertTrue(myProvider.processAndFillResponse(response, request, myTransport, myUser.getName()));
+
+      String xml = new XMLOutputter().outputString(response);
+      myResponseLength += xml.length();
+      message.processResponse(new SAXBuilder().build(new StringReader(xml)).getRootElement());
+
+      assertTrue("Too many round trips", ++myRoundTrips < 100);
+    }
+    return file.getContents();
+  }
+
+  private static String createText(int length) {
+    Random random = new Random(length);
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      result.append("line ").append(random.nextInt(100000)).append(" <&>\n");
+    }
+    return result.substring(0, length);
+  }
+}
@@ -23,6 +23,7 @@ import jetbrains.communicator.core.users.UserEvent;
 import jetbrains.communicator.mock.MockIDEFacade;
 import jetbrains.communicator.mock.MockTransport;
 import jetbrains.communicator.mock.MockUser;
+import jetbrains.communicator.util.WaitFor;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -66,6 +67,7 @@ public class PersistentUserModelImplTest extends BaseTestCase {
 
   public void testPersistUser() throws Exception {
     myUserModel.addUser(new MockUser("user", "group"));
+    myUserModel.savePendingChanges();
 
     PersistentUserModelImpl modelInstance = createModelInstance();
     User[] users = modelInstance.getAllUsers();
@@ -86,6 +88,7 @@ public class PersistentUserModelImplTest extends BaseTestCase {
     checkSaved(true);
     getBroadcaster().fireEvent(new UserEvent.Updated(user, "presence", null, null));
     checkSaved(false);
+    assertFindUser(user);
 
     PersistentUserModelImpl modelInstance = createModelInstance();
     User[] users = modelInstance.getAllUsers();
@@ -94,13 +97,19 @@ public class PersistentUserModelImplTest extends BaseTestCase {
     assertEquals("newGroup", users[0].getGroup());
   }
 
+  private void assertFindUser(User user) {
+    assertSame(user, myUserModel.findUser(user.getName(), user.getTransportCode()));
+  }
+
   private void checkSaved(boolean expectedSaved) {
+    myUserModel.savePendingChanges();
     assertEquals(expectedSaved, myUserModel.testSaved());
     mySaved = false;
   }
 
   public void testPersistGroup() throws Exception {
     myUserModel.addGroup("a group");
+    myUserModel.savePendingChanges();
 
     PersistentUserModelImpl modelInstance = createModelInstance();
     String[] groups = modelInstance.getGroups();
@@ -108,6 +117,38 @@ public class PersistentUserModelImplTest extends BaseTestCase {
     assertEquals("a group", groups[0]);
   }
 
+  public void testNoSaveAfterDispose() throws Exception {
+    myUserModel.addUser(new MockUser("user", "group"));
+    assertFalse("Changes should not be written immediately", myUserModel.testSaved());
+
+    myUserModel.dispose();
+    Thread.sleep(PersistentUserModelImpl.SAVE_DELAY * 2);
+    assertFalse("No save should run after dispose", myUserModel.testSaved());
+    assertFalse(new File(myTempDir, PersistentUserModelImpl.FILE_NAME).exists());
+  }
+
+  public void testBurstOfChangesIsSavedOnce() throws Exception {
+    for (int i = 0; i < 100; i ++) {
+      myUserModel.addUser(new MockUser("user" + i, "group" + i % 3));
+    }
+    myUserModel.renameGroup("group0", "renamed");
+    assertFalse("Changes should not be written immediately", myUserModel.testSaved());
+
+    new WaitFor(PersistentUserModelImpl.SAVE_DELAY * 10) {
+      @Override
+      protected boolean condition() {
+        return myUserModel.testSaved();
+      }
+    };
+    Thread.sleep(PersistentUserModelImpl.SAVE_DELAY * 2);
+    assertFalse("Expected a single write", myUserModel.testSaved());
+
+    PersistentUserModelImpl modelInstance = createModelInstance();
+    assertEquals(100, modelInstance.getAllUsers().length);
+    assertEquals(34, modelInstance.getUsers("renamed").length);
+    assertNotNull(modelInstance.findUser("user99", MockTransport.NAME));
+  }
+
   public void testConcurrentModifications() throws Exception {
     Runnable createUserCommand = new Runnable() {
       @Override
@@ -219,6 +219,81 @@ public class UserModelImplTest extends BaseTestCase {
     myListener.assertLog("Expect no messages when not in model", "");
   }
 
+  public void testFindUser() throws Exception {
+    User user = myUserModel.findUser("ccc", MockTransport.NAME);
+    assertNotNull(user);
+    assertEquals("group1", user.getGroup());
+    assertEquals("group1", myUserModel.getGroup(new MockUser("ccc", "other group")));
+
+    assertNull(myUserModel.findUser("ccc", "another transport"));
+    assertNull(myUserModel.findUser("ddd", MockTransport.NAME));
+
+    myUserModel.removeUser(user);
+    assertNull(myUserModel.findUser("ccc", MockTransport.NAME));
+    assertNull(myUserModel.getGroup(user));
+  }
+
+  public void testUserGoesOnline() throws Exception {
+    MockUser ccc = (MockUser) myUserModel.findUser("ccc", MockTransport.NAME);
+    ccc.setOnline(true);
+    getBroadcaster().fireEvent(new UserEvent.Online(ccc));
+
+    User[] group1 = myUserModel.getUsers("group1");
+    assertEquals("ccc", group1[0].getName());
+    assertEquals("aaa", group1[1].getName());
+    assertEquals(5, myUserModel.getAllUsers().length);
+  }
+
+  public void testChangeUserGroup() throws Exception {
+    User aaa = myUserModel.findUser("aaa", MockTransport.NAME);
+    aaa.setGroup("group2", myUserModel);
+
+    assertEquals(1, myUserModel.getUsers("group1").length);
+    assertEquals(4, myUserModel.getUsers("group2").length);
+
+    myUserModel.findUser("ccc", MockTransport.NAME).setGroup("group3", myUserModel);
+    assertEquals(0, myUserModel.getUsers("group1").length);
+    assertEquals(Arrays.asList("group2", "group3"), Arrays.asList(myUserModel.getGroups()));
+  }
+
+  public void testRenameGroupUpdatesUsers() throws Exception {
+    myUserModel.getAllUsers();
+    myUserModel.renameGroup("group1", "new group");
+
+    assertEquals(0, myUserModel.getUsers("group1").length);
+    assertEquals(2, myUserModel.getUsers("new group").length);
+    assertEquals(Arrays.asList("group2", "new group"), Arrays.asList(myUserModel.getGroups()));
+    assertEquals("new group", myUserModel.getAllUsers()[4].getGroup());
+  }
+
+  public void testLargeModel() throws Exception {
+    for (int i = 0; i < 5000; i ++) {
+      myUserModel.addUser(new MockUser("user" + i, "group" + i % 10));
+    }
+    assertEquals(5005, myUserModel.getAllUsers().length);
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < 5000; i ++) {
+      MockUser user = (MockUser) myUserModel.findUser("user" + i, MockTransport.NAME);
+      user.setOnline(true);
+      getBroadcaster().fireEvent(new UserEvent.Online(user));
+      myUserModel.getAllUsers();
+    }
+    System.out.println("5000 presence updates: " + (System.currentTimeMillis() - start) + "ms");
+
+    User[] all = myUserModel.getAllUsers();
+    for (int i = 1; i < all.length; i ++) {
+      User prev = all[i - 1];
+      User user = all[i];
+      assertTrue(prev.getGroup().compareTo(user.getGroup()) <= 0);
+      if (prev.getGroup().equals(user.getGroup())) {
+        assertTrue("Online users go first", prev.isOnline() || !user.isOnline());
+      }
+    }
+    assertEquals("group0", all[0].getGroup());
+    assertEquals("user0", all[0].getName());
+  }
+
   private void assertUser(String group, String name, User user) {
     assertEquals(group, user.getGroup());
     assertEquals(name, user.getDisplayName());
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import jetbrains.communicator.core.transport.Transport;
+import junit.framework.TestCase;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+
+import java.io.StringReader;
+import java.util.Random;
+
+public class ContentDeltaTest extends TestCase {
+  private static final int BLOCK_SIZE = 256;
+
+  public void testSameContents() throws Exception {
+    String contents = createText(10000, 1);
+    ContentDelta delta = doTest(contents, contents);
+    assertEquals(0, delta.getLiteralLength());
+  }
+
+  public void testSmallEdits() throws Exception {
+    String base = createText(20000, 2);
+    String changed = base.substring(0, 5000) + "inserted text" + base.substring(5000, 12000) + base.substring(12010) + "\u0000tail";
+
+    ContentDelta delta = doTest(base, changed);
+    assertTrue("Literal length: " + delta.getLiteralLength(), delta.getLiteralLength() < 6 * BLOCK_SIZE);
+  }
+
+  public void testDifferentContents() throws Exception {
+    String base = createText(5000, 3);
+    String changed = createText(5000, 4);
+
+    ContentDelta delta = doTest(base, changed);
+    assertEquals(changed.length(), delta.getLiteralLength());
+  }
+
+  public void testShortContents() throws Exception {
+    doTest("", "abc");
+    doTest("abc", "");
+    doTest("abc", "abcd");
+  }
+
+  public void testHash() throws Exception {
+    assertEquals(ContentDelta.hash("text"), ContentDelta.hash("te" + "xt"));
+    assertFalse(ContentDelta.hash("text").equals(ContentDelta.hash("text ")));
+    assertEquals(32, ContentDelta.hash("").length());
+  }
+
+  private static ContentDelta doTest(String base, String changed) throws Exception {
+    String signatures = ContentDelta.createSignatures(base, BLOCK_SIZE);
+    ContentDelta delta = ContentDelta.create(changed, BLOCK_SIZE, signatures);
+    assertEquals(changed, delta.apply(base, BLOCK_SIZE));
+
+    Element element = new Element("delta", Transport.NAMESPACE);
+    delta.saveTo(element);
+    String xml = new XMLOutputter().outputString(element);
+    Element restored = new SAXBuilder().build(new StringReader(xml)).getRootElement();
+    assertEquals(changed, ContentDelta.createFrom(restored).apply(base, BLOCK_SIZE));
+    return delta;
+  }
+
+  static String createText(int length, long seed) {
+    Random random = new Random(seed);
+    StringBuilder result = new StringBuilder(length);
+    while (result.length() < length) {
+      result.append("line ").append(random.nextInt(100000)).append(" \u0442\u0435\u043a\u0441\u0442 <&>\n");
+    }
+    return result.substring(0, length);
+  }
+}
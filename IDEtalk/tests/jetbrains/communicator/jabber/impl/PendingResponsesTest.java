@@ -0,0 +1,172 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.transport.XmlMessage;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.WaitFor;
+import org.jdom.Element;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PendingResponsesTest extends BaseTestCase {
+  private PendingResponses myResponses;
+  private final AtomicInteger myProcessed = new AtomicInteger();
+  private final AtomicInteger myMismatched = new AtomicInteger();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myResponses = new PendingResponses(new MockIDEFacade(getClass()), 60 * 1000, "test");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myResponses.dispose();
+    super.tearDown();
+  }
+
+  public void testResponseIsMatchedByThread() throws Exception {
+    String thread1 = myResponses.register(new Request("1"));
+    String thread2 = myResponses.register(new Request("2"));
+    assertFalse(thread1.equals(thread2));
+    assertEquals(2, myResponses.size());
+
+    assertTrue(myResponses.responseReceived(thread2, response("2")));
+    assertFalse("Response already processed", myResponses.responseReceived(thread2, response("2")));
+    assertFalse("Unknown thread", myResponses.responseReceived("some thread", response("1")));
+    assertFalse(myResponses.responseReceived(null, response("1")));
+    assertTrue(myResponses.responseReceived(thread1, response("1")));
+
+    waitForProcessed(2);
+    assertEquals(0, myMismatched.get());
+    assertEquals(0, myResponses.size());
+  }
+
+  public void testManyConcurrentRequests() throws Exception {
+    final int threads = 20;
+    final int requestsPerThread = 100;
+    final Map<String, String> thread2Id = Collections.synchronizedMap(new HashMap<String, String>());
+
+    List<Thread> senders = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i ++) {
+      final int sender = i;
+      senders.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < requestsPerThread; j ++) {
+            String id = sender + ":" + j;
+            thread2Id.put(myResponses.register(new Request(id)), id);
+          }
+        }
+      });
+    }
+    for (Thread sender : senders) sender.start();
+    for (Thread sender : senders) sender.join();
+
+    assertEquals(threads * requestsPerThread, thread2Id.size());
+    assertEquals(threads * requestsPerThread, myResponses.size());
+
+    // Responses come in arbitrary order
+    List<String> threadIds = new ArrayList<String>(thread2Id.keySet());
+    Collections.shuffle(threadIds, new Random(3));
+    for (String threadId : threadIds) {
+      assertTrue(myResponses.responseReceived(threadId, response(thread2Id.get(threadId))));
+    }
+
+    waitForProcessed(threads * requestsPerThread);
+    assertEquals(0, myMismatched.get());
+    assertEquals(0, myResponses.size());
+  }
+
+  public void testRequestExpires() throws Exception {
+    myResponses.dispose();
+    myResponses = new PendingResponses(new MockIDEFacade(getClass()), 100, "test");
+
+    String threadId = myResponses.register(new Request("1"));
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return myResponses.size() == 0;
+      }
+    };
+    assertEquals(0, myResponses.size());
+
+    assertFalse("Late response is ignored", myResponses.responseReceived(threadId, response("1")));
+    Thread.sleep(50);
+    assertEquals(0, myProcessed.get());
+  }
+
+  public void testCancel() throws Exception {
+    String threadId = myResponses.register(new Request("1"));
+    myResponses.cancel(threadId);
+    assertFalse(myResponses.responseReceived(threadId, response("1")));
+  }
+
+  private void waitForProcessed(final int count) {
+    new WaitFor(5000) {
+      @Override
+      protected boolean condition() {
+        return myProcessed.get() == count;
+      }
+    };
+    assertEquals(count, myProcessed.get());
+  }
+
+  private static Element response(String id) {
+    Element element = new Element("response");
+    element.setAttribute("id", id);
+    return element;
+  }
+
+  private class Request implements XmlMessage {
+    private final String myId;
+
+    Request(String id) {
+      myId = id;
+    }
+
+    @Override
+    public String getTagName() {
+      return "request";
+    }
+
+    @Override
+    public String getTagNamespace() {
+      return "test";
+    }
+
+    @Override
+    public boolean needsResponse() {
+      return true;
+    }
+
+    @Override
+    public void fillRequest(Element element) {
+      element.setAttribute("id", myId);
+    }
+
+    @Override
+    public void processResponse(Element responseElement) {
+      if (!myId.equals(responseElement.getAttributeValue("id"))) {
+        myMismatched.incrementAndGet();
+      }
+      myProcessed.incrementAndGet();
+    }
+  }
+}
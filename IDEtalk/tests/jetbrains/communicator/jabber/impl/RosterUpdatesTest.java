@@ -0,0 +1,99 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.jabber.impl;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.WaitFor;
+
+import java.util.*;
+
+public class RosterUpdatesTest extends BaseTestCase {
+  private RosterUpdates myUpdates;
+  private final List<String> myBatches = Collections.synchronizedList(new ArrayList<String>());
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myUpdates = new RosterUpdates(new MockIDEFacade(getClass()), 300, new RosterUpdates.Processor() {
+      @Override
+      public void process(Collection<String> entries, Collection<String> jabberIds) {
+        myBatches.add(entries + " " + jabberIds);
+      }
+    });
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myUpdates.clear();
+    super.tearDown();
+  }
+
+  public void testChangesAreMerged() throws Exception {
+    myUpdates.entriesChanged(Arrays.asList("bob@jabber.org", "alice@jabber.org"));
+    myUpdates.entriesChanged(Arrays.asList("bob@jabber.org"));
+    myUpdates.presenceChanged("bob@jabber.org/Home");
+    myUpdates.presenceChanged("alice@jabber.org/Work");
+    myUpdates.presenceChanged("bob@jabber.org/IDEtalk");
+
+    assertTrue(myUpdates.hasPendingChanges());
+    myUpdates.flush();
+
+    assertEquals(1, myBatches.size());
+    assertEquals("[bob@jabber.org, alice@jabber.org] [bob@jabber.org/IDEtalk, alice@jabber.org/Work]", myBatches.get(0));
+    assertFalse(myUpdates.hasPendingChanges());
+
+    myUpdates.flush();
+    assertEquals("Nothing to process", 1, myBatches.size());
+  }
+
+  public void testBurstIsProcessedOnce() throws Exception {
+    for (int i = 0; i < 1000; i ++) {
+      myUpdates.presenceChanged("user" + (i % 10) + "@jabber.org/Res" + i);
+    }
+
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return !myBatches.isEmpty();
+      }
+    };
+    Thread.sleep(200);
+
+    assertEquals(myBatches.toString(), 1, myBatches.size());
+    assertTrue(myBatches.get(0), myBatches.get(0).contains("user9@jabber.org/Res999"));
+    assertFalse(myBatches.get(0), myBatches.get(0).contains("Res989"));
+  }
+
+  public void testClear() throws Exception {
+    myUpdates.entriesChanged(Arrays.asList("bob@jabber.org"));
+    myUpdates.presenceChanged("bob@jabber.org/Home");
+    myUpdates.clear();
+    assertFalse(myUpdates.hasPendingChanges());
+
+    Thread.sleep(500);
+    assertEquals(0, myBatches.size());
+
+    myUpdates.presenceChanged("bob@jabber.org/Home");
+    new WaitFor(2000) {
+      @Override
+      protected boolean condition() {
+        return !myBatches.isEmpty();
+      }
+    };
+    assertEquals("[] [bob@jabber.org/Home]", myBatches.get(0));
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.EventBroadcaster;
+import jetbrains.communicator.core.EventVisitor;
+import jetbrains.communicator.core.IDEtalkAdapter;
+import jetbrains.communicator.core.IDEtalkEvent;
+import jetbrains.communicator.core.dispatcher.LocalMessage;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.impl.EventBroadcasterImpl;
+import jetbrains.communicator.core.impl.dispatcher.AsyncMessageDispatcherImpl;
+import jetbrains.communicator.core.impl.dispatcher.LocalMessageDispatcherImpl;
+import jetbrains.communicator.core.impl.transport.GetVFileContentsProvider;
+import jetbrains.communicator.core.impl.users.UserModelImpl;
+import jetbrains.communicator.core.transport.*;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserPresence;
+import jetbrains.communicator.core.vfs.RemoteContentCache;
+import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.mock.MockMessage;
+import jetbrains.communicator.mock.MockTransport;
+import jetbrains.communicator.p2p.commands.SendXmlMessageP2PCommand;
+import jetbrains.communicator.util.StringUtil;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+
+import java.io.File;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.util.*;
+
+/**
+ * A peer of {@link P2PBenchmark}. It is wired like {@link P2PTransport} wires the real one:
+ * own user model and event broadcaster, queue of outgoing network messages, incoming messages and
+ * their history, a binary RPC server on a free loopback port serving SendMessage calls, and LAN presence.
+ * P2PTransport itself can't be used, as it is a singleton bound to the fixed IDEtalk port.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+class BenchmarkPeer implements UserMonitorClient {
+  private static final int CONTENT_CACHE_SIZE = 16 * 1024 * 1024;
+
+  private final String myName;
+  private final Listener myListener;
+  private final long myLatency;
+  private final double myFailureRate;
+  private final Random myRandom = new Random();
+
+  private final File myDataDir;
+  private final MockIDEFacade myIdeFacade;
+  private final EventBroadcasterImpl myBroadcaster = new EventBroadcasterImpl();
+  private final UserModelImpl myUserModel;
+  private final MockTransport myTransport = new MockTransport();
+  private final AsyncMessageDispatcherImpl myDispatcher;
+  private final LocalMessageDispatcherImpl myLocalDispatcher;
+  private final PeerCommand myCommand;
+  private final BinaryRpcServer myServer;
+  private final RemoteContentCache myContentCache = new RemoteContentCache(CONTENT_CACHE_SIZE);
+  private final LanPresence myPresence;
+  private volatile UserPresence myOwnPresence = new UserPresence(true);
+
+  BenchmarkPeer(String name, File dataDir, PresenceChannel presenceChannel, long heartbeatInterval,
+                long latency, double failureRate, Listener listener) {
+    myName = name;
+    myDataDir = dataDir;
+    myLatency = latency;
+    myFailureRate = failureRate;
+    myListener = listener;
+
+    myIdeFacade = new MockIDEFacade(dataDir) {
+      @Override
+      public LocalMessage createLocalMessageForIncomingEvent(TransportEvent event) {
+        return new MockMessage(event.getWhen(), ((MessageEvent)event).getMessage());
+      }
+    };
+    myIdeFacade.setReturnedAnswer(true);
+    myIdeFacade.setReturnedProjects(new String[]{"project of " + name});
+
+    myUserModel = new UserModelImpl(myBroadcaster);
+    myDispatcher = new AsyncMessageDispatcherImpl(myBroadcaster, myIdeFacade);
+    myLocalDispatcher = new LocalMessageDispatcherImpl(myBroadcaster, myIdeFacade, myUserModel);
+    myBroadcaster.addListener(new IDEtalkAdapter() {
+      @Override
+      public void afterChange(IDEtalkEvent event) {
+        event.accept(new EventVisitor() {
+          @Override
+          public void visitMessageEvent(MessageEvent event) {
+            myListener.messageReceived(BenchmarkPeer.this, event.getRemoteUser(), event.getMessage());
+          }
+        });
+      }
+    });
+
+    myCommand = new PeerCommand(myBroadcaster, myTransport);
+    Map<String, Object> handlers = new HashMap<String, Object>();
+    handlers.put(myCommand.getXmlRpcId(), myCommand);
+    myServer = new BinaryRpcServer(handlers);
+
+    myPresence = new LanPresence(presenceChannel, this, myIdeFacade, heartbeatInterval) {
+      @Override
+      protected String getSelfName() {
+        return myName;
+      }
+    };
+  }
+
+  boolean start() {
+    return myServer.start(0);
+  }
+
+  void dispose() {
+    myPresence.stop();
+    myServer.stop();
+    myDispatcher.dispose();
+    myLocalDispatcher.dispose();
+    myUserModel.dispose();
+  }
+
+  String getName() {
+    return myName;
+  }
+
+  File getDataDir() {
+    return myDataDir;
+  }
+
+  LanPresence getPresence() {
+    return myPresence;
+  }
+
+  /** Adds the peer to the contact list, allowing it to read local files */
+  void addContact(BenchmarkPeer peer) {
+    User user = getContact(peer.getName());
+    myUserModel.addUser(user);
+    user.setCanAccessMyFiles(true, myUserModel);
+  }
+
+  User getContact(String name) {
+    return myUserModel.createUser(name, myTransport.getName());
+  }
+
+  void setFileContents(String path, String contents) {
+    myIdeFacade.setReturnedFileText(VFile.create(path), contents);
+  }
+
+  /** Queues the message like {@link P2PTransport#sendXmlMessage} does for messages without response */
+  void sendLater(BenchmarkPeer target, XmlMessage message) {
+    myDispatcher.sendLater(getContact(target.getName()), createNetworkMessage(target, message));
+  }
+
+  /** Sends the message in the calling thread, like {@link P2PTransport#sendXmlMessage} does for requests */
+  boolean sendNow(BenchmarkPeer target, XmlMessage message) {
+    return myDispatcher.sendNow(getContact(target.getName()), createNetworkMessage(target, message));
+  }
+
+  /** @return contents of a file of the given peer, or null if the transfer failed */
+  String requestFile(BenchmarkPeer target, String path) {
+    VFileContentTransfer transfer = new VFileContentTransfer(getContact(target.getName()), VFile.create(path), myContentCache);
+    while (!transfer.isDone()) {
+      if (!sendNow(target, transfer.createMessage())) return null;
+    }
+    return transfer.getFile().getContents();
+  }
+
+  boolean hasPendingMessages() {
+    return myDispatcher.hasUsersWithMessages();
+  }
+
+  /**
+   * Reads incoming messages, which moves them to the history.
+   * @return number of messages read
+   */
+  int readIncomingMessages() {
+    int result = 0;
+    for (User user : myLocalDispatcher.getUsersWithMessages()) {
+      for (Message message : myLocalDispatcher.getPendingMessages(user)) {
+        if (myLocalDispatcher.sendNow(user, message)) {
+          result ++;
+        }
+      }
+    }
+    return result;
+  }
+
+  int countHistory() {
+    int result = 0;
+    for (User user : myUserModel.getAllUsers()) {
+      result += myLocalDispatcher.getHistory(user, null).length;
+    }
+    return result;
+  }
+
+  void setOwnPresence(UserPresence presence) {
+    myOwnPresence = presence;
+    myPresence.announce();
+  }
+
+  private Message createNetworkMessage(BenchmarkPeer target, XmlMessage message) {
+    Element element = new Element(message.getTagName(), message.getTagNamespace());
+    message.fillRequest(element);
+    return new NetworkMessage(myCommand.getXmlRpcId(), target.getPort(), myName, new XMLOutputter().outputString(element), message);
+  }
+
+  /**
+   * Not used: the peer learns about online users from presence announcements (see {@link LanPresence}),
+   * no user monitor scans for them.
+   */
+  @Override
+  public void setOnlineUsers(Collection<User> onlineUsers) {
+  }
+
+  @Override
+  public User createUser(String remoteUsername, OnlineUserInfo onlineUserInfo) {
+    return getContact(remoteUsername);
+  }
+
+  @Override
+  public User userOnline(String remoteUsername, OnlineUserInfo onlineUserInfo) {
+    myListener.presenceChanged(this, remoteUsername, onlineUserInfo.getPresence());
+    return getContact(remoteUsername);
+  }
+
+  @Override
+  public void userOffline(User user) {
+    myListener.presenceChanged(this, user.getName(), new UserPresence(false));
+  }
+
+  /** XML-RPC port of the peer; the binary server listens on the next one */
+  @Override
+  public int getPort() {
+    return myServer.getPort() - 1;
+  }
+
+  @Override
+  public UserPresence getOwnPresence() {
+    return myOwnPresence;
+  }
+
+  @Override
+  public String toString() {
+    return myName;
+  }
+
+  interface Listener {
+    void messageReceived(BenchmarkPeer receiver, String remoteUser, String text);
+
+    void presenceChanged(BenchmarkPeer observer, String remoteUser, UserPresence presence);
+  }
+
+  /** Serves incoming messages of this peer, with injected latency and failures */
+  private class PeerCommand extends SendXmlMessageP2PCommand {
+    private final XmlResponseProvider myFileProvider = new GetVFileContentsProvider(myIdeFacade, myUserModel);
+
+    PeerCommand(EventBroadcaster broadcaster, Transport transport) {
+      super(broadcaster, transport);
+    }
+
+    @Override
+    public String incomingMessage(String remoteUser, String messageText) {
+      if (myLatency > 0) {
+        try {
+          Thread.sleep(myLatency);
+        }
+        catch (InterruptedException e) {
+          return null;
+        }
+      }
+      if (myFailureRate > 0) {
+        synchronized (myRandom) {
+          // a lost request: no response is the same as no connection for the caller
+          if (myRandom.nextDouble() < myFailureRate) return null;
+        }
+      }
+      return super.incomingMessage(remoteUser, messageText);
+    }
+
+    @Override
+    protected XmlResponseProvider getProvider(Element rootElement) {
+      if (myFileProvider.getTagName().equals(rootElement.getName())) {
+        return myFileProvider;
+      }
+      return new TextMessageEventProvider(myEventBroadcaster);
+    }
+  }
+
+  /** Like the network message of P2P transport, but sent on behalf of a peer to a given port */
+  private static class NetworkMessage implements Message {
+    private final String myCommandId;
+    private final int myPort;
+    private final String myFrom;
+    private final String myXml;
+    private final transient XmlMessage myMessage;
+
+    NetworkMessage(String commandId, int port, String from, String xml, XmlMessage message) {
+      myCommandId = commandId;
+      myPort = port;
+      myFrom = from;
+      myXml = xml;
+      myMessage = message;
+    }
+
+    @Override
+    public boolean send(User user) {
+      Object response;
+      try {
+        XmlRpcTargetImpl target = new XmlRpcTargetImpl(myPort, InetAddress.getByName("127.0.0.1"));
+        response = NetworkUtil.sendMessage(target, myCommandId, "incomingMessage",
+                                           StringUtil.toXMLSafeString(myFrom), StringUtil.toXMLSafeString(myXml));
+      }
+      catch (Exception e) {
+        return false;
+      }
+      if (response == null) return false;
+
+      if (myMessage != null && myMessage.needsResponse() && response.toString().length() > 0) {
+        try {
+          Document document = new SAXBuilder().build(new StringReader(response.toString()));
+          myMessage.processResponse(document.getRootElement());
+        }
+        catch (Exception e) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
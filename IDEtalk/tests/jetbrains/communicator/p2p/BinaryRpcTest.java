@@ -0,0 +1,272 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import org.apache.xmlrpc.WebServer;
+import org.apache.xmlrpc.XmlRpcClient;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.*;
+
+/**
+ * Tests binary P2P calls and compares them with XML-RPC calls over loopback.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class BinaryRpcTest extends BaseTestCase {
+  private static final String HANDLER_ID = "Echo";
+  private static final int BENCHMARK_CALLS = 300;
+
+  private int myXmlRpcPort;
+  private WebServer myXmlRpcServer;
+  private BinaryRpcServer myBinaryServer;
+  private BinaryRpcClient myClient;
+  private XmlRpcTargetImpl myTarget;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    Map<String, Object> handlers = new HashMap<String, Object>();
+    handlers.put(HANDLER_ID, new EchoHandler());
+
+    myBinaryServer = new BinaryRpcServer(handlers);
+    myXmlRpcPort = findFreePort();
+    for (int i = 0; i < 10 && !myBinaryServer.start(BinaryRpc.getBinaryPort(myXmlRpcPort)); i++) {
+      myXmlRpcPort = findFreePort();
+    }
+    assertTrue(myBinaryServer.getPort() > 0);
+
+    myXmlRpcServer = new WebServer(myXmlRpcPort);
+    myXmlRpcServer.addHandler(HANDLER_ID, new EchoHandler());
+    myXmlRpcServer.start();
+
+    myClient = new BinaryRpcClient();
+    myTarget = new XmlRpcTargetImpl(myXmlRpcPort, InetAddress.getByName("127.0.0.1"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myClient.shutdown();
+    myBinaryServer.stop();
+    myXmlRpcServer.shutdown();
+    super.tearDown();
+  }
+
+  public void testValueCodec() throws Exception {
+    Vector<Object> vector = new Vector<Object>();
+    vector.add("AVAILABLE");
+    vector.add(17);
+    Hashtable<Object, Object> hashtable = new Hashtable<Object, Object>();
+    hashtable.put("key", Boolean.TRUE);
+    hashtable.put("date", new Date(1234567890L));
+    vector.add(hashtable);
+    vector.add(2.5);
+    vector.add("\u0442\u0435\u0441\u0442 <xml/>");
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BinaryRpc.writeValue(new DataOutputStream(bytes), vector);
+    Object restored = BinaryRpc.readValue(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(vector, restored);
+  }
+
+  public void testMalformedValuesAreRejected() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(7);  // vector
+    out.writeInt(1000000);
+    out.writeByte(0);
+    assertMalformed(bytes.toByteArray());
+
+    Hashtable<Object, Object> hashtable = new Hashtable<Object, Object>();
+    hashtable.put("key", "value");
+    bytes = new ByteArrayOutputStream();
+    BinaryRpc.writeValue(new DataOutputStream(bytes), hashtable);
+    byte[] data = bytes.toByteArray();
+    data[data.length - 10] = 0;  // replace the string type of the value by null
+    assertMalformed(Arrays.copyOf(data, data.length - 9));
+  }
+
+  private static void assertMalformed(byte[] data) {
+    try {
+      BinaryRpc.readValue(new DataInputStream(new ByteArrayInputStream(data)));
+      fail("Malformed value should be rejected");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testCall() throws Exception {
+    assertEquals("hello", myClient.execute(myTarget, HANDLER_ID + ".echo", Arrays.asList("user", "hello")));
+
+    Vector<String> projects = new Vector<String>(Arrays.asList("project1", "project2"));
+    assertEquals(Boolean.TRUE, myClient.execute(myTarget, HANDLER_ID + ".addProjects", Arrays.asList("user", 2, projects)));
+    assertEquals(1, myClient.getConnectionCount());
+
+    try {
+      myClient.execute(myTarget, HANDLER_ID + ".unknown", Arrays.asList("user"));
+      fail("Unknown method should fail");
+    }
+    catch (BinaryRpc.RemoteException e) {
+      // expected
+    }
+
+    try {
+      myClient.execute(myTarget, HANDLER_ID + ".hashCode", Collections.emptyList());
+      fail("Methods of java.lang.Object should not be callable");
+    }
+    catch (BinaryRpc.RemoteException e) {
+      // expected
+    }
+    assertEquals("Connection should be reused", 1, myClient.getConnectionCount());
+  }
+
+  public void testConcurrentCallsArePipelined() throws Exception {
+    final int calls = 8;
+    final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+    List<Thread> threads = new ArrayList<Thread>();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < calls; i++) {
+      final String text = "call" + i;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            results.add(myClient.execute(myTarget, HANDLER_ID + ".slowEcho", Arrays.asList("user", text)));
+          }
+          catch (IOException e) {
+            results.add(e);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long elapsed = System.currentTimeMillis() - start;
+
+    assertEquals(calls, results.size());
+    for (int i = 0; i < calls; i++) {
+      assertTrue(results.toString(), results.contains("call" + i));
+    }
+    assertTrue(myClient.getConnectionCount() <= BinaryRpcClient.MAX_CONNECTIONS_PER_PEER);
+    assertTrue("Calls should not wait for each other: " + elapsed + "ms", elapsed < calls * EchoHandler.DELAY / 2);
+  }
+
+  public void testFallbackToXmlRpc() throws Exception {
+    myBinaryServer.stop();
+
+    try {
+      myClient.execute(myTarget, HANDLER_ID + ".echo", Arrays.asList("user", "hello"));
+      fail("Binary calls are not supported by the peer");
+    }
+    catch (BinaryRpc.NotSupportedException e) {
+      // expected
+    }
+
+    assertEquals("hello", NetworkUtil.sendMessage(myTarget, HANDLER_ID, "echo", "user", "hello"));
+  }
+
+  public void testRefusedConnectionIsRetried() throws Exception {
+    int port = myBinaryServer.getPort();
+    myBinaryServer.stop();
+
+    try {
+      myClient.execute(myTarget, HANDLER_ID + ".echo", Arrays.asList("user", "hello"));
+      fail("Nothing listens on the binary port");
+    }
+    catch (BinaryRpc.NotSupportedException e) {
+      // expected
+    }
+
+    // the peer is back, binary calls should be used again
+    assertTrue(myBinaryServer.start(port));
+    assertEquals("hello", myClient.execute(myTarget, HANDLER_ID + ".echo", Arrays.asList("user", "hello")));
+  }
+
+  public void testBenchmark() throws Exception {
+    String url = "http://127.0.0.1:" + myXmlRpcPort + "/rpc2";
+    String text = createText(2000);
+    Vector<Object> parameters = new Vector<Object>(Arrays.asList("user", text));
+
+    // warm up both paths
+    for (int i = 0; i < 20; i++) {
+      new XmlRpcClient(url).execute(HANDLER_ID + ".echo", parameters);
+      myClient.execute(myTarget, HANDLER_ID + ".echo", parameters);
+    }
+
+    long start = System.nanoTime();
+    for (int i = 0; i < BENCHMARK_CALLS; i++) {
+      assertEquals(text, new XmlRpcClient(url).execute(HANDLER_ID + ".echo", parameters));
+    }
+    long xmlRpcTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < BENCHMARK_CALLS; i++) {
+      assertEquals(text, myClient.execute(myTarget, HANDLER_ID + ".echo", parameters));
+    }
+    long binaryTime = System.nanoTime() - start;
+
+    report("XML-RPC", xmlRpcTime);
+    report("Binary", binaryTime);
+  }
+
+  private static void report(String name, long nanos) {
+    System.out.println(name + ": " + (BENCHMARK_CALLS * 1000000000L / nanos) + " messages/s, " +
+                       (nanos / BENCHMARK_CALLS / 1000) + " us per message");
+  }
+
+  private static String createText(int length) {
+    StringBuilder result = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      result.append((char)('a' + i % 26));
+    }
+    return result.toString();
+  }
+
+  private static int findFreePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try {
+      return socket.getLocalPort();
+    }
+    finally {
+      socket.close();
+    }
+  }
+
+  public static class EchoHandler {
+    static final long DELAY = 200;
+
+    public String echo(String remoteUser, String text) {
+      return text;
+    }
+
+    public String slowEcho(String remoteUser, String text) throws InterruptedException {
+      Thread.sleep(DELAY);
+      return text;
+    }
+
+    public boolean addProjects(String remoteUser, int count, Vector<String> projects) {
+      return projects.size() == count;
+    }
+  }
+}
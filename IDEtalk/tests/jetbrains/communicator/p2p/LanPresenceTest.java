@@ -0,0 +1,351 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.users.UserImpl;
+import jetbrains.communicator.core.users.PresenceMode;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserPresence;
+import jetbrains.communicator.mock.MockIDEFacade;
+import jetbrains.communicator.util.WaitFor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+
+/**
+ * Simulates several peers talking to each other through an in-memory loopback network.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class LanPresenceTest extends BaseTestCase {
+  private static final long HEARTBEAT = 100;
+  private static final int PEERS = 5;
+
+  private LoopbackNetwork myNetwork;
+  private final List<Peer> myPeers = new ArrayList<Peer>();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myNetwork = new LoopbackNetwork();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (Peer peer : myPeers) {
+      peer.myPresence.stop();
+    }
+    super.tearDown();
+  }
+
+  public void testAllPeersDiscoverEachOther() throws Exception {
+    startPeers(PEERS);
+
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+  }
+
+  public void testNewcomerLearnsAboutOthersWithoutWaitingForHeartbeat() throws Exception {
+    startPeers(PEERS);
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+
+    Peer newcomer = new Peer("newcomer", 10000 + PEERS, 60 * 1000);
+    myPeers.add(newcomer);
+    newcomer.myPresence.start();
+
+    // Heartbeat interval of the newcomer is huge, everybody learns about it from JOIN
+    // and it learns about others from their replies. Others should not expire the newcomer
+    // before its next heartbeat.
+    long started = System.currentTimeMillis();
+    waitForUsers(newcomer, allNames());
+    assertTrue("Too slow: " + (System.currentTimeMillis() - started), System.currentTimeMillis() - started < 2 * HEARTBEAT);
+    Thread.sleep(5 * HEARTBEAT);
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+  }
+
+  public void testOnlyChangesAreReported() throws Exception {
+    startPeers(2);
+    final Peer first = myPeers.get(0);
+    waitForUsers(first, allNames());
+
+    Thread.sleep(HEARTBEAT * 5);
+    assertEquals("Heartbeats without changes should not be reported: " + first.myClient.myLog,
+                 2, first.myClient.myLog.size());
+
+    Peer second = myPeers.get(1);
+    second.myClient.myPresence = new UserPresence(PresenceMode.AWAY);
+    second.myPresence.announce();
+
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return first.myClient.getPresence("user1") == PresenceMode.AWAY;
+      }
+    };
+    assertEquals(PresenceMode.AWAY, first.myClient.getPresence("user1"));
+    assertEquals(first.myClient.myLog.toString(), 3, first.myClient.myLog.size());
+    assertEquals("online user1", first.myClient.myLog.get(2));
+  }
+
+  public void testLeaveIsReportedImmediately() throws Exception {
+    startPeers(3);
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+
+    Peer leaving = myPeers.remove(2);
+    leaving.myPresence.stop();
+
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames(), HEARTBEAT);
+      assertTrue(peer.myClient.myLog.contains("offline user2"));
+    }
+  }
+
+  public void testSilentPeerExpires() throws Exception {
+    startPeers(3);
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+
+    Peer crashed = myPeers.remove(2);
+    myNetwork.disconnect(crashed.myChannel);
+
+    long started = System.currentTimeMillis();
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames());
+    }
+    long expiredAfter = System.currentTimeMillis() - started;
+    assertTrue("Expired too early: " + expiredAfter, expiredAfter >= 2 * HEARTBEAT);
+    crashed.myPresence.stop();
+  }
+
+  public void testLossyNetworkConverges() throws Exception {
+    myNetwork.myDropRate = 0.3;
+    startPeers(PEERS);
+
+    for (Peer peer : myPeers) {
+      waitForUsers(peer, allNames(), 30 * HEARTBEAT);
+    }
+  }
+
+  public void testAnnouncementCodec() throws Exception {
+    LanPresence.Announcement announcement = new LanPresence.Announcement(LanPresence.HEARTBEAT, "\u041a\u0438\u0440", 2864, 10000,
+        new UserPresence(PresenceMode.DND), Arrays.asList("project1", "project2"));
+    byte[] bytes = announcement.encode();
+
+    LanPresence.Announcement decoded = LanPresence.Announcement.decode(bytes, bytes.length);
+    assertNotNull(decoded);
+    assertEquals(LanPresence.HEARTBEAT, decoded.myType);
+    assertEquals("\u041a\u0438\u0440", decoded.myUser);
+    assertEquals(2864, decoded.myPort);
+    assertEquals(10000, decoded.myHeartbeatInterval);
+    assertEquals(PresenceMode.DND, decoded.myPresence.getPresenceMode());
+    assertEquals(new HashSet<String>(Arrays.asList("project1", "project2")), decoded.myProjects);
+
+    assertNull("Truncated message", LanPresence.Announcement.decode(bytes, bytes.length - 3));
+    byte[] ping = (MulticastPingThread.PING_MESSAGE + 2864).getBytes();
+    assertNull("Ping from older clients", LanPresence.Announcement.decode(ping, ping.length));
+  }
+
+  public void testLongProjectListIsTruncated() throws Exception {
+    List<String> projects = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      projects.add("some project with a long name " + i);
+    }
+    LanPresence.Announcement announcement = new LanPresence.Announcement(LanPresence.JOIN, "user", 2864, 10000,
+        new UserPresence(true), projects);
+    byte[] bytes = announcement.encode();
+
+    assertTrue(bytes.length <= MulticastPresenceChannel.MAX_MESSAGE_SIZE);
+    LanPresence.Announcement decoded = LanPresence.Announcement.decode(bytes, bytes.length);
+    assertTrue(decoded.myProjects.size() > 10);
+    assertTrue(decoded.myProjects.size() < projects.size());
+  }
+
+  private void startPeers(int count) {
+    for (int i = 0; i < count; i++) {
+      Peer peer = new Peer("user" + i, 10000 + i, HEARTBEAT);
+      myPeers.add(peer);
+    }
+    for (Peer peer : myPeers) {
+      peer.myPresence.start();
+    }
+  }
+
+  private Set<String> allNames() {
+    Set<String> result = new TreeSet<String>();
+    for (Peer peer : myPeers) {
+      result.add(peer.myName);
+    }
+    return result;
+  }
+
+  private void waitForUsers(Peer peer, Set<String> expected) {
+    waitForUsers(peer, expected, 10 * HEARTBEAT);
+  }
+
+  private static void waitForUsers(final Peer peer, final Set<String> expected, long timeout) {
+    new WaitFor(timeout) {
+      @Override
+      protected boolean condition() {
+        return expected.equals(peer.myClient.getOnlineNames());
+      }
+    };
+    assertEquals("Users seen by " + peer.myName, expected, peer.myClient.getOnlineNames());
+  }
+
+  private class Peer {
+    private final String myName;
+    private final LoopbackChannel myChannel;
+    private final PeerClient myClient;
+    private final LanPresence myPresence;
+
+    Peer(final String name, int port, long heartbeat) {
+      myName = name;
+      myChannel = new LoopbackChannel(myNetwork);
+      myClient = new PeerClient(port);
+      MockIDEFacade ideFacade = new MockIDEFacade(LanPresenceTest.this.getClass());
+      ideFacade.setReturnedProjects(new String[]{"project of " + name});
+      myPresence = new LanPresence(myChannel, myClient, ideFacade, heartbeat) {
+        @Override
+        protected String getSelfName() {
+          return name;
+        }
+      };
+    }
+  }
+
+  private static class PeerClient implements UserMonitorClient {
+    private final int myPort;
+    private volatile UserPresence myPresence = new UserPresence(true);
+    private final Map<String, OnlineUserInfo> myOnline = new TreeMap<String, OnlineUserInfo>();
+    private final List<String> myLog = Collections.synchronizedList(new ArrayList<String>());
+
+    PeerClient(int port) {
+      myPort = port;
+    }
+
+    @Override
+    public void setOnlineUsers(Collection<User> onlineUsers) {
+      fail("Full user list is not expected");
+    }
+
+    @Override
+    public User createUser(String remoteUsername, OnlineUserInfo onlineUserInfo) {
+      return UserImpl.create(remoteUsername, P2PTransport.CODE);
+    }
+
+    @Override
+    public synchronized User userOnline(String remoteUsername, OnlineUserInfo onlineUserInfo) {
+      myOnline.put(remoteUsername, onlineUserInfo);
+      myLog.add("online " + remoteUsername);
+      return UserImpl.create(remoteUsername, P2PTransport.CODE);
+    }
+
+    @Override
+    public synchronized void userOffline(User user) {
+      myOnline.remove(user.getName());
+      myLog.add("offline " + user.getName());
+    }
+
+    synchronized Set<String> getOnlineNames() {
+      return new TreeSet<String>(myOnline.keySet());
+    }
+
+    synchronized PresenceMode getPresence(String user) {
+      OnlineUserInfo info = myOnline.get(user);
+      return info == null ? null : info.getPresence().getPresenceMode();
+    }
+
+    @Override
+    public int getPort() {
+      return myPort;
+    }
+
+    @Override
+    public UserPresence getOwnPresence() {
+      return myPresence;
+    }
+  }
+
+  private static class LoopbackNetwork {
+    private final List<LoopbackChannel> myChannels = new ArrayList<LoopbackChannel>();
+    private final Random myRandom = new Random(17);
+    private volatile double myDropRate;
+    private final InetAddress myAddress;
+
+    LoopbackNetwork() throws IOException {
+      myAddress = InetAddress.getByName("127.0.0.1");
+    }
+
+    synchronized void connect(LoopbackChannel channel) {
+      myChannels.add(channel);
+    }
+
+    synchronized void disconnect(LoopbackChannel channel) {
+      myChannels.remove(channel);
+    }
+
+    void deliver(LoopbackChannel from, byte[] message) {
+      List<LoopbackChannel> receivers;
+      synchronized (this) {
+        if (!myChannels.contains(from)) return;
+        receivers = new ArrayList<LoopbackChannel>(myChannels);
+      }
+      for (LoopbackChannel receiver : receivers) {
+        boolean drop;
+        synchronized (myRandom) {
+          drop = myRandom.nextDouble() < myDropRate;
+        }
+        if (!drop) {
+          receiver.myReceiver.receive(message.clone(), message.length, myAddress);
+        }
+      }
+    }
+  }
+
+  private static class LoopbackChannel implements PresenceChannel {
+    private final LoopbackNetwork myNetwork;
+    private volatile Receiver myReceiver;
+
+    LoopbackChannel(LoopbackNetwork network) {
+      myNetwork = network;
+    }
+
+    @Override
+    public void open(Receiver receiver) throws IOException {
+      myReceiver = receiver;
+      myNetwork.connect(this);
+    }
+
+    @Override
+    public void send(byte[] message) throws IOException {
+      myNetwork.deliver(this, message);
+    }
+
+    @Override
+    public void close() {
+      myNetwork.disconnect(this);
+    }
+  }
+}
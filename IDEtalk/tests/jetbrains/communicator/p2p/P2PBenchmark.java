@@ -0,0 +1,638 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.Pico;
+import jetbrains.communicator.core.TestFactory;
+import jetbrains.communicator.core.transport.TextXmlMessage;
+import jetbrains.communicator.core.users.PresenceMode;
+import jetbrains.communicator.core.users.UserPresence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how IDEtalk P2P messaging behaves under load. Peers run in one process and talk to
+ * each other over loopback; presence announcements go over an in-memory network. The workloads run
+ * one after another: text messages between peers, file content requests, presence churn, and reading
+ * of the received messages, which grows the message history. Run it from the test classpath:
+ * <pre>
+ * java jetbrains.communicator.p2p.P2PBenchmark -peers=8 -messages=1000 -latency=2 -failures=0.01
+ * </pre>
+ * Options: peers, messages (per peer), fileRequests (per peer), fileSize (chars), churn (presence changes),
+ * heartbeat (ms), latency (ms added to every call), failures (share of lost calls), drops (share of lost
+ * presence announcements).
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class P2PBenchmark implements BenchmarkPeer.Listener {
+  private static final String FILE_PATH = "/benchmark/Sample.java";
+  private static final String MESSAGE_PREFIX = "benchmark ";
+
+  private final Options myOptions;
+  private final Random myRandom = new Random(17);
+  private final PresenceNetwork myPresenceNetwork;
+  private final List<BenchmarkPeer> myPeers = new ArrayList<BenchmarkPeer>();
+  private final ExecutorService myExecutor;
+
+  private final Map<String, Long> mySentMessages = new ConcurrentHashMap<String, Long>();
+  private final Samples myMessageLatency = new Samples();
+  private final AtomicLong myLastDelivery = new AtomicLong();
+  private volatile CountDownLatch myDeliveries;
+
+  private final Map<String, Boolean> myKnownPeers = new ConcurrentHashMap<String, Boolean>();
+  private volatile PresenceChange myExpectedChange;
+
+  public P2PBenchmark(Options options) throws IOException {
+    myOptions = options;
+    myPresenceNetwork = new PresenceNetwork(options.myDrops);
+    myExecutor = Executors.newFixedThreadPool(options.myPeers);
+  }
+
+  public static void main(String[] args) throws Exception {
+    // headless: a plain container instead of the IDE components
+    Pico.initInTests();
+    try {
+      new P2PBenchmark(Options.parse(args)).run().print(System.out);
+    }
+    finally {
+      TestFactory.deleteFiles();
+    }
+    System.exit(0);
+  }
+
+  public Result run() throws Exception {
+    Result result = new Result(myOptions);
+    QueueSampler sampler = new QueueSampler();
+    try {
+      startPeers();
+      sampler.start();
+
+      runMessages(result);
+      runFileRequests(result);
+      runPresenceChurn(result);
+      runHistory(result);
+
+      System.gc();
+      result.myHeapAfterGc = usedHeap();
+    }
+    finally {
+      sampler.stopSampling();
+      for (BenchmarkPeer peer : myPeers) {
+        peer.dispose();
+      }
+      myExecutor.shutdownNow();
+      NetworkUtil.closeConnections();
+    }
+
+    result.myQueueBytesWritten = sampler.myBytesWritten;
+    result.myQueueSnapshots = sampler.mySnapshots;
+    result.myHeapPeak = sampler.myHeapPeak;
+    for (BenchmarkPeer peer : myPeers) {
+      result.myHistoryBytes += sizeOf(new File(peer.getDataDir(), "history"));
+    }
+    return result;
+  }
+
+  private void startPeers() throws IOException {
+    for (int i = 0; i < myOptions.myPeers; i ++) {
+      String name = "peer" + i;
+      BenchmarkPeer peer = new BenchmarkPeer(name, TestFactory.createDir("benchmark-" + name), myPresenceNetwork.createChannel(),
+                                             myOptions.myHeartbeat, myOptions.myLatency, myOptions.myFailures, this);
+      if (!peer.start()) {
+        throw new IOException("Cannot start " + name);
+      }
+      myPeers.add(peer);
+    }
+    for (BenchmarkPeer peer : myPeers) {
+      for (BenchmarkPeer other : myPeers) {
+        if (peer != other) {
+          peer.addContact(other);
+        }
+      }
+    }
+  }
+
+  private void runMessages(Result result) throws Exception {
+    final int total = myOptions.myPeers * myOptions.myMessages;
+    myDeliveries = new CountDownLatch(total);
+    final AtomicInteger counter = new AtomicInteger();
+
+    long start = System.nanoTime();
+    runForEachPeer(new PeerTask() {
+      @Override
+      public void run(BenchmarkPeer peer, int index) {
+        for (int i = 0; i < myOptions.myMessages; i ++) {
+          String text = MESSAGE_PREFIX + counter.incrementAndGet();
+          mySentMessages.put(text, System.nanoTime());
+          peer.sendLater(getOtherPeer(index, i), new TextXmlMessage(text));
+        }
+      }
+    });
+
+    // failed deliveries are retried with growing delays
+    long timeout = 30 * 1000 + total * (myOptions.myLatency + 1) * 10;
+    myDeliveries.await(timeout, TimeUnit.MILLISECONDS);
+
+    result.myMessagesDelivered = myMessageLatency.size();
+    result.myMessagesLost = mySentMessages.size();
+    result.myMessagesTime = Math.max(myLastDelivery.get() - start, 1);
+    result.myMessageLatency = myMessageLatency;
+  }
+
+  private void runFileRequests(Result result) throws Exception {
+    final Map<String, String> contents = new ConcurrentHashMap<String, String>();
+    for (BenchmarkPeer peer : myPeers) {
+      String text = createFileContents(myOptions.myFileSize);
+      contents.put(peer.getName(), text);
+      peer.setFileContents(FILE_PATH, text);
+    }
+
+    final Samples latency = new Samples();
+    final AtomicInteger failed = new AtomicInteger();
+    long start = System.nanoTime();
+    for (int round = 0; round < myOptions.myFileRequests; round ++) {
+      final int offset = round;
+      runForEachPeer(new PeerTask() {
+        @Override
+        public void run(BenchmarkPeer peer, int index) {
+          BenchmarkPeer target = getOtherPeer(index, offset);
+          long requestStart = System.nanoTime();
+          String received = peer.requestFile(target, FILE_PATH);
+          if (contents.get(target.getName()).equals(received)) {
+            latency.add(System.nanoTime() - requestStart);
+          }
+          else {
+            failed.incrementAndGet();
+          }
+        }
+      });
+
+      // a few edits, so that next requests are answered with deltas
+      for (BenchmarkPeer peer : myPeers) {
+        String text = editFileContents(contents.get(peer.getName()));
+        contents.put(peer.getName(), text);
+        peer.setFileContents(FILE_PATH, text);
+      }
+    }
+
+    result.myFileRequests = latency.size();
+    result.myFileRequestsFailed = failed.get();
+    result.myFileRequestsTime = Math.max(System.nanoTime() - start, 1);
+    result.myFileLatency = latency;
+  }
+
+  private void runPresenceChurn(Result result) throws Exception {
+    for (BenchmarkPeer peer : myPeers) {
+      peer.getPresence().start();
+    }
+    final int expected = myOptions.myPeers * (myOptions.myPeers - 1);
+    waitFor(myOptions.myHeartbeat * 5, new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return myKnownPeers.size() >= expected;
+      }
+    });
+
+    Samples latency = new Samples();
+    int missed = 0;
+    int datagrams = myPresenceNetwork.getDelivered();
+    long start = System.nanoTime();
+    for (int round = 0; round < myOptions.myChurn; round ++) {
+      BenchmarkPeer peer = myPeers.get(myRandom.nextInt(myPeers.size()));
+      if (round % 3 == 2) {
+        // leave and join again
+        missed += awaitChange(new PresenceChange(peer, null), latency);
+        missed += awaitChange(new PresenceChange(peer, PresenceMode.AVAILABLE), latency);
+      }
+      else {
+        PresenceMode mode = peer.getOwnPresence().getPresenceMode() == PresenceMode.AWAY ? PresenceMode.AVAILABLE : PresenceMode.AWAY;
+        missed += awaitChange(new PresenceChange(peer, mode), latency);
+      }
+    }
+
+    result.myPresenceTime = Math.max(System.nanoTime() - start, 1);
+    result.myPresenceDatagrams = myPresenceNetwork.getDelivered() - datagrams;
+    result.myPresenceLatency = latency;
+    result.myPresenceMissed = missed;
+  }
+
+  /** @return number of peers which have not seen the change in time */
+  private int awaitChange(PresenceChange change, Samples latency) throws InterruptedException {
+    myExpectedChange = change;
+    BenchmarkPeer peer = change.myPeer;
+    if (change.myMode == null) {
+      peer.getPresence().stop();
+    }
+    else {
+      peer.setOwnPresence(new UserPresence(change.myMode));
+      // joins again if the peer has left
+      peer.getPresence().start();
+    }
+
+    boolean done = change.myObservers.await(myOptions.myHeartbeat * 5, TimeUnit.MILLISECONDS);
+    myExpectedChange = null;
+    latency.addAll(change.myLatency);
+    return done ? 0 : (int)change.myObservers.getCount();
+  }
+
+  private void runHistory(Result result) throws Exception {
+    final AtomicInteger read = new AtomicInteger();
+    long start = System.nanoTime();
+    runForEachPeer(new PeerTask() {
+      @Override
+      public void run(BenchmarkPeer peer, int index) {
+        read.addAndGet(peer.readIncomingMessages());
+      }
+    });
+    result.myHistoryAdded = read.get();
+    result.myHistoryTime = Math.max(System.nanoTime() - start, 1);
+
+    start = System.nanoTime();
+    for (BenchmarkPeer peer : myPeers) {
+      result.myHistoryEntries += peer.countHistory();
+    }
+    result.myHistoryQueryTime = System.nanoTime() - start;
+  }
+
+  @Override
+  public void messageReceived(BenchmarkPeer receiver, String remoteUser, String text) {
+    Long sent = mySentMessages.remove(text);
+    if (sent != null) {
+      long now = System.nanoTime();
+      myMessageLatency.add(now - sent);
+      myLastDelivery.set(now);
+      myDeliveries.countDown();
+    }
+  }
+
+  @Override
+  public void presenceChanged(BenchmarkPeer observer, String remoteUser, UserPresence presence) {
+    if (presence.isOnline()) {
+      myKnownPeers.put(observer.getName() + '>' + remoteUser, Boolean.TRUE);
+    }
+
+    PresenceChange change = myExpectedChange;
+    if (change != null && change.myPeer.getName().equals(remoteUser) && change.matches(presence)) {
+      change.observed(observer);
+    }
+  }
+
+  private BenchmarkPeer getOtherPeer(int index, int offset) {
+    int other = (index + 1 + offset % (myPeers.size() - 1)) % myPeers.size();
+    return myPeers.get(other);
+  }
+
+  private void runForEachPeer(final PeerTask task) throws Exception {
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for (int i = 0; i < myPeers.size(); i ++) {
+      final int index = i;
+      tasks.add(new Callable<Object>() {
+        @Override
+        public Object call() {
+          task.run(myPeers.get(index), index);
+          return null;
+        }
+      });
+    }
+    for (Future<Object> future : myExecutor.invokeAll(tasks)) {
+      future.get();
+    }
+  }
+
+  private String createFileContents(int size) {
+    StringBuilder result = new StringBuilder(size + 100);
+    int line = 0;
+    while (result.length() < size) {
+      result.append("  int field").append(line ++).append(" = ").append(myRandom.nextInt()).append(";\n");
+    }
+    return result.toString();
+  }
+
+  private String editFileContents(String contents) {
+    StringBuilder result = new StringBuilder(contents);
+    for (int i = 0; i < 3; i ++) {
+      int position = myRandom.nextInt(result.length());
+      result.insert(position, "/* edit " + i + " */");
+    }
+    return result.toString();
+  }
+
+  private static void waitFor(long timeout, Callable<Boolean> condition) throws Exception {
+    long end = System.currentTimeMillis() + timeout;
+    while (!condition.call() && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long sizeOf(File file) {
+    if (file.isFile()) return file.length();
+
+    long result = 0;
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        result += sizeOf(child);
+      }
+    }
+    return result;
+  }
+
+  private interface PeerTask {
+    void run(BenchmarkPeer peer, int index);
+  }
+
+  /** Expected presence of a peer, as other peers should see it; null mode means offline */
+  private class PresenceChange {
+    private final BenchmarkPeer myPeer;
+    private final PresenceMode myMode;
+    private final long myStart = System.nanoTime();
+    private final Set<String> myObserved = Collections.synchronizedSet(new HashSet<String>());
+    private final CountDownLatch myObservers = new CountDownLatch(myPeers.size() - 1);
+    private final Samples myLatency = new Samples();
+
+    PresenceChange(BenchmarkPeer peer, PresenceMode mode) {
+      myPeer = peer;
+      myMode = mode;
+    }
+
+    boolean matches(UserPresence presence) {
+      if (myMode == null) return !presence.isOnline();
+      return presence.isOnline() && presence.getPresenceMode() == myMode;
+    }
+
+    void observed(BenchmarkPeer observer) {
+      if (observer != myPeer && myObserved.add(observer.getName())) {
+        myLatency.add(System.nanoTime() - myStart);
+        myObservers.countDown();
+      }
+    }
+  }
+
+  /** Watches the pending messages queues of the peers on disk, and the heap */
+  private class QueueSampler extends Thread {
+    private static final String QUEUE_FILE = "pendingNetworkMessages.xml";
+
+    private final Map<File, Long> myLengths = new HashMap<File, Long>();
+    private final Map<File, Long> myModified = new HashMap<File, Long>();
+    private volatile boolean myStopped;
+    private long myBytesWritten;
+    private int mySnapshots;
+    private long myHeapPeak;
+
+    QueueSampler() {
+      super("P2P Benchmark Sampler");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!myStopped) {
+        sample();
+        try {
+          Thread.sleep(5);
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+
+    void stopSampling() throws InterruptedException {
+      myStopped = true;
+      join();
+      sample();
+    }
+
+    private void sample() {
+      myHeapPeak = Math.max(myHeapPeak, usedHeap());
+      for (BenchmarkPeer peer : myPeers) {
+        File log = new File(peer.getDataDir(), QUEUE_FILE + ".log");
+        long length = log.length();
+        Long previous = myLengths.put(log, length);
+        // the log is started over after compaction, then it is a new file
+        myBytesWritten += previous == null || length < previous ? length : length - previous;
+
+        File snapshot = new File(peer.getDataDir(), QUEUE_FILE);
+        Long modified = myModified.put(snapshot, snapshot.lastModified());
+        if (snapshot.exists() && (modified == null || modified != snapshot.lastModified())) {
+          mySnapshots ++;
+        }
+      }
+    }
+  }
+
+  public static class Options {
+    int myPeers = 4;
+    int myMessages = 1000;
+    int myFileRequests = 10;
+    int myFileSize = 200 * 1000;
+    int myChurn = 30;
+    long myHeartbeat = 1000;
+    long myLatency;
+    double myFailures;
+    double myDrops;
+
+    public static Options parse(String[] args) {
+      Options options = new Options();
+      for (String arg : args) {
+        int eq = arg.indexOf('=');
+        if (!arg.startsWith("-") || eq < 0) {
+          throw new IllegalArgumentException("Expected -option=value: " + arg);
+        }
+        String name = arg.substring(1, eq);
+        String value = arg.substring(eq + 1);
+        if ("peers".equals(name)) options.myPeers = Integer.parseInt(value);
+        else if ("messages".equals(name)) options.myMessages = Integer.parseInt(value);
+        else if ("fileRequests".equals(name)) options.myFileRequests = Integer.parseInt(value);
+        else if ("fileSize".equals(name)) options.myFileSize = Integer.parseInt(value);
+        else if ("churn".equals(name)) options.myChurn = Integer.parseInt(value);
+        else if ("heartbeat".equals(name)) options.myHeartbeat = Long.parseLong(value);
+        else if ("latency".equals(name)) options.myLatency = Long.parseLong(value);
+        else if ("failures".equals(name)) options.myFailures = Double.parseDouble(value);
+        else if ("drops".equals(name)) options.myDrops = Double.parseDouble(value);
+        else throw new IllegalArgumentException("Unknown option " + name);
+      }
+      if (options.myPeers < 2) {
+        throw new IllegalArgumentException("At least 2 peers are needed");
+      }
+      return options;
+    }
+  }
+
+  public static class Result {
+    private final Options myOptions;
+
+    int myMessagesDelivered;
+    int myMessagesLost;
+    long myMessagesTime;
+    Samples myMessageLatency;
+
+    int myFileRequests;
+    int myFileRequestsFailed;
+    long myFileRequestsTime;
+    Samples myFileLatency;
+
+    int myPresenceMissed;
+    int myPresenceDatagrams;
+    long myPresenceTime;
+    Samples myPresenceLatency;
+
+    int myHistoryAdded;
+    long myHistoryTime;
+    int myHistoryEntries;
+    long myHistoryQueryTime;
+    long myHistoryBytes;
+
+    long myQueueBytesWritten;
+    int myQueueSnapshots;
+    long myHeapPeak;
+    long myHeapAfterGc;
+
+    Result(Options options) {
+      myOptions = options;
+    }
+
+    public void print(PrintStream out) {
+      out.println("IDEtalk P2P benchmark: " + myOptions.myPeers + " peers, latency " + myOptions.myLatency + " ms, failures " +
+                  percent(myOptions.myFailures) + ", presence drops " + percent(myOptions.myDrops));
+      out.println(String.format("messages      %d delivered, %d lost: %.1f msg/s, latency %s",
+                                myMessagesDelivered, myMessagesLost, perSecond(myMessagesDelivered, myMessagesTime), myMessageLatency));
+      out.println(String.format("file requests %d of %d chars, %d failed: %.1f req/s, latency %s",
+                                myFileRequests, myOptions.myFileSize, myFileRequestsFailed,
+                                perSecond(myFileRequests, myFileRequestsTime), myFileLatency));
+      out.println(String.format("presence      %d changes seen, %d missed, %d datagrams: propagation %s",
+                                myPresenceLatency.size(), myPresenceMissed, myPresenceDatagrams, myPresenceLatency));
+      out.println(String.format("history       %d messages read: %.1f msg/s, %d entries queried in %.1f ms, %d KB on disk",
+                                myHistoryAdded, perSecond(myHistoryAdded, myHistoryTime), myHistoryEntries,
+                                myHistoryQueryTime / 1e6, myHistoryBytes / 1024));
+      out.println(String.format("queue I/O     %d KB appended to queue logs, %d snapshots written",
+                                myQueueBytesWritten / 1024, myQueueSnapshots));
+      out.println(String.format("heap          peak %d MB, %d MB after GC",
+                                myHeapPeak / (1024 * 1024), myHeapAfterGc / (1024 * 1024)));
+    }
+
+    private static double perSecond(int count, long nanos) {
+      return count * 1e9 / nanos;
+    }
+
+    private static String percent(double share) {
+      return String.format("%.1f%%", share * 100);
+    }
+  }
+
+  static class Samples {
+    private final List<Long> myValues = new ArrayList<Long>();
+
+    synchronized void add(long nanos) {
+      myValues.add(nanos);
+    }
+
+    synchronized void addAll(Samples samples) {
+      myValues.addAll(samples.getValues());
+    }
+
+    synchronized int size() {
+      return myValues.size();
+    }
+
+    synchronized List<Long> getValues() {
+      return new ArrayList<Long>(myValues);
+    }
+
+    /** @return percentile in milliseconds */
+    synchronized double getPercentile(int percent) {
+      if (myValues.isEmpty()) return 0;
+
+      List<Long> sorted = new ArrayList<Long>(myValues);
+      Collections.sort(sorted);
+      int index = (int)Math.ceil(percent / 100.0 * sorted.size()) - 1;
+      return sorted.get(Math.max(index, 0)) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("p50 %.2f ms, p99 %.2f ms", getPercentile(50), getPercentile(99));
+    }
+  }
+
+  /** Delivers presence announcements of peers to each other, losing a given share of them */
+  private static class PresenceNetwork {
+    private final List<Channel> myChannels = new CopyOnWriteArrayList<Channel>();
+    private final Random myRandom = new Random(17);
+    private final double myDropRate;
+    private final InetAddress myAddress;
+    private final AtomicInteger myDelivered = new AtomicInteger();
+
+    PresenceNetwork(double dropRate) throws IOException {
+      myDropRate = dropRate;
+      myAddress = InetAddress.getByName("127.0.0.1");
+    }
+
+    PresenceChannel createChannel() {
+      return new Channel();
+    }
+
+    int getDelivered() {
+      return myDelivered.get();
+    }
+
+    private void deliver(Channel from, byte[] message) {
+      if (!myChannels.contains(from)) return;
+
+      for (Channel receiver : myChannels) {
+        boolean drop;
+        synchronized (myRandom) {
+          drop = myRandom.nextDouble() < myDropRate;
+        }
+        if (!drop) {
+          myDelivered.incrementAndGet();
+          receiver.myReceiver.receive(message.clone(), message.length, myAddress);
+        }
+      }
+    }
+
+    private class Channel implements PresenceChannel {
+      private volatile Receiver myReceiver;
+
+      @Override
+      public void open(Receiver receiver) {
+        myReceiver = receiver;
+        myChannels.add(this);
+      }
+
+      @Override
+      public void send(byte[] message) {
+        deliver(this, message);
+      }
+
+      @Override
+      public void close() {
+        myChannels.remove(this);
+      }
+    }
+  }
+}
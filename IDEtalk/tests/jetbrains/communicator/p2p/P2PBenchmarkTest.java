@@ -0,0 +1,61 @@
+/*
+ * Copyright 2000-2006 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Runs {@link P2PBenchmark} with a small load, to make sure it keeps working.
+ */
+public class P2PBenchmarkTest extends BaseTestCase {
+
+  public void testSmallRun() throws Exception {
+    P2PBenchmark.Options options = P2PBenchmark.Options.parse(new String[]{
+      "-peers=3", "-messages=20", "-fileRequests=3", "-fileSize=100000", "-churn=3", "-heartbeat=200"
+    });
+    P2PBenchmark.Result result = new P2PBenchmark(options).run();
+
+    assertEquals(60, result.myMessagesDelivered);
+    assertEquals(0, result.myMessagesLost);
+    assertEquals(9, result.myFileRequests);
+    assertEquals(0, result.myFileRequestsFailed);
+    assertEquals(0, result.myPresenceMissed);
+    assertEquals(60, result.myHistoryAdded);
+    assertEquals(60, result.myHistoryEntries);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    result.print(new PrintStream(out));
+    assertTrue(out.toString(), out.toString().contains("60 delivered, 0 lost"));
+  }
+
+  public void testOptions() throws Exception {
+    P2PBenchmark.Options options = P2PBenchmark.Options.parse(new String[]{"-peers=8", "-latency=5", "-failures=0.01"});
+    assertEquals(8, options.myPeers);
+    assertEquals(5, options.myLatency);
+    assertEquals(0.01, options.myFailures, 1e-9);
+
+    try {
+      P2PBenchmark.Options.parse(new String[]{"-peer=8"});
+      fail("Unknown option expected");
+    }
+    catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
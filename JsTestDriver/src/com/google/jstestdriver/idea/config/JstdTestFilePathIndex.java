@@ -1,14 +1,5 @@
 package com.google.jstestdriver.idea.config;
 
-import com.google.jstestdriver.FileInfo;
-import com.google.jstestdriver.FlagsImpl;
-import com.google.jstestdriver.PathResolver;
-import com.google.jstestdriver.config.ParsedConfiguration;
-import com.google.jstestdriver.config.ResolvedConfiguration;
-import com.google.jstestdriver.config.YamlParser;
-import com.google.jstestdriver.hooks.FileParsePostProcessor;
-import com.google.jstestdriver.model.BasePaths;
-import com.google.jstestdriver.util.DisplayPathSanitizer;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.vfs.VirtualFile;
@@ -19,41 +10,54 @@ import com.intellij.util.io.EnumeratorStringDescriptor;
 import com.intellij.util.io.KeyDescriptor;
 import gnu.trove.THashMap;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jvyaml.YAML;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
+ * Indexes JsTestDriver configuration files by the directories their 'load', 'serve' and 'test' patterns point to.
+ * <p/>
+ * JsTestDriver resolves a pattern like "test/unit/*Test.js" by looking for files named "*Test.js"
+ * anywhere below "test/unit". So a key is a normalized absolute directory and its value holds the
+ * file name globs of the configuration file below that directory.
+ * Nothing is resolved against the disk during indexing, so test files created later are found
+ * without reindexing the configuration file.
+ *
  * @author Sergey Simonchik
  */
-public class JstdTestFilePathIndex extends FileBasedIndexExtension<String, Void> {
+public class JstdTestFilePathIndex extends FileBasedIndexExtension<String, JstdTestFilePathIndex.Globs> {
 
-  private static final ID<String, Void> KEY = ID.create("jstd.jsFile.path");
+  private static final ID<String, Globs> KEY = ID.create("jstd.jsFile.path");
+  private static final String[] INCLUDE_KEYS = {"load", "serve", "test"};
+  private static final String EXCLUDE_KEY = "exclude";
+  private static final String PATCH_PREFIX = "patch";
 
   private final KeyDescriptor<String> myKeyDescriptor = new EnumeratorStringDescriptor();
 
   @NotNull
   @Override
-  public ID<String, Void> getName() {
+  public ID<String, Globs> getName() {
     return KEY;
   }
 
   @NotNull
   @Override
-  public DataIndexer<String, Void, FileContent> getIndexer() {
-    return new DataIndexer<String, Void, FileContent>() {
+  public DataIndexer<String, Globs, FileContent> getIndexer() {
+    return new DataIndexer<String, Globs, FileContent>() {
       @Override
       @NotNull
-      public Map<String, Void> map(@NotNull final FileContent inputData) {
+      public Map<String, Globs> map(@NotNull final FileContent inputData) {
         VirtualFile file = inputData.getFile();
         if (file.isValid()) {
           VirtualFile dir = file.getParent();
           if (dir.isValid()) {
-            BasePaths basePaths = new BasePaths(new File(dir.getPath()));
             Reader reader = new InputStreamReader(new ByteArrayInputStream(inputData.getContent()), Charset.defaultCharset());
             try {
-              return doIndexConfigFile(reader, basePaths);
+              return doIndexConfigFile(reader, dir.getPath());
             }
             catch (Exception ignored) {
             }
@@ -79,8 +83,23 @@ public class JstdTestFilePathIndex extends FileBasedIndexExtension<String, Void>
 
   @NotNull
   @Override
-  public DataExternalizer<Void> getValueExternalizer() {
-    return ScalarIndexExtension.VOID_DATA_EXTERNALIZER;
+  public DataExternalizer<Globs> getValueExternalizer() {
+    return new DataExternalizer<Globs>() {
+      @Override
+      public void save(@NotNull DataOutput out, @NotNull Globs value) throws IOException {
+        writeStrings(out, value.myIncluded);
+        writeStrings(out, value.myExcluded);
+      }
+
+      @Override
+      @NotNull
+      public Globs read(@NotNull DataInput in) throws IOException {
+        Globs globs = new Globs();
+        readStrings(in, globs.myIncluded);
+        readStrings(in, globs.myExcluded);
+        return globs;
+      }
+    };
   }
 
   @NotNull
@@ -96,32 +115,220 @@ public class JstdTestFilePathIndex extends FileBasedIndexExtension<String, Void>
 
   @Override
   public int getVersion() {
-    return 1;
+    return 2;
   }
 
   @NotNull
-  private static Map<String, Void> doIndexConfigFile(@NotNull Reader configFileReader, @NotNull BasePaths initialBasePaths) {
-    YamlParser yamlParser = new YamlParser();
-    final Map<String, Void> map = new THashMap<String, Void>();
-    ParsedConfiguration parsedConfiguration = (ParsedConfiguration) yamlParser.parse(configFileReader, initialBasePaths);
-    PathResolver pathResolver = new PathResolver(
-      parsedConfiguration.getBasePaths(),
-      Collections.<FileParsePostProcessor>emptySet(),
-      new DisplayPathSanitizer()
-    );
-    FlagsImpl flags = new FlagsImpl();
-    flags.setServer("test:1");
-    ResolvedConfiguration resolvedConfiguration = (ResolvedConfiguration) parsedConfiguration.resolvePaths(pathResolver, flags);
-    doPutAll(map, resolvedConfiguration.getTests());
-    doPutAll(map, resolvedConfiguration.getFilesList());
+  static Map<String, Globs> doIndexConfigFile(@NotNull Reader configFileReader, @NotNull String configDirPath) {
+    Object data = YAML.load(configFileReader);
+    if (!(data instanceof Map)) {
+      return Collections.emptyMap();
+    }
+    Map<?, ?> dataMap = (Map<?, ?>) data;
+    List<String> basePaths = buildBasePaths(dataMap.get(BasePathInfo.BASE_PATH_KEY), configDirPath);
+    Map<String, Globs> map = new THashMap<String, Globs>();
+    for (String key : INCLUDE_KEYS) {
+      for (String pattern : getPatterns(dataMap.get(key))) {
+        for (String basePath : basePaths) {
+          addPattern(map, basePath, pattern, false);
+        }
+      }
+    }
+    for (String pattern : getPatterns(dataMap.get(EXCLUDE_KEY))) {
+      for (String basePath : basePaths) {
+        addPattern(map, basePath, pattern, true);
+      }
+    }
     return map;
   }
 
-  private static void doPutAll(@NotNull Map<String, Void> map, @NotNull Collection<FileInfo> fileInfos) {
-    for (FileInfo fileInfo : fileInfos) {
-      File file = fileInfo.toFile();
-      String path = FileUtil.toSystemIndependentName(file.getAbsolutePath());
-      map.put(path, null);
+  @NotNull
+  private static List<String> buildBasePaths(@Nullable Object rawBasePaths, @NotNull String configDirPath) {
+    List<String> basePaths = new ArrayList<String>(1);
+    basePaths.add(FileUtil.toSystemIndependentName(configDirPath));
+    List<String> stringBasePaths = new ArrayList<String>(1);
+    if (rawBasePaths instanceof String) {
+      stringBasePaths.add((String) rawBasePaths);
+    }
+    else if (rawBasePaths instanceof List) {
+      for (Object rawBasePath : (List<?>) rawBasePaths) {
+        if (rawBasePath instanceof String) {
+          stringBasePaths.add((String) rawBasePath);
+        }
+      }
+    }
+    for (String stringBasePath : stringBasePaths) {
+      String basePath = FileUtil.toSystemIndependentName(stringBasePath);
+      if (new File(stringBasePath).isAbsolute()) {
+        basePaths.add(basePath);
+      }
+      else {
+        // same as JsTestDriver: a relative base path is applied to all base paths collected so far
+        for (int i = 0; i < basePaths.size(); i++) {
+          basePaths.set(i, basePaths.get(i) + "/" + basePath);
+        }
+      }
+    }
+    return basePaths;
+  }
+
+  @NotNull
+  private static List<String> getPatterns(@Nullable Object rawPatterns) {
+    if (!(rawPatterns instanceof List)) {
+      return Collections.emptyList();
+    }
+    List<String> patterns = new ArrayList<String>();
+    for (Object rawPattern : (List<?>) rawPatterns) {
+      if (rawPattern instanceof String) {
+        String pattern = (String) rawPattern;
+        if (pattern.startsWith(PATCH_PREFIX)) {
+          String[] tokens = pattern.split(" ", 2);
+          if (tokens.length < 2) {
+            continue;
+          }
+          pattern = tokens[1].trim();
+        }
+        if (!pattern.startsWith("http://") && !pattern.startsWith("https://")) {
+          patterns.add(pattern);
+        }
+      }
+    }
+    return patterns;
+  }
+
+  private static void addPattern(@NotNull Map<String, Globs> map,
+                                 @NotNull String basePath,
+                                 @NotNull String pattern,
+                                 boolean excluded) {
+    String path = normalizePath(basePath + "/" + FileUtil.toSystemIndependentName(pattern));
+    int lastSlashInd = path.lastIndexOf('/');
+    if (lastSlashInd < 0) {
+      return;
+    }
+    String dirPath = path.substring(0, lastSlashInd);
+    String fileNameGlob = path.substring(lastSlashInd + 1);
+    if (dirPath.endsWith("/**")) {
+      dirPath = dirPath.substring(0, dirPath.length() - 3);
+    }
+    if (fileNameGlob.isEmpty()) {
+      return;
+    }
+    dirPath = toDirKey(dirPath);
+    Globs globs = map.get(dirPath);
+    if (globs == null) {
+      globs = new Globs();
+      map.put(dirPath, globs);
+    }
+    List<String> list = excluded ? globs.myExcluded : globs.myIncluded;
+    if (!list.contains(fileNameGlob)) {
+      list.add(fileNameGlob);
+    }
+  }
+
+  /**
+   * Resolves '.' and '..' textually without following symbolic links, the way JsTestDriver does.
+   */
+  @NotNull
+  static String normalizePath(@NotNull String path) {
+    String[] components = path.split("/", -1);
+    List<String> resolved = new ArrayList<String>(components.length);
+    for (int i = 0; i < components.length; i++) {
+      String component = components[i];
+      if (i > 0 && (component.isEmpty() || ".".equals(component)) && i < components.length - 1) {
+        continue;
+      }
+      if ("..".equals(component)) {
+        if (resolved.size() > 1) {
+          resolved.remove(resolved.size() - 1);
+        }
+      }
+      else {
+        resolved.add(component);
+      }
+    }
+    StringBuilder buf = new StringBuilder(path.length());
+    for (int i = 0; i < resolved.size(); i++) {
+      if (i > 0) {
+        buf.append('/');
+      }
+      buf.append(resolved.get(i));
+    }
+    return buf.toString();
+  }
+
+  /**
+   * Converts a directory path into the form {@link VirtualFile#getPath()} uses, e.g. "/" or "C:/" for roots.
+   */
+  @NotNull
+  private static String toDirKey(@NotNull String dirPath) {
+    if (dirPath.isEmpty() || dirPath.endsWith(":")) {
+      return dirPath + "/";
+    }
+    return dirPath;
+  }
+
+  /**
+   * Converts a JsTestDriver file name glob ('*', '?' and '[...]' are supported) into a case-insensitive regexp.
+   */
+  @NotNull
+  static Pattern compileFileNameGlob(@NotNull String glob) {
+    StringBuilder regexp = new StringBuilder(glob.length() + 8);
+    boolean inCharClass = false;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (inCharClass) {
+        if (c == ']') {
+          inCharClass = false;
+          regexp.append(c);
+        }
+        else if (c == '\\' || c == '[') {
+          regexp.append('\\').append(c);
+        }
+        else {
+          regexp.append(c);
+        }
+      }
+      else if (c == '*') {
+        regexp.append(".*");
+      }
+      else if (c == '?') {
+        regexp.append('.');
+      }
+      else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+        inCharClass = true;
+        regexp.append('[');
+        if (glob.charAt(i + 1) == '!') {
+          regexp.append('^');
+          i++;
+        }
+      }
+      else {
+        regexp.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(regexp.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+  }
+
+  private static boolean matchesAny(@NotNull List<String> fileNameGlobs, @NotNull String fileName) {
+    for (String fileNameGlob : fileNameGlobs) {
+      if (compileFileNameGlob(fileNameGlob).matcher(fileName).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void writeStrings(@NotNull DataOutput out, @NotNull List<String> strings) throws IOException {
+    out.writeInt(strings.size());
+    for (String s : strings) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static void readStrings(@NotNull DataInput in, @NotNull List<String> strings) throws IOException {
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      strings.add(in.readUTF());
     }
   }
 
@@ -133,20 +340,58 @@ public class JstdTestFilePathIndex extends FileBasedIndexExtension<String, Void>
 
   @NotNull
   public static List<VirtualFile> findConfigFilesInScope(@NotNull VirtualFile jsTestFile, @NotNull GlobalSearchScope scope) {
-    final List<VirtualFile> jstdConfigs = new ArrayList<VirtualFile>(1);
-    FileBasedIndex.getInstance().processValues(
-      KEY,
-      jsTestFile.getPath(),
-      null,
-      new FileBasedIndex.ValueProcessor<Void>() {
-        @Override
-        public boolean process(final VirtualFile file, final Void value) {
-          jstdConfigs.add(file);
-          return true;
+    final String fileName = jsTestFile.getName();
+    final Set<VirtualFile> included = new LinkedHashSet<VirtualFile>(1);
+    final Set<VirtualFile> excluded = new HashSet<VirtualFile>(1);
+    FileBasedIndex.ValueProcessor<Globs> processor = new FileBasedIndex.ValueProcessor<Globs>() {
+      @Override
+      public boolean process(final VirtualFile file, final Globs value) {
+        if (matchesAny(value.myExcluded, fileName)) {
+          excluded.add(file);
+        }
+        if (matchesAny(value.myIncluded, fileName)) {
+          included.add(file);
         }
-      },
-      scope
-    );
-    return jstdConfigs;
+        return true;
+      }
+    };
+    // every ancestor directory of the file is a potential pattern directory
+    FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+    for (VirtualFile dir = jsTestFile.getParent(); dir != null; dir = dir.getParent()) {
+      fileBasedIndex.processValues(KEY, dir.getPath(), null, processor, scope);
+    }
+    included.removeAll(excluded);
+    return new ArrayList<VirtualFile>(included);
+  }
+
+  /**
+   * File name globs of a configuration file that apply to all files below the indexed directory.
+   */
+  public static class Globs {
+    private final List<String> myIncluded = new ArrayList<String>(1);
+    private final List<String> myExcluded = new ArrayList<String>(0);
+
+    @NotNull
+    List<String> getIncluded() {
+      return myIncluded;
+    }
+
+    @NotNull
+    List<String> getExcluded() {
+      return myExcluded;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Globs globs = (Globs)o;
+      return myIncluded.equals(globs.myIncluded) && myExcluded.equals(globs.myExcluded);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myIncluded.hashCode() + myExcluded.hashCode();
+    }
   }
 }
@@ -0,0 +1,99 @@
+package com.google.jstestdriver.idea.config;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class JstdTestFilePathIndexTest extends TestCase {
+
+  public void testLoadAndTestPatterns() {
+    Map<String, JstdTestFilePathIndex.Globs> map = index(
+      "load:\n" +
+      "  - lib/*.js\n" +
+      "  - src/main.js\n" +
+      "test:\n" +
+      "  - test/**/*Test.js\n",
+      "/project/jstd"
+    );
+    Assert.assertEquals(3, map.size());
+    Assert.assertEquals(Arrays.asList("*.js"), map.get("/project/jstd/lib").getIncluded());
+    Assert.assertEquals(Arrays.asList("main.js"), map.get("/project/jstd/src").getIncluded());
+    Assert.assertEquals(Arrays.asList("*Test.js"), map.get("/project/jstd/test").getIncluded());
+  }
+
+  public void testExcludeAndPatch() {
+    Map<String, JstdTestFilePathIndex.Globs> map = index(
+      "load:\n" +
+      "  - patch lib/fix.js\n" +
+      "  - http://example.com/remote.js\n" +
+      "exclude:\n" +
+      "  - lib/slow*.js\n",
+      "/project"
+    );
+    Assert.assertEquals(1, map.size());
+    JstdTestFilePathIndex.Globs globs = map.get("/project/lib");
+    Assert.assertEquals(Arrays.asList("fix.js"), globs.getIncluded());
+    Assert.assertEquals(Arrays.asList("slow*.js"), globs.getExcluded());
+  }
+
+  public void testRelativeBasePath() {
+    Map<String, JstdTestFilePathIndex.Globs> map = index(
+      "basepath: ../web\n" +
+      "load:\n" +
+      "  - js/*.js\n",
+      "/project/config"
+    );
+    Assert.assertEquals(Collections.singleton("/project/web/js"), map.keySet());
+  }
+
+  public void testParentReferences() {
+    Map<String, JstdTestFilePathIndex.Globs> map = index(
+      "test:\n" +
+      "  - ../../test/*.js\n",
+      "/project/a/b"
+    );
+    Assert.assertEquals(Collections.singleton("/project/test"), map.keySet());
+  }
+
+  public void testRootDirectory() {
+    Map<String, JstdTestFilePathIndex.Globs> map = index(
+      "load:\n" +
+      "  - ../*.js\n",
+      "/project"
+    );
+    Assert.assertEquals(Collections.singleton("/"), map.keySet());
+  }
+
+  public void testNormalizePath() {
+    Assert.assertEquals("/a/c/d.js", JstdTestFilePathIndex.normalizePath("/a/b/../c/./d.js"));
+    Assert.assertEquals("/a/b.js", JstdTestFilePathIndex.normalizePath("/a//b.js"));
+    Assert.assertEquals("C:/a/b.js", JstdTestFilePathIndex.normalizePath("C:/x/../a/b.js"));
+  }
+
+  public void testFileNameGlob() {
+    assertGlobMatches("*Test.js", "FooTest.js", true);
+    assertGlobMatches("*Test.js", "footest.JS", true);
+    assertGlobMatches("*Test.js", "FooTest.jsx", false);
+    assertGlobMatches("a?.js", "ab.js", true);
+    assertGlobMatches("a?.js", "abc.js", false);
+    assertGlobMatches("[ab]*.js", "b.js", true);
+    assertGlobMatches("[!ab]*.js", "b.js", false);
+    assertGlobMatches("a+b.js", "a+b.js", true);
+    assertGlobMatches("a.js", "abjs", false);
+  }
+
+  private static void assertGlobMatches(@NotNull String glob, @NotNull String fileName, boolean expected) {
+    boolean actual = JstdTestFilePathIndex.compileFileNameGlob(glob).matcher(fileName).matches();
+    Assert.assertEquals(glob + " vs " + fileName, expected, actual);
+  }
+
+  @NotNull
+  private static Map<String, JstdTestFilePathIndex.Globs> index(@NotNull String config, @NotNull String configDirPath) {
+    return JstdTestFilePathIndex.doIndexConfigFile(new StringReader(config), configDirPath);
+  }
+}
@@ -54,6 +54,15 @@ import java.util.regex.Pattern;
  */
 public class BndWrapper {
 
+  // a fixed set of locks striped by target path, so that the long-lived build process doesn't collect a lock per library
+  private static final Object[] ourTargetLocks = new Object[32];
+
+  static {
+    for (int i = 0; i < ourTargetLocks.length; i++) {
+      ourTargetLocks[i] = new Object();
+    }
+  }
+
   private final OsmorcBuildSession mySession;
 
   private final File myOutputDir;
@@ -70,6 +79,8 @@ public class BndWrapper {
   /**
    * Wraps an existing jar file using Bnd analyzer. This class will check and use any applying bundlification rules
    * for this library that have been set up in Osmorc library bundlification dialog.
+   * <p/>
+   * Wrapped libraries are taken from {@link LibraryBundlificationCache} if possible. Can be called from multiple threads.
    */
   @Nullable
   public File wrapLibrary(final File sourceFile) {
@@ -103,24 +114,56 @@ public class BndWrapper {
       }
     }
 
-    if (!targetFile.exists() || targetFile.lastModified() < sourceFile.lastModified() ||
-        targetFile.lastModified() < lastModified) {
-      try {
-        doWrap(sourceFile, targetFile, additionalProperties);
+    // modules sharing a library are built in parallel and write the same target file
+    synchronized (getTargetLock(targetFile)) {
+      if (!targetFile.exists() || targetFile.lastModified() < sourceFile.lastModified() ||
+          targetFile.lastModified() < lastModified) {
+        try {
+          // the same library may already have been wrapped for another module or project
+          File cachedBundle = LibraryBundlificationCache.getCachedBundle(sourceFile, additionalProperties);
+          if (!cachedBundle.exists()) {
+            if (!FileUtil.createDirectory(cachedBundle.getParentFile())) {
+              throw new OsmorcBuildException("Cannot create bundle cache folder", cachedBundle.getParentFile());
+            }
+            File wrappedFile = FileUtil.createTempFile(cachedBundle.getParentFile(), "tmp.bnd.", ".jar", false);
+            try {
+              doWrap(sourceFile, wrappedFile, additionalProperties);
+              LibraryBundlificationCache.store(wrappedFile, cachedBundle);
+            }
+            finally {
+              // the file was moved into the cache unless wrapping failed
+              if (wrappedFile.exists()) {
+                FileUtil.delete(wrappedFile);
+              }
+            }
+          }
+          LibraryBundlificationCache.markUsed(cachedBundle);
+          FileUtil.copy(cachedBundle, targetFile);
+        }
+        catch (OsmorcBuildException e) {
+          mySession.processException(e);
+          return null;
+        }
+        catch (IOException e) {
+          mySession.processException(new OsmorcBuildException("Could not use the bundlified library cache", e, sourceFile).setWarning());
+          return null;
+        }
+        return targetFile;
       }
-      catch (OsmorcBuildException e) {
-        mySession.processException(e);
-        return null;
+      else {
+        // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
+        // as a bundle.
+        return targetFile;
       }
-      return targetFile;
-    }
-    else {
-      // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
-      // as a bundle.
-      return targetFile;
     }
   }
 
+  @NotNull
+  private static Object getTargetLock(@NotNull File targetFile) {
+    int hash = FileUtil.pathHashCode(targetFile.getAbsolutePath());
+    return ourTargetLocks[(hash & Integer.MAX_VALUE) % ourTargetLocks.length];
+  }
+
   /**
    * Internal function which does the actual wrapping. This is 90% borrowed from Bnd source code.
    *
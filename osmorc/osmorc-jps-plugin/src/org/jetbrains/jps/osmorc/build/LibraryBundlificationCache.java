@@ -0,0 +1,134 @@
+package org.jetbrains.jps.osmorc.build;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.incremental.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Build-process wide storage of bundlified libraries, shared by all modules and projects.
+ * <p/>
+ * Entries are keyed by a hash of the library contents and the bnd properties of applying bundlification rules,
+ * so the same jar is wrapped only once no matter how many modules depend on it or where it is located.
+ */
+class LibraryBundlificationCache {
+  private static final String CACHE_DIR = "osmorc/bundlified";
+
+  /**
+   * Entries not used for this long are removed, e.g. the wrapped versions of libraries which have been upgraded since.
+   */
+  private static final long MAX_UNUSED_TIME = 30L * 24 * 60 * 60 * 1000;
+
+  /**
+   * If there are more entries, the least recently used ones are removed.
+   */
+  private static final int MAX_ENTRIES = 1000;
+
+  private LibraryBundlificationCache() {
+  }
+
+  @NotNull
+  static File getCacheDir() {
+    return new File(Utils.getSystemRoot(), CACHE_DIR);
+  }
+
+  /**
+   * Returns the location of the bundlified version of the given library, which may not exist yet.
+   */
+  @NotNull
+  static File getCachedBundle(@NotNull File sourceFile, @NotNull Map<String, String> properties) throws IOException {
+    return new File(new File(getCacheDir(), computeKey(sourceFile, properties)), sourceFile.getName());
+  }
+
+  /**
+   * Moves a freshly wrapped bundle into the cache. If another build put the same entry there in the meantime, keeps that one.
+   */
+  static void store(@NotNull File wrappedFile, @NotNull File cachedBundle) throws IOException {
+    if (!FileUtil.createParentDirs(cachedBundle)) {
+      throw new IOException("Cannot create " + cachedBundle.getParent());
+    }
+    if (cachedBundle.exists() || !wrappedFile.renameTo(cachedBundle)) {
+      FileUtil.delete(wrappedFile);
+      if (!cachedBundle.exists()) {
+        throw new IOException("Cannot move " + wrappedFile + " to " + cachedBundle);
+      }
+    }
+  }
+
+  /**
+   * Records that the entry of the given bundle was used, see {@link #cleanup()}.
+   */
+  static void markUsed(@NotNull File cachedBundle) {
+    //noinspection ResultOfMethodCallIgnored
+    cachedBundle.getParentFile().setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * Removes entries which were not used for {@link #MAX_UNUSED_TIME} and the least recently used entries above {@link #MAX_ENTRIES}.
+   * Entries are directories, their timestamp is updated on every use.
+   */
+  static void cleanup() {
+    File[] entries = getCacheDir().listFiles();
+    if (entries == null) {
+      return;
+    }
+
+    List<File> sorted = new ArrayList<File>(Arrays.asList(entries));
+    final Map<File, Long> stamps = new HashMap<File, Long>();
+    for (File entry : sorted) {
+      stamps.put(entry, entry.lastModified());
+    }
+    Collections.sort(sorted, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        return stamps.get(o2).compareTo(stamps.get(o1)); // most recently used first
+      }
+    });
+
+    long minStamp = System.currentTimeMillis() - MAX_UNUSED_TIME;
+    for (int i = 0; i < sorted.size(); i++) {
+      File entry = sorted.get(i);
+      if (entry.isDirectory() && (i >= MAX_ENTRIES || stamps.get(entry) < minStamp)) {
+        FileUtil.delete(entry);
+      }
+    }
+  }
+
+  @NotNull
+  private static String computeKey(@NotNull File sourceFile, @NotNull Map<String, String> properties) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e.getMessage());
+    }
+
+    // the file name is used to calculate the symbolic name if there is none
+    digest.update(sourceFile.getName().getBytes("UTF-8"));
+    digest.update(new TreeMap<String, String>(properties).toString().getBytes("UTF-8"));
+
+    InputStream in = new BufferedInputStream(new FileInputStream(sourceFile));
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    finally {
+      in.close();
+    }
+
+    return new BigInteger(1, digest.digest()).toString(16);
+  }
+}
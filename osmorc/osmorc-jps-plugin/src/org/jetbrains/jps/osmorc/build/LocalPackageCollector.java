@@ -23,16 +23,12 @@ package org.jetbrains.jps.osmorc.build;
 import aQute.bnd.osgi.Analyzer;
 import aQute.bnd.osgi.Constants;
 import com.intellij.openapi.util.text.StringUtil;
-import org.codehaus.plexus.util.DirectoryScanner;
-import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
 import java.util.Collection;
-import java.util.LinkedHashSet;
 import java.util.Map;
 
 /**
- * Helper class which collects local packages from the output path. This is copied code from the
+ * Helper class which computes the {local-packages} instruction from the packages of the output path. This is copied code from the
  * felix bnd maven plugin.
  */
 public class LocalPackageCollector {
@@ -40,31 +36,15 @@ public class LocalPackageCollector {
 
   /**
    * Adds the local packages to the headers in the given manifest.
-   * @param outputDirectory the output directory where the compiled classes are located
+   * @param packages        names of the packages containing compiled classes, "." for the default package
    * @param currentManifest the currently calculated manifest contents.
    */
-  public static void addLocalPackages(File outputDirectory, Map<String, String> currentManifest) {
+  public static void addLocalPackages(Collection<String> packages, Map<String, String> currentManifest) {
     Analyzer fakeAnalyzer = new FakeAnalyzer(currentManifest);
-    addLocalPackages(outputDirectory, fakeAnalyzer);
+    addLocalPackages(packages, fakeAnalyzer);
   }
 
-  private static void addLocalPackages(File outputDirectory, Analyzer analyzer) {
-    Collection<String> packages = new LinkedHashSet<String>();
-
-    if (outputDirectory != null && outputDirectory.isDirectory()) {
-      // scan classes directory for potential packages
-      DirectoryScanner scanner = new DirectoryScanner();
-      scanner.setBasedir(outputDirectory);
-      scanner.setIncludes(new String[] {"**/*.class"});
-      scanner.addDefaultExcludes();
-      scanner.scan();
-
-      String[] paths = scanner.getIncludedFiles();
-      for (String path : paths) {
-        packages.add(getPackageName(path));
-      }
-    }
-
+  private static void addLocalPackages(Collection<String> packages, Analyzer analyzer) {
     StringBuilder exportedPackages = new StringBuilder();
     StringBuilder privatePackages = new StringBuilder();
 
@@ -121,15 +101,4 @@ public class LocalPackageCollector {
       analyzer.setProperty(Constants.PRIVATE_PACKAGE, newInternal);
     }
   }
-
-  /**
-   * Returns the package name of the given file name.
-   * @param filename the filename
-   * @return the package name.
-   */
-  @NotNull
-  private static String getPackageName(@NotNull String filename) {
-    int n = filename.lastIndexOf(File.separatorChar);
-    return n < 0 ? "." : filename.substring(0, n).replace(File.separatorChar, '.');
-  }
 }
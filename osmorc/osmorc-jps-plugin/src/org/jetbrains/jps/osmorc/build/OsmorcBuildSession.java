@@ -3,6 +3,9 @@ package org.jetbrains.jps.osmorc.build;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.io.FileUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
@@ -12,15 +15,33 @@ import org.jetbrains.jps.model.module.JpsDependencyElement;
 import org.jetbrains.jps.model.module.JpsLibraryDependency;
 import org.jetbrains.jps.model.module.JpsModule;
 import org.jetbrains.jps.osmorc.model.JpsCachingBundleInfoProvider;
+import org.jetbrains.jps.osmorc.model.JpsOsmorcExtensionService;
 import org.jetbrains.jps.osmorc.model.JpsOsmorcModuleExtension;
 import org.jetbrains.jps.osmorc.model.impl.OsmorcJarContentEntry;
 import org.jetbrains.jps.util.JpsPathUtil;
 
-import java.io.File;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class OsmorcBuildSession {
 
+  public enum Result {
+    /** The bundle was built from scratch. */
+    REBUILT,
+    /** Changed entries were replaced in the existing bundle. */
+    UPDATED,
+    /** Nothing changed since the last build, bnd was not run. */
+    UP_TO_DATE,
+    /** The build failed, errors were reported. */
+    FAILED
+  }
+
+  private static final String STATE_FILE_NAME = "osmorc-bundle.state";
+
   /**
    * Condition which matches order entries that are not representing a framework library.
    */
@@ -49,7 +70,10 @@ public class OsmorcBuildSession {
   private File myModuleOutputDir;
   private BndWrapper myBndWrapper;
 
-  public void build(@NotNull OsmorcBuildTarget target, @NotNull CompileContext context) {
+  @NotNull
+  public Result build(@NotNull OsmorcBuildTarget target,
+                      @NotNull DirtyFilesHolder<BuildRootDescriptor, OsmorcBuildTarget> holder,
+                      @NotNull CompileContext context) {
     myContext = context;
     myExtension = target.getExtension();
     myModule = myExtension.getModule();
@@ -58,13 +82,47 @@ public class OsmorcBuildSession {
 
     progressMessage("Building bundle for the module");
 
+    File stateFile = new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), STATE_FILE_NAME);
     try {
       prepare();
 
-      doBuild();
+      OsmorcBuildState currentState = OsmorcBuildState.create(getConfiguration(), myModuleOutputDir);
+      OsmorcBuildState previousState = context.getScope().isBuildForced(target) ? null : OsmorcBuildState.load(stateFile);
+
+      Result result = null;
+      if (previousState != null && myOutputJarFile.isFile() && previousState.isSameConfiguration(currentState) &&
+          previousState.isSameOutputPaths(currentState)) {
+        Set<String> changedPaths = currentState.getChangedPaths(previousState);
+        if (changedPaths.isEmpty() && !holder.hasRemovedFiles()) {
+          progressMessage("Bundle is up to date");
+          result = Result.UP_TO_DATE;
+        }
+        else if (canUpdateEntries()) {
+          // the manifest is given by the user and the set of files did not change, so only contents need to be replaced
+          progressMessage("Updating " + changedPaths.size() + " changed entries in the bundle");
+          updateEntries(changedPaths);
+          result = Result.UPDATED;
+        }
+      }
+
+      if (result == null) {
+        FileUtil.delete(stateFile);
+        deleteOutputJar();
+        doBuild(currentState);
+        result = Result.REBUILT;
+      }
+      else if (isBundlifyLibraries()) {
+        // libraries are not part of the bundle state, their wrapped versions are checked individually
+        bundlifyLibraries();
+      }
+
+      saveState(currentState, stateFile);
+      return result;
     }
     catch (OsmorcBuildException e) {
+      FileUtil.delete(stateFile);
       processException(e);
+      return Result.FAILED;
     }
   }
 
@@ -74,29 +132,194 @@ public class OsmorcBuildSession {
       throw new OsmorcBuildException("Output jar path is empty");
     }
 
-    // create the jar file
     myOutputJarFile = new File(jarFileLocation);
+
+    String moduleOutputUrl = JpsJavaExtensionService.getInstance().getOutputUrl(myModule, false);
+    if (moduleOutputUrl == null) {
+      throw new OsmorcBuildException("Unable to determine the compiler output path for the module").setWarning();
+    }
+    myModuleOutputDir = JpsPathUtil.urlToFile(moduleOutputUrl);
+
+
+    myBndWrapper = new BndWrapper(this);
+  }
+
+  private void deleteOutputJar() throws OsmorcBuildException {
     if (!FileUtil.delete(myOutputJarFile)) {
       throw new OsmorcBuildException("Cannot delete bundle jar", myOutputJarFile);
     }
     if (!FileUtil.createParentDirs(myOutputJarFile)) {
       throw new OsmorcBuildException("Cannot create path to bundle jar", myOutputJarFile);
     }
+  }
 
-    String moduleOutputUrl = JpsJavaExtensionService.getInstance().getOutputUrl(myModule, false);
-    if (moduleOutputUrl == null) {
-      throw new OsmorcBuildException("Unable to determine the compiler output path for the module").setWarning();
+  private void saveState(@NotNull OsmorcBuildState state, @NotNull File stateFile) {
+    try {
+      state.save(stateFile);
+    }
+    catch (IOException e) {
+      // not fatal, the bundle will be rebuilt next time
+      FileUtil.delete(stateFile);
+      warn("Could not save the bundle build state", stateFile);
+    }
+  }
+
+  /**
+   * Returns a string describing all settings and input files (besides the module output) which affect the bundle.
+   */
+  @NotNull
+  private String getConfiguration() {
+    StringBuilder configuration = new StringBuilder();
+    configuration.append(myOutputJarFile.getAbsolutePath()).append('\n')
+      .append(myExtension.isUseBndFile()).append(',')
+      .append(myExtension.isUseBundlorFile()).append(',')
+      .append(myExtension.isManifestManuallyEdited()).append(',')
+      .append(myExtension.isOsmorcControlsManifest()).append('\n')
+      .append(myExtension.getBndFileProperties()).append('\n')
+      .append(myExtension.getIgnoreFilePattern()).append('\n');
+
+    for (OsmorcJarContentEntry contentEntry : myExtension.getAdditionalJARContents()) {
+      configuration.append(contentEntry.myDestination).append(" = ").append(contentEntry.mySource);
+      appendFileStamp(configuration, new File(contentEntry.mySource));
+    }
+    if (myExtension.isUseBndFile()) {
+      appendFileStamp(configuration, myExtension.findFileInModuleContentRoots(myExtension.getBndFileLocation()));
+    }
+    if (myExtension.isUseBundlorFile()) {
+      appendFileStamp(configuration, myExtension.findFileInModuleContentRoots(myExtension.getBundlorFileLocation()));
+    }
+    if (myExtension.isManifestManuallyEdited()) {
+      appendFileStamp(configuration, myExtension.getManifestFile());
     }
-    myModuleOutputDir = JpsPathUtil.urlToFile(moduleOutputUrl);
 
+    // an upstream bundle may be rebuilt while this module is unchanged
+    for (File dependencyBundle : getDependencyBundles()) {
+      configuration.append(dependencyBundle.getAbsolutePath());
+      appendFileStamp(configuration, dependencyBundle);
+    }
+    return configuration.toString();
+  }
 
-    myBndWrapper = new BndWrapper(this);
+  /**
+   * Returns the bundle jars of the modules this module depends on and the classes roots of its libraries.
+   */
+  @NotNull
+  private List<File> getDependencyBundles() {
+    List<File> result = new ArrayList<File>();
+    Set<JpsModule> dependencyModules = JpsJavaExtensionService.getInstance().enumerateDependencies(Collections.singletonList(myModule))
+      .withoutSdk()
+      .withoutModuleSourceEntries()
+      .productionOnly()
+      .runtimeOnly()
+      .recursively()
+      .getModules();
+    for (JpsModule dependencyModule : dependencyModules) {
+      if (dependencyModule.equals(myModule)) continue;
+      JpsOsmorcModuleExtension extension = JpsOsmorcExtensionService.getInstance().getExtension(dependencyModule);
+      if (extension != null && !extension.getJarFileLocation().isEmpty()) {
+        result.add(new File(extension.getJarFileLocation()));
+      }
+    }
+
+    result.addAll(JpsJavaExtensionService.getInstance().enumerateDependencies(Collections.singletonList(myModule))
+      .withoutSdk()
+      .withoutModuleSourceEntries()
+      .withoutDepModules()
+      .productionOnly()
+      .runtimeOnly()
+      .recursively()
+      .exportedOnly()
+      .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION)
+      .classes().getRoots());
+    return result;
+  }
+
+  private static void appendFileStamp(@NotNull StringBuilder builder, @Nullable File file) {
+    builder.append('[');
+    if (file != null && file.exists()) {
+      long[] stamp = {0, 0, 0};  // files, total length, latest modification
+      collectFileStamp(file, stamp);
+      builder.append(stamp[0]).append(',').append(stamp[1]).append(',').append(stamp[2]);
+    }
+    builder.append("]\n");
+  }
+
+  private static void collectFileStamp(@NotNull File file, @NotNull long[] stamp) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        collectFileStamp(child, stamp);
+      }
+    }
+    else {
+      stamp[0]++;
+      stamp[1] += file.length();
+      stamp[2] = Math.max(stamp[2], file.lastModified());
+    }
   }
 
+  /**
+   * Changed entries can be replaced in the existing jar only if bnd doesn't compute the manifest from the classes
+   * and the module output is the only content of the bundle.
+   */
+  private boolean canUpdateEntries() {
+    return myExtension.isManifestManuallyEdited() && !myExtension.isUseBndFile() && !myExtension.isUseBundlorFile() &&
+           myExtension.getAdditionalJARContents().isEmpty();
+  }
+
+  /**
+   * Replaces entries of the existing bundle jar with the changed files from the module output directory.
+   * Files which are not contained in the jar (e.g. excluded by the ignore pattern) are skipped.
+   */
+  private void updateEntries(@NotNull Set<String> changedPaths) throws OsmorcBuildException {
+    File tempJarFile = new File(myOutputJarFile.getAbsolutePath() + ".tmp.jar");
+    try {
+      ZipFile oldJar = new ZipFile(myOutputJarFile);
+      try {
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(tempJarFile)));
+        try {
+          Enumeration<? extends ZipEntry> entries = oldJar.entries();
+          while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            File changedFile = changedPaths.contains(entry.getName()) ? new File(myModuleOutputDir, entry.getName()) : null;
+            ZipEntry newEntry = new ZipEntry(entry.getName());
+            newEntry.setTime(changedFile != null ? changedFile.lastModified() : entry.getTime());
+            out.putNextEntry(newEntry);
+            InputStream in = changedFile != null ? new FileInputStream(changedFile) : oldJar.getInputStream(entry);
+            try {
+              FileUtil.copy(in, out);
+            }
+            finally {
+              in.close();
+            }
+            out.closeEntry();
+          }
+        }
+        finally {
+          out.close();
+        }
+      }
+      finally {
+        oldJar.close();
+      }
 
-  private void doBuild() throws OsmorcBuildException {
+      deleteOutputJar();
+      FileUtil.rename(tempJarFile, myOutputJarFile);
+    }
+    catch (IOException e) {
+      FileUtil.delete(tempJarFile);
+      throw new OsmorcBuildException("Could not update the bundle jar", e, myOutputJarFile);
+    }
+  }
+
+  private boolean isBundlifyLibraries() {
+    return !myExtension.isUseBndFile() && !myExtension.isUseBundlorFile();
+  }
+
+
+  private void doBuild(@NotNull OsmorcBuildState state) throws OsmorcBuildException {
     // build a bnd file or use a provided one.
-    File bndFile = getBndFile();
+    File bndFile = getBndFile(state);
 
     File tempJarFile = new File(myOutputJarFile.getAbsolutePath() + ".tmp.jar");
 
@@ -128,14 +351,14 @@ public class OsmorcBuildSession {
       }
     }
 
-    if (!myExtension.isUseBndFile() && !myExtension.isUseBundlorFile()) {
+    if (isBundlifyLibraries()) {
       // finally bundlify all the libs for this one
       bundlifyLibraries();
     }
   }
 
   @NotNull
-  private File getBndFile() throws OsmorcBuildException {
+  private File getBndFile(@NotNull OsmorcBuildState state) throws OsmorcBuildException {
     if (myExtension.isUseBndFile()) {
       String fileLocation = myExtension.getBndFileLocation();
       File bndFile = myExtension.findFileInModuleContentRoots(fileLocation);
@@ -203,7 +426,7 @@ public class OsmorcBuildSession {
       if (myExtension.isOsmorcControlsManifest()) {
         // support the {local-packages} instruction
         progressMessage("Calculating local packages");
-        LocalPackageCollector.addLocalPackages(myModuleOutputDir, buildProperties);
+        LocalPackageCollector.addLocalPackages(state.getLocalPackages(), buildProperties);
       }
     }
     else if (!myExtension.isUseBundlorFile()) {
@@ -217,39 +440,81 @@ public class OsmorcBuildSession {
   /**
    * Bundlifies all libraries that belong to the given module and that are not bundles and that are not modules.
    * The bundles are cached, so if * the source library does not change, it will not be bundlified again.
+   * Libraries are wrapped in parallel on the pool shared by all modules of the build, the result keeps the dependency order.
    * Returns a string array containing the urls of the bundlified libraries.
    */
   @NotNull
   private List<File> bundlifyLibraries() throws OsmorcBuildException {
-    Collection<File> dependencyFiles = JpsJavaExtensionService.getInstance().enumerateDependencies(Collections.singletonList(myModule))
-      .withoutSdk()
-      .withoutModuleSourceEntries()
-      .withoutDepModules()
-      .productionOnly()
-      .runtimeOnly()
-      .recursively()
-      .exportedOnly()
-      .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION)
-      .classes().getRoots();
-    List<File> result = new ArrayList<File>();
-
-    for (File dependencyFile : dependencyFiles) {
-      if (JpsCachingBundleInfoProvider.canBeBundlified(dependencyFile)) { // Fixes IDEA-56666
-        progressMessage("Bundling non-OSGi libraries for the module, dependency: " + dependencyFile.getAbsolutePath());
-        // ok it is not a bundle, so we need to bundlify
-        File bundledDependencyFile = myBndWrapper.wrapLibrary(dependencyFile);
-        // if no bundle could (or should) be created, we exempt this library
-        if (bundledDependencyFile != null) {
-          result.add(bundledDependencyFile);
+    List<File> dependencyFiles = new ArrayList<File>(
+      JpsJavaExtensionService.getInstance().enumerateDependencies(Collections.singletonList(myModule))
+        .withoutSdk()
+        .withoutModuleSourceEntries()
+        .withoutDepModules()
+        .productionOnly()
+        .runtimeOnly()
+        .recursively()
+        .exportedOnly()
+        .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION)
+        .classes().getRoots());
+    final File[] bundles = new File[dependencyFiles.size()];
+    List<Future<?>> wrappings = new ArrayList<Future<?>>();
+
+    ExecutorService executor = OsmorcBuilder.getLibraryBundlingExecutor(myContext);
+    try {
+      for (int i = 0; i < dependencyFiles.size(); i++) {
+        final File dependencyFile = dependencyFiles.get(i);
+        if (JpsCachingBundleInfoProvider.canBeBundlified(dependencyFile)) { // Fixes IDEA-56666
+          // ok it is not a bundle, so we need to bundlify
+          final int index = i;
+          Runnable wrapping = new Runnable() {
+            @Override
+            public void run() {
+              progressMessage("Bundling non-OSGi libraries for the module, dependency: " + dependencyFile.getAbsolutePath());
+              // if no bundle could (or should) be created, we exempt this library
+              bundles[index] = myBndWrapper.wrapLibrary(dependencyFile);
+            }
+          };
+          if (executor != null) {
+            wrappings.add(executor.submit(wrapping));
+          }
+          else {
+            wrapping.run();
+          }
         }
+        else if (JpsCachingBundleInfoProvider.isBundle(dependencyFile)) { // Exclude non-bundles (IDEA-56666)
+          bundles[i] = dependencyFile;
+        }
+      }
+
+      for (Future<?> wrapping : wrappings) {
+        wrapping.get();
       }
-      else if (JpsCachingBundleInfoProvider.isBundle(dependencyFile)) { // Exclude non-bundles (IDEA-56666)
-        result.add(dependencyFile);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancel(wrappings);
+      throw new OsmorcBuildException("Bundling of libraries was interrupted", e);
+    }
+    catch (ExecutionException e) {
+      cancel(wrappings);
+      throw new OsmorcBuildException("Unexpected problem when bundling libraries", e.getCause());
+    }
+
+    List<File> result = new ArrayList<File>(bundles.length);
+    for (File bundle : bundles) {
+      if (bundle != null) {
+        result.add(bundle);
       }
     }
     return result;
   }
 
+  private static void cancel(@NotNull List<Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
   public void processException(OsmorcBuildException e) {
     StringBuilder text = new StringBuilder();
     text.append(myModuleNameMessagePrefix).append(e.getMessage());
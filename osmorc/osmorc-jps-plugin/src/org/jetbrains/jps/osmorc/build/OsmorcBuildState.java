@@ -0,0 +1,164 @@
+package org.jetbrains.jps.osmorc.build;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persisted state of the last successful bundle build of a target: the facet configuration the bundle was built with
+ * and size/timestamp of every file in the module output directory at that time.
+ */
+class OsmorcBuildState {
+  private static final int VERSION = 1;
+
+  private final String myConfiguration;
+  private final Map<String, FileStamp> myOutputFiles;
+
+  OsmorcBuildState(@NotNull String configuration, @NotNull Map<String, FileStamp> outputFiles) {
+    myConfiguration = configuration;
+    myOutputFiles = outputFiles;
+  }
+
+  /**
+   * Takes a snapshot of the given output directory.
+   */
+  @NotNull
+  static OsmorcBuildState create(@NotNull String configuration, @NotNull File outputDir) {
+    Map<String, FileStamp> outputFiles = new TreeMap<String, FileStamp>();
+    collectFiles(outputDir, "", outputFiles);
+    return new OsmorcBuildState(configuration, outputFiles);
+  }
+
+  private static void collectFiles(@NotNull File dir, @NotNull String prefix, @NotNull Map<String, FileStamp> result) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        collectFiles(child, path + "/", result);
+      }
+      else {
+        result.put(path, new FileStamp(child.length(), child.lastModified()));
+      }
+    }
+  }
+
+  /**
+   * Returns the names of all packages containing class files in the output directory.
+   */
+  @NotNull
+  Collection<String> getLocalPackages() {
+    Collection<String> packages = new LinkedHashSet<String>();
+    for (String path : myOutputFiles.keySet()) {
+      if (path.endsWith(".class")) {
+        int n = path.lastIndexOf('/');
+        packages.add(n < 0 ? "." : path.substring(0, n).replace('/', '.'));
+      }
+    }
+    return packages;
+  }
+
+  boolean isSameConfiguration(@NotNull OsmorcBuildState other) {
+    return myConfiguration.equals(other.myConfiguration);
+  }
+
+  /**
+   * Returns true if both states have exactly the same set of output files, regardless of their contents.
+   */
+  boolean isSameOutputPaths(@NotNull OsmorcBuildState other) {
+    return myOutputFiles.keySet().equals(other.myOutputFiles.keySet());
+  }
+
+  /**
+   * Returns paths of the output files which were modified compared to the given (older) state.
+   */
+  @NotNull
+  Set<String> getChangedPaths(@NotNull OsmorcBuildState older) {
+    Set<String> result = new HashSet<String>();
+    for (Map.Entry<String, FileStamp> entry : myOutputFiles.entrySet()) {
+      if (!entry.getValue().equals(older.myOutputFiles.get(entry.getKey()))) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  static OsmorcBuildState load(@NotNull File file) {
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          return null;
+        }
+        String configuration = IOUtil.readString(in);
+        int count = in.readInt();
+        Map<String, FileStamp> outputFiles = new TreeMap<String, FileStamp>();
+        for (int i = 0; i < count; i++) {
+          String path = in.readUTF();
+          outputFiles.put(path, new FileStamp(in.readLong(), in.readLong()));
+        }
+        return new OsmorcBuildState(configuration, outputFiles);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      // corrupted state, the bundle will be rebuilt
+      return null;
+    }
+  }
+
+  void save(@NotNull File file) throws IOException {
+    FileUtil.createParentDirs(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(VERSION);
+      IOUtil.writeString(myConfiguration, out);
+      out.writeInt(myOutputFiles.size());
+      for (Map.Entry<String, FileStamp> entry : myOutputFiles.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().myLength);
+        out.writeLong(entry.getValue().myTimestamp);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  static class FileStamp {
+    private final long myLength;
+    private final long myTimestamp;
+
+    FileStamp(long length, long timestamp) {
+      myLength = length;
+      myTimestamp = timestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      FileStamp stamp = (FileStamp)o;
+      return myLength == stamp.myLength && myTimestamp == stamp.myTimestamp;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (int)(myLength ^ (myLength >>> 32)) + (int)(myTimestamp ^ (myTimestamp >>> 32));
+    }
+  }
+}
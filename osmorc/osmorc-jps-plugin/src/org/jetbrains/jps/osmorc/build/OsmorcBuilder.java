@@ -1,15 +1,24 @@
 package org.jetbrains.jps.osmorc.build;
 
+import com.intellij.openapi.util.Key;
+import com.intellij.util.ConcurrencyUtil;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.TargetBuilder;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * @author michael.golubev
@@ -18,6 +27,9 @@ public class OsmorcBuilder extends TargetBuilder<BuildRootDescriptor, OsmorcBuil
 
   public static final String NAME = "OSGi Compiler";
 
+  private static final Key<Map<OsmorcBuildSession.Result, Integer>> STATISTICS_KEY = Key.create("OSGI_BUILD_STATISTICS");
+  private static final Key<ExecutorService> LIBRARY_BUNDLING_EXECUTOR_KEY = Key.create("OSGI_LIBRARY_BUNDLING_EXECUTOR");
+
 
   public OsmorcBuilder() {
     super(Collections.singletonList(OsmorcBuildTargetType.INSTANCE));
@@ -29,11 +41,61 @@ public class OsmorcBuilder extends TargetBuilder<BuildRootDescriptor, OsmorcBuil
     return NAME;
   }
 
+  @Override
+  public void buildStarted(CompileContext context) {
+    STATISTICS_KEY.set(context, new EnumMap<OsmorcBuildSession.Result, Integer>(OsmorcBuildSession.Result.class));
+    // one pool for all modules of the build, threads are only started when libraries need to be wrapped
+    LIBRARY_BUNDLING_EXECUTOR_KEY.set(context, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                                            ConcurrencyUtil.newNamedThreadFactory("OSGi library bundling")));
+  }
+
+  /**
+   * Returns the pool which wraps libraries for all modules of the current build, or null outside of a build.
+   */
+  @Nullable
+  static ExecutorService getLibraryBundlingExecutor(@NotNull CompileContext context) {
+    return LIBRARY_BUNDLING_EXECUTOR_KEY.get(context);
+  }
+
   @Override
   public void build(@NotNull OsmorcBuildTarget target,
                     @NotNull DirtyFilesHolder<BuildRootDescriptor, OsmorcBuildTarget> holder,
                     @NotNull BuildOutputConsumer outputConsumer,
                     @NotNull CompileContext context) throws ProjectBuildException, IOException {
-    new OsmorcBuildSession().build(target, context);
+    OsmorcBuildSession.Result result = new OsmorcBuildSession().build(target, holder, context);
+
+    Map<OsmorcBuildSession.Result, Integer> statistics = STATISTICS_KEY.get(context);
+    if (statistics != null) {
+      synchronized (statistics) {
+        Integer count = statistics.get(result);
+        statistics.put(result, count != null ? count + 1 : 1);
+      }
+    }
+  }
+
+  @Override
+  public void buildFinished(CompileContext context) {
+    ExecutorService executor = LIBRARY_BUNDLING_EXECUTOR_KEY.get(context);
+    if (executor != null) {
+      executor.shutdownNow();
+      LIBRARY_BUNDLING_EXECUTOR_KEY.set(context, null);
+    }
+    LibraryBundlificationCache.cleanup();
+
+    Map<OsmorcBuildSession.Result, Integer> statistics = STATISTICS_KEY.get(context);
+    if (statistics == null || statistics.isEmpty()) {
+      return;
+    }
+
+    String message = String.format("OSGi bundles: %d rebuilt, %d updated, %d up to date",
+                                   getCount(statistics, OsmorcBuildSession.Result.REBUILT),
+                                   getCount(statistics, OsmorcBuildSession.Result.UPDATED),
+                                   getCount(statistics, OsmorcBuildSession.Result.UP_TO_DATE));
+    context.processMessage(new CompilerMessage(NAME, BuildMessage.Kind.INFO, message));
+  }
+
+  private static int getCount(Map<OsmorcBuildSession.Result, Integer> statistics, OsmorcBuildSession.Result result) {
+    Integer count = statistics.get(result);
+    return count != null ? count : 0;
   }
 }
@@ -25,6 +25,7 @@
 package org.jetbrains.jps.osmorc.model;
 
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.ConcurrencyUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
@@ -32,8 +33,12 @@ import org.osgi.framework.Constants;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -49,8 +54,9 @@ import java.util.jar.Manifest;
 public class JpsCachingBundleInfoProvider {
   private static final Logger LOG = Logger.getInstance(JpsCachingBundleInfoProvider.class);
 
-  // todo: check timestamp
-  private static final Map<File, Manifest> ourCache = new WeakHashMap<File, Manifest>();
+  private static final int MAX_CACHE_SIZE = 5000;
+
+  private static final ConcurrentMap<File, CachedManifest> ourCache = new ConcurrentHashMap<File, CachedManifest>();
 
   protected JpsCachingBundleInfoProvider() {
   }
@@ -138,41 +144,130 @@ public class JpsCachingBundleInfoProvider {
    * @return the attribute's value or null if there is no such bundle or no such attribute
    */
   @Nullable
-  public synchronized static String getBundleAttribute(@Nullable File bundleFile, @NotNull String attribute) {
+  public static String getBundleAttribute(@Nullable File bundleFile, @NotNull String attribute) {
     if (bundleFile == null) return null;
 
-    if (!ourCache.containsKey(bundleFile)) {
-      try {
-        if (bundleFile.isDirectory()) {
-          File manifestFile = new File(bundleFile, "META-INF/MANIFEST.MF");
-          if (manifestFile.exists() && !manifestFile.isDirectory()) {
-            FileInputStream fileInputStream = new FileInputStream(manifestFile);
-            try {
-              Manifest manifest = new Manifest(fileInputStream);
-              ourCache.put(bundleFile, manifest);
-            }
-            finally {
-              fileInputStream.close();
-            }
+    Attributes attributes = getMainAttributes(bundleFile);
+    return attributes != null ? attributes.getValue(attribute) : null;
+  }
+
+  /**
+   * Reads the manifests of all given bundles in parallel, so following attribute queries for them are answered from the cache.
+   * Useful when scanning large framework or library directories; callers should pass all files at once, as a thread pool is started per call.
+   *
+   * @param bundleFiles jar files or exploded bundle directories
+   */
+  public static void cacheManifests(@NotNull Collection<File> bundleFiles) {
+    if (bundleFiles.size() < 2) {
+      for (File bundleFile : bundleFiles) {
+        getMainAttributes(bundleFile);
+      }
+      return;
+    }
+
+    int threadsCount = Math.min(bundleFiles.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threadsCount, ConcurrencyUtil.newNamedThreadFactory("OSGi manifest reader"));
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>(bundleFiles.size());
+      for (final File bundleFile : bundleFiles) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            getMainAttributes(bundleFile);
           }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (ExecutionException e) {
+      LOG.debug(e);
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the main manifest attributes of the given bundle, reading the manifest only when the file changed since the last call.
+   */
+  @Nullable
+  private static Attributes getMainAttributes(@NotNull File bundleFile) {
+    File stampFile = bundleFile.isDirectory() ? new File(bundleFile, JarFile.MANIFEST_NAME) : bundleFile;
+    long length = stampFile.length();
+    long lastModified = stampFile.lastModified();
+
+    CachedManifest cached = ourCache.get(bundleFile);
+    if (cached != null && cached.myLength == length && cached.myLastModified == lastModified) {
+      return cached.myAttributes;
+    }
+
+    Manifest manifest;
+    try {
+      manifest = readManifest(bundleFile);
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return null;
+    }
+
+    Attributes attributes = manifest != null ? manifest.getMainAttributes() : null;
+    if (ourCache.size() >= MAX_CACHE_SIZE) {
+      evict();
+    }
+    ourCache.put(bundleFile, new CachedManifest(length, lastModified, attributes));
+    return attributes;
+  }
+
+  @Nullable
+  private static Manifest readManifest(@NotNull File bundleFile) throws IOException {
+    if (bundleFile.isDirectory()) {
+      File manifestFile = new File(bundleFile, JarFile.MANIFEST_NAME);
+      if (manifestFile.exists() && !manifestFile.isDirectory()) {
+        FileInputStream fileInputStream = new FileInputStream(manifestFile);
+        try {
+          return new Manifest(fileInputStream);
         }
-        else {
-          JarFile file = new JarFile(bundleFile);
-          try {
-            ourCache.put(bundleFile, file.getManifest());
-          }
-          finally {
-            file.close();
-          }
+        finally {
+          fileInputStream.close();
         }
       }
-      catch (IOException e) {
-        LOG.debug(e);
-        return null;
-      }
+      return null;
     }
 
-    Manifest manifest = ourCache.get(bundleFile);
-    return manifest != null ? manifest.getMainAttributes().getValue(attribute) : null;
+    JarFile file = new JarFile(bundleFile);
+    try {
+      return file.getManifest();
+    }
+    finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Drops a quarter of the cache. Entries are not ordered, but re-reading a manifest is cheap compared to unbounded growth.
+   */
+  private static void evict() {
+    int toRemove = MAX_CACHE_SIZE / 4;
+    for (Iterator<File> iterator = ourCache.keySet().iterator(); iterator.hasNext() && toRemove > 0; toRemove--) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  private static class CachedManifest {
+    private final long myLength;
+    private final long myLastModified;
+    private final Attributes myAttributes;
+
+    private CachedManifest(long length, long lastModified, @Nullable Attributes attributes) {
+      myLength = length;
+      myLastModified = lastModified;
+      myAttributes = attributes;
+    }
   }
 }
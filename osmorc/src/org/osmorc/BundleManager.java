@@ -90,6 +90,13 @@ public abstract class BundleManager {
   @NotNull
   public abstract Set<Object> resolveDependenciesOf(@NotNull Module module);
 
+  /**
+   * Returns the modules whose resolved dependencies (see {@link #resolveDependenciesOf(Module)}) include the given module or library,
+   * i.e. the reverse edges of the wiring graph. Only modules which were resolved since their last change are known.
+   */
+  @NotNull
+  public abstract Set<Object> getDependents(@NotNull Object object);
+
   /**
    * Returns true if the given package is provided by one of the registered bundles.
    */
@@ -46,6 +46,7 @@ import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 import org.osmorc.frameworkintegration.FrameworkInstanceDefinition;
+import org.osmorc.make.GeneratedManifestUpdater;
 import org.osmorc.run.OsgiConfigurationType;
 import org.osmorc.run.OsgiRunConfiguration;
 import org.osmorc.run.ui.SelectedBundle;
@@ -100,6 +101,9 @@ public class OsmorcProjectComponent implements ProjectComponent, ProjectSettings
     MessageBusConnection projectBus = myProject.getMessageBus().connect(myProject);
     projectBus.subscribe(ProjectTopics.PROJECT_ROOTS, new MyModuleRootListener());
     projectBus.subscribe(ProjectTopics.MODULES, new MyModuleRenameHandler());
+
+    // start tracking source changes of modules with generated manifests
+    GeneratedManifestUpdater.getInstance(myProject);
   }
 
   @Override
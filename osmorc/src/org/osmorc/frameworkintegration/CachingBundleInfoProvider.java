@@ -28,8 +28,13 @@ import org.jetbrains.jps.osmorc.model.JpsCachingBundleInfoProvider;
 import org.osmorc.util.OsgiFileUtil;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
 
 public class CachingBundleInfoProvider extends JpsCachingBundleInfoProvider {
+  private static final Pattern SHORT_FILE_URL = Pattern.compile("file:/([^/]+)");
 
   public static String getBundleSymbolicName(String bundleUrl) {
     return getBundleSymbolicName(urlToFile(bundleUrl));
@@ -55,11 +60,26 @@ public class CachingBundleInfoProvider extends JpsCachingBundleInfoProvider {
     return isFragmentBundle(urlToFile(bundleUrl));
   }
 
+  /**
+   * Reads the manifests of the given bundles in one go, so subsequent queries for these bundles are served from the cache.
+   */
+  public static void cacheBundles(Collection<String> bundleUrls) {
+    List<File> files = new ArrayList<File>(bundleUrls.size());
+    for (String bundleUrl : bundleUrls) {
+      files.add(urlToFile(bundleUrl));
+    }
+    cacheManifests(files);
+  }
+
   private static File urlToFile(String bundleUrl) {
     return new File(OsgiFileUtil.urlToPath(normalize(bundleUrl)));
   }
 
   private static String normalize(String bundleUrl) {
-    return bundleUrl.replaceAll("file:/([^/]+)", "file:///$1");
+    // most urls are already in the "file:///" form, don't run a regex over them
+    if (bundleUrl.startsWith("file://")) {
+      return bundleUrl;
+    }
+    return SHORT_FILE_URL.matcher(bundleUrl).replaceAll("file:///$1");
   }
 }
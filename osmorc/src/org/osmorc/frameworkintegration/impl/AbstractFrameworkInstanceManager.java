@@ -15,6 +15,7 @@ import org.osmorc.i18n.OsmorcBundle;
 import org.osmorc.run.ui.SelectedBundle;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -75,9 +76,17 @@ public abstract class AbstractFrameworkInstanceManager implements FrameworkInsta
 
     Collection<SelectedBundle> bundles = ContainerUtil.newArrayList();
 
-    outer:
+    List<File[]> dirFiles = ContainerUtil.newArrayList();
+    List<File> allFiles = ContainerUtil.newArrayList();
     for (File dir : flattenDirPatterns(basePath, bundleDirs)) {
       File[] files = ObjectUtils.notNull(dir.listFiles(), ArrayUtil.EMPTY_FILE_ARRAY);
+      dirFiles.add(files);
+      allFiles.addAll(Arrays.asList(files));
+    }
+    CachingBundleInfoProvider.cacheManifests(allFiles);
+
+    outer:
+    for (File[] files : dirFiles) {
       for (File file : files) {
         FrameworkBundleType bundleType = detectType(file, sysNamePattern, sysControlClass, shellNamePattern, shellControlClass);
         if (bundleType == type) {
@@ -1,5 +1,6 @@
 package org.osmorc.impl;
 
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.HashSet;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -12,61 +13,79 @@ import java.util.*;
 
 /**
  * The bundle cache holds information about all bundles within the project.
+ * <p/>
+ * Bundles are indexed by exported package name, bundle symbolic name, fragment host name and bound object, so lookups only need to check
+ * the few bundles which may match a given specification instead of all known bundles. Index entries are recomputed in
+ * {@link #updateWith(ManifestHolder)} when the modification stamp of the manifest file changed. {@link BundleManagerImpl} calls it for
+ * edited manifests before answering lookups.
  */
 class BundleCache {
-  private volatile Set<ManifestHolder> myManifestHolders;
+  private final Map<ManifestHolder, CapabilityEntry> myEntries = new HashMap<ManifestHolder, CapabilityEntry>();
+  private final Map<String, Set<ManifestHolder>> myPackageExporters = new HashMap<String, Set<ManifestHolder>>();
+  private final Map<String, Set<ManifestHolder>> myBundles = new HashMap<String, Set<ManifestHolder>>();
+  private final Map<String, Set<ManifestHolder>> myFragments = new HashMap<String, Set<ManifestHolder>>();
+  private final Map<Object, ManifestHolder> myBoundObjects = new HashMap<Object, ManifestHolder>();
 
   public BundleCache() {
-    myManifestHolders = new HashSet<ManifestHolder>();
   }
 
   /**
    * Clears the bundle cache.
    */
   public synchronized void clear() {
-    myManifestHolders = new HashSet<ManifestHolder>();
+    myEntries.clear();
+    myPackageExporters.clear();
+    myBundles.clear();
+    myFragments.clear();
+    myBoundObjects.clear();
   }
 
   /**
    * Updates the cache with the given manifest holder.
    *
    * @param holder the holder
-   * @return true, if the holder was added to the cache, false if the holder was already known.
+   * @return true, if the holder was added to the cache or its manifest changed since the last update, false if the holder was already
+   *         known and is up to date.
    */
-  public synchronized boolean updateWith(@NotNull final ManifestHolder holder) {
-    if (!myManifestHolders.contains(holder)) {
-      // copy on write
-      HashSet<ManifestHolder> copy = new HashSet<ManifestHolder>(myManifestHolders);
-      copy.add(holder);
-      myManifestHolders = copy;
-      return true;
-    }
-    else {
+  public boolean updateWith(@NotNull final ManifestHolder holder) {
+    // read the manifest outside of the lock, it may require a read action
+    CapabilityEntry entry = CapabilityEntry.create(holder);
+    if (entry == null) {
       return false;
     }
+
+    synchronized (this) {
+      CapabilityEntry existing = myEntries.get(holder);
+      if (existing != null) {
+        if (existing.isUpToDate(entry)) {
+          return false;
+        }
+        unregister(existing);
+      }
+      register(entry);
+      return true;
+    }
   }
 
   /**
    * Removes all stale holders from the cache.
    *
-   * @return true if there were stale entries, false if nothing changed.
+   * @return the removed holders, an empty collection if nothing changed.
    */
-  public synchronized boolean cleanup() {
-    Set<ManifestHolder> toRemove = new HashSet<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      if (manifestHolder.isDisposed()) {
-        toRemove.add(manifestHolder);
+  @NotNull
+  public synchronized Collection<ManifestHolder> cleanup() {
+    List<CapabilityEntry> toRemove = new ArrayList<CapabilityEntry>();
+    for (CapabilityEntry entry : myEntries.values()) {
+      if (entry.holder.isDisposed()) {
+        toRemove.add(entry);
       }
     }
-    if (toRemove.isEmpty()) {
-      return false;
+    List<ManifestHolder> result = new ArrayList<ManifestHolder>(toRemove.size());
+    for (CapabilityEntry entry : toRemove) {
+      unregister(entry);
+      result.add(entry.holder);
     }
-
-    // copy on write
-    HashSet<ManifestHolder> copy = new HashSet<ManifestHolder>(myManifestHolders);
-    copy.removeAll(toRemove);
-    myManifestHolders = copy;
-    return true;
+    return result;
   }
 
   /**
@@ -77,61 +96,48 @@ class BundleCache {
    */
   @NotNull
   public Set<ManifestHolder> whoProvides(@NotNull final String packageSpec) {
+    String packageName = getClauseName(packageSpec);
+    Collection<ManifestHolder> candidates;
+    if (packageName.indexOf('*') >= 0) {
+      // wildcard import, cannot use the index
+      candidates = getAllHolders();
+    }
+    else {
+      candidates = getCandidates(myPackageExporters, packageName);
+    }
+
     Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        // ok this thing is gone
-        continue;
-      }
-      if (bundleManifest != null) {
-        if (bundleManifest.isPackageExported(packageSpec)) {
-          result.add(manifestHolder);
-        }
+    for (ManifestHolder manifestHolder : candidates) {
+      BundleManifest bundleManifest = getManifest(manifestHolder);
+      if (bundleManifest != null && bundleManifest.isPackageExported(packageSpec)) {
+        result.add(manifestHolder);
       }
     }
     return result;
   }
 
   /**
-   * Returns a set of  manifest holders that represent fragments of the given manifest holder. Note, that this is a potentially costly operation
-   * when there are many manifests.
+   * Returns a set of  manifest holders that represent fragments of the given manifest holder.
    *
    * @param bundle the manifest holder to find the fragments for.
    * @return a set of matching manifest holders. If there are no fragments known, returns an empty set.
    */
   @NotNull
   public Set<ManifestHolder> getFragmentsForBundle(@NotNull ManifestHolder bundle) {
-    try {
-      BundleManifest bundleManifest = bundle.getBundleManifest();
-      // if it has no manifest, we can short cut here
-      if (bundleManifest == null) {
-        return Collections.emptySet();
-      }
+    BundleManifest bundleManifest = getManifest(bundle);
+    // if it has no manifest, we can short cut here
+    if (bundleManifest == null || bundleManifest.getBundleSymbolicName() == null) {
+      return Collections.emptySet();
+    }
 
-      Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-      for (ManifestHolder manifestHolder : myManifestHolders) {
-        try {
-          BundleManifest potentialFragmentManifest = manifestHolder.getBundleManifest();
-          if (potentialFragmentManifest == null) {
-            continue;
-          }
-          if (bundleManifest.isFragmentHostFor(potentialFragmentManifest)) {
-            result.add(manifestHolder);
-          }
-        }
-        catch (ManifestHolderDisposedException ignore) {
-          // ignore.
-        }
+    Set<ManifestHolder> result = new HashSet<ManifestHolder>();
+    for (ManifestHolder manifestHolder : getCandidates(myFragments, bundleManifest.getBundleSymbolicName())) {
+      BundleManifest potentialFragmentManifest = getManifest(manifestHolder);
+      if (potentialFragmentManifest != null && bundleManifest.isFragmentHostFor(potentialFragmentManifest)) {
+        result.add(manifestHolder);
       }
-      return result;
-    }
-    catch (ManifestHolderDisposedException ignore) {
-      return Collections.emptySet();
     }
+    return result;
   }
 
   /**
@@ -142,33 +148,21 @@ class BundleCache {
    */
   @NotNull
   public Set<ManifestHolder> getFragmentHosts(@NotNull ManifestHolder fragment) {
-    try {
-      BundleManifest fragmentManifest = fragment.getBundleManifest();
-      // if its not a fragment or has no manifest, we can short cut here
-      if (fragmentManifest == null || !fragmentManifest.isFragmentBundle()) {
-        return Collections.emptySet();
-      }
+    BundleManifest fragmentManifest = getManifest(fragment);
+    // if its not a fragment or has no manifest, we can short cut here
+    String hostName = fragmentManifest != null ? getFragmentHostName(fragmentManifest) : null;
+    if (hostName == null) {
+      return Collections.emptySet();
+    }
 
-      Set<ManifestHolder> result = new HashSet<ManifestHolder>();
-      for (ManifestHolder manifestHolder : myManifestHolders) {
-        try {
-          BundleManifest potentialHostManifest = manifestHolder.getBundleManifest();
-          if (potentialHostManifest == null) {
-            continue;
-          }
-          if (potentialHostManifest.isFragmentHostFor(fragmentManifest)) {
-            result.add(manifestHolder);
-          }
-        }
-        catch (ManifestHolderDisposedException ignore) {
-          // ignore.
-        }
+    Set<ManifestHolder> result = new HashSet<ManifestHolder>();
+    for (ManifestHolder manifestHolder : getCandidates(myBundles, hostName)) {
+      BundleManifest potentialHostManifest = getManifest(manifestHolder);
+      if (potentialHostManifest != null && potentialHostManifest.isFragmentHostFor(fragmentManifest)) {
+        result.add(manifestHolder);
       }
-      return result;
-    }
-    catch (ManifestHolderDisposedException ignore) {
-      return Collections.emptySet();
     }
+    return result;
   }
 
   /**
@@ -180,18 +174,10 @@ class BundleCache {
   @NotNull
   public List<ManifestHolder> whoIs(@NotNull final String bundleSymbolicName) {
     List<ManifestHolder> result = new ArrayList<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        continue;
-      }
-      if (bundleManifest != null) {
-        if (bundleSymbolicName.equals(bundleManifest.getBundleSymbolicName())) {
-          result.add(manifestHolder);
-        }
+    for (ManifestHolder manifestHolder : getCandidates(myBundles, bundleSymbolicName)) {
+      BundleManifest bundleManifest = getManifest(manifestHolder);
+      if (bundleManifest != null && bundleSymbolicName.equals(bundleManifest.getBundleSymbolicName())) {
+        result.add(manifestHolder);
       }
     }
     return result;
@@ -207,20 +193,10 @@ class BundleCache {
   @Nullable
   public ManifestHolder whoIsRequiredBundle(@NotNull final String requiredBundleSpec) {
     List<ManifestHolder> candidates = new ArrayList<ManifestHolder>();
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      BundleManifest bundleManifest;
-      try {
-        bundleManifest = manifestHolder.getBundleManifest();
-      }
-      catch (ManifestHolderDisposedException ignore) {
-        // this thing is gone
-        continue;
-      }
-
-      if (bundleManifest != null) {
-        if (bundleManifest.isRequiredBundle(requiredBundleSpec)) {
-          candidates.add(manifestHolder);
-        }
+    for (ManifestHolder manifestHolder : getCandidates(myBundles, getClauseName(requiredBundleSpec))) {
+      BundleManifest bundleManifest = getManifest(manifestHolder);
+      if (bundleManifest != null && bundleManifest.isRequiredBundle(requiredBundleSpec)) {
+        candidates.add(manifestHolder);
       }
     }
 
@@ -341,18 +317,149 @@ class BundleCache {
    */
   @Nullable
   public ManifestHolder getManifestHolder(@NotNull final Object bundle) {
-    for (ManifestHolder manifestHolder : myManifestHolders) {
-      Object boundObject;
+    ManifestHolder manifestHolder;
+    synchronized (this) {
+      manifestHolder = myBoundObjects.get(bundle);
+    }
+    return manifestHolder != null && !manifestHolder.isDisposed() ? manifestHolder : null;
+  }
+
+  private void register(@NotNull CapabilityEntry entry) {
+    myEntries.put(entry.holder, entry);
+    for (String packageName : entry.exportedPackages) {
+      addToIndex(myPackageExporters, packageName, entry.holder);
+    }
+    addToIndex(myBundles, entry.symbolicName, entry.holder);
+    addToIndex(myFragments, entry.fragmentHostName, entry.holder);
+    if (entry.boundObject != null) {
+      myBoundObjects.put(entry.boundObject, entry.holder);
+    }
+  }
+
+  private void unregister(@NotNull CapabilityEntry entry) {
+    myEntries.remove(entry.holder);
+    for (String packageName : entry.exportedPackages) {
+      removeFromIndex(myPackageExporters, packageName, entry.holder);
+    }
+    removeFromIndex(myBundles, entry.symbolicName, entry.holder);
+    removeFromIndex(myFragments, entry.fragmentHostName, entry.holder);
+    if (entry.boundObject != null && myBoundObjects.get(entry.boundObject) == entry.holder) {
+      myBoundObjects.remove(entry.boundObject);
+    }
+  }
+
+  private static void addToIndex(@NotNull Map<String, Set<ManifestHolder>> index, @Nullable String key, @NotNull ManifestHolder holder) {
+    if (key == null) {
+      return;
+    }
+    Set<ManifestHolder> holders = index.get(key);
+    if (holders == null) {
+      holders = new HashSet<ManifestHolder>();
+      index.put(key, holders);
+    }
+    holders.add(holder);
+  }
+
+  private static void removeFromIndex(@NotNull Map<String, Set<ManifestHolder>> index, @Nullable String key, @NotNull ManifestHolder holder) {
+    if (key == null) {
+      return;
+    }
+    Set<ManifestHolder> holders = index.get(key);
+    if (holders != null) {
+      holders.remove(holder);
+      if (holders.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Returns a copy of the index entry, so candidates can be checked without holding the lock.
+   */
+  @NotNull
+  private synchronized Collection<ManifestHolder> getCandidates(@NotNull Map<String, Set<ManifestHolder>> index, @NotNull String key) {
+    Set<ManifestHolder> holders = index.get(key);
+    return holders != null ? new ArrayList<ManifestHolder>(holders) : Collections.<ManifestHolder>emptyList();
+  }
+
+  @NotNull
+  private synchronized Collection<ManifestHolder> getAllHolders() {
+    return new ArrayList<ManifestHolder>(myEntries.keySet());
+  }
+
+  @Nullable
+  static BundleManifest getManifest(@NotNull ManifestHolder holder) {
+    try {
+      return holder.getBundleManifest();
+    }
+    catch (ManifestHolderDisposedException ignore) {
+      // ok this thing is gone
+      return null;
+    }
+  }
+
+  /**
+   * Returns the first name of a header clause, e.g. {@code foo.bar} for {@code foo.bar;version="[1.0,2.0)"}.
+   */
+  @NotNull
+  static String getClauseName(@NotNull String clause) {
+    int end = clause.indexOf(';');
+    return (end < 0 ? clause : clause.substring(0, end)).trim();
+  }
+
+  @Nullable
+  private static String getFragmentHostName(@NotNull BundleManifest manifest) {
+    String fragmentHost = manifest.getFragmentHost();
+    return fragmentHost != null ? StringUtil.nullize(getClauseName(fragmentHost)) : null;
+  }
+
+  /**
+   * Capabilities of a single manifest holder as stored in the index.
+   */
+  private static class CapabilityEntry {
+    private final ManifestHolder holder;
+    private final Object boundObject;
+    private final BundleManifest manifest;
+    private final long stamp;
+    private final List<String> exportedPackages;
+    private final String symbolicName;
+    private final String fragmentHostName;
+
+    private CapabilityEntry(@NotNull ManifestHolder holder,
+                            @Nullable Object boundObject,
+                            @Nullable BundleManifest manifest,
+                            long stamp,
+                            @NotNull List<String> exportedPackages,
+                            @Nullable String symbolicName,
+                            @Nullable String fragmentHostName) {
+      this.holder = holder;
+      this.boundObject = boundObject;
+      this.manifest = manifest;
+      this.stamp = stamp;
+      this.exportedPackages = exportedPackages;
+      this.symbolicName = symbolicName;
+      this.fragmentHostName = fragmentHostName;
+    }
+
+    private boolean isUpToDate(@NotNull CapabilityEntry newEntry) {
+      return manifest == newEntry.manifest && stamp == newEntry.stamp && boundObject == newEntry.boundObject;
+    }
+
+    @Nullable
+    private static CapabilityEntry create(@NotNull ManifestHolder holder) {
       try {
-        boundObject = manifestHolder.getBoundObject();
+        Object boundObject = holder.getBoundObject();
+        BundleManifest manifest = holder.getBundleManifest();
+        if (manifest == null) {
+          return new CapabilityEntry(holder, boundObject, null, -1, Collections.<String>emptyList(), null, null);
+        }
+        return new CapabilityEntry(holder, boundObject, manifest, manifest.getModificationStamp(),
+                                   new ArrayList<String>(manifest.getExportedPackages()), manifest.getBundleSymbolicName(),
+                                   getFragmentHostName(manifest));
       }
       catch (ManifestHolderDisposedException ignore) {
-        continue;
-      }
-      if (boundObject.equals(bundle)) {
-        return manifestHolder;
+        return null;
       }
     }
-    return null;
   }
 }
@@ -3,15 +3,22 @@ package org.osmorc.impl;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderEnumerator;
-import com.intellij.openapi.roots.OrderRootType;
 import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
 import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
+import org.jetbrains.lang.manifest.psi.ManifestFile;
 import org.osmorc.BundleManager;
 import org.osmorc.facet.OsmorcFacet;
 import org.osmorc.manifest.BundleManifest;
@@ -20,8 +27,6 @@ import org.osmorc.manifest.ManifestHolderDisposedException;
 import org.osmorc.manifest.ManifestHolderRegistry;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Re-implementation of the bundle manager.
@@ -30,203 +35,157 @@ public class BundleManagerImpl extends BundleManager {
   private static final Logger LOG = Logger.getInstance("#org.osmorc.impl.MyBundleManager");
 
   private BundleCache myBundleCache;
+  private BundleWiring myBundleWiring;
   private ManifestHolderRegistry myManifestHolderRegistry;
   private Project myProject;
 
-  /**
-   * Pattern which finds the jar filename in a path pattern from a Bundle-ClassPath header.
-   */
-  private static final Pattern JarPathPattern = Pattern.compile("(.*/)?([^/]+.jar)");
+  private final Set<ManifestHolder> myChangedManifestHolders = new LinkedHashSet<ManifestHolder>();
 
   public BundleManagerImpl(ManifestHolderRegistry manifestHolderRegistry, Project project) {
     myManifestHolderRegistry = manifestHolderRegistry;
     myProject = project;
     myBundleCache = new BundleCache();
+    myBundleWiring = new BundleWiring(myBundleCache, project);
+    PsiManager.getInstance(project).addPsiTreeChangeListener(new ManifestChangeListener(), project);
   }
 
   @Override
   public void reindex(@NotNull Module module) {
-    if (module.isDisposed()) {
-      return; // don't work on disposed modules
-    }
-
-    if (!module.getProject().equals(myProject)) {
-      LOG.warn("Someone tried to index a module that doesn't belong to my project.");
-      return; // don't work on modules outside of the current project.
-    }
-
-    // if the module has an osmorc facet, treat it as a bundle and add it to the cache
-    if (OsmorcFacet.hasOsmorcFacet(module)) {
-      ManifestHolder manifestHolder = myManifestHolderRegistry.getManifestHolder(module);
-      myBundleCache.updateWith(manifestHolder);
-
-      CommonProcessors.CollectProcessor<Library> collector = new CommonProcessors.CollectProcessor<Library>();
-      OrderEnumerator.orderEntries(module).forEachLibrary(collector);
-      reindex(collector.getResults());
-
-      myBundleCache.cleanup();
-    }
+    List<ManifestHolder> changed = new ArrayList<ManifestHolder>();
+    updateModule(module, changed);
+    changed.addAll(myBundleCache.cleanup());
+    myBundleWiring.invalidate(changed, false);
   }
 
   @Override
   public void reindex(@NotNull Collection<Library> libraries) {
-    for (Library library : libraries) {
-      Collection<ManifestHolder> manifestHolders = myManifestHolderRegistry.getManifestHolders(library);
-      for (ManifestHolder manifestHolder : manifestHolders) {
-        myBundleCache.updateWith(manifestHolder);
-      }
-    }
-    myBundleCache.cleanup();
+    List<ManifestHolder> changed = new ArrayList<ManifestHolder>();
+    updateLibraries(libraries, changed);
+    changed.addAll(myBundleCache.cleanup());
+    myBundleWiring.invalidate(changed, true);
   }
 
   @Override
   public void reindexAll() {
     // there are no osgi structures on project level, so we can simply get all modules and index these.
+    List<ManifestHolder> changed = new ArrayList<ManifestHolder>();
+    List<ManifestHolder> moduleHolders = new ArrayList<ManifestHolder>();
     Module[] modules = ModuleManager.getInstance(myProject).getModules();
     for (Module module : modules) {
-      reindex(module);
+      ContainerUtil.addIfNotNull(updateModule(module, changed), moduleHolders);
     }
 
     // finally index the project level libraries
     Library[] libraries = ProjectLibraryTable.getInstance(myProject).getLibraries();
-    reindex(Arrays.asList(libraries));
+    updateLibraries(Arrays.asList(libraries), changed);
+    changed.addAll(myBundleCache.cleanup());
+
+    // re-resolve the affected modules in one batch
+    myBundleWiring.invalidate(changed, true);
+    myBundleWiring.resolveAll(moduleHolders);
   }
 
-  @Override
-  @NotNull
-  public Set<Object> resolveDependenciesOf(@NotNull final Module module) {
-    BundleManifest manifest = getManifestByObject(module);
-    if (manifest == null) {
-      return Collections.emptySet();
+  /**
+   * Updates the cache with the given module and it's libraries, if the module is a bundle.
+   *
+   * @return the manifest holder of the module or null if the module is not a bundle
+   */
+  @Nullable
+  private ManifestHolder updateModule(@NotNull Module module, @NotNull Collection<ManifestHolder> changed) {
+    if (module.isDisposed()) {
+      return null; // don't work on disposed modules
     }
 
-    // set of all manifest holders that are dependencies
-    Set<ManifestHolder> dependencyHolders = new HashSet<ManifestHolder>();
-
-    // resolve Import-Package
-    List<String> imports = manifest.getImports();
-    for (String anImport : imports) {
-      dependencyHolders.addAll(myBundleCache.whoProvides(anImport));
+    if (!module.getProject().equals(myProject)) {
+      LOG.warn("Someone tried to index a module that doesn't belong to my project.");
+      return null; // don't work on modules outside of the current project.
     }
 
-    // Resolve Require-Bundle
-    List<String> requiredBundles = manifest.getRequiredBundles();
-    List<ManifestHolder> allRequiredBundles = new ArrayList<ManifestHolder>();
-    for (String requiredBundle : requiredBundles) {
-      resolveRequiredBundle(requiredBundle, allRequiredBundles);
+    // if the module has an osmorc facet, treat it as a bundle and add it to the cache
+    if (!OsmorcFacet.hasOsmorcFacet(module)) {
+      return null;
     }
-    dependencyHolders.addAll(allRequiredBundles);
 
-    // Resolve Fragment-Hosts
-    ManifestHolder manifestHolder = myBundleCache.getManifestHolder(module);
-    if (manifestHolder != null) {
-      dependencyHolders.addAll(myBundleCache.getFragmentHosts(manifestHolder));
+    ManifestHolder manifestHolder = myManifestHolderRegistry.getManifestHolder(module);
+    if (myBundleCache.updateWith(manifestHolder)) {
+      changed.add(manifestHolder);
     }
 
-    // finally extract result objects from holders.
-    Set<Object> result = new HashSet<Object>();
-    for (ManifestHolder holder : dependencyHolders) {
-      try {
-        result.add(holder.getBoundObject());
+    CommonProcessors.CollectProcessor<Library> collector = new CommonProcessors.CollectProcessor<Library>();
+    OrderEnumerator.orderEntries(module).forEachLibrary(collector);
+    updateLibraries(collector.getResults(), changed);
+    return manifestHolder;
+  }
+
+  private void updateLibraries(@NotNull Collection<Library> libraries, @NotNull Collection<ManifestHolder> changed) {
+    for (Library library : libraries) {
+      Collection<ManifestHolder> manifestHolders = myManifestHolderRegistry.getManifestHolders(library);
+      for (ManifestHolder manifestHolder : manifestHolders) {
+        if (myBundleCache.updateWith(manifestHolder)) {
+          changed.add(manifestHolder);
+        }
       }
-      catch (ManifestHolderDisposedException ignored) { }
     }
-
-    // Resolve Bundle-ClassPath (this might contain non-osgi-bundles so we have to work on the library level here)
-    List<String> entries = manifest.getBundleClassPathEntries();
-    result.addAll(resolveBundleClassPath(entries));
-    return result;
   }
 
   /**
-   * This method fully resolves a Require-Bundle specification including re-exports and possible amendments by fragments. All resolved
-   * dependencies will be added to the <code>resolvedDependencies</code> list.
-   *
-   * @param requireBundleSpec    the spec to resolve
-   * @param resolvedDependencies the resolved dependencies.
+   * Marks the manifest of the given holder as changed. The bundle cache is updated before the next lookup.
    */
-  private void resolveRequiredBundle(@NotNull String requireBundleSpec, @NotNull List<ManifestHolder> resolvedDependencies) {
-    // first get the manifest holder of the required bundle
-    ManifestHolder manifestHolder = myBundleCache.whoIsRequiredBundle(requireBundleSpec);
-
-    if (manifestHolder == null) {
-      // unresolvable, may happen if the user misses some dependencies.
-      return;
+  void manifestChanged(@NotNull ManifestHolder manifestHolder) {
+    synchronized (myChangedManifestHolders) {
+      myChangedManifestHolders.add(manifestHolder);
     }
+  }
 
-    if (resolvedDependencies.contains(manifestHolder)) {
-      // we're done here, we already resolved this dependency
-      return;
+  /**
+   * Updates the bundle cache and the wiring with the manifests edited since the last lookup, so hand-written manifests
+   * are never answered from stale index entries.
+   */
+  private void processChangedManifests() {
+    List<ManifestHolder> holders;
+    synchronized (myChangedManifestHolders) {
+      if (myChangedManifestHolders.isEmpty()) {
+        return;
+      }
+      holders = new ArrayList<ManifestHolder>(myChangedManifestHolders);
+      myChangedManifestHolders.clear();
     }
 
-    BundleManifest requireBundleManifest;
-    try {
-      requireBundleManifest = manifestHolder.getBundleManifest();
+    List<ManifestHolder> changed = new ArrayList<ManifestHolder>();
+    for (ManifestHolder holder : holders) {
+      if (myBundleCache.updateWith(holder)) {
+        changed.add(holder);
+      }
     }
-    catch (ManifestHolderDisposedException e) {
-      // ok it's gone. Should rarely happen but in this case there is nothing we can do anymore.
-      return;
+    changed.addAll(myBundleCache.cleanup());
+    if (!changed.isEmpty()) {
+      myBundleWiring.invalidate(changed, false);
     }
+  }
 
-    if (requireBundleManifest != null) {
-      // its kosher, so add it to the result list.
-      resolvedDependencies.add(manifestHolder);
-
-      // now determine additional dependencies
-      List<String> toResolve = new ArrayList<String>();
-
-      // -  bundles that are re-exported from the current dependency
-      toResolve.addAll(requireBundleManifest.getReExportedBundles());
-
-      // - bundles that are re-exported from any fragments
-      Set<ManifestHolder> fragments = myBundleCache.getFragmentsForBundle(manifestHolder);
-
-      // we only want the highest version of each fragment, so filter this out:
-      fragments = BundleCache.getCandidatesWithHighestVersions(fragments);
-
-      for (ManifestHolder fragment : fragments) {
-        BundleManifest manifest = null;
-        try {
-          manifest = fragment.getBundleManifest();
-        }
-        catch (ManifestHolderDisposedException ignored) { }
-        if (manifest != null) {
-          toResolve.addAll(manifest.getReExportedBundles());
-        }
-      }
-
-      // now recursively resolve these dependencies
-      for (String dependencySpec : toResolve) {
-        resolveRequiredBundle(dependencySpec, resolvedDependencies);
-      }
-    }
+  @Override
+  @NotNull
+  public Set<Object> resolveDependenciesOf(@NotNull final Module module) {
+    processChangedManifests();
+    ManifestHolder manifestHolder = myBundleCache.getManifestHolder(module);
+    return manifestHolder != null ? myBundleWiring.getDependencies(manifestHolder) : Collections.<Object>emptySet();
   }
 
-  /**
-   * Resolves the given bundle classpath entries.
-   *
-   * @param classPathEntries
-   * @return a set of libraries that are dependencies according to the given classpath entries. Returns an empty set if no libraries
-   *         could be found.
-   */
-  private Set<Library> resolveBundleClassPath(@NotNull Collection<String> classPathEntries) {
-    Library[] libraries = ProjectLibraryTable.getInstance(myProject).getLibraries();
+  @NotNull
+  @Override
+  public Set<Object> getDependents(@NotNull Object object) {
+    processChangedManifests();
+    ManifestHolder manifestHolder = myBundleCache.getManifestHolder(object);
+    if (manifestHolder == null) {
+      return Collections.emptySet();
+    }
 
-    Set<Library> result = new HashSet<Library>();
-    for (String entry : classPathEntries) {
-      Matcher matcher = JarPathPattern.matcher(entry);
-      if (matcher.matches()) {
-        String jarName = matcher.group(2);
-        for (Library library : libraries) {
-          String[] urls = library.getUrls(OrderRootType.CLASSES);
-          for (String url : urls) {
-            if (url.endsWith(jarName)) {
-              result.add(library);
-              break;
-            }
-          }
-        }
+    Set<Object> result = new HashSet<Object>();
+    for (ManifestHolder dependent : myBundleWiring.getDependents(manifestHolder)) {
+      try {
+        result.add(dependent.getBoundObject());
       }
+      catch (ManifestHolderDisposedException ignored) { }
     }
     return result;
   }
@@ -242,6 +201,7 @@ public class BundleManagerImpl extends BundleManager {
    */
   @NotNull
   private List<Object> whoIs(@NotNull String bundleSymbolicName) {
+    processChangedManifests();
     List<ManifestHolder> holders = myBundleCache.whoIs(bundleSymbolicName);
     if (holders.isEmpty()) {
       return Collections.emptyList();
@@ -259,6 +219,7 @@ public class BundleManagerImpl extends BundleManager {
   @Nullable
   @Override
   public BundleManifest getManifestByObject(@NotNull Object object) {
+    processChangedManifests();
     ManifestHolder manifestHolder = myBundleCache.getManifestHolder(object);
     if (manifestHolder != null) {
       try {
@@ -272,6 +233,7 @@ public class BundleManagerImpl extends BundleManager {
   @Nullable
   @Override
   public BundleManifest getManifestByBundleSpec(@NotNull String bundleSpec) {
+    processChangedManifests();
     ManifestHolder manifestHolder = myBundleCache.whoIsRequiredBundle(bundleSpec);
     if (manifestHolder != null) {
       try {
@@ -293,6 +255,7 @@ public class BundleManagerImpl extends BundleManager {
 
   @Override
   public boolean isProvided(@NotNull String packageSpec) {
+    processChangedManifests();
     return !myBundleCache.whoProvides(packageSpec).isEmpty();
   }
 
@@ -301,6 +264,56 @@ public class BundleManagerImpl extends BundleManager {
    */
   @TestOnly
   public void addManifestHolder(@NotNull ManifestHolder manifestHolder) {
-    myBundleCache.updateWith(manifestHolder);
+    if (myBundleCache.updateWith(manifestHolder)) {
+      myBundleWiring.invalidate(Collections.singletonList(manifestHolder), false);
+    }
+  }
+
+  /**
+   * Tracks edits of hand-written module manifests, the bundle cache is otherwise only updated on facet changes and reindexing.
+   */
+  private class ManifestChangeListener extends PsiTreeChangeAdapter {
+    @Override
+    public void childAdded(@NotNull PsiTreeChangeEvent event) {
+      fileChanged(event.getFile());
+    }
+
+    @Override
+    public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+      fileChanged(event.getFile());
+    }
+
+    @Override
+    public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+      fileChanged(event.getFile());
+    }
+
+    @Override
+    public void childMoved(@NotNull PsiTreeChangeEvent event) {
+      fileChanged(event.getFile());
+    }
+
+    @Override
+    public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+      fileChanged(event.getFile());
+    }
+
+    private void fileChanged(@Nullable PsiFile file) {
+      if (!(file instanceof ManifestFile)) {
+        return;
+      }
+      VirtualFile virtualFile = file.getVirtualFile();
+      if (virtualFile == null) {
+        return;
+      }
+      Module module = ModuleUtilCore.findModuleForFile(virtualFile, myProject);
+      if (module == null) {
+        return;
+      }
+      OsmorcFacet facet = OsmorcFacet.getInstance(module);
+      if (facet != null && virtualFile.equals(facet.getManifestFile())) {
+        manifestChanged(myManifestHolderRegistry.getManifestHolder(module));
+      }
+    }
   }
 }
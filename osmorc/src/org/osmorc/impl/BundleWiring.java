@@ -0,0 +1,433 @@
+package org.osmorc.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.roots.impl.libraries.ProjectLibraryTable;
+import com.intellij.openapi.roots.libraries.Library;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.ManifestHolder;
+import org.osmorc.manifest.ManifestHolderDisposedException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The wiring graph of the bundles in a project: resolved dependencies of each bundle and the reverse edges.
+ * <p/>
+ * Resolution results are cached per bundle and recomputed when the bundle's manifest changes. When other bundles change,
+ * {@link #invalidate(Collection, boolean)} drops only the bundles which were wired to them or which request one of their names
+ * (exported packages, symbolic name). {@link #resolveAll(Collection)} resolves a batch of bundles in parallel, looking up each
+ * Import-Package and Require-Bundle specification only once per batch.
+ */
+class BundleWiring {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.impl.BundleWiring");
+
+  /**
+   * Pattern which finds the jar filename in a path pattern from a Bundle-ClassPath header.
+   */
+  private static final Pattern JarPathPattern = Pattern.compile("(.*/)?([^/]+.jar)");
+
+  private final BundleCache myBundleCache;
+  private final Project myProject;
+
+  private final Map<ManifestHolder, Wiring> myWirings = new HashMap<ManifestHolder, Wiring>();
+  private final Map<ManifestHolder, Set<ManifestHolder>> myDependents = new HashMap<ManifestHolder, Set<ManifestHolder>>();
+  private final Map<String, Set<ManifestHolder>> myRequestedNames = new HashMap<String, Set<ManifestHolder>>();
+
+  BundleWiring(@NotNull BundleCache bundleCache, @NotNull Project project) {
+    myBundleCache = bundleCache;
+    myProject = project;
+  }
+
+  /**
+   * Returns the dependencies of the given bundle as a set of {@link com.intellij.openapi.module.Module} and {@link Library} objects,
+   * resolving the bundle if there is no up-to-date result yet.
+   */
+  @NotNull
+  Set<Object> getDependencies(@NotNull ManifestHolder holder) {
+    Wiring wiring = getWiring(holder, new ResolveSession());
+    if (wiring == null) {
+      return Collections.emptySet();
+    }
+
+    Set<Object> result = new HashSet<Object>();
+    for (ManifestHolder dependency : wiring.bundles) {
+      try {
+        result.add(dependency.getBoundObject());
+      }
+      catch (ManifestHolderDisposedException ignored) { }
+    }
+    result.addAll(wiring.libraries);
+    return result;
+  }
+
+  /**
+   * Returns the bundles which are currently wired to the given bundle.
+   */
+  @NotNull
+  synchronized Set<ManifestHolder> getDependents(@NotNull ManifestHolder holder) {
+    Set<ManifestHolder> dependents = myDependents.get(holder);
+    return dependents != null ? new HashSet<ManifestHolder>(dependents) : Collections.<ManifestHolder>emptySet();
+  }
+
+  /**
+   * Resolves all given bundles which have no up-to-date result, using pooled threads for independent bundles.
+   */
+  void resolveAll(@NotNull Collection<ManifestHolder> holders) {
+    final ResolveSession session = new ResolveSession();
+    final Queue<ManifestHolder> queue = new ConcurrentLinkedQueue<ManifestHolder>(holders);
+    int threads = Math.min(queue.size(), Runtime.getRuntime().availableProcessors());
+
+    List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+    for (int i = 0; i < threads; i++) {
+      futures.add(ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          ManifestHolder next;
+          while ((next = queue.poll()) != null) {
+            final ManifestHolder holder = next;
+            ApplicationManager.getApplication().runReadAction(new Runnable() {
+              @Override
+              public void run() {
+                getWiring(holder, session);
+              }
+            });
+          }
+        }
+      }));
+    }
+
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      catch (ExecutionException e) {
+        LOG.error(e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Drops the results of all bundles which may be affected by changes of the given bundles.
+   *
+   * @param changed          bundles which were added, modified or removed
+   * @param librariesChanged true if project libraries may have changed, which affects the Bundle-ClassPath resolution
+   */
+  void invalidate(@NotNull Collection<ManifestHolder> changed, boolean librariesChanged) {
+    if (changed.isEmpty() && !librariesChanged) {
+      return;
+    }
+
+    // names of the changed bundles in their current state. Bundles which were wired to the previous state are found via reverse edges.
+    Set<String> names = new HashSet<String>();
+    for (ManifestHolder holder : changed) {
+      BundleManifest manifest = holder.isDisposed() ? null : BundleCache.getManifest(holder);
+      if (manifest != null) {
+        names.addAll(manifest.getExportedPackages());
+        ContainerUtil.addIfNotNull(manifest.getBundleSymbolicName(), names);
+        String fragmentHost = manifest.getFragmentHost();
+        if (fragmentHost != null) {
+          names.add(BundleCache.getClauseName(fragmentHost));
+        }
+      }
+    }
+
+    synchronized (this) {
+      Set<ManifestHolder> affected = new HashSet<ManifestHolder>(changed);
+      for (ManifestHolder holder : changed) {
+        affected.addAll(getOrEmpty(myDependents, holder));
+      }
+      for (String name : names) {
+        affected.addAll(getOrEmpty(myRequestedNames, name));
+      }
+      if (librariesChanged) {
+        for (Map.Entry<ManifestHolder, Wiring> entry : myWirings.entrySet()) {
+          if (entry.getValue().usesBundleClassPath) {
+            affected.add(entry.getKey());
+          }
+        }
+      }
+
+      for (ManifestHolder holder : affected) {
+        unregister(holder);
+      }
+    }
+  }
+
+  @Nullable
+  private Wiring getWiring(@NotNull ManifestHolder holder, @NotNull ResolveSession session) {
+    BundleManifest manifest = BundleCache.getManifest(holder);
+    if (manifest == null) {
+      return null;
+    }
+
+    long stamp = manifest.getModificationStamp();
+    synchronized (this) {
+      Wiring wiring = myWirings.get(holder);
+      if (wiring != null && wiring.stamp == stamp) {
+        return wiring;
+      }
+    }
+
+    Wiring wiring = resolve(holder, manifest, stamp, session);
+    synchronized (this) {
+      unregister(holder);
+      register(holder, wiring);
+    }
+    return wiring;
+  }
+
+  @NotNull
+  private Wiring resolve(@NotNull ManifestHolder holder, @NotNull BundleManifest manifest, long stamp, @NotNull ResolveSession session) {
+    Set<ManifestHolder> bundles = new HashSet<ManifestHolder>();
+    Set<String> requestedNames = new HashSet<String>();
+
+    // resolve Import-Package
+    for (String anImport : manifest.getImports()) {
+      requestedNames.add(BundleCache.getClauseName(anImport));
+      bundles.addAll(session.whoProvides(anImport));
+    }
+
+    // resolve Require-Bundle
+    for (String requiredBundle : manifest.getRequiredBundles()) {
+      RequiredBundles resolved = session.getRequiredBundles(requiredBundle);
+      bundles.addAll(resolved.bundles);
+      requestedNames.addAll(resolved.names);
+    }
+
+    // resolve Fragment-Host
+    String fragmentHost = manifest.getFragmentHost();
+    if (fragmentHost != null) {
+      requestedNames.add(BundleCache.getClauseName(fragmentHost));
+      bundles.addAll(myBundleCache.getFragmentHosts(holder));
+    }
+
+    // resolve Bundle-ClassPath (this might contain non-osgi-bundles so we have to work on the library level here)
+    List<String> classPathEntries = manifest.getBundleClassPathEntries();
+    Set<Library> libraries = session.resolveBundleClassPath(classPathEntries);
+
+    return new Wiring(stamp, bundles, libraries, requestedNames, !classPathEntries.isEmpty());
+  }
+
+  private void register(@NotNull ManifestHolder holder, @NotNull Wiring wiring) {
+    myWirings.put(holder, wiring);
+    for (ManifestHolder dependency : wiring.bundles) {
+      addToIndex(myDependents, dependency, holder);
+    }
+    for (String name : wiring.requestedNames) {
+      addToIndex(myRequestedNames, name, holder);
+    }
+  }
+
+  private void unregister(@NotNull ManifestHolder holder) {
+    Wiring wiring = myWirings.remove(holder);
+    if (wiring == null) {
+      return;
+    }
+    for (ManifestHolder dependency : wiring.bundles) {
+      removeFromIndex(myDependents, dependency, holder);
+    }
+    for (String name : wiring.requestedNames) {
+      removeFromIndex(myRequestedNames, name, holder);
+    }
+  }
+
+  private static <K> void addToIndex(@NotNull Map<K, Set<ManifestHolder>> index, @NotNull K key, @NotNull ManifestHolder holder) {
+    Set<ManifestHolder> holders = index.get(key);
+    if (holders == null) {
+      holders = new HashSet<ManifestHolder>();
+      index.put(key, holders);
+    }
+    holders.add(holder);
+  }
+
+  private static <K> void removeFromIndex(@NotNull Map<K, Set<ManifestHolder>> index, @NotNull K key, @NotNull ManifestHolder holder) {
+    Set<ManifestHolder> holders = index.get(key);
+    if (holders != null) {
+      holders.remove(holder);
+      if (holders.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+
+  @NotNull
+  private static <K> Collection<ManifestHolder> getOrEmpty(@NotNull Map<K, Set<ManifestHolder>> index, @NotNull K key) {
+    Set<ManifestHolder> holders = index.get(key);
+    return holders != null ? holders : Collections.<ManifestHolder>emptySet();
+  }
+
+  /**
+   * Lookups shared by all bundles resolved in one batch.
+   */
+  private class ResolveSession {
+    private final ConcurrentMap<String, Set<ManifestHolder>> myProviders = ContainerUtil.newConcurrentMap();
+    private final ConcurrentMap<String, RequiredBundles> myRequiredBundles = ContainerUtil.newConcurrentMap();
+    private volatile Map<String, Set<Library>> myJarLibraries;
+
+    @NotNull
+    private Set<ManifestHolder> whoProvides(@NotNull String packageSpec) {
+      Set<ManifestHolder> providers = myProviders.get(packageSpec);
+      if (providers == null) {
+        providers = myBundleCache.whoProvides(packageSpec);
+        myProviders.put(packageSpec, providers);
+      }
+      return providers;
+    }
+
+    @NotNull
+    private RequiredBundles getRequiredBundles(@NotNull String requireBundleSpec) {
+      RequiredBundles result = myRequiredBundles.get(requireBundleSpec);
+      if (result == null) {
+        List<ManifestHolder> bundles = new ArrayList<ManifestHolder>();
+        Set<String> names = new HashSet<String>();
+        resolveRequiredBundle(requireBundleSpec, bundles, names);
+        result = new RequiredBundles(bundles, names);
+        myRequiredBundles.put(requireBundleSpec, result);
+      }
+      return result;
+    }
+
+    /**
+     * Fully resolves a Require-Bundle specification including re-exports and possible amendments by fragments. All resolved
+     * dependencies are added to the <code>resolvedDependencies</code> list, the names of all required bundles to <code>names</code>.
+     */
+    private void resolveRequiredBundle(@NotNull String requireBundleSpec,
+                                       @NotNull List<ManifestHolder> resolvedDependencies,
+                                       @NotNull Set<String> names) {
+      names.add(BundleCache.getClauseName(requireBundleSpec));
+
+      // first get the manifest holder of the required bundle
+      ManifestHolder manifestHolder = myBundleCache.whoIsRequiredBundle(requireBundleSpec);
+      if (manifestHolder == null) {
+        // unresolvable, may happen if the user misses some dependencies.
+        return;
+      }
+
+      if (resolvedDependencies.contains(manifestHolder)) {
+        // we're done here, we already resolved this dependency
+        return;
+      }
+
+      BundleManifest requireBundleManifest = BundleCache.getManifest(manifestHolder);
+      if (requireBundleManifest == null) {
+        return;
+      }
+
+      // its kosher, so add it to the result list.
+      resolvedDependencies.add(manifestHolder);
+
+      // now determine additional dependencies
+      List<String> toResolve = new ArrayList<String>();
+
+      // -  bundles that are re-exported from the current dependency
+      toResolve.addAll(requireBundleManifest.getReExportedBundles());
+
+      // - bundles that are re-exported from any fragments (we only want the highest version of each fragment)
+      Set<ManifestHolder> fragments = BundleCache.getCandidatesWithHighestVersions(myBundleCache.getFragmentsForBundle(manifestHolder));
+      for (ManifestHolder fragment : fragments) {
+        BundleManifest manifest = BundleCache.getManifest(fragment);
+        if (manifest != null) {
+          toResolve.addAll(manifest.getReExportedBundles());
+        }
+      }
+
+      // now recursively resolve these dependencies
+      for (String dependencySpec : toResolve) {
+        resolveRequiredBundle(dependencySpec, resolvedDependencies, names);
+      }
+    }
+
+    /**
+     * Resolves the given bundle classpath entries to project libraries containing a jar with the same name.
+     */
+    @NotNull
+    private Set<Library> resolveBundleClassPath(@NotNull Collection<String> classPathEntries) {
+      if (classPathEntries.isEmpty()) {
+        return Collections.emptySet();
+      }
+
+      Set<Library> result = new HashSet<Library>();
+      for (String entry : classPathEntries) {
+        Matcher matcher = JarPathPattern.matcher(entry);
+        if (matcher.matches()) {
+          Set<Library> libraries = getJarLibraries().get(matcher.group(2));
+          if (libraries != null) {
+            result.addAll(libraries);
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Returns project libraries by the names of their class root files, built once per session.
+     */
+    @NotNull
+    private Map<String, Set<Library>> getJarLibraries() {
+      Map<String, Set<Library>> jarLibraries = myJarLibraries;
+      if (jarLibraries == null) {
+        jarLibraries = new HashMap<String, Set<Library>>();
+        for (Library library : ProjectLibraryTable.getInstance(myProject).getLibraries()) {
+          for (String url : library.getUrls(OrderRootType.CLASSES)) {
+            String path = StringUtil.trimEnd(url, "!/");
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            Set<Library> libraries = jarLibraries.get(name);
+            if (libraries == null) {
+              libraries = new HashSet<Library>();
+              jarLibraries.put(name, libraries);
+            }
+            libraries.add(library);
+          }
+        }
+        myJarLibraries = jarLibraries;
+      }
+      return jarLibraries;
+    }
+  }
+
+  private static class RequiredBundles {
+    private final List<ManifestHolder> bundles;
+    private final Set<String> names;
+
+    private RequiredBundles(@NotNull List<ManifestHolder> bundles, @NotNull Set<String> names) {
+      this.bundles = bundles;
+      this.names = names;
+    }
+  }
+
+  private static class Wiring {
+    private final long stamp;
+    private final Set<ManifestHolder> bundles;
+    private final Set<Library> libraries;
+    private final Set<String> requestedNames;
+    private final boolean usesBundleClassPath;
+
+    private Wiring(long stamp,
+                   @NotNull Set<ManifestHolder> bundles,
+                   @NotNull Set<Library> libraries,
+                   @NotNull Set<String> requestedNames,
+                   boolean usesBundleClassPath) {
+      this.stamp = stamp;
+      this.bundles = bundles;
+      this.libraries = libraries;
+      this.requestedNames = requestedNames;
+      this.usesBundleClassPath = usesBundleClassPath;
+    }
+  }
+}
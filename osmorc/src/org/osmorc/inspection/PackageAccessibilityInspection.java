@@ -37,10 +37,8 @@ import com.intellij.psi.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.lang.manifest.psi.ManifestFile;
 import org.osgi.framework.Constants;
-import org.osmorc.BundleManager;
 import org.osmorc.facet.OsmorcFacet;
 import org.osmorc.i18n.OsmorcBundle;
-import org.osmorc.manifest.BundleManifest;
 import org.osmorc.util.OsgiPsiUtil;
 
 import java.util.List;
@@ -137,22 +135,20 @@ public class PackageAccessibilityInspection extends LocalInspectionTool {
 
     // obtaining export name of the package from a providing manifest
     String exportedPackage = null;
-    BundleManager bundleManager = BundleManager.getInstance(targetClass.getProject());
+    PackageVisibilityMap visibilityMap = PackageVisibilityMap.getInstance(requestorModule);
     ModuleFileIndex index = ModuleRootManager.getInstance(requestorModule).getFileIndex();
     List<OrderEntry> entries = index.getOrderEntriesForFile(targetFile.getVirtualFile());
     OrderEntry entry = !entries.isEmpty() ? entries.get(0) : null;
     if (entry instanceof ModuleOrderEntry) {
       Module module = ((ModuleOrderEntry)entry).getModule();
       if (module != null) {
-        BundleManifest manifest = bundleManager.getManifestByObject(module);
-        exportedPackage = manifest != null ? manifest.getExportedPackage(packageName) : null;
+        exportedPackage = visibilityMap.getExportedPackage(module, packageName);
       }
     }
     else if (entry instanceof LibraryOrderEntry) {
       Library library = ((LibraryOrderEntry)entry).getLibrary();
       if (library != null) {
-        BundleManifest manifest = bundleManager.getManifestByObject(library);
-        exportedPackage = manifest != null ? manifest.getExportedPackage(packageName) : null;
+        exportedPackage = visibilityMap.getExportedPackage(library, packageName);
       }
     }
     else if (entry instanceof JdkOrderEntry) {
@@ -166,22 +162,9 @@ public class PackageAccessibilityInspection extends LocalInspectionTool {
       return null;
     }
 
-    BundleManifest manifest = bundleManager.getManifestByObject(requestorModule);
-    if (manifest != null) {
-      // Imported packages
-      if (manifest.isPackageImported(packageName)) {
-        return null;
-      }
-
-      // Required bundles
-      for (String bundleSpec : manifest.getRequiredBundles()) {
-        BundleManifest bundle = bundleManager.getManifestByBundleSpec(bundleSpec);
-        if (bundle != null && bundle.getExportedPackage(packageName) != null) {
-          return null;
-        }
-      }
-
-      // Attached fragments [AFAIK these should not be linked statically - r.sh]
+    // Imported packages and required bundles
+    if (visibilityMap.isVisible(packageName)) {
+      return null;
     }
 
     return exportedPackage;
@@ -0,0 +1,158 @@
+package org.osmorc.inspection;
+
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.BundleManager;
+import org.osmorc.manifest.BundleManifest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Package visibility information for a single bundle module: which packages its dependencies export
+ * and which packages the module can see via Import-Package or Require-Bundle.
+ * <p/>
+ * Results are memoized per package, so repeated checks of references to the same package are constant time.
+ * The map is dropped on any manifest (out of code block) or project roots change.
+ */
+class PackageVisibilityMap {
+  private static final Key<CachedValue<PackageVisibilityMap>> KEY = Key.create("osgi.package.visibility");
+
+  private final BundleManager myBundleManager;
+  private final Module myModule;
+
+  private final ConcurrentMap<Object, Set<String>> myExports = ContainerUtil.newConcurrentMap();
+  private final ConcurrentMap<Object, ConcurrentMap<String, String>> myExportedPackages = ContainerUtil.newConcurrentMap();
+  private final ConcurrentMap<String, Boolean> myVisiblePackages = ContainerUtil.newConcurrentMap();
+  private volatile Set<String> myRequiredExports;
+
+  PackageVisibilityMap(@NotNull BundleManager bundleManager, @NotNull Module module) {
+    myBundleManager = bundleManager;
+    myModule = module;
+  }
+
+  @NotNull
+  static PackageVisibilityMap getInstance(@NotNull final Module module) {
+    CachedValue<PackageVisibilityMap> cachedValue = module.getUserData(KEY);
+    if (cachedValue == null) {
+      cachedValue = CachedValuesManager.getManager(module.getProject()).createCachedValue(new CachedValueProvider<PackageVisibilityMap>() {
+        @Nullable
+        @Override
+        public Result<PackageVisibilityMap> compute() {
+          PackageVisibilityMap map = new PackageVisibilityMap(BundleManager.getInstance(module.getProject()), module);
+          return Result.create(map, PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT,
+                               ProjectRootManager.getInstance(module.getProject()));
+        }
+      }, false);
+      module.putUserData(KEY, cachedValue);
+    }
+    return cachedValue.getValue();
+  }
+
+  /**
+   * Returns the Export-Package entry of the given bundle (module or library) which exports the given package,
+   * or null if the package is not exported by it.
+   *
+   * @see BundleManifest#getExportedPackage(String)
+   */
+  @Nullable
+  String getExportedPackage(@NotNull Object bundle, @NotNull String packageName) {
+    ConcurrentMap<String, String> packages = myExportedPackages.get(bundle);
+    if (packages == null) {
+      packages = ContainerUtil.newConcurrentMap();
+      ConcurrentMap<String, String> existing = myExportedPackages.putIfAbsent(bundle, packages);
+      if (existing != null) packages = existing;
+    }
+
+    String exported = packages.get(packageName);
+    if (exported == null) {
+      exported = StringUtil.notNullize(findExport(getExports(bundle), packageName));
+      packages.put(packageName, exported);
+    }
+    return exported.isEmpty() ? null : exported;
+  }
+
+  /**
+   * Returns true if the given package is imported by the module's manifest or exported by one of its required bundles.
+   */
+  boolean isVisible(@NotNull String packageName) {
+    Boolean visible = myVisiblePackages.get(packageName);
+    if (visible == null) {
+      visible = computeVisible(packageName);
+      myVisiblePackages.put(packageName, visible);
+    }
+    return visible;
+  }
+
+  private boolean computeVisible(@NotNull String packageName) {
+    BundleManifest manifest = myBundleManager.getManifestByObject(myModule);
+    if (manifest == null) {
+      return false;
+    }
+
+    // Imported packages
+    if (manifest.isPackageImported(packageName)) {
+      return true;
+    }
+
+    // Required bundles
+    Set<String> requiredExports = myRequiredExports;
+    if (requiredExports == null) {
+      requiredExports = ContainerUtil.newHashSet();
+      for (String bundleSpec : manifest.getRequiredBundles()) {
+        BundleManifest bundle = myBundleManager.getManifestByBundleSpec(bundleSpec);
+        if (bundle != null) {
+          requiredExports.addAll(bundle.getExportedPackages());
+        }
+      }
+      myRequiredExports = requiredExports;
+    }
+
+    // Attached fragments [AFAIK these should not be linked statically - r.sh]
+
+    return findExport(requiredExports, packageName) != null;
+  }
+
+  @NotNull
+  private Set<String> getExports(@NotNull Object bundle) {
+    Set<String> exports = myExports.get(bundle);
+    if (exports == null) {
+      BundleManifest manifest = myBundleManager.getManifestByObject(bundle);
+      exports = manifest != null ? ContainerUtil.newHashSet(manifest.getExportedPackages()) : ContainerUtil.<String>newHashSet();
+      myExports.put(bundle, exports);
+    }
+    return exports;
+  }
+
+  /**
+   * Finds the exported package which is the given package or one of its parents (same semantics as
+   * {@link com.intellij.psi.PsiNameHelper#isSubpackageOf(String, String)}).
+   */
+  @Nullable
+  private static String findExport(@NotNull Set<String> exports, @NotNull String packageName) {
+    if (exports.isEmpty()) {
+      return null;
+    }
+
+    String name = packageName;
+    while (true) {
+      if (exports.contains(name)) {
+        return name;
+      }
+      int dot = name.lastIndexOf('.');
+      if (dot < 0) {
+        return null;
+      }
+      name = name.substring(0, dot);
+    }
+  }
+}
@@ -34,6 +34,8 @@ import com.intellij.openapi.compiler.CompileContext;
 import com.intellij.openapi.compiler.CompilerMessageCategory;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.io.FileUtil;
@@ -65,6 +67,16 @@ import java.util.regex.Pattern;
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thom&auml;</a>
  */
 public class BndWrapper {
+  // libraries may be bundlified for several modules at once, but each target file must only be written by one of them;
+  // a fixed set of locks striped by target path is used, so locks don't pile up for every library ever bundlified
+  private static final Object[] ourTargetLocks = new Object[32];
+
+  static {
+    for (int i = 0; i < ourTargetLocks.length; i++) {
+      ourTargetLocks[i] = new Object();
+    }
+  }
+
   /**
    * Wraps an existing jar file using Bnd analyzer. This class will check and use any applying bundlification rules
    * for this library that have been set up in Osmorc library bundlification dialog.
@@ -108,17 +120,19 @@ public class BndWrapper {
       }
 
 
-      if (!targetFile.exists() || targetFile.lastModified() < sourceFile.lastModified() ||
-          targetFile.lastModified() < lastModified) {
-        if (doWrap(module, compileContext, sourceFile, targetFile, additionalProperties)) {
+      synchronized (getTargetLock(targetFile)) {
+        if (!targetFile.exists() || targetFile.lastModified() < sourceFile.lastModified() ||
+            targetFile.lastModified() < lastModified) {
+          if (doWrap(module, compileContext, sourceFile, targetFile, additionalProperties)) {
+            return VfsUtilCore.pathToUrl(targetFile.getCanonicalPath());
+          }
+        }
+        else {
+          // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
+          // as a bundle.
           return VfsUtilCore.pathToUrl(targetFile.getCanonicalPath());
         }
       }
-      else {
-        // Fixes IDEADEV-39099. When the wrapper does not return anything the library is not regarded
-        // as a bundle.
-        return VfsUtilCore.pathToUrl(targetFile.getCanonicalPath());
-      }
     }
     catch (final Exception e) {
       // There is some reported issue where a lot of exceptions have been thrown which caused a ton of popup
@@ -133,6 +147,12 @@ public class BndWrapper {
     return null;
   }
 
+  @NotNull
+  private static Object getTargetLock(@NotNull File targetFile) {
+    int hash = FileUtil.pathHashCode(targetFile.getAbsolutePath());
+    return ourTargetLocks[(hash & Integer.MAX_VALUE) % ourTargetLocks.length];
+  }
+
   /**
    * Internal function which does the actual wrapping. This is 90% borrowed from Bnd source code.
    *
@@ -203,6 +223,10 @@ public class BndWrapper {
       }
     }
 
+    // when called for a modal task, the write action must run in its modality or it would wait until the task is finished
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    ModalityState modalityState = indicator != null ? indicator.getModalityState() : ModalityState.defaultModalityState();
+
     final Ref<Boolean> result = new Ref<Boolean>(false);
     ApplicationManager.getApplication().invokeAndWait(new Runnable() {
       public void run() {
@@ -251,7 +275,7 @@ public class BndWrapper {
           }
         }));
       }
-    }, ModalityState.defaultModalityState());
+    }, modalityState);
     return result.get();
   }
 
@@ -398,16 +398,7 @@ public class BundleCompiler implements PackagingCompiler {
       return ArrayUtil.EMPTY_STRING_ARRAY;
     }
 
-    String[] urls = OrderEnumerator.orderEntries(module)
-      .withoutSdk()
-      .withoutModuleSourceEntries()
-      .withoutDepModules()
-      .productionOnly()
-      .runtimeOnly()
-      .recursively()
-      .exportedOnly()
-      .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION)
-      .classes().getUrls();
+    String[] urls = getLibraryUrls(module);
     List<String> result = new ArrayList<String>();
     BndWrapper wrapper = new BndWrapper();
     for (String url : urls) {
@@ -429,6 +420,23 @@ public class BundleCompiler implements PackagingCompiler {
     return ArrayUtil.toStringArray(result);
   }
 
+  /**
+   * Returns the class root urls of all runtime libraries of the given module which are candidates for {@link #bundlifyLibraries}.
+   */
+  @NotNull
+  public static String[] getLibraryUrls(@NotNull Module module) {
+    return OrderEnumerator.orderEntries(module)
+      .withoutSdk()
+      .withoutModuleSourceEntries()
+      .withoutDepModules()
+      .productionOnly()
+      .runtimeOnly()
+      .recursively()
+      .exportedOnly()
+      .satisfying(NOT_FRAMEWORK_LIBRARY_CONDITION)
+      .classes().getUrls();
+  }
+
   /**
    * Converts a jar url gained from OrderEntry.getUrls or Library.getUrls into a file url that can be processed.
    */
@@ -0,0 +1,214 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.BundleManager;
+import org.osmorc.facet.OsmorcFacet;
+import org.osmorc.facet.OsmorcFacetConfiguration;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the manifests computed by {@link ManifestComputer} and the bundle manager up to date with the module sources.
+ * <p/>
+ * A single listener records the changed source files per module. The affected modules are updated in the background (debounced),
+ * in a read action which gives way to write actions and is restarted afterwards.
+ */
+public class GeneratedManifestUpdater {
+  private static final int DELAY = 500;
+
+  private final Project myProject;
+  private final BundleManager myBundleManager;
+  private final Alarm myAlarm;
+  private final Set<Module> myModules = new LinkedHashSet<Module>();
+
+  public GeneratedManifestUpdater(@NotNull Project project, @NotNull BundleManager bundleManager) {
+    myProject = project;
+    myBundleManager = bundleManager;
+    myAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, project);
+    PsiManager.getInstance(project).addPsiTreeChangeListener(new SourceChangeListener(), project);
+  }
+
+  public static GeneratedManifestUpdater getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, GeneratedManifestUpdater.class);
+  }
+
+  /**
+   * Schedules an update of the computed manifest of the given module and of its information in the bundle manager.
+   */
+  public void scheduleUpdate(@NotNull Module module) {
+    synchronized (myModules) {
+      if (!myModules.add(module)) {
+        return;
+      }
+    }
+    myAlarm.cancelAllRequests();
+    myAlarm.addRequest(new Runnable() {
+      @Override
+      public void run() {
+        update();
+      }
+    }, DELAY);
+  }
+
+  private void update() {
+    if (myProject.isDisposed()) {
+      return;
+    }
+
+    final List<Module> modules;
+    synchronized (myModules) {
+      modules = new ArrayList<Module>(myModules);
+      myModules.clear();
+    }
+
+    // analyzing the sources is the expensive part, so it is cancelled by write actions and retried later
+    boolean completed = ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(new Runnable() {
+      @Override
+      public void run() {
+        for (Module module : modules) {
+          if (!module.isDisposed()) {
+            ManifestComputer.getInstance(module).getManifestText();
+          }
+        }
+      }
+    });
+    if (!completed) {
+      for (Module module : modules) {
+        scheduleUpdate(module);
+      }
+      return;
+    }
+
+    ApplicationManager.getApplication().runReadAction(new Runnable() {
+      @Override
+      public void run() {
+        for (Module module : modules) {
+          if (!module.isDisposed()) {
+            myBundleManager.reindex(module);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the module containing the given file, if the module's manifest is computed.
+   */
+  @Nullable
+  private Module findModule(@Nullable VirtualFile file) {
+    if (file == null || !file.isValid()) {
+      return null;
+    }
+    Module module = ModuleUtilCore.findModuleForFile(file, myProject);
+    if (module == null) {
+      return null;
+    }
+    OsmorcFacet facet = OsmorcFacet.getInstance(module);
+    return facet != null && ManifestComputer.isApplicable(facet.getConfiguration()) ? module : null;
+  }
+
+  private void fileChanged(@NotNull PsiFile file, boolean structural) {
+    VirtualFile virtualFile = file.getVirtualFile();
+    Module module = findModule(virtualFile);
+    if (module == null) {
+      return;
+    }
+    if (structural || file instanceof PsiJavaFile) {
+      ManifestComputer.getInstance(module).fileChanged(virtualFile);
+      scheduleUpdate(module);
+    }
+    else if (isBndFile(module, virtualFile)) {
+      scheduleUpdate(module);
+    }
+  }
+
+  private void directoryChanged(@NotNull PsiDirectory directory, boolean structural) {
+    Module module = findModule(directory.getVirtualFile());
+    if (module != null) {
+      if (structural) {
+        // a whole package was added, moved or renamed
+        ManifestComputer.getInstance(module).rescan();
+      }
+      scheduleUpdate(module);
+    }
+  }
+
+  private static boolean isBndFile(@NotNull Module module, @NotNull VirtualFile file) {
+    OsmorcFacet facet = OsmorcFacet.getInstance(module);
+    if (facet == null) {
+      return false;
+    }
+    OsmorcFacetConfiguration configuration = facet.getConfiguration();
+    return configuration.isUseBndFile() && file.getPath().endsWith(FileUtil.toSystemIndependentName(configuration.getBndFileLocation()));
+  }
+
+  private class SourceChangeListener extends PsiTreeChangeAdapter {
+    @Override
+    public void childAdded(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    @Override
+    public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    @Override
+    public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    @Override
+    public void childMoved(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    @Override
+    public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    @Override
+    public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+      handle(event);
+    }
+
+    private void handle(@NotNull PsiTreeChangeEvent event) {
+      PsiFile file = event.getFile();
+      if (file != null) {
+        // a change inside of a file
+        fileChanged(file, false);
+        return;
+      }
+
+      // files or directories were added, removed, moved or renamed; removed files are dropped by the next update of their module
+      for (PsiElement element : new PsiElement[]{event.getChild(), event.getElement()}) {
+        if (element instanceof PsiFile) {
+          fileChanged((PsiFile)element, true);
+        }
+        else if (element instanceof PsiDirectory) {
+          directoryChanged((PsiDirectory)element, true);
+        }
+      }
+      for (PsiElement element : new PsiElement[]{event.getParent(), event.getOldParent(), event.getNewParent()}) {
+        if (element instanceof PsiDirectory) {
+          directoryChanged((PsiDirectory)element, false);
+        }
+      }
+    }
+  }
+}
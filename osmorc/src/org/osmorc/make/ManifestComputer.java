@@ -0,0 +1,605 @@
+package org.osmorc.make;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.OSGiHeader;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Instruction;
+import com.intellij.ide.highlighter.JavaFileType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleServiceManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.roots.ContentIterator;
+import com.intellij.openapi.roots.ModuleFileIndex;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.osmorc.build.LocalPackageCollector;
+import org.jetbrains.lang.manifest.ManifestFileTypeFactory;
+import org.jetbrains.lang.manifest.psi.ManifestFile;
+import org.osmorc.facet.OsmorcFacet;
+import org.osmorc.facet.OsmorcFacetConfiguration;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.BundleManifestImpl;
+import org.osmorc.util.OrderedProperties;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Computes the manifest bnd would generate for a module whose manifest is controlled by Osmorc or by a bnd file, without
+ * building the module.
+ * <p/>
+ * The Java sources of the module are analyzed file by file and the results are aggregated per package. Changed files are reported
+ * by {@link GeneratedManifestUpdater}; only they are analyzed again and only the packages they belong to are re-aggregated, so
+ * keeping the computed manifest up to date is cheap even for large modules. The module content is only walked initially and after
+ * roots or directory changes. The computation is cancellable and never runs on the event dispatch thread.
+ * <p/>
+ * Package references are taken from the sources (imports and qualified type references) rather than from the byte code, so the
+ * result is a close approximation of the manifest the build produces.
+ */
+public class ManifestComputer {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.make.ManifestComputer");
+
+  static final String DEFAULT_PACKAGE = ".";
+
+  // headers which are bnd instructions rather than manifest headers
+  private static final Set<String> INSTRUCTION_HEADERS = new HashSet<String>(Arrays.asList(
+    Constants.PRIVATE_PACKAGE, Constants.INCLUDE_RESOURCE, Constants.CONDITIONAL_PACKAGE));
+
+  private final Module myModule;
+  private final Map<VirtualFile, FileInfo> myFiles = new HashMap<VirtualFile, FileInfo>();
+  private final Map<String, Set<VirtualFile>> myPackageFiles = new HashMap<String, Set<VirtualFile>>();
+  private final Map<String, Set<String>> myPackageReferences = new HashMap<String, Set<String>>();
+  private final Set<String> myDirtyPackages = new HashSet<String>();
+  // reported from PSI events, which must not wait for a running computation, so these are not guarded by this
+  private final ConcurrentMap<VirtualFile, Boolean> myChangedFiles = ContainerUtil.newConcurrentMap();
+  private volatile boolean myRescanNeeded = true;
+  private volatile long myRootsModificationCount = -1;
+  // set when something changed since the last computation started, so getManifest() knows when to request an update
+  private volatile boolean myUpdateNeeded = true;
+  private Map<String, String> myProperties;
+  private boolean myOsmorcControlled;
+  private String myText;
+  private volatile BundleManifest myManifest;
+
+  public ManifestComputer(@NotNull Module module) {
+    myModule = module;
+  }
+
+  public static ManifestComputer getInstance(@NotNull Module module) {
+    return ModuleServiceManager.getService(module, ManifestComputer.class);
+  }
+
+  /**
+   * Returns true if the manifest of a module with the given configuration is generated by bnd and so can be computed.
+   */
+  public static boolean isApplicable(@NotNull OsmorcFacetConfiguration configuration) {
+    return configuration.isOsmorcControlsManifest() || configuration.isUseBndFile();
+  }
+
+  /**
+   * Records that the given source file of the module was changed, added or moved into the module.
+   */
+  public void fileChanged(@NotNull VirtualFile file) {
+    myChangedFiles.put(file, Boolean.TRUE);
+    myUpdateNeeded = true;
+  }
+
+  /**
+   * Requests a walk over the whole module content on the next computation, e.g. after a directory was added or moved.
+   */
+  public void rescan() {
+    myRescanNeeded = true;
+    myUpdateNeeded = true;
+  }
+
+  /**
+   * Returns the last computed manifest of the module, or null if the module's manifest is not generated by bnd or was not computed
+   * yet. The returned instance stays the same as long as the computed headers do not change.
+   * <p/>
+   * Never computes the manifest itself; when sources changed since the last computation, an update is scheduled instead
+   * (see {@link GeneratedManifestUpdater}), which reindexes the module once done.
+   */
+  @Nullable
+  public BundleManifest getManifest() {
+    if (myUpdateNeeded || ProjectRootManager.getInstance(myModule.getProject()).getModificationCount() != myRootsModificationCount) {
+      GeneratedManifestUpdater.getInstance(myModule.getProject()).scheduleUpdate(myModule);
+    }
+    return myManifest;
+  }
+
+  /**
+   * Computes the manifest of the module and returns its text, or null if the module's manifest is not generated by bnd.
+   * The result is also returned by following {@link #getManifest()} calls. Must not be called on the event dispatch thread.
+   */
+  @Nullable
+  public String getManifestText() {
+    return ApplicationManager.getApplication().runReadAction(new Computable<String>() {
+      @Override
+      public String compute() {
+        synchronized (ManifestComputer.this) {
+          myUpdateNeeded = false;
+          boolean completed = false;
+          try {
+            String text = computeText();
+            if (text == null) {
+              myManifest = null;
+            }
+            else if (myManifest == null) {
+              PsiFile file = PsiFileFactory.getInstance(myModule.getProject())
+                .createFileFromText("MANIFEST.MF", ManifestFileTypeFactory.MANIFEST, text);
+              myManifest = new BundleManifestImpl((ManifestFile)file);
+            }
+            completed = true;
+            return text;
+          }
+          finally {
+            if (!completed) myUpdateNeeded = true;
+          }
+        }
+      }
+    });
+  }
+
+  @Nullable
+  private String computeText() {
+    long rootsModificationCount = ProjectRootManager.getInstance(myModule.getProject()).getModificationCount();
+    if (rootsModificationCount != myRootsModificationCount) {
+      myRescanNeeded = true;
+      myRootsModificationCount = rootsModificationCount;
+    }
+
+    OsmorcFacet facet = OsmorcFacet.getInstance(myModule);
+    if (myModule.isDisposed() || facet == null || !isApplicable(facet.getConfiguration())) {
+      return null;
+    }
+
+    Map<String, String> properties = getProperties(facet.getConfiguration());
+    if (properties == null) {
+      return null;
+    }
+
+    boolean osmorcControlled = facet.getConfiguration().isOsmorcControlsManifest();
+    boolean changed = !properties.equals(myProperties) || osmorcControlled != myOsmorcControlled;
+    changed |= updatePackages();
+
+    if (changed || myText == null) {
+      myProperties = properties;
+      myOsmorcControlled = osmorcControlled;
+      String text = buildManifestText(properties, osmorcControlled, myPackageFiles.keySet(), getReferencedPackages());
+      if (!text.equals(myText)) {
+        myText = text;
+        myManifest = null;
+      }
+    }
+    return myText;
+  }
+
+  /**
+   * Re-analyzes the source files which changed since the last call and re-aggregates the packages they belong to.
+   * The state stays consistent when the computation is cancelled, the remaining work is done by the next call.
+   *
+   * @return true if any package changed.
+   */
+  private boolean updatePackages() {
+    PsiManager psiManager = PsiManager.getInstance(myModule.getProject());
+    ModuleFileIndex fileIndex = ModuleRootManager.getInstance(myModule).getFileIndex();
+
+    if (myRescanNeeded) {
+      myRescanNeeded = false;
+      boolean completed = false;
+      try {
+        rescanContent(psiManager, fileIndex);
+        completed = true;
+      }
+      finally {
+        if (!completed) myRescanNeeded = true;
+      }
+    }
+    else {
+      for (VirtualFile file : new ArrayList<VirtualFile>(myChangedFiles.keySet())) {
+        ProgressManager.checkCanceled();
+        myChangedFiles.remove(file);
+        boolean completed = false;
+        try {
+          updateFile(file, psiManager, fileIndex);
+          completed = true;
+        }
+        finally {
+          if (!completed) myChangedFiles.put(file, Boolean.TRUE);
+        }
+      }
+
+      // deleted files and files moved out of the module
+      for (Iterator<Map.Entry<VirtualFile, FileInfo>> i = myFiles.entrySet().iterator(); i.hasNext(); ) {
+        Map.Entry<VirtualFile, FileInfo> entry = i.next();
+        if (!isSourceFile(entry.getKey(), fileIndex)) {
+          removeFile(entry.getKey(), entry.getValue());
+          i.remove();
+        }
+      }
+    }
+
+    if (myDirtyPackages.isEmpty()) {
+      return false;
+    }
+
+    for (String packageName : myDirtyPackages) {
+      Set<VirtualFile> files = myPackageFiles.get(packageName);
+      if (files == null) {
+        myPackageReferences.remove(packageName);
+        continue;
+      }
+      Set<String> references = new HashSet<String>();
+      for (VirtualFile file : files) {
+        references.addAll(myFiles.get(file).referencedPackages);
+      }
+      myPackageReferences.put(packageName, references);
+    }
+    myDirtyPackages.clear();
+    return true;
+  }
+
+  private void rescanContent(@NotNull final PsiManager psiManager, @NotNull final ModuleFileIndex fileIndex) {
+    myChangedFiles.clear();
+    final Set<VirtualFile> sourceFiles = new HashSet<VirtualFile>();
+    fileIndex.iterateContent(new ContentIterator() {
+      @Override
+      public boolean processFile(VirtualFile file) {
+        ProgressManager.checkCanceled();
+        if (isSourceFile(file, fileIndex)) {
+          sourceFiles.add(file);
+          updateFile(file, psiManager, fileIndex);
+        }
+        return true;
+      }
+    });
+
+    for (Iterator<Map.Entry<VirtualFile, FileInfo>> i = myFiles.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<VirtualFile, FileInfo> entry = i.next();
+      if (!sourceFiles.contains(entry.getKey())) {
+        removeFile(entry.getKey(), entry.getValue());
+        i.remove();
+      }
+    }
+  }
+
+  private void updateFile(@NotNull VirtualFile file, @NotNull PsiManager psiManager, @NotNull ModuleFileIndex fileIndex) {
+    FileInfo existing = myFiles.get(file);
+    PsiFile psiFile = isSourceFile(file, fileIndex) ? psiManager.findFile(file) : null;
+    if (!(psiFile instanceof PsiJavaFile)) {
+      if (existing != null) {
+        removeFile(file, existing);
+        myFiles.remove(file);
+      }
+      return;
+    }
+
+    if (existing == null || existing.stamp != psiFile.getModificationStamp()) {
+      FileInfo info = analyze((PsiJavaFile)psiFile);
+      if (existing == null || !existing.hasSameContent(info)) {
+        if (existing != null) {
+          removeFile(file, existing);
+        }
+        addFile(file, info);
+      }
+      myFiles.put(file, info);
+    }
+  }
+
+  private static boolean isSourceFile(@NotNull VirtualFile file, @NotNull ModuleFileIndex fileIndex) {
+    return file.isValid() && !file.isDirectory() && file.getFileType() == JavaFileType.INSTANCE &&
+           fileIndex.isInSourceContent(file) && !fileIndex.isInTestSourceContent(file);
+  }
+
+  private void addFile(@NotNull VirtualFile file, @NotNull FileInfo info) {
+    Set<VirtualFile> files = myPackageFiles.get(info.packageName);
+    if (files == null) {
+      files = new HashSet<VirtualFile>();
+      myPackageFiles.put(info.packageName, files);
+    }
+    files.add(file);
+    myDirtyPackages.add(info.packageName);
+  }
+
+  private void removeFile(@NotNull VirtualFile file, @NotNull FileInfo info) {
+    Set<VirtualFile> files = myPackageFiles.get(info.packageName);
+    if (files != null) {
+      files.remove(file);
+      if (files.isEmpty()) {
+        myPackageFiles.remove(info.packageName);
+      }
+    }
+    myDirtyPackages.add(info.packageName);
+  }
+
+  @NotNull
+  private Set<String> getReferencedPackages() {
+    Set<String> result = new HashSet<String>();
+    for (Set<String> references : myPackageReferences.values()) {
+      result.addAll(references);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the bnd properties the manifest is generated from, or null if they cannot be read.
+   */
+  @Nullable
+  private Map<String, String> getProperties(@NotNull OsmorcFacetConfiguration configuration) {
+    if (configuration.isOsmorcControlsManifest()) {
+      return configuration.getBndFileProperties();
+    }
+
+    VirtualFile bndFile = null;
+    for (VirtualFile root : ModuleRootManager.getInstance(myModule).getContentRoots()) {
+      bndFile = VfsUtilCore.findRelativeFile(configuration.getBndFileLocation(), root);
+      if (bndFile != null) break;
+    }
+    if (bndFile == null) {
+      return null;
+    }
+
+    Properties properties = new OrderedProperties();
+    try {
+      // read the document if there is one, so unsaved changes are taken into account
+      Document document = FileDocumentManager.getInstance().getCachedDocument(bndFile);
+      properties.load(new StringReader(document != null ? document.getText() : VfsUtilCore.loadText(bndFile)));
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      return null;
+    }
+
+    Map<String, String> result = new LinkedHashMap<String, String>();
+    for (String name : properties.stringPropertyNames()) {
+      result.put(name, properties.getProperty(name));
+    }
+    if (!result.containsKey(Constants.BUNDLE_SYMBOLICNAME)) {
+      result.put(Constants.BUNDLE_SYMBOLICNAME, myModule.getName());
+    }
+    return result;
+  }
+
+  /**
+   * Collects the package of a source file and the packages it references.
+   */
+  @NotNull
+  static FileInfo analyze(@NotNull PsiJavaFile file) {
+    final Set<String> referencedPackages = new HashSet<String>();
+
+    PsiImportList importList = file.getImportList();
+    if (importList != null) {
+      for (PsiImportStatementBase statement : importList.getAllImportStatements()) {
+        List<String> names = getReferenceNames(statement.getImportReference());
+        String packageName = names != null ? getPackageName(names, statement.isOnDemand()) : null;
+        if (packageName != null) {
+          referencedPackages.add(packageName);
+        }
+      }
+    }
+
+    file.accept(new JavaRecursiveElementWalkingVisitor() {
+      @Override
+      public void visitImportList(PsiImportList list) {
+        // already processed
+      }
+
+      @Override
+      public void visitPackageStatement(PsiPackageStatement statement) {
+        // the own package is not a reference
+      }
+
+      @Override
+      public void visitReferenceElement(PsiJavaCodeReferenceElement reference) {
+        // qualifiers are processed as part of the qualified reference
+        if (!(reference.getParent() instanceof PsiJavaCodeReferenceElement)) {
+          List<String> names = getReferenceNames(reference);
+          String packageName = names != null ? getPackageName(names, false) : null;
+          if (packageName != null) {
+            referencedPackages.add(packageName);
+          }
+        }
+        super.visitReferenceElement(reference);
+      }
+
+      @Override
+      public void visitReferenceExpression(PsiReferenceExpression expression) {
+        // expressions mostly are qualified by variables, which cannot be told apart from packages without resolving them
+        visitExpression(expression);
+      }
+    });
+
+    String packageName = file.getPackageName();
+    return new FileInfo(file.getModificationStamp(), packageName.isEmpty() ? DEFAULT_PACKAGE : packageName, referencedPackages);
+  }
+
+  /**
+   * Returns the names of a qualified reference ({@code [java, util, List]} for {@code java.util.List<String>}), or null if the
+   * reference is not qualified by other references only.
+   */
+  @Nullable
+  private static List<String> getReferenceNames(@Nullable PsiJavaCodeReferenceElement reference) {
+    if (reference == null || !reference.isQualified()) {
+      return null;
+    }
+
+    LinkedList<String> names = new LinkedList<String>();
+    PsiElement element = reference;
+    while (element instanceof PsiJavaCodeReferenceElement) {
+      String name = ((PsiJavaCodeReferenceElement)element).getReferenceName();
+      if (name == null) {
+        return null;
+      }
+      names.addFirst(name);
+      element = ((PsiJavaCodeReferenceElement)element).getQualifier();
+    }
+    return element == null ? names : null;
+  }
+
+  /**
+   * Guesses the package part of a qualified name by the Java naming conventions, i.e. takes all names up to the first one
+   * starting with an upper case letter.
+   */
+  @Nullable
+  static String getPackageName(@NotNull List<String> names, boolean onDemand) {
+    int i = 0;
+    while (i < names.size() && !Character.isUpperCase(names.get(i).charAt(0))) {
+      i++;
+    }
+    if (i == 0 || (i == names.size() && !onDemand)) {
+      return null;
+    }
+    return StringUtil.join(names.subList(0, i), ".");
+  }
+
+  /**
+   * Builds the manifest from the bnd properties, the packages of the module and the packages they reference, applying the
+   * Export-Package and Import-Package instructions the way bnd does.
+   *
+   * @param addLocalPackages whether to export the local packages by default, like the build does for Osmorc controlled manifests
+   */
+  @NotNull
+  static String buildManifestText(@NotNull Map<String, String> properties,
+                                  boolean addLocalPackages,
+                                  @NotNull Collection<String> localPackages,
+                                  @NotNull Collection<String> referencedPackages) {
+    Map<String, String> headers = new LinkedHashMap<String, String>(properties);
+    if (addLocalPackages) {
+      // same defaults as in the build
+      LocalPackageCollector.addLocalPackages(localPackages, headers);
+    }
+
+    Set<String> exportable = new TreeSet<String>(localPackages);
+    exportable.remove(DEFAULT_PACKAGE);
+    List<String> exports = selectPackages(headers.get(Constants.EXPORT_PACKAGE), exportable, false);
+
+    Set<String> importable = new TreeSet<String>(referencedPackages);
+    importable.removeAll(localPackages);
+    for (Iterator<String> i = importable.iterator(); i.hasNext(); ) {
+      if (i.next().startsWith("java.")) i.remove();
+    }
+    String importInstructions = headers.get(Constants.IMPORT_PACKAGE);
+    List<String> imports = selectPackages(importInstructions != null ? importInstructions : "*", importable, true);
+
+    StringBuilder builder = new StringBuilder();
+    builder.append("Manifest-Version: 1.0\n");
+    builder.append(Constants.BUNDLE_MANIFESTVERSION).append(": 2\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      String name = header.getKey();
+      if (!name.isEmpty() && Character.isUpperCase(name.charAt(0)) && !INSTRUCTION_HEADERS.contains(name) &&
+          !Constants.EXPORT_PACKAGE.equals(name) && !Constants.IMPORT_PACKAGE.equals(name) &&
+          !StringUtil.isEmptyOrSpaces(header.getValue())) {
+        builder.append(name).append(": ").append(header.getValue().trim()).append('\n');
+      }
+    }
+    appendHeader(builder, Constants.EXPORT_PACKAGE, exports);
+    appendHeader(builder, Constants.IMPORT_PACKAGE, imports);
+    return builder.toString();
+  }
+
+  /**
+   * Matches the packages against the given bnd instructions. The first instruction matching a package decides whether it is
+   * selected; its attributes are added to the package's clause.
+   *
+   * @param addLiterals whether non-wildcard instructions which did not match any package should be added as they are
+   */
+  @NotNull
+  private static List<String> selectPackages(@Nullable String instructions, @NotNull Set<String> packages, boolean addLiterals) {
+    List<String> result = new ArrayList<String>();
+    if (StringUtil.isEmptyOrSpaces(instructions)) {
+      return result;
+    }
+
+    Set<String> remaining = new TreeSet<String>(packages);
+    Parameters parameters = OSGiHeader.parseHeader(instructions);
+    for (Map.Entry<String, Attrs> entry : parameters.entrySet()) {
+      // duplicate keys are made unique by bnd by appending '~'
+      String key = entry.getKey();
+      while (key.endsWith("~")) key = StringUtil.trimEnd(key, "~");
+      Instruction instruction = new Instruction(key);
+      String attributes = getAttributes(entry.getValue());
+
+      boolean matched = false;
+      for (Iterator<String> i = remaining.iterator(); i.hasNext(); ) {
+        String packageName = i.next();
+        if (instruction.matches(packageName)) {
+          matched = true;
+          i.remove();
+          if (!instruction.isNegated()) {
+            result.add(packageName + attributes);
+          }
+        }
+      }
+
+      if (addLiterals && !matched && !instruction.isNegated() && key.indexOf('*') < 0) {
+        result.add(key + attributes);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private static String getAttributes(@NotNull Attrs attrs) {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, String> attribute : attrs.entrySet()) {
+      String name = attribute.getKey();
+      if (name.startsWith("-")) continue;  // bnd directives do not end up in the manifest
+      String value = attribute.getValue();
+      builder.append(';').append(name).append('=');
+      if (value.matches("[\\w.]*")) {
+        builder.append(value);
+      }
+      else {
+        builder.append('"').append(value).append('"');
+      }
+    }
+    return builder.toString();
+  }
+
+  private static void appendHeader(@NotNull StringBuilder builder, @NotNull String name, @NotNull List<String> clauses) {
+    if (!clauses.isEmpty()) {
+      builder.append(name).append(": ").append(StringUtil.join(clauses, ",\n ")).append('\n');
+    }
+  }
+
+  static class FileInfo {
+    private final long stamp;
+    private final String packageName;
+    private final Set<String> referencedPackages;
+
+    FileInfo(long stamp, @NotNull String packageName, @NotNull Set<String> referencedPackages) {
+      this.stamp = stamp;
+      this.packageName = packageName;
+      this.referencedPackages = referencedPackages;
+    }
+
+    @NotNull
+    String getPackageName() {
+      return packageName;
+    }
+
+    @NotNull
+    Set<String> getReferencedPackages() {
+      return referencedPackages;
+    }
+
+    private boolean hasSameContent(@NotNull FileInfo info) {
+      return packageName.equals(info.packageName) && referencedPackages.equals(info.referencedPackages);
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package org.osmorc.make;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.lang.manifest.ManifestFileTypeFactory;
+
+/**
+ * Action which opens the manifest computed by {@link ManifestComputer} for a module in a read-only editor tab,
+ * so the generated headers can be previewed without building the bundle.
+ */
+public class ViewComputedManifestAction extends AnAction implements DumbAware {
+  private final Module myModule;
+
+  public ViewComputedManifestAction(@NotNull String title, @NotNull Module module) {
+    myModule = module;
+    getTemplatePresentation().setText(title);
+  }
+
+  @Override
+  public void actionPerformed(AnActionEvent e) {
+    Project project = CommonDataKeys.PROJECT.getData(e.getDataContext());
+    if (project == null || myModule.isDisposed()) {
+      return;
+    }
+
+    // the sources may have to be analyzed, which is not done on the event dispatch thread
+    String text = ProgressManager.getInstance().runProcessWithProgressSynchronously(new ThrowableComputable<String, RuntimeException>() {
+      @Override
+      public String compute() {
+        return ManifestComputer.getInstance(myModule).getManifestText();
+      }
+    }, "Computing Manifest", true, project);
+    if (text == null) {
+      Messages.showErrorDialog(project, "The manifest of this module cannot be computed. Please check the facet settings and try again.",
+                               "Cannot compute manifest");
+      return;
+    }
+
+    LightVirtualFile file = new LightVirtualFile("MANIFEST.MF", ManifestFileTypeFactory.MANIFEST, text);
+    file.setWritable(false);
+    FileEditorManager.getInstance(project).openFile(file, true);
+  }
+}
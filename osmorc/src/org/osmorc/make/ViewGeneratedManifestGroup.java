@@ -88,6 +88,9 @@ public class ViewGeneratedManifestGroup extends ActionGroup {
         ViewManifestAction action = new ViewManifestAction(fileName, jarFile);
         actions.add(action);
 //                }
+        if (ManifestComputer.isApplicable(facet.getConfiguration())) {
+          actions.add(new ViewComputedManifestAction("[" + module.getName() + "] computed from sources", module));
+        }
       }
     }
     return actions.toArray(new AnAction[actions.size()]);
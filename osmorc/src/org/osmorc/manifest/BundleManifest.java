@@ -44,6 +44,11 @@ public interface BundleManifest {
   @NotNull
   ManifestFile getManifestFile();
 
+  /**
+   * Returns the modification stamp of the underlying manifest; changes whenever the headers may have changed.
+   */
+  long getModificationStamp();
+
   /**
    * Gets the bundle version. If there is no bundle version, returns 0.0.0
    */
@@ -77,6 +82,12 @@ public interface BundleManifest {
   @Nullable
   String getExportedPackage(@NotNull String packageName);
 
+  /**
+   * Returns names of all packages exported by this bundle via Export-Package header.
+   */
+  @NotNull
+  List<String> getExportedPackages();
+
   /**
    * Returns a list of package specs that represent the imports of this bundle.
    * Each package spec can be fed to {@link #isPackageExported(String)} of another bundle
@@ -120,6 +131,13 @@ public interface BundleManifest {
    */
   boolean isFragmentBundle();
 
+  /**
+   * Returns the Fragment-Host clause of this bundle (e.g. {@code org.example.host;bundle-version="1.0"}),
+   * or null if this is not a fragment bundle.
+   */
+  @Nullable
+  String getFragmentHost();
+
   /**
    * Checks, if this bundle would be a potential fragment host for the given fragment bundle.
    */
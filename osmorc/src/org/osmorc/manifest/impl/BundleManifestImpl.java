@@ -54,6 +54,7 @@ import static org.osgi.framework.Constants.*;
 public class BundleManifestImpl implements BundleManifest {
   private final HeaderParserRepository myRepository;
   private final ManifestFile myManifestFile;
+  private volatile ParsedCapabilities myCapabilities;
 
   public BundleManifestImpl(@NotNull ManifestFile manifestFile) {
     myRepository = ServiceManager.getService(HeaderParserRepository.class);
@@ -66,6 +67,11 @@ public class BundleManifestImpl implements BundleManifest {
     return myManifestFile;
   }
 
+  @Override
+  public long getModificationStamp() {
+    return myManifestFile.getModificationStamp();
+  }
+
   @NotNull
   @Override
   public Version getBundleVersion() {
@@ -87,20 +93,11 @@ public class BundleManifestImpl implements BundleManifest {
 
   @Override
   public boolean isPackageExported(@NotNull String packageSpec) {
-    Header header = myManifestFile.getHeader(EXPORT_PACKAGE);
-    if (header == null) {
+    List<BundleCapability> capabilities = getCapabilities().exports;
+    if (capabilities == null || capabilities.isEmpty()) {
       return false;
     }
 
-    List<BundleCapability> capabilities = ContainerUtil.newArrayList();
-    String bsn = getBundleSymbolicName();
-    String bv = getBundleVersion().toString();
-    for (HeaderValue headerValue : header.getHeaderValues()) {
-      List<BundleCapability> caps = FelixManifestParser.parseExportHeader(headerValue.getUnwrappedText(), bsn, bv);
-      if (caps == null) return false;  // parse error
-      capabilities.addAll(caps);
-    }
-
     List<BundleRequirement> requirements = FelixManifestParser.parseImportHeader(packageSpec);
     if (requirements == null) return false;  // parse error
 
@@ -123,6 +120,18 @@ public class BundleManifestImpl implements BundleManifest {
     return null;
   }
 
+  @NotNull
+  @Override
+  public List<String> getExportedPackages() {
+    Object headerValue = getHeaderValue(EXPORT_PACKAGE);
+    if (headerValue != null) {
+      @SuppressWarnings("unchecked") List<String> packages = (List<String>)headerValue;
+      return packages;
+    }
+
+    return ContainerUtil.emptyList();
+  }
+
   @NotNull
   @Override
   public List<String> getImports() {
@@ -150,7 +159,7 @@ public class BundleManifestImpl implements BundleManifest {
 
   @Override
   public boolean isRequiredBundle(@NotNull String bundleSpec) {
-    BundleCapability capability = FelixManifestParser.constructBundleCapability(getBundleSymbolicName(), getBundleVersion().toString());
+    BundleCapability capability = getCapabilities().bundle;
     if (capability == null) return false;  // parse error
 
     List<BundleRequirement> requirements = FelixManifestParser.parseRequireBundleHeader(bundleSpec);
@@ -193,15 +202,22 @@ public class BundleManifestImpl implements BundleManifest {
     return getHeaderValues(BUNDLE_CLASSPATH);
   }
 
+  @Nullable
   @Override
-  public boolean isFragmentHostFor(@NotNull BundleManifest fragmentBundle) {
-    Header header = fragmentBundle.getManifestFile().getHeader(FRAGMENT_HOST);
-    if (header == null) return false;
+  public String getFragmentHost() {
+    Header header = myManifestFile.getHeader(FRAGMENT_HOST);
+    if (header == null) return null;
 
     List<HeaderValue> clauses = header.getHeaderValues();
     // bundle should have exactly one clause
+    return clauses.size() == 1 ? clauses.get(0).getUnwrappedText() : null;
+  }
+
+  @Override
+  public boolean isFragmentHostFor(@NotNull BundleManifest fragmentBundle) {
+    String fragmentHost = fragmentBundle.getFragmentHost();
     // they follow the same semantics so i think it is safe to reuse this method here. We do not handle extension bundles at all.
-    return clauses.size() == 1 && isRequiredBundle(clauses.get(0).getUnwrappedText());
+    return fragmentHost != null && isRequiredBundle(fragmentHost);
   }
 
   @Override
@@ -234,6 +250,43 @@ public class BundleManifestImpl implements BundleManifest {
     });
   }
 
+  /**
+   * Returns parsed bundle and export capabilities of this bundle, re-parsing them only when the manifest file was modified.
+   */
+  @NotNull
+  private ParsedCapabilities getCapabilities() {
+    long stamp = myManifestFile.getModificationStamp();
+    ParsedCapabilities capabilities = myCapabilities;
+    if (capabilities == null || capabilities.stamp != stamp) {
+      capabilities = new ParsedCapabilities(stamp, parseExports(), parseBundleCapability());
+      myCapabilities = capabilities;
+    }
+    return capabilities;
+  }
+
+  @Nullable
+  private List<BundleCapability> parseExports() {
+    Header header = myManifestFile.getHeader(EXPORT_PACKAGE);
+    if (header == null) {
+      return Collections.emptyList();
+    }
+
+    List<BundleCapability> capabilities = ContainerUtil.newArrayList();
+    String bsn = getBundleSymbolicName();
+    String bv = getBundleVersion().toString();
+    for (HeaderValue headerValue : header.getHeaderValues()) {
+      List<BundleCapability> caps = FelixManifestParser.parseExportHeader(headerValue.getUnwrappedText(), bsn, bv);
+      if (caps == null) return null;  // parse error
+      capabilities.addAll(caps);
+    }
+    return capabilities;
+  }
+
+  @Nullable
+  private BundleCapability parseBundleCapability() {
+    return FelixManifestParser.constructBundleCapability(getBundleSymbolicName(), getBundleVersion().toString());
+  }
+
   private static boolean satisfies(List<BundleCapability> capabilities, List<BundleRequirement> requirements) {
     nextRequirement:
     for (BundleRequirement requirement : requirements) {
@@ -252,4 +305,16 @@ public class BundleManifestImpl implements BundleManifest {
   public String toString() {
     return myManifestFile.getName() + ":" + getBundleSymbolicName() + ":" + getBundleVersion();
   }
+
+  private static class ParsedCapabilities {
+    private final long stamp;
+    private final List<BundleCapability> exports;  // null on parse error
+    private final BundleCapability bundle;
+
+    private ParsedCapabilities(long stamp, @Nullable List<BundleCapability> exports, @Nullable BundleCapability bundle) {
+      this.stamp = stamp;
+      this.exports = exports;
+      this.bundle = bundle;
+    }
+  }
 }
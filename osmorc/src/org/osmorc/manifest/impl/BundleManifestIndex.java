@@ -0,0 +1,342 @@
+package org.osmorc.manifest.impl;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.lang.manifest.ManifestFileTypeFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import static org.osgi.framework.Constants.*;
+
+/**
+ * Index of OSGi headers of all {@code MANIFEST.MF} files in the project and its libraries (including the ones inside jars).
+ * <p/>
+ * Manifests are parsed from the raw file content, so querying bundle information of a library does not require
+ * to build PSI for its manifest. Entries are keyed by the id of the manifest file, so looking up a single manifest
+ * does not have to go through the entries of all other manifests.
+ */
+public class BundleManifestIndex extends FileBasedIndexExtension<Integer, BundleManifestIndex.ManifestData> {
+  public static final ID<Integer, ManifestData> NAME = ID.create("osmorc.bundle.manifest");
+  private static final int INDEX_VERSION = 2;
+  private static final String MANIFEST_FILE_NAME = "MANIFEST.MF";
+
+  private final DataIndexer<Integer, ManifestData, FileContent> myDataIndexer = new MyDataIndexer();
+
+  @NotNull
+  @Override
+  public ID<Integer, ManifestData> getName() {
+    return NAME;
+  }
+
+  @Override
+  public int getVersion() {
+    return INDEX_VERSION;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<Integer, ManifestData, FileContent> getIndexer() {
+    return myDataIndexer;
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<Integer> getKeyDescriptor() {
+    return EnumeratorIntegerDescriptor.INSTANCE;
+  }
+
+  @NotNull
+  @Override
+  public DataExternalizer<ManifestData> getValueExternalizer() {
+    return new ManifestDataExternalizer();
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(ManifestFileTypeFactory.MANIFEST) {
+      @Override
+      public boolean acceptInput(@NotNull VirtualFile file) {
+        return super.acceptInput(file) && MANIFEST_FILE_NAME.equalsIgnoreCase(file.getName());
+      }
+    };
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  /**
+   * Returns the indexed headers of the given manifest file, or null if the file is not indexed (yet).
+   * Must not be called in dumb mode.
+   */
+  @Nullable
+  public static ManifestData getManifestData(@NotNull Project project, @NotNull VirtualFile manifestFile) {
+    List<ManifestData> values =
+      FileBasedIndex.getInstance().getValues(NAME, FileBasedIndex.getFileId(manifestFile), GlobalSearchScope.fileScope(project, manifestFile));
+    return ContainerUtil.getFirstItem(values);
+  }
+
+  @NotNull
+  static ManifestData parse(@NotNull byte[] content) throws IOException {
+    Attributes attributes = new Manifest(new ByteArrayInputStream(content)).getMainAttributes();
+
+    String symbolicName = attributes.getValue(BUNDLE_SYMBOLICNAME);
+    List<String> fragmentHost = splitClauses(attributes.getValue(FRAGMENT_HOST));
+    return new ManifestData(symbolicName != null ? StringUtil.nullize(getClausePaths(symbolicName).get(0)) : null,
+                            StringUtil.nullize(StringUtil.notNullize(attributes.getValue(BUNDLE_VERSION)).trim()),
+                            StringUtil.nullize(StringUtil.notNullize(attributes.getValue(BUNDLE_ACTIVATOR)).trim()),
+                            getPaths(splitClauses(attributes.getValue(EXPORT_PACKAGE))),
+                            splitClauses(attributes.getValue(IMPORT_PACKAGE)),
+                            splitClauses(attributes.getValue(REQUIRE_BUNDLE)),
+                            splitClauses(attributes.getValue(BUNDLE_CLASSPATH)),
+                            fragmentHost.isEmpty() ? null : fragmentHost.get(0));
+  }
+
+  /**
+   * Splits a header value into clauses at commas which are not enclosed in quotes.
+   */
+  @NotNull
+  static List<String> splitClauses(@Nullable String value) {
+    if (StringUtil.isEmptyOrSpaces(value)) {
+      return Collections.emptyList();
+    }
+
+    List<String> result = new ArrayList<String>();
+    boolean quoted = false;
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        quoted = !quoted;
+      }
+      else if (c == ',' && !quoted) {
+        addClause(result, value.substring(start, i));
+        start = i + 1;
+      }
+    }
+    addClause(result, value.substring(start));
+    return result;
+  }
+
+  private static void addClause(List<String> result, String clause) {
+    clause = clause.trim();
+    if (!clause.isEmpty()) {
+      result.add(clause);
+    }
+  }
+
+  /**
+   * Returns the paths of a clause, i.e. all elements before the first attribute or directive
+   * ({@code a;b} for {@code a;b;version="1.0";resolution:=optional}).
+   */
+  @NotNull
+  static List<String> getClausePaths(@NotNull String clause) {
+    List<String> result = new ArrayList<String>();
+    for (String element : StringUtil.split(clause, ";")) {
+      if (element.indexOf('=') >= 0) break;
+      result.add(element.trim());
+    }
+    if (result.isEmpty()) {
+      result.add("");
+    }
+    return result;
+  }
+
+  @NotNull
+  static List<String> getPaths(@NotNull List<String> clauses) {
+    List<String> result = new ArrayList<String>();
+    for (String clause : clauses) {
+      for (String path : getClausePaths(clause)) {
+        if (!path.isEmpty()) {
+          result.add(path);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * OSGi headers of a single manifest file.
+   */
+  public static class ManifestData {
+    private final String mySymbolicName;
+    private final String myVersion;
+    private final String myActivator;
+    private final List<String> myExportedPackages;
+    private final List<String> myImports;
+    private final List<String> myRequiredBundles;
+    private final List<String> myBundleClassPath;
+    private final String myFragmentHost;
+
+    public ManifestData(@Nullable String symbolicName,
+                        @Nullable String version,
+                        @Nullable String activator,
+                        @NotNull List<String> exportedPackages,
+                        @NotNull List<String> imports,
+                        @NotNull List<String> requiredBundles,
+                        @NotNull List<String> bundleClassPath,
+                        @Nullable String fragmentHost) {
+      mySymbolicName = symbolicName;
+      myVersion = version;
+      myActivator = activator;
+      myExportedPackages = exportedPackages;
+      myImports = imports;
+      myRequiredBundles = requiredBundles;
+      myBundleClassPath = bundleClassPath;
+      myFragmentHost = fragmentHost;
+    }
+
+    @Nullable
+    public String getSymbolicName() {
+      return mySymbolicName;
+    }
+
+    @Nullable
+    public String getVersion() {
+      return myVersion;
+    }
+
+    @Nullable
+    public String getActivator() {
+      return myActivator;
+    }
+
+    @NotNull
+    public List<String> getExportedPackages() {
+      return myExportedPackages;
+    }
+
+    @NotNull
+    public List<String> getImports() {
+      return myImports;
+    }
+
+    @NotNull
+    public List<String> getRequiredBundles() {
+      return myRequiredBundles;
+    }
+
+    @NotNull
+    public List<String> getBundleClassPath() {
+      return myBundleClassPath;
+    }
+
+    @Nullable
+    public String getFragmentHost() {
+      return myFragmentHost;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      ManifestData data = (ManifestData)o;
+      return StringUtil.equals(mySymbolicName, data.mySymbolicName) &&
+             StringUtil.equals(myVersion, data.myVersion) &&
+             StringUtil.equals(myActivator, data.myActivator) &&
+             myExportedPackages.equals(data.myExportedPackages) &&
+             myImports.equals(data.myImports) &&
+             myRequiredBundles.equals(data.myRequiredBundles) &&
+             myBundleClassPath.equals(data.myBundleClassPath) &&
+             StringUtil.equals(myFragmentHost, data.myFragmentHost);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = mySymbolicName != null ? mySymbolicName.hashCode() : 0;
+      result = 31 * result + (myVersion != null ? myVersion.hashCode() : 0);
+      result = 31 * result + myExportedPackages.hashCode();
+      result = 31 * result + myImports.hashCode();
+      result = 31 * result + myRequiredBundles.hashCode();
+      return result;
+    }
+  }
+
+  private static class MyDataIndexer implements DataIndexer<Integer, ManifestData, FileContent> {
+    @NotNull
+    @Override
+    public Map<Integer, ManifestData> map(@NotNull FileContent inputData) {
+      try {
+        return Collections.singletonMap(FileBasedIndex.getFileId(inputData.getFile()), parse(inputData.getContent()));
+      }
+      catch (IOException e) {
+        // malformed manifest, the PSI based implementation will deal with it
+        return Collections.emptyMap();
+      }
+    }
+  }
+
+  private static class ManifestDataExternalizer implements DataExternalizer<ManifestData> {
+    @Override
+    public void save(@NotNull DataOutput out, ManifestData value) throws IOException {
+      writeNullable(out, value.mySymbolicName);
+      writeNullable(out, value.myVersion);
+      writeNullable(out, value.myActivator);
+      writeList(out, value.myExportedPackages);
+      writeList(out, value.myImports);
+      writeList(out, value.myRequiredBundles);
+      writeList(out, value.myBundleClassPath);
+      writeNullable(out, value.myFragmentHost);
+    }
+
+    @Override
+    public ManifestData read(@NotNull DataInput in) throws IOException {
+      return new ManifestData(readNullable(in), readNullable(in), readNullable(in),
+                              readList(in), readList(in), readList(in), readList(in), readNullable(in));
+    }
+
+    private static void writeNullable(DataOutput out, @Nullable String value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value != null) {
+        IOUtil.writeUTF(out, value);
+      }
+    }
+
+    @Nullable
+    private static String readNullable(DataInput in) throws IOException {
+      return in.readBoolean() ? IOUtil.readUTF(in) : null;
+    }
+
+    private static void writeList(DataOutput out, List<String> values) throws IOException {
+      out.writeInt(values.size());
+      for (String value : values) {
+        IOUtil.writeUTF(out, value);
+      }
+    }
+
+    @NotNull
+    private static List<String> readList(DataInput in) throws IOException {
+      int size = in.readInt();
+      if (size == 0) {
+        return Collections.emptyList();
+      }
+      List<String> result = new ArrayList<String>(size);
+      for (int i = 0; i < size; i++) {
+        result.add(IOUtil.readUTF(in));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package org.osmorc.manifest.impl;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiNameHelper;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.lang.manifest.psi.ManifestFile;
+import org.osgi.framework.Version;
+import org.osmorc.manifest.BundleManifest;
+
+import java.util.List;
+
+/**
+ * Bundle manifest of a library backed by {@link BundleManifestIndex}.
+ * <p/>
+ * Header queries are answered from the index. Only the checks which need a full header parse (version ranges, attributes
+ * and directives) fall back to the PSI based {@link BundleManifestImpl}, and only for the bundles which passed the name check.
+ */
+public class IndexedBundleManifest implements BundleManifest {
+  private final Project myProject;
+  private final VirtualFile myManifestFile;
+  private final BundleManifestIndex.ManifestData myData;
+  private final Version myVersion;
+  private final long myModificationStamp;
+  private volatile BundleManifestImpl myDelegate;
+
+  public IndexedBundleManifest(@NotNull Project project, @NotNull VirtualFile manifestFile, @NotNull BundleManifestIndex.ManifestData data) {
+    myProject = project;
+    myManifestFile = manifestFile;
+    myData = data;
+    myVersion = parseVersion(data.getVersion());
+    myModificationStamp = manifestFile.getModificationStamp();
+  }
+
+  @NotNull
+  @Override
+  public ManifestFile getManifestFile() {
+    return getDelegate().getManifestFile();
+  }
+
+  /**
+   * Returns the stamp of the manifest file the index data was read for. The data is a snapshot, so the stamp must not follow
+   * later changes of the file.
+   */
+  @Override
+  public long getModificationStamp() {
+    return myModificationStamp;
+  }
+
+  @NotNull
+  @Override
+  public Version getBundleVersion() {
+    return myVersion;
+  }
+
+  @Nullable
+  @Override
+  public String getBundleSymbolicName() {
+    return myData.getSymbolicName();
+  }
+
+  @Nullable
+  @Override
+  public String getBundleActivator() {
+    return myData.getActivator();
+  }
+
+  @Override
+  public boolean isPackageExported(@NotNull String packageSpec) {
+    List<String> exported = myData.getExportedPackages();
+    for (String packageName : BundleManifestIndex.getClausePaths(packageSpec)) {
+      if (!packageName.contains("*") && !exported.contains(packageName)) {
+        return false;
+      }
+    }
+    return getDelegate().isPackageExported(packageSpec);
+  }
+
+  @Nullable
+  @Override
+  public String getExportedPackage(@NotNull String packageName) {
+    for (String exported : myData.getExportedPackages()) {
+      if (PsiNameHelper.isSubpackageOf(packageName, exported)) {
+        return exported;
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  @Override
+  public List<String> getExportedPackages() {
+    return myData.getExportedPackages();
+  }
+
+  @NotNull
+  @Override
+  public List<String> getImports() {
+    return myData.getImports();
+  }
+
+  @NotNull
+  @Override
+  public List<String> getRequiredBundles() {
+    return myData.getRequiredBundles();
+  }
+
+  @NotNull
+  @Override
+  public List<String> getBundleClassPathEntries() {
+    return myData.getBundleClassPath();
+  }
+
+  @Override
+  public boolean isRequiredBundle(@NotNull String bundleSpec) {
+    String symbolicName = myData.getSymbolicName();
+    return symbolicName != null &&
+           symbolicName.equals(BundleManifestIndex.getClausePaths(bundleSpec).get(0)) &&
+           getDelegate().isRequiredBundle(bundleSpec);
+  }
+
+  @Override
+  public boolean reExportsBundle(@NotNull BundleManifest otherBundle) {
+    return !myData.getRequiredBundles().isEmpty() && getDelegate().reExportsBundle(otherBundle);
+  }
+
+  @Override
+  public boolean isFragmentBundle() {
+    return myData.getFragmentHost() != null;
+  }
+
+  @Nullable
+  @Override
+  public String getFragmentHost() {
+    return myData.getFragmentHost();
+  }
+
+  @Override
+  public boolean isFragmentHostFor(@NotNull BundleManifest fragmentBundle) {
+    String fragmentHost = fragmentBundle.getFragmentHost();
+    return fragmentHost != null && isRequiredBundle(fragmentHost);
+  }
+
+  @NotNull
+  @Override
+  public List<String> getReExportedBundles() {
+    return getDelegate().getReExportedBundles();
+  }
+
+  @Override
+  public boolean isPackageImported(@NotNull String packageName) {
+    for (String imported : BundleManifestIndex.getPaths(myData.getImports())) {
+      if (PsiNameHelper.isSubpackageOf(packageName, imported)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @NotNull
+  private BundleManifestImpl getDelegate() {
+    BundleManifestImpl delegate = myDelegate;
+    if (delegate == null) {
+      ManifestFile manifestFile = new ReadAction<ManifestFile>() {
+        @Override
+        protected void run(Result<ManifestFile> result) throws Throwable {
+          result.setResult((ManifestFile)PsiManager.getInstance(myProject).findFile(myManifestFile));
+        }
+      }.execute().getResultObject();
+      delegate = new BundleManifestImpl(manifestFile);
+      myDelegate = delegate;
+    }
+    return delegate;
+  }
+
+  @NotNull
+  private static Version parseVersion(@Nullable String version) {
+    if (version != null) {
+      try {
+        return Version.parseVersion(version);
+      }
+      catch (IllegalArgumentException ignore) { }
+    }
+    return new Version(0, 0, 0, null);
+  }
+
+  @Override
+  public String toString() {
+    return myManifestFile.getName() + ":" + getBundleSymbolicName() + ":" + getBundleVersion();
+  }
+}
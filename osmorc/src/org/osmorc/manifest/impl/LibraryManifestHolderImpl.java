@@ -27,6 +27,7 @@ package org.osmorc.manifest.impl;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.application.ReadAction;
 import com.intellij.openapi.application.Result;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.roots.OrderRootType;
 import com.intellij.openapi.roots.impl.libraries.LibraryEx;
@@ -50,7 +51,7 @@ import java.util.*;
  */
 public class LibraryManifestHolderImpl extends AbstractManifestHolderImpl {
 
-  private BundleManifest myBundleManifest;
+  private volatile CachedManifest myCachedManifest;
   private final Library myLibrary;
   private final Project myProject;
   private final String myPath;
@@ -68,36 +69,62 @@ public class LibraryManifestHolderImpl extends AbstractManifestHolderImpl {
       throw new ManifestHolderDisposedException();
     }
 
-    if (myBundleManifest == null) {
-
-      VirtualFile[] classRoots = myLibrary.getFiles(OrderRootType.CLASSES);
-      for (VirtualFile classRoot : classRoots) {
-        if (classRoot.getUrl().equals(myPath)) {
-          VirtualFile classDir;
-          if (classRoot.isDirectory()) {
-            classDir = classRoot;
-          }
-          else {
-            classDir = JarFileSystem.getInstance().getJarRootForLocalFile(classRoot);
-          }
-
-          if (classDir != null) {
-            final VirtualFile manifestFile = classDir.findFileByRelativePath("META-INF/MANIFEST.MF");
-            if (manifestFile != null) {
-              PsiFile psiFile = new ReadAction<PsiFile>() {
-                @Override
-                protected void run(Result<PsiFile> psiFileResult) throws Throwable {
-                  psiFileResult.setResult(PsiManager.getInstance(myProject).findFile(manifestFile));
-                }
-              }.execute().getResultObject();
-              myBundleManifest = new BundleManifestImpl((ManifestFile)psiFile);
-            }
-          }
-          break; // we're done here.
+    final VirtualFile manifestFile = findManifestFile();
+    if (manifestFile == null) {
+      myCachedManifest = null;
+      return null;
+    }
+
+    // the indexed manifest is a snapshot, so it is replaced once the jar or manifest changes
+    CachedManifest cached = myCachedManifest;
+    long stamp = manifestFile.getModificationStamp();
+    if (cached != null && cached.myFile.equals(manifestFile) && cached.myStamp == stamp) {
+      return cached.myManifest;
+    }
+
+    if (DumbService.isDumb(myProject)) {
+      // not cached, so the indexed manifest is picked up once indexing is finished
+      return createPsiManifest(manifestFile);
+    }
+
+    BundleManifestIndex.ManifestData data = new ReadAction<BundleManifestIndex.ManifestData>() {
+      @Override
+      protected void run(Result<BundleManifestIndex.ManifestData> dataResult) throws Throwable {
+        dataResult.setResult(BundleManifestIndex.getManifestData(myProject, manifestFile));
+      }
+    }.execute().getResultObject();
+    BundleManifest bundleManifest = data != null ? new IndexedBundleManifest(myProject, manifestFile, data) : createPsiManifest(manifestFile);
+    myCachedManifest = new CachedManifest(manifestFile, stamp, bundleManifest);
+    return bundleManifest;
+  }
+
+  @Nullable
+  private VirtualFile findManifestFile() {
+    VirtualFile[] classRoots = myLibrary.getFiles(OrderRootType.CLASSES);
+    for (VirtualFile classRoot : classRoots) {
+      if (classRoot.getUrl().equals(myPath)) {
+        VirtualFile classDir;
+        if (classRoot.isDirectory()) {
+          classDir = classRoot;
+        }
+        else {
+          classDir = JarFileSystem.getInstance().getJarRootForLocalFile(classRoot);
         }
+        return classDir != null ? classDir.findFileByRelativePath("META-INF/MANIFEST.MF") : null;
       }
     }
-    return myBundleManifest;
+    return null;
+  }
+
+  @NotNull
+  private BundleManifest createPsiManifest(@NotNull final VirtualFile manifestFile) {
+    PsiFile psiFile = new ReadAction<PsiFile>() {
+      @Override
+      protected void run(Result<PsiFile> psiFileResult) throws Throwable {
+        psiFileResult.setResult(PsiManager.getInstance(myProject).findFile(manifestFile));
+      }
+    }.execute().getResultObject();
+    return new BundleManifestImpl((ManifestFile)psiFile);
   }
 
   public boolean isDisposed() {
@@ -194,4 +221,16 @@ public class LibraryManifestHolderImpl extends AbstractManifestHolderImpl {
     }
     return myLibrary;
   }
+
+  private static class CachedManifest {
+    private final VirtualFile myFile;
+    private final long myStamp;
+    private final BundleManifest myManifest;
+
+    private CachedManifest(@NotNull VirtualFile file, long stamp, @NotNull BundleManifest manifest) {
+      myFile = file;
+      myStamp = stamp;
+      myManifest = manifest;
+    }
+  }
 }
@@ -34,6 +34,7 @@ import com.intellij.psi.PsiManager;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.lang.manifest.psi.ManifestFile;
 import org.osmorc.facet.OsmorcFacet;
+import org.osmorc.make.ManifestComputer;
 import org.osmorc.manifest.BundleManifest;
 import org.osmorc.manifest.ManifestHolderDisposedException;
 
@@ -56,6 +57,13 @@ public class ModuleManifestHolderImpl extends AbstractManifestHolderImpl {
       throw new ManifestHolderDisposedException();
     }
 
+    // a generated manifest is computed from the module's sources
+    OsmorcFacet osmorcFacet = OsmorcFacet.getInstance(myModule);
+    if (osmorcFacet != null && ManifestComputer.isApplicable(osmorcFacet.getConfiguration())) {
+      myBundleManifest = null;
+      return ManifestComputer.getInstance(myModule).getManifest();
+    }
+
     if (myBundleManifest != null) {
       VirtualFile cachedFile = myBundleManifest.getManifestFile().getVirtualFile();
       VirtualFile fileFromSettings = getManifestFile();
@@ -0,0 +1,224 @@
+package org.osmorc.run;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.compiler.CompilerMessageCategory;
+import com.intellij.openapi.compiler.DummyCompileContext;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.Ref;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osmorc.frameworkintegration.LibraryBundlificationRule;
+import org.osmorc.make.BundleCompiler;
+import org.osmorc.run.ui.SelectedBundle;
+import org.osmorc.settings.ApplicationSettings;
+import org.osmorc.util.OsgiFileUtil;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the results of launch preparation between runs: the bundlified libraries of every module and the final, sorted bundle list of
+ * every run configuration, each together with a fingerprint (url, size and timestamp) of the files it was computed from.
+ * <p/>
+ * On relaunch, only modules whose libraries changed are bundlified again (in parallel, under the indicator of the launching task),
+ * and the bundle list is reused as long as neither the run configuration nor any of the bundle files changed.
+ */
+public class OsgiLaunchCache {
+  private static final Logger LOG = Logger.getInstance("#org.osmorc.run.OsgiLaunchCache");
+
+  private final ConcurrentMap<String, CachedValue<String[]>> myLibraryBundles = ContainerUtil.newConcurrentMap();
+  private final Map<OsgiRunConfiguration, CachedValue<List<SelectedBundle>>> myBundleLists =
+    Collections.synchronizedMap(new WeakHashMap<OsgiRunConfiguration, CachedValue<List<SelectedBundle>>>());
+
+  public static OsgiLaunchCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, OsgiLaunchCache.class);
+  }
+
+  /**
+   * Returns urls of the bundlified runtime libraries of each of the given modules (see {@link BundleCompiler#bundlifyLibraries}).
+   * Modules whose libraries did not change since the last call are served from the cache, the others are bundlified in parallel.
+   * Results of modules where a library failed to bundlify are not cached.
+   * The workers run under the given indicator, so the bundled jars are written in its modality state; a library shared by several
+   * modules is only bundlified once (see {@link org.osmorc.make.BndWrapper#wrapLibrary}).
+   */
+  @NotNull
+  public Map<Module, String[]> getLibraryBundles(@NotNull Collection<Module> modules, @NotNull final ProgressIndicator indicator) {
+    Map<Module, String[]> result = new LinkedHashMap<Module, String[]>();
+    Map<Module, String> outdated = new LinkedHashMap<Module, String>();
+    String rulesFingerprint = getRulesFingerprint();
+
+    for (Module module : modules) {
+      String fingerprint = rulesFingerprint + getFingerprint(Arrays.asList(BundleCompiler.getLibraryUrls(module)));
+      CachedValue<String[]> cached = myLibraryBundles.get(module.getName());
+      if (cached != null && cached.fingerprint.equals(fingerprint) && allExist(cached.value)) {
+        result.put(module, cached.value);
+      }
+      else {
+        outdated.put(module, fingerprint);
+      }
+    }
+
+    Map<Module, Future<Pair<String[], Boolean>>> futures = new LinkedHashMap<Module, Future<Pair<String[], Boolean>>>();
+    for (final Module module : outdated.keySet()) {
+      futures.put(module, ApplicationManager.getApplication().executeOnPooledThread(new Callable<Pair<String[], Boolean>>() {
+        @Override
+        public Pair<String[], Boolean> call() throws Exception {
+          final Ref<String[]> bundles = Ref.create(ArrayUtil.EMPTY_STRING_ARRAY);
+          final ProblemTrackingContext context = new ProblemTrackingContext();
+          ProgressManager.getInstance().executeProcessUnderProgress(new Runnable() {
+            @Override
+            public void run() {
+              bundles.set(BundleCompiler.bundlifyLibraries(module, indicator, context));
+            }
+          }, indicator);
+          return Pair.create(bundles.get(), !context.hasProblems());
+        }
+      }));
+    }
+
+    for (Map.Entry<Module, Future<Pair<String[], Boolean>>> entry : futures.entrySet()) {
+      Module module = entry.getKey();
+      Pair<String[], Boolean> bundles = getResult(entry.getValue());
+      if (bundles.second) {
+        myLibraryBundles.put(module.getName(), new CachedValue<String[]>(outdated.get(module), bundles.first));
+      }
+      else {
+        // libraries which failed to bundlify are missing from the result, so they are retried on the next launch
+        myLibraryBundles.remove(module.getName());
+      }
+      result.put(module, bundles.first);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the bundle list computed by the last launch of the given run configuration, if the configuration and all of the
+   * given bundles are unchanged since then.
+   */
+  @Nullable
+  public List<SelectedBundle> getBundleList(@NotNull OsgiRunConfiguration configuration, @NotNull Collection<SelectedBundle> bundles) {
+    CachedValue<List<SelectedBundle>> cached = myBundleLists.get(configuration);
+    return cached != null && cached.fingerprint.equals(getFingerprint(configuration, bundles)) ? cached.value : null;
+  }
+
+  public void putBundleList(@NotNull OsgiRunConfiguration configuration,
+                            @NotNull Collection<SelectedBundle> bundles,
+                            @NotNull List<SelectedBundle> bundleList) {
+    myBundleLists.put(configuration, new CachedValue<List<SelectedBundle>>(getFingerprint(configuration, bundles), bundleList));
+  }
+
+  /**
+   * Returns the bundle urls and whether they are complete, i.e. no library failed to bundlify.
+   */
+  @NotNull
+  private static Pair<String[], Boolean> getResult(@NotNull Future<Pair<String[], Boolean>> future) {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof ProcessCanceledException) {
+        throw (ProcessCanceledException)e.getCause();
+      }
+      LOG.error(e.getCause());
+      return Pair.create(ArrayUtil.EMPTY_STRING_ARRAY, false);
+    }
+  }
+
+  @NotNull
+  private static String getFingerprint(@NotNull OsgiRunConfiguration configuration, @NotNull Collection<SelectedBundle> bundles) {
+    // the bundles come from a hash set, so sort them to get a stable fingerprint
+    List<String> entries = new ArrayList<String>(bundles.size());
+    List<String> urls = new ArrayList<String>(bundles.size());
+    for (SelectedBundle bundle : bundles) {
+      entries.add(bundle.getName() + ':' + bundle.getBundleUrl() + ':' + bundle.getBundleType() + ':' +
+                  bundle.getStartLevel() + ':' + bundle.isStartAfterInstallation());
+      ContainerUtil.addIfNotNull(bundle.getBundleUrl(), urls);
+    }
+    Collections.sort(entries);
+    Collections.sort(urls);
+
+    StringBuilder builder = new StringBuilder();
+    builder.append(configuration.getDefaultStartLevel()).append('\n');
+    for (String entry : entries) {
+      builder.append(entry).append('\n');
+    }
+    return builder.append(getFingerprint(urls)).toString();
+  }
+
+  @NotNull
+  private static String getFingerprint(@NotNull Collection<String> urls) {
+    StringBuilder builder = new StringBuilder();
+    for (String url : urls) {
+      File file = new File(OsgiFileUtil.urlToPath(BundleCompiler.convertJarUrlToFileUrl(url)));
+      builder.append(url).append(':').append(file.length()).append(':').append(file.lastModified()).append('\n');
+    }
+    return builder.toString();
+  }
+
+  @NotNull
+  private static String getRulesFingerprint() {
+    long lastModified = 0;
+    List<LibraryBundlificationRule> rules = ServiceManager.getService(ApplicationSettings.class).getLibraryBundlificationRules();
+    for (LibraryBundlificationRule rule : rules) {
+      lastModified = Math.max(lastModified, rule.getLastModified());
+    }
+    return rules.size() + ":" + lastModified + "\n";
+  }
+
+  private static boolean allExist(@NotNull String[] urls) {
+    for (String url : urls) {
+      if (!new File(OsgiFileUtil.urlToPath(url)).exists()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compile context which remembers whether errors or warnings were reported, as {@link org.osmorc.make.BndWrapper#wrapLibrary}
+   * reports its failures this way and skips the library.
+   */
+  private static class ProblemTrackingContext extends DummyCompileContext {
+    private volatile boolean myHasProblems;
+
+    @Override
+    public void addMessage(CompilerMessageCategory category, String message, String url, int lineNum, int columnNum) {
+      if (category == CompilerMessageCategory.ERROR || category == CompilerMessageCategory.WARNING) {
+        LOG.warn(message);
+        myHasProblems = true;
+      }
+    }
+
+    public boolean hasProblems() {
+      return myHasProblems;
+    }
+  }
+
+  private static class CachedValue<T> {
+    private final String fingerprint;
+    private final T value;
+
+    private CachedValue(@NotNull String fingerprint, @NotNull T value) {
+      this.fingerprint = fingerprint;
+      this.value = value;
+    }
+  }
+}
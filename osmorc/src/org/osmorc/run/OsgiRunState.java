@@ -29,7 +29,6 @@ import com.intellij.execution.ExecutionException;
 import com.intellij.execution.configurations.JavaCommandLineState;
 import com.intellij.execution.configurations.JavaParameters;
 import com.intellij.execution.runners.ExecutionEnvironment;
-import com.intellij.openapi.compiler.DummyCompileContext;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleManager;
 import com.intellij.openapi.progress.ProgressIndicator;
@@ -89,14 +88,11 @@ public class OsgiRunState extends JavaCommandLineState {
         progressIndicator.setIndeterminate(false);
 
         try {
-          Set<SelectedBundle> selectedBundles = new HashSet<SelectedBundle>();
           // the bundles are module names, by now we try to find jar files in the output directory which we can then install
+          List<SelectedBundle> bundlesToDeploy = myRunConfiguration.getBundlesToDeploy();
           ModuleManager moduleManager = ModuleManager.getInstance(myRunConfiguration.getProject());
-          int bundleCount = myRunConfiguration.getBundlesToDeploy().size();
-          for (int i = 0; i < bundleCount; i++) {
-            progressIndicator.setFraction((double)i / bundleCount);
-
-            SelectedBundle selectedBundle = myRunConfiguration.getBundlesToDeploy().get(i);
+          List<Module> modules = ContainerUtil.newArrayList();
+          for (SelectedBundle selectedBundle : bundlesToDeploy) {
             if (selectedBundle.isModule()) {
               // use the output jar name if it is a module
               Module module = moduleManager.findModuleByName(selectedBundle.getName());
@@ -109,11 +105,28 @@ public class OsgiRunState extends JavaCommandLineState {
                 throw new CantRunException("Module '" + selectedBundle.getName() + "' has no OSGi facet, but should have." +
                                            " Please re-add the OSGi facet to this module.");
               }
+              modules.add(module);
+            }
+          }
+
+          // bundlify the library dependencies of modules which changed since the last launch
+          OsgiLaunchCache launchCache = OsgiLaunchCache.getInstance(myRunConfiguration.getProject());
+          progressIndicator.setText("Bundling non-OSGi libraries");
+          Map<Module, String[]> libraryBundles = launchCache.getLibraryBundles(modules, progressIndicator);
+
+          Set<SelectedBundle> selectedBundles = new HashSet<SelectedBundle>();
+          Iterator<Module> moduleIterator = modules.iterator();
+          int bundleCount = bundlesToDeploy.size();
+          for (int i = 0; i < bundleCount; i++) {
+            progressIndicator.setFraction((double)i / bundleCount);
+
+            SelectedBundle selectedBundle = bundlesToDeploy.get(i);
+            if (selectedBundle.isModule()) {
+              Module module = moduleIterator.next();
               selectedBundle.setBundleUrl(new URL("file", "/", BundleCompiler.getJarFileName(module)).toString());
               selectedBundles.add(selectedBundle);
               // add all the library dependencies of the bundle
-              String[] depUrls = BundleCompiler.bundlifyLibraries(module, progressIndicator, DummyCompileContext.getInstance());
-              for (String depUrl : depUrls) {
+              for (String depUrl : libraryBundles.get(module)) {
                 SelectedBundle dependency = new SelectedBundle("Dependency", depUrl, SelectedBundle.BundleType.PlainLibrary);
                 selectedBundles.add(dependency);
               }
@@ -128,6 +141,20 @@ public class OsgiRunState extends JavaCommandLineState {
             }
           }
 
+          // nothing changed since the last launch
+          List<SelectedBundle> cachedBundles = launchCache.getBundleList(myRunConfiguration, selectedBundles);
+          if (cachedBundles != null) {
+            result.set(cachedBundles);
+            return;
+          }
+
+          // read manifests of all bundles at once
+          List<String> bundleUrls = ContainerUtil.newArrayList();
+          for (SelectedBundle selectedBundle : selectedBundles) {
+            ContainerUtil.addIfNotNull(selectedBundle.getBundleUrl(), bundleUrls);
+          }
+          CachingBundleInfoProvider.cacheBundles(bundleUrls);
+
           // filter out bundles which have the same symbolic name
           Map<String, SelectedBundle> filteredBundles = new HashMap<String, SelectedBundle>();
           for (SelectedBundle selectedBundle : selectedBundles) {
@@ -141,6 +168,7 @@ public class OsgiRunState extends JavaCommandLineState {
 
           List<SelectedBundle> sortedBundles = ContainerUtil.newArrayList(filteredBundles.values());
           Collections.sort(sortedBundles, new StartLevelComparator());
+          launchCache.putBundleList(myRunConfiguration, selectedBundles, sortedBundles);
           result.set(sortedBundles);
         }
         catch (CantRunException e) {
@@ -25,6 +25,10 @@ public class TestManifestHolder extends AbstractManifestHolderImpl {
     return myManifest;
   }
 
+  public void setManifest(@NotNull ManifestFile lightFile) {
+    myManifest = new BundleManifestImpl(lightFile);
+  }
+
   public void setBoundObject(@Nullable Object boundObject) {
     myBoundObject = boundObject;
   }
@@ -25,6 +25,7 @@
 
 package org.osmorc.frameworkintegration;
 
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.testFramework.fixtures.IdeaProjectTestFixture;
 import com.intellij.testFramework.fixtures.IdeaTestFixtureFactory;
 import com.intellij.testFramework.fixtures.TempDirTestFixture;
@@ -37,6 +38,9 @@ import org.junit.runner.RunWith;
 import org.osmorc.SwingRunner;
 import org.osmorc.TestUtil;
 
+import java.io.File;
+import java.util.Arrays;
+
 /**
  * @author Robert F. Beeger (robert@beeger.net)
  */
@@ -94,4 +98,27 @@ public class CachingBundleInfoProviderTest {
         assertThat(CachingBundleInfoProvider.isFragmentBundle(jarbundleUrl), equalTo(false));
         assertThat(CachingBundleInfoProvider.isFragmentBundle(invaliddirbundleUrl), equalTo(false));
     }
+
+    @Test
+    public void testChangedManifestIsReread() throws Exception {
+        File bundleDir = new File(myTempDirFixture.getTempDirPath(), "changingbundle");
+        File manifestFile = new File(bundleDir, "META-INF/MANIFEST.MF");
+        FileUtil.writeToFile(manifestFile, "Manifest-Version: 1.0\nBundle-SymbolicName: changing\nBundle-Version: 1.0.0\n");
+        assertThat(CachingBundleInfoProvider.getBundleVersion(bundleDir), equalTo("1.0.0"));
+
+        FileUtil.writeToFile(manifestFile, "Manifest-Version: 1.0\nBundle-SymbolicName: changing\nBundle-Version: 1.0.10\n");
+        assertThat(CachingBundleInfoProvider.getBundleVersion(bundleDir), equalTo("1.0.10"));
+    }
+
+    @Test
+    public void testCacheManifests() throws Exception {
+        File dirBundle = new File(myTempDirFixture.getFile("t0/dirbundle").getPath());
+        File jarBundle = new File(myTempDirFixture.getFile("t0/jarbundle.jar").getPath());
+        File invalidDirBundle = new File(myTempDirFixture.getFile("t0/invaliddirbundle").getPath());
+        CachingBundleInfoProvider.cacheManifests(Arrays.asList(dirBundle, jarBundle, invalidDirBundle));
+
+        assertThat(CachingBundleInfoProvider.getBundleSymbolicName(dirBundle), equalTo("dirbundle"));
+        assertThat(CachingBundleInfoProvider.getBundleSymbolicName(jarBundle), equalTo("jarbundle"));
+        assertThat(CachingBundleInfoProvider.getBundleSymbolicName(invalidDirBundle), equalTo(null));
+    }
 }
@@ -107,6 +107,43 @@ public class BundleCacheTest extends LightIdeaTestCase {
     assertThat(bundleManifest.getBundleVersion().toString(), equalTo("1.2.3"));
   }
 
+  public void testPackageProviders() throws ManifestHolderDisposedException {
+    Set<ManifestHolder> providers = myCache.whoProvides("foo.bam;version=\"[1.2.1,2.0.0)\"");
+    assertThat(providers.size(), is(1));
+    assertThat(getManifest(providers.iterator().next()).getBundleVersion().toString(), equalTo("1.2.3"));
+
+    assertThat(myCache.whoProvides("foo.bam").size(), is(2));
+    assertThat(myCache.whoProvides("foo.bar.naff").size(), is(1));
+    assertThat(myCache.whoProvides("foo.unknown").size(), is(0));
+  }
+
+  public void testFragmentsForBundle() throws ManifestHolderDisposedException {
+    ManifestHolder host = myCache.whoIsRequiredBundle("foo.bar");
+    assertThat(host, notNullValue());
+    Set<ManifestHolder> fragments = myCache.getFragmentsForBundle(host);
+    assertThat(fragments.size(), is(1));
+    assertThat(fragments.iterator().next(), sameInstance(myFragmentHolder));
+  }
+
+  public void testManifestHolderByBoundObject() {
+    Object boundObject = new Object();
+    TestManifestHolder holder = (TestManifestHolder)makeManifestHolder(
+      "MANIFEST6.MF",
+      "Bundle-SymbolicName: foo.qux\n" +
+      "Bundle-Version: 1.0.0\n" +
+      "Export-Package: foo.qux");
+    holder.setBoundObject(boundObject);
+    assertThat(myCache.updateWith(holder), is(true));
+    assertThat(myCache.updateWith(holder), is(false));
+
+    assertThat(myCache.getManifestHolder(boundObject), sameInstance((ManifestHolder)holder));
+    assertThat(myCache.whoProvides("foo.qux").size(), is(1));
+
+    myCache.clear();
+    assertThat(myCache.getManifestHolder(boundObject), nullValue());
+    assertThat(myCache.whoProvides("foo.qux").size(), is(0));
+  }
+
   private static ManifestHolder makeManifestHolder(String fileName, String text) {
     return new TestManifestHolder((ManifestFile)createLightFile(fileName, text));
   }
@@ -11,7 +11,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.lang.manifest.psi.ManifestFile;
 import org.osmorc.TestManifestHolder;
-import org.osmorc.manifest.ManifestHolder;
 import org.osmorc.manifest.impl.ManifestHolderRegistryImpl;
 
 import java.util.Set;
@@ -22,6 +21,7 @@ import java.util.concurrent.FutureTask;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -234,7 +234,63 @@ public class BundleManagerTest extends LightIdeaTestCase {
     assertThat(objects.size(), is(6)); // no more, no less
   }
 
-  private static ManifestHolder makeHolder(@NotNull String fileName, @NotNull String contents, @Nullable Object boundObject) {
+  /**
+   * Tests that resolved dependencies are kept in the wiring graph and updated when a new provider of an imported package is added.
+   */
+  public void testWiringUpdate() {
+    myBundleManager.addManifestHolder(makeHolder(
+      "MyManifest.MF",
+      "Bundle-SymbolicName: foo.bar\n" +
+      "Bundle-Version: 1.0.0\n" +
+      "Import-Package: org.foo.api\n" +
+      "Require-Bundle: org.eclipse.ui",
+      getModule()));
+
+    Set<Object> objects = myBundleManager.resolveDependenciesOf(getModule());
+    assertThat(objects.size(), is(3));
+    assertThat(myBundleManager.getDependents("org.eclipse.core.expressions").contains(getModule()), is(true));
+    assertThat(myBundleManager.getDependents("org.eclipse.circular.one").isEmpty(), is(true));
+
+    myBundleManager.addManifestHolder(makeHolder(
+      "Manifest9.MF",
+      "Bundle-SymbolicName: org.foo\n" +
+      "Bundle-Version: 1.0.0\n" +
+      "Export-Package: org.foo.api",
+      "org.foo"));
+
+    objects = myBundleManager.resolveDependenciesOf(getModule());
+    assertThat(objects.contains("org.foo"), is(true));
+    assertThat(objects.size(), is(4));
+    assertThat(myBundleManager.getDependents("org.foo").contains(getModule()), is(true));
+  }
+
+  /**
+   * Tests that lookups see the changes of an edited manifest.
+   */
+  public void testChangedManifestIsReindexedOnLookup() {
+    TestManifestHolder holder = makeHolder(
+      "MyManifest.MF",
+      "Bundle-SymbolicName: foo.bar\n" +
+      "Bundle-Version: 1.0.0\n" +
+      "Export-Package: foo.bar.api",
+      getModule());
+    myBundleManager.addManifestHolder(holder);
+    assertThat(myBundleManager.isProvided("foo.bar.api"), is(true));
+
+    holder.setManifest((ManifestFile)createLightFile(
+      "MyManifest.MF",
+      "Bundle-SymbolicName: foo.baz\n" +
+      "Bundle-Version: 1.0.0\n" +
+      "Export-Package: foo.bar.impl"));
+    myBundleManager.manifestChanged(holder);
+
+    assertThat(myBundleManager.isProvided("foo.bar.api"), is(false));
+    assertThat(myBundleManager.isProvided("foo.bar.impl"), is(true));
+    assertThat(myBundleManager.getManifestBySymbolicName("foo.baz"), notNullValue());
+    assertThat(myBundleManager.getManifestBySymbolicName("foo.bar"), nullValue());
+  }
+
+  private static TestManifestHolder makeHolder(@NotNull String fileName, @NotNull String contents, @Nullable Object boundObject) {
     TestManifestHolder result = new TestManifestHolder((ManifestFile)createLightFile(fileName, contents));
     result.setBoundObject(boundObject);
     return result;
@@ -0,0 +1,96 @@
+package org.osmorc.inspection;
+
+import com.intellij.testFramework.LightIdeaTestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.lang.manifest.psi.ManifestFile;
+import org.osmorc.TestManifestHolder;
+import org.osmorc.impl.BundleManagerImpl;
+import org.osmorc.manifest.BundleManifest;
+import org.osmorc.manifest.impl.ManifestHolderRegistryImpl;
+
+/**
+ * Checks {@link PackageVisibilityMap} lookups against plain manifest queries on a generated multi-bundle setup.
+ */
+public class PackageVisibilityMapTest extends LightIdeaTestCase {
+  private static final int BUNDLES = 40;
+  private static final int PACKAGES_PER_BUNDLE = 10;
+  private static final int REQUIRED_BUNDLES = 5;
+
+  private BundleManagerImpl myBundleManager;
+
+  @Override
+  public void setUp() throws Exception {
+    super.setUp();
+
+    myBundleManager = new BundleManagerImpl(new ManifestHolderRegistryImpl(getProject()), getProject());
+    for (int i = 0; i < BUNDLES; i++) {
+      StringBuilder exports = new StringBuilder();
+      for (int j = 0; j < PACKAGES_PER_BUNDLE; j++) {
+        if (j > 0) exports.append(",\n ");
+        exports.append(packageName(i, j)).append(";version=1.0.").append(j);
+      }
+      addBundle("MANIFEST" + i + ".MF",
+                "Bundle-SymbolicName: bundle" + i + "\n" +
+                "Bundle-Version: 1.0.0\n" +
+                "Export-Package: " + exports + "\n",
+                "bundle" + i);
+    }
+
+    StringBuilder imports = new StringBuilder();
+    for (int i = REQUIRED_BUNDLES; i < BUNDLES; i++) {
+      if (imports.length() > 0) imports.append(",\n ");
+      imports.append(packageName(i, i % PACKAGES_PER_BUNDLE));
+    }
+    StringBuilder requires = new StringBuilder();
+    for (int i = 0; i < REQUIRED_BUNDLES; i++) {
+      if (requires.length() > 0) requires.append(",\n ");
+      requires.append("bundle").append(i);
+    }
+    addBundle("MANIFEST.MF",
+              "Bundle-SymbolicName: requestor\n" +
+              "Bundle-Version: 1.0.0\n" +
+              "Import-Package: " + imports + "\n" +
+              "Require-Bundle: " + requires + "\n",
+              getModule());
+  }
+
+  public void testExportedPackageLookup() {
+    PackageVisibilityMap map = new PackageVisibilityMap(myBundleManager, getModule());
+
+    for (int bundle = 0; bundle < BUNDLES; bundle++) {
+      BundleManifest manifest = myBundleManager.getManifestByObject("bundle" + bundle);
+      assertNotNull(manifest);
+      for (int pkg = 0; pkg < PACKAGES_PER_BUNDLE; pkg++) {
+        String packageName = packageName(bundle, pkg);
+        assertEquals(manifest.getExportedPackage(packageName + ".sub"), map.getExportedPackage("bundle" + bundle, packageName + ".sub"));
+        assertEquals(packageName, map.getExportedPackage("bundle" + bundle, packageName));
+      }
+      assertNull(map.getExportedPackage("bundle" + bundle, "unknown.pkg"));
+    }
+  }
+
+  public void testVisibility() {
+    PackageVisibilityMap map = new PackageVisibilityMap(myBundleManager, getModule());
+
+    for (int bundle = 0; bundle < BUNDLES; bundle++) {
+      for (int pkg = 0; pkg < PACKAGES_PER_BUNDLE; pkg++) {
+        String packageName = packageName(bundle, pkg);
+        // everything exported by required bundles is visible, other bundles only contribute the imported package
+        boolean expected = bundle < REQUIRED_BUNDLES || pkg == bundle % PACKAGES_PER_BUNDLE;
+        assertEquals(packageName, expected, map.isVisible(packageName));
+      }
+    }
+    assertFalse(map.isVisible("unknown.pkg"));
+  }
+
+  @NotNull
+  private static String packageName(int bundle, int pkg) {
+    return "org.example.b" + bundle + ".p" + pkg;
+  }
+
+  private void addBundle(@NotNull String fileName, @NotNull String text, @NotNull Object boundObject) {
+    TestManifestHolder holder = new TestManifestHolder((ManifestFile)createLightFile(fileName, text));
+    holder.setBoundObject(boundObject);
+    myBundleManager.addManifestHolder(holder);
+  }
+}
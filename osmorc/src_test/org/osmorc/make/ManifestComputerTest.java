@@ -0,0 +1,79 @@
+package org.osmorc.make;
+
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.LightIdeaTestCase;
+
+import java.util.*;
+
+/**
+ * Test for {@link ManifestComputer}.
+ */
+public class ManifestComputerTest extends LightIdeaTestCase {
+  public void testAnalyze() {
+    PsiJavaFile file = (PsiJavaFile)createLightFile("Foo.java",
+      "package foo.bar;\n" +
+      "import java.util.List;\n" +
+      "import org.osgi.framework.*;\n" +
+      "import static javax.swing.SwingUtilities.invokeLater;\n" +
+      "public class Foo extends org.foo.Base implements Runnable {\n" +
+      "  private List<org.bar.Bar> myBars;\n" +
+      "  public void run() {\n" +
+      "    myBars.size();\n" +
+      "    new org.baz.Baz().run();\n" +
+      "  }\n" +
+      "}\n");
+
+    ManifestComputer.FileInfo info = ManifestComputer.analyze(file);
+    assertEquals("foo.bar", info.getPackageName());
+    assertEquals(new HashSet<String>(Arrays.asList("java.util", "org.osgi.framework", "javax.swing", "org.foo", "org.bar", "org.baz")),
+                 info.getReferencedPackages());
+
+    PsiJavaFile defaultPackageFile = (PsiJavaFile)createLightFile("Bar.java", "class Bar { }");
+    assertEquals(ManifestComputer.DEFAULT_PACKAGE, ManifestComputer.analyze(defaultPackageFile).getPackageName());
+  }
+
+  public void testGetPackageName() {
+    assertEquals("java.util", ManifestComputer.getPackageName(Arrays.asList("java", "util", "Map", "Entry"), false));
+    assertEquals("java.util", ManifestComputer.getPackageName(Arrays.asList("java", "util"), true));
+    assertNull(ManifestComputer.getPackageName(Arrays.asList("java", "util"), false));
+    assertNull(ManifestComputer.getPackageName(Arrays.asList("Map", "Entry"), false));
+  }
+
+  public void testOsmorcControlledManifest() {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    properties.put("Bundle-SymbolicName", "foo.bar");
+    properties.put("Bundle-Version", "1.0.0");
+
+    String text = ManifestComputer.buildManifestText(properties, true,
+                                                     Arrays.asList("foo.bar", "foo.bar.impl", ManifestComputer.DEFAULT_PACKAGE),
+                                                     Arrays.asList("java.util", "org.osgi.framework", "foo.bar", "javax.swing"));
+    assertEquals("Manifest-Version: 1.0\n" +
+                 "Bundle-ManifestVersion: 2\n" +
+                 "Bundle-SymbolicName: foo.bar\n" +
+                 "Bundle-Version: 1.0.0\n" +
+                 "Export-Package: foo.bar\n" +
+                 "Import-Package: javax.swing,\n" +
+                 " org.osgi.framework\n", text);
+  }
+
+  public void testBndInstructions() {
+    Map<String, String> properties = new LinkedHashMap<String, String>();
+    properties.put("-classpath", "lib");
+    properties.put("Bundle-SymbolicName", "foo.bar");
+    properties.put("Export-Package", "!foo.bar.impl.*, foo.bar.*;version=1.2");
+    properties.put("Import-Package", "!javax.*, org.osgi.*;version=\"[1.5,2)\", org.slf4j;resolution:=optional, *");
+    properties.put("Private-Package", "foo.bar.impl.*");
+
+    String text = ManifestComputer.buildManifestText(properties, false,
+                                                     Arrays.asList("foo.bar", "foo.bar.api", "foo.bar.impl"),
+                                                     Arrays.asList("javax.swing", "org.osgi.framework", "org.foo"));
+    assertEquals("Manifest-Version: 1.0\n" +
+                 "Bundle-ManifestVersion: 2\n" +
+                 "Bundle-SymbolicName: foo.bar\n" +
+                 "Export-Package: foo.bar;version=1.2,\n" +
+                 " foo.bar.api;version=1.2\n" +
+                 "Import-Package: org.osgi.framework;version=\"[1.5,2)\",\n" +
+                 " org.slf4j;resolution:=optional,\n" +
+                 " org.foo\n", text);
+  }
+}
@@ -0,0 +1,131 @@
+package org.osmorc.manifest.impl;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.LightIdeaTestCase;
+import org.osgi.framework.Version;
+import org.osmorc.manifest.BundleManifest;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Test for {@link BundleManifestIndex} and {@link IndexedBundleManifest}.
+ */
+public class BundleManifestIndexTest extends LightIdeaTestCase {
+  private static final String MANIFEST =
+    "Manifest-Version: 1.0\n" +
+    "Bundle-SymbolicName: foo.bar;singleton:=true\n" +
+    "Bundle-Version: 1.2.3\n" +
+    "Bundle-Activator: foo.bar.Activator\n" +
+    "Export-Package: foo.bar.baz;version=1.0.0,foo.bar.bam;foo.bar.bax;uses:=\"foo.bar.baz,foo.bar.bam\"\n" +
+    "Import-Package: org.osgi.framework;version=\"[1.5,2.0)\",javax.swing\n" +
+    "Require-Bundle: foo.req;bundle-version=\"[1.0,2.0)\";visibility:=reexport\n" +
+    "Bundle-ClassPath: .,lib/a.jar\n";
+
+  private static final String FRAGMENT =
+    "Manifest-Version: 1.0\n" +
+    "Bundle-SymbolicName: foo.bar.fragment\n" +
+    "Fragment-Host: foo.bar;bundle-version=\"[1.0,2.0)\"\n";
+
+  public void testParse() throws IOException {
+    BundleManifestIndex.ManifestData data = BundleManifestIndex.parse(MANIFEST.getBytes("UTF-8"));
+
+    assertEquals("foo.bar", data.getSymbolicName());
+    assertEquals("1.2.3", data.getVersion());
+    assertEquals("foo.bar.Activator", data.getActivator());
+    assertEquals(Arrays.asList("foo.bar.baz", "foo.bar.bam", "foo.bar.bax"), data.getExportedPackages());
+    assertEquals(Arrays.asList("org.osgi.framework;version=\"[1.5,2.0)\"", "javax.swing"), data.getImports());
+    assertEquals(Arrays.asList("foo.req;bundle-version=\"[1.0,2.0)\";visibility:=reexport"), data.getRequiredBundles());
+    assertEquals(Arrays.asList(".", "lib/a.jar"), data.getBundleClassPath());
+    assertNull(data.getFragmentHost());
+
+    BundleManifestIndex.ManifestData fragment = BundleManifestIndex.parse(FRAGMENT.getBytes("UTF-8"));
+    assertEquals("foo.bar;bundle-version=\"[1.0,2.0)\"", fragment.getFragmentHost());
+    assertNull(fragment.getVersion());
+    assertTrue(fragment.getExportedPackages().isEmpty());
+  }
+
+  public void testIndexedManifest() throws IOException {
+    BundleManifest manifest = getManifest("MANIFEST.MF", MANIFEST);
+    BundleManifest fragment = getManifest("FRAGMENT.MF", FRAGMENT);
+
+    assertEquals(new Version(1, 2, 3), manifest.getBundleVersion());
+    assertEquals(new Version(0, 0, 0), fragment.getBundleVersion());
+    assertEquals("foo.bar.bam", manifest.getExportedPackage("foo.bar.bam.sub"));
+    assertNull(manifest.getExportedPackage("foo.bar"));
+    assertTrue(manifest.isPackageImported("javax.swing"));
+    assertFalse(manifest.isPackageImported("javax.swing2"));
+
+    assertTrue(manifest.isPackageExported("foo.bar.baz;version=\"[1.0,2.0)\""));
+    assertFalse(manifest.isPackageExported("foo.bar.baz;version=2.0"));
+    assertFalse(manifest.isPackageExported("foo.bar.unknown"));
+    assertTrue(manifest.isRequiredBundle("foo.bar;bundle-version=1.0"));
+    assertFalse(manifest.isRequiredBundle("foo.baz"));
+
+    assertFalse(manifest.isFragmentBundle());
+    assertTrue(fragment.isFragmentBundle());
+    assertTrue(manifest.isFragmentHostFor(fragment));
+    assertFalse(fragment.isFragmentHostFor(manifest));
+
+    assertEquals(Arrays.asList("foo.req;bundle-version=\"[1.0,2.0)\";visibility:=reexport"), manifest.getReExportedBundles());
+  }
+
+  public void testLookup() throws IOException {
+    VirtualFile manifestFile = createManifestFile("foo", MANIFEST);
+    VirtualFile fragmentFile = createManifestFile("bar", FRAGMENT);
+
+    BundleManifestIndex.ManifestData data = BundleManifestIndex.getManifestData(getProject(), manifestFile);
+    assertNotNull(data);
+    assertEquals("foo.bar", data.getSymbolicName());
+    assertEquals(Arrays.asList("foo.bar.baz", "foo.bar.bam", "foo.bar.bax"), data.getExportedPackages());
+
+    BundleManifestIndex.ManifestData fragment = BundleManifestIndex.getManifestData(getProject(), fragmentFile);
+    assertNotNull(fragment);
+    assertEquals("foo.bar.fragment", fragment.getSymbolicName());
+    assertEquals("foo.bar;bundle-version=\"[1.0,2.0)\"", fragment.getFragmentHost());
+
+    setContent(manifestFile, FRAGMENT.replace("foo.bar.fragment", "foo.bar.changed"));
+    data = BundleManifestIndex.getManifestData(getProject(), manifestFile);
+    assertNotNull(data);
+    assertEquals("foo.bar.changed", data.getSymbolicName());
+  }
+
+  private static VirtualFile createManifestFile(final String dirName, final String text) {
+    return ApplicationManager.getApplication().runWriteAction(new Computable<VirtualFile>() {
+      @Override
+      public VirtualFile compute() {
+        try {
+          VirtualFile metaInf = getSourceRoot().createChildDirectory(null, dirName).createChildDirectory(null, "META-INF");
+          VirtualFile file = metaInf.createChildData(null, "MANIFEST.MF");
+          file.setBinaryContent(text.getBytes("UTF-8"));
+          return file;
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  private static void setContent(final VirtualFile file, final String text) {
+    ApplicationManager.getApplication().runWriteAction(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          file.setBinaryContent(text.getBytes("UTF-8"));
+        }
+        catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+  }
+
+  private static BundleManifest getManifest(String fileName, String text) throws IOException {
+    PsiFile file = createLightFile(fileName, text);
+    return new IndexedBundleManifest(getProject(), file.getVirtualFile(), BundleManifestIndex.parse(text.getBytes("UTF-8")));
+  }
+}
@@ -18,6 +18,7 @@ package com.intellij.lang.ognl.psi;
 import com.intellij.lang.ognl.OgnlLanguage;
 import com.intellij.navigation.ItemPresentation;
 import com.intellij.psi.PsiReference;
+import com.intellij.psi.util.PsiTreeUtil;
 import org.intellij.lang.annotations.Language;
 
 /**
@@ -62,6 +63,36 @@ public class ReferenceExpressionPsiTest extends PsiTestCase {
     assertEquals("@a.b.some@thing", reference.getCanonicalText());
   }
 
+  public void testPropertyReferences() {
+    final OgnlReferenceExpression expression = parse("exp.sub");
+    assertEquals(2, expression.getReferences().length);
+    assertSame(expression.getReferences(), expression.getReferences());
+  }
+
+  public void testMethodNameHasNoPropertyReference() {
+    final OgnlMethodCallExpression methodCallExpression = (OgnlMethodCallExpression)parseSingleExpression("exp.sub(arg)");
+    final OgnlReferenceExpression method = (OgnlReferenceExpression)methodCallExpression.getMethod();
+    final PsiReference[] references = method.getReferences();
+    assertEquals(1, references.length);
+    assertEquals("exp", references[0].getCanonicalText());
+
+    final OgnlReferenceExpression argument = (OgnlReferenceExpression)methodCallExpression.getExpressionList().get(1);
+    assertEquals(1, argument.getReferences().length);
+  }
+
+  public void testNewExpressionClassNameHasNoPropertyReference() {
+    final OgnlExpression newExpression = parseSingleExpression("new a.b.C(arg)");
+    final OgnlReferenceExpression className = PsiTreeUtil.findChildOfType(newExpression, OgnlReferenceExpression.class);
+    assertNotNull(className);
+    assertEquals("a.b.C", className.getText());
+    assertEquals(0, className.getReferences().length);
+
+    final OgnlReferenceExpression[] expressions = PsiTreeUtil.getChildrenOfType(newExpression, OgnlReferenceExpression.class);
+    assertNotNull(expressions);
+    assertEquals(2, expressions.length);
+    assertEquals(1, expressions[1].getReferences().length);
+  }
+
   private OgnlReferenceExpression parse(@Language(value = OgnlLanguage.ID,
                                                   prefix = OgnlLanguage.EXPRESSION_PREFIX,
                                                   suffix = OgnlLanguage.EXPRESSION_SUFFIX) final String expression) {
@@ -18,20 +18,35 @@ package com.intellij.lang.ognl.psi.impl;
 import com.intellij.ide.projectView.PresentationData;
 import com.intellij.lang.ASTNode;
 import com.intellij.lang.ognl.OgnlTypes;
+import com.intellij.lang.ognl.psi.OgnlMethodCallExpression;
+import com.intellij.lang.ognl.psi.OgnlNewExpression;
+import com.intellij.lang.ognl.psi.OgnlVariableExpression;
+import com.intellij.lang.ognl.psi.resolve.property.OgnlPropertyReference;
 import com.intellij.navigation.ItemPresentation;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.PsiReferenceBase;
+import com.intellij.psi.PsiWhiteSpace;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.PlatformIcons;
+import com.intellij.util.SmartList;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 /**
  * @author Yann C&eacute;bron
  */
 abstract class OgnlReferenceExpressionBase extends OgnlExpressionImpl {
 
+  private static final Key<CachedValue<PsiReference[]>> REFERENCES_KEY = Key.create("OGNL_REFERENCE_EXPRESSION_REFERENCES");
+
   protected OgnlReferenceExpressionBase(@NotNull ASTNode node) {
     super(node);
   }
@@ -48,6 +63,74 @@ abstract class OgnlReferenceExpressionBase extends OgnlExpressionImpl {
     return findNotNullChildByType(OgnlTypes.IDENTIFIER);
   }
 
+  /**
+   * Returns one {@link OgnlPropertyReference} per property in path, static references, method names and
+   * class names in {@code new} expressions are not resolved.
+   */
+  @NotNull
+  @Override
+  public PsiReference[] getReferences() {
+    CachedValue<PsiReference[]> references = getUserData(REFERENCES_KEY);
+    if (references == null) {
+      references = CachedValuesManager.getManager(getProject()).createCachedValue(
+        new CachedValueProvider<PsiReference[]>() {
+          @Override
+          public Result<PsiReference[]> compute() {
+            return Result.create(createReferences(), OgnlReferenceExpressionBase.this);
+          }
+        }, false);
+      putUserData(REFERENCES_KEY, references);
+    }
+    return references.getValue();
+  }
+
+  private PsiReference[] createReferences() {
+    final PsiElement previous = PsiTreeUtil.skipSiblingsBackward(this, PsiWhiteSpace.class);
+    if (getParent() instanceof OgnlNewExpression &&
+        previous != null &&
+        previous.getNode().getElementType() == OgnlTypes.NEW_KEYWORD) {
+      return PsiReference.EMPTY_ARRAY;
+    }
+
+    final ASTNode[] children = getNode().getChildren(null);
+    for (ASTNode child : children) {
+      if (child.getElementType() == OgnlTypes.AT) {
+        return PsiReference.EMPTY_ARRAY;
+      }
+    }
+
+    final OgnlVariableExpression variableExpression = PsiTreeUtil.getChildOfType(this, OgnlVariableExpression.class);
+    final String variableName = variableExpression != null ? variableExpression.getText().substring(1) : null;
+
+    // last identifier is the method name in "referenceExpression '('"
+    final PsiElement next = PsiTreeUtil.skipSiblingsForward(this, PsiWhiteSpace.class);
+    final boolean isMethodCall = getParent() instanceof OgnlMethodCallExpression &&
+                                 next != null &&
+                                 next.getNode().getElementType() == OgnlTypes.LPARENTH;
+
+    final List<ASTNode> identifiers = new SmartList<ASTNode>();
+    for (ASTNode child : children) {
+      if (child.getElementType() == OgnlTypes.IDENTIFIER) {
+        identifiers.add(child);
+      }
+    }
+    if (isMethodCall && !identifiers.isEmpty()) {
+      identifiers.remove(identifiers.size() - 1);
+    }
+
+    final List<PsiReference> references = new SmartList<PsiReference>();
+    OgnlPropertyReference qualifier = null;
+    for (ASTNode identifier : identifiers) {
+      final TextRange range = TextRange.from(identifier.getStartOffset() - getNode().getStartOffset(),
+                                             identifier.getTextLength());
+      final OgnlPropertyReference reference =
+        new OgnlPropertyReference(this, range, qualifier, qualifier == null ? variableName : null);
+      references.add(reference);
+      qualifier = reference;
+    }
+    return references.toArray(new PsiReference[references.size()]);
+  }
+
   @Override
   public PsiReference getReference() {
     return new PsiReferenceBase<PsiElement>(this, TextRange.from(0, getTextLength())) {
@@ -15,9 +15,11 @@
 
 package com.intellij.lang.ognl.psi.resolve;
 
+import com.intellij.lang.ognl.psi.resolve.property.OgnlValueStackContributor;
 import com.intellij.lang.ognl.psi.resolve.variable.OgnlVariableReference;
 import com.intellij.lang.ognl.psi.resolve.variable.OgnlVariableReferencesContributor;
 import com.intellij.openapi.extensions.Extensions;
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.util.Processor;
@@ -35,4 +37,13 @@ public class OgnlResolveUtil {
       }
     }
   }
+
+  public static void processValueStack(PsiElement element, Processor<PsiClass> processor) {
+    PsiFile ognlFile = element.getContainingFile();
+    for (OgnlValueStackContributor provider : Extensions.getExtensions(OgnlValueStackContributor.EXTENSION_POINT_NAME)) {
+      if (!provider.process(element, ognlFile, processor)) {
+        return;
+      }
+    }
+  }
 }
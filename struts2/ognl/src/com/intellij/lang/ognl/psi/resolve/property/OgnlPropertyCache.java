@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.lang.ognl.psi.resolve.property;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.CommonClassNames;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PropertyUtil;
+import com.intellij.psi.util.PsiModificationTracker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches bean properties (property name to getter, including inherited but not from {@code Object}) per class.
+ */
+public class OgnlPropertyCache {
+
+  private static final Key<CachedValue<Map<String, PsiMethod>>> PROPERTIES_KEY = Key.create("OGNL_BEAN_PROPERTIES");
+
+  private OgnlPropertyCache() {
+  }
+
+  @Nullable
+  public static PsiMethod findGetter(@NotNull PsiClass psiClass, @NotNull String propertyName) {
+    return getProperties(psiClass).get(propertyName);
+  }
+
+  @NotNull
+  public static Map<String, PsiMethod> getProperties(@NotNull final PsiClass psiClass) {
+    CachedValue<Map<String, PsiMethod>> properties = psiClass.getUserData(PROPERTIES_KEY);
+    if (properties == null) {
+      properties = CachedValuesManager.getManager(psiClass.getProject()).createCachedValue(
+        new CachedValueProvider<Map<String, PsiMethod>>() {
+          @Override
+          public Result<Map<String, PsiMethod>> compute() {
+            final Map<String, PsiMethod> getters = new HashMap<String, PsiMethod>();
+            for (Map.Entry<String, PsiMethod> entry : PropertyUtil.getAllProperties(psiClass, false, true).entrySet()) {
+              final PsiClass containingClass = entry.getValue().getContainingClass();
+              if (containingClass != null &&
+                  !CommonClassNames.JAVA_LANG_OBJECT.equals(containingClass.getQualifiedName())) {
+                getters.put(entry.getKey(), entry.getValue());
+              }
+            }
+            return Result.create(Collections.unmodifiableMap(getters),
+                                 PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT);
+          }
+        }, false);
+      psiClass.putUserData(PROPERTIES_KEY, properties);
+    }
+    return properties.getValue();
+  }
+}
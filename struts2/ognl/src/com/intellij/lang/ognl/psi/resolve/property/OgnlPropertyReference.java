@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.lang.ognl.psi.resolve.property;
+
+import com.intellij.codeInsight.lookup.LookupElementBuilder;
+import com.intellij.lang.ognl.psi.resolve.OgnlResolveUtil;
+import com.intellij.lang.ognl.psi.resolve.variable.OgnlVariableReference;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
+import com.intellij.psi.util.PsiUtil;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.PlatformIcons;
+import com.intellij.util.SmartList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reference to a bean property in a property path, e.g. {@code city} in {@code user.address.city}.
+ * <p/>
+ * Resolves to the property getter in the type of the qualifying property, the given variable or
+ * the value stack roots provided by {@link OgnlValueStackContributor}.
+ */
+public class OgnlPropertyReference extends PsiReferenceBase<PsiElement> {
+
+  private static final ResolveCache.AbstractResolver<OgnlPropertyReference, PsiMethod> RESOLVER =
+    new ResolveCache.AbstractResolver<OgnlPropertyReference, PsiMethod>() {
+      @Override
+      public PsiMethod resolve(@NotNull OgnlPropertyReference reference, boolean incompleteCode) {
+        return reference.doResolve();
+      }
+    };
+
+  @Nullable
+  private final OgnlPropertyReference myQualifier;
+
+  @Nullable
+  private final String myVariableName;
+
+  /**
+   * @param element      Reference expression.
+   * @param range        Range of property name.
+   * @param qualifier    Previous property in path, {@code null} for first property.
+   * @param variableName Qualifying variable name for first property, {@code null} for value stack.
+   */
+  public OgnlPropertyReference(@NotNull PsiElement element,
+                               @NotNull TextRange range,
+                               @Nullable OgnlPropertyReference qualifier,
+                               @Nullable String variableName) {
+    super(element, range, true);
+    myQualifier = qualifier;
+    myVariableName = variableName;
+  }
+
+  @Override
+  public PsiElement resolve() {
+    return ResolveCache.getInstance(getElement().getProject()).resolveWithCaching(this, RESOLVER, false, false);
+  }
+
+  @Nullable
+  private PsiMethod doResolve() {
+    final String propertyName = getValue();
+    for (PsiClass qualifierClass : getQualifierClasses()) {
+      final PsiMethod getter = OgnlPropertyCache.findGetter(qualifierClass, propertyName);
+      if (getter != null) {
+        return getter;
+      }
+    }
+    return null;
+  }
+
+  @NotNull
+  @Override
+  public Object[] getVariants() {
+    final List<Object> variants = new ArrayList<Object>();
+    for (PsiClass qualifierClass : getQualifierClasses()) {
+      for (Map.Entry<String, PsiMethod> entry : OgnlPropertyCache.getProperties(qualifierClass).entrySet()) {
+        final PsiType propertyType = entry.getValue().getReturnType();
+        variants.add(LookupElementBuilder.create(entry.getValue(), entry.getKey())
+                       .withIcon(PlatformIcons.PROPERTY_ICON)
+                       .withTypeText(propertyType != null ? propertyType.getPresentableText() : null));
+      }
+    }
+    return variants.toArray();
+  }
+
+  @NotNull
+  private List<PsiClass> getQualifierClasses() {
+    if (myQualifier != null) {
+      final PsiElement qualifierGetter = myQualifier.resolve();
+      if (!(qualifierGetter instanceof PsiMethod)) {
+        return Collections.emptyList();
+      }
+      return toClassList(((PsiMethod)qualifierGetter).getReturnType());
+    }
+
+    if (myVariableName != null) {
+      final CommonProcessors.FindFirstProcessor<OgnlVariableReference> processor =
+        new CommonProcessors.FindFirstProcessor<OgnlVariableReference>() {
+          @Override
+          protected boolean accept(OgnlVariableReference reference) {
+            return reference.getName().equals(myVariableName);
+          }
+        };
+      OgnlResolveUtil.processVariables(getElement(), processor);
+      final OgnlVariableReference variable = processor.getFoundValue();
+      return variable != null ? toClassList(variable.getType()) : Collections.<PsiClass>emptyList();
+    }
+
+    final List<PsiClass> valueStack = new SmartList<PsiClass>();
+    OgnlResolveUtil.processValueStack(getElement(), new CommonProcessors.CollectProcessor<PsiClass>(valueStack));
+    return valueStack;
+  }
+
+  private static List<PsiClass> toClassList(@Nullable PsiType type) {
+    final PsiClass psiClass = PsiUtil.resolveClassInType(type);
+    return psiClass != null ? Collections.singletonList(psiClass) : Collections.<PsiClass>emptyList();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.lang.ognl.psi.resolve.property;
+
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Provides the root objects on the value stack, used to resolve unqualified property paths.
+ */
+public abstract class OgnlValueStackContributor {
+
+  @NonNls
+  public static final ExtensionPointName<OgnlValueStackContributor> EXTENSION_POINT_NAME =
+    ExtensionPointName.create("com.intellij.ognl.valueStackContributor");
+
+  /**
+   * @param element        OGNL element.
+   * @param containingFile OGNL file.
+   * @param processor      Processes value stack root classes, topmost first.
+   * @return {@code false} to stop processing.
+   */
+  public abstract boolean process(@NotNull PsiElement element,
+                                  @NotNull PsiFile containingFile,
+                                  @NotNull Processor<PsiClass> processor);
+}
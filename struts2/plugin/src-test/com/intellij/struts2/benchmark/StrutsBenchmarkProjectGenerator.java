@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.benchmark;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Generates synthetic Struts 2 application files for benchmarks.
+ * <p/>
+ * Layout for {@code scale = n}:
+ * <ul>
+ * <li>{@code struts.xml} including {@code n} {@code struts-module<i>.xml} files</li>
+ * <li>each module contains a chain of {@link #PACKAGES_PER_MODULE} packages, every package extending the previous one</li>
+ * <li>each package defines {@link #ACTIONS_PER_PACKAGE} actions plus one wildcard action</li>
+ * <li>{@link #JSPS_PER_MODULE} JSPs per module using {@link #TAGS_PER_JSP} Struts UI tags referencing actions</li>
+ * </ul>
+ */
+class StrutsBenchmarkProjectGenerator {
+
+  static final int PACKAGES_PER_MODULE = 10;
+  static final int ACTIONS_PER_PACKAGE = 50;
+  static final int JSPS_PER_MODULE = 2;
+  static final int TAGS_PER_JSP = 100;
+
+  @NonNls
+  static final String ACTION_CLASS = "benchmark.BenchmarkAction";
+
+  private final int myScale;
+
+  StrutsBenchmarkProjectGenerator(final int scale) {
+    myScale = scale;
+  }
+
+  int getModulesCount() {
+    return myScale;
+  }
+
+  int getActionsCount() {
+    return myScale * PACKAGES_PER_MODULE * (ACTIONS_PER_PACKAGE + 1);
+  }
+
+  @NotNull
+  String getActionClassText() {
+    return "package benchmark;\n" +
+           "public class BenchmarkAction extends com.opensymphony.xwork2.ActionSupport {\n" +
+           "  public String getName() { return null; }\n" +
+           "  public String list() { return SUCCESS; }\n" +
+           "}";
+  }
+
+  @NotNull
+  String getRootStrutsXml() {
+    final StringBuilder sb = new StringBuilder();
+    appendHeader(sb);
+    sb.append("  <package name=\"base\" extends=\"struts-default\"/>\n");
+    for (int module = 0; module < myScale; module++) {
+      sb.append("  <include file=\"").append(getModuleStrutsXmlName(module)).append("\"/>\n");
+    }
+    sb.append("</struts>");
+    return sb.toString();
+  }
+
+  @NotNull
+  String getModuleStrutsXmlName(final int module) {
+    return "struts-module" + module + ".xml";
+  }
+
+  @NotNull
+  String getModuleStrutsXml(final int module) {
+    final StringBuilder sb = new StringBuilder();
+    appendHeader(sb);
+    for (int pkg = 0; pkg < PACKAGES_PER_MODULE; pkg++) {
+      final String parent = pkg == 0 ? "base" : getPackageName(module, pkg - 1);
+      sb.append("  <package name=\"").append(getPackageName(module, pkg))
+        .append("\" namespace=\"").append(getNamespace(module, pkg))
+        .append("\" extends=\"").append(parent).append("\">\n");
+      for (int action = 0; action < ACTIONS_PER_PACKAGE; action++) {
+        sb.append("    <action name=\"").append(getActionName(action)).append("\" class=\"").append(ACTION_CLASS).append("\">\n")
+          .append("      <result>/").append(getJspName(module, action % JSPS_PER_MODULE)).append("</result>\n")
+          .append("      <result name=\"input\">/").append(getJspName(module, 0)).append("</result>\n")
+          .append("    </action>\n");
+      }
+      sb.append("    <action name=\"*_crud\" class=\"").append(ACTION_CLASS).append("\" method=\"{1}\">\n")
+        .append("      <result>/").append(getJspName(module, 0)).append("</result>\n")
+        .append("    </action>\n");
+      sb.append("  </package>\n");
+    }
+    sb.append("</struts>");
+    return sb.toString();
+  }
+
+  @NotNull
+  String getJspName(final int module, final int jsp) {
+    return "module" + module + "-page" + jsp + ".jsp";
+  }
+
+  @NotNull
+  String getJsp(final int module) {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("<%@ taglib prefix=\"s\" uri=\"/struts-tags\" %>\n")
+      .append("<html><body>\n");
+    for (int tag = 0; tag < TAGS_PER_JSP; tag++) {
+      final int pkg = tag % PACKAGES_PER_MODULE;
+      final String namespace = getNamespace(module, pkg);
+      final String action = getActionName(tag % ACTIONS_PER_PACKAGE);
+      switch (tag % 3) {
+        case 0:
+          sb.append("<s:url action=\"").append(action).append("\" namespace=\"").append(namespace).append("\"/>\n");
+          break;
+        case 1:
+          sb.append("<s:form action=\"").append(action).append("\" namespace=\"").append(namespace).append("\">\n")
+            .append("  <s:textfield name=\"name\" cssClass=\"field\"/>\n")
+            .append("</s:form>\n");
+          break;
+        default:
+          sb.append("<s:a action=\"list_crud\" namespace=\"").append(namespace).append("\">link</s:a>\n");
+      }
+    }
+    sb.append("</body></html>");
+    return sb.toString();
+  }
+
+  @NotNull
+  String getPackageName(final int module, final int pkg) {
+    return "module" + module + "_package" + pkg;
+  }
+
+  @NotNull
+  String getNamespace(final int module, final int pkg) {
+    return "/module" + module + "/ns" + pkg;
+  }
+
+  @NotNull
+  String getActionName(final int action) {
+    return "action" + action;
+  }
+
+  private static void appendHeader(final StringBuilder sb) {
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+              "<!DOCTYPE struts PUBLIC\n" +
+              "    \"-//Apache Software Foundation//DTD Struts Configuration 2.0//EN\"\n" +
+              "    \"http://struts.apache.org/dtds/struts-2.0.dtd\">\n" +
+              "<struts>\n");
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.benchmark;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects benchmark measurements and writes them as CSV report.
+ * <p/>
+ * Every value is also printed as TeamCity {@code buildStatisticValue} service message, so regressions show up in CI statistics charts.
+ * The report directory can be set via system property {@value #REPORT_DIR_PROPERTY}, defaults to {@code [system]/struts2-benchmark}.
+ */
+class StrutsBenchmarkReport {
+
+  @NonNls
+  static final String REPORT_DIR_PROPERTY = "struts2.benchmark.report.dir";
+
+  private final String myName;
+  private final Map<String, Long> myValues = new LinkedHashMap<String, Long>();
+
+  StrutsBenchmarkReport(@NotNull @NonNls final String name) {
+    myName = name;
+  }
+
+  /**
+   * Runs the given task and records its duration.
+   *
+   * @param key  Measurement key.
+   * @param task Task to measure.
+   * @return Duration in ms.
+   */
+  long measure(@NotNull @NonNls final String key, @NotNull final Runnable task) {
+    final long start = System.nanoTime();
+    task.run();
+    final long duration = (System.nanoTime() - start) / 1000000;
+    record(key, duration);
+    return duration;
+  }
+
+  void record(@NotNull @NonNls final String key, final long value) {
+    myValues.put(key, value);
+    System.out.println("##teamcity[buildStatisticValue key='struts2." + myName + "." + key + "' value='" + value + "']");
+  }
+
+  void write() throws IOException {
+    final StringBuilder sb = new StringBuilder("key,value\n");
+    for (final Map.Entry<String, Long> entry : myValues.entrySet()) {
+      sb.append(entry.getKey()).append(',').append(entry.getValue()).append('\n');
+    }
+
+    final File reportFile = new File(getReportDir(), myName + ".csv");
+    FileUtil.writeToFile(reportFile, sb.toString());
+    System.out.println("Benchmark report written to " + reportFile.getAbsolutePath());
+  }
+
+  private static File getReportDir() {
+    final String reportDir = System.getProperty(REPORT_DIR_PROPERTY);
+    if (reportDir != null) {
+      return new File(reportDir);
+    }
+    return new File(PathManager.getSystemPath(), "struts2-benchmark");
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.benchmark;
+
+import com.intellij.javaee.web.facet.WebFacet;
+import com.intellij.openapi.util.Ref;
+import com.intellij.psi.PsiFile;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.struts2.dom.struts.model.StrutsManager;
+import com.intellij.struts2.dom.struts.model.StrutsModel;
+import com.intellij.struts2.facet.StrutsFacet;
+import com.intellij.struts2.facet.StrutsFacetConfiguration;
+import com.intellij.struts2.facet.ui.StrutsFileSet;
+import com.intellij.testFramework.LightProjectDescriptor;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Benchmarks model building, model lookups and JSP highlighting on a generated application.
+ * <p/>
+ * Size is controlled via system property {@value #SCALE_PROPERTY} (number of included struts.xml "modules", default 1),
+ * results are written via {@link StrutsBenchmarkReport}.
+ */
+public class StrutsBenchmarkTest extends BasicLightHighlightingTestCase {
+
+  @NonNls
+  private static final String SCALE_PROPERTY = "struts2.benchmark.scale";
+
+  private static final int LOOKUP_COUNT = 1000;
+
+  private StrutsBenchmarkProjectGenerator myGenerator;
+  private StrutsBenchmarkReport myReport;
+
+  @NotNull
+  @Override
+  protected String getTestDataLocation() {
+    return "";
+  }
+
+  @NotNull
+  @Override
+  protected LightProjectDescriptor getProjectDescriptor() {
+    return createWebDescriptor();
+  }
+
+  @Override
+  protected void performSetUp() throws Exception {
+    final WebFacet webFacet = ContainerUtil.getFirstItem(WebFacet.getInstances(myModule));
+    assert webFacet != null;
+    webFacet.addWebRoot(myFixture.getTempDirFixture().getFile("").getUrl(), "/");
+
+    myGenerator = new StrutsBenchmarkProjectGenerator(Integer.getInteger(SCALE_PROPERTY, 1));
+    myReport = new StrutsBenchmarkReport(getTestName(true));
+    generateProject();
+  }
+
+  @Override
+  protected void performTearDown() throws Exception {
+    myReport.write();
+  }
+
+  public void testModelBuild() throws Throwable {
+    final Ref<StrutsModel> model = Ref.create();
+    myReport.measure("combinedModel", new Runnable() {
+      @Override
+      public void run() {
+        model.set(StrutsManager.getInstance(getProject()).getCombinedModel(myModule));
+        assertNotNull(model.get());
+        model.get().getStrutsPackages();
+      }
+    });
+
+    final int packagesCount = myGenerator.getModulesCount() * StrutsBenchmarkProjectGenerator.PACKAGES_PER_MODULE + 1;
+    assertEquals(packagesCount, model.get().getStrutsPackages().size());
+
+    myReport.measure("allModels", new Runnable() {
+      @Override
+      public void run() {
+        assertNotEmpty(StrutsManager.getInstance(getProject()).getAllModels(myModule));
+      }
+    });
+  }
+
+  public void testModelLookups() throws Throwable {
+    final StrutsModel model = StrutsManager.getInstance(getProject()).getCombinedModel(myModule);
+    assertNotNull(model);
+
+    final long findByName = myReport.measure("findActionsByName", new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+          final int module = i % myGenerator.getModulesCount();
+          final int pkg = i % StrutsBenchmarkProjectGenerator.PACKAGES_PER_MODULE;
+          model.findActionsByName(myGenerator.getActionName(i % StrutsBenchmarkProjectGenerator.ACTIONS_PER_PACKAGE),
+                                  myGenerator.getNamespace(module, pkg));
+        }
+      }
+    });
+    myReport.record("findActionsByName.perLookupMicros", findByName * 1000 / LOOKUP_COUNT);
+
+    final long wildcard = myReport.measure("findActionsByName.wildcard", new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+          model.findActionsByName("list_crud", myGenerator.getNamespace(i % myGenerator.getModulesCount(), 0));
+        }
+      }
+    });
+    myReport.record("findActionsByName.wildcard.perLookupMicros", wildcard * 1000 / LOOKUP_COUNT);
+
+    myReport.measure("getActionsForNamespace.all", new Runnable() {
+      @Override
+      public void run() {
+        assertEquals(myGenerator.getActionsCount(), model.getActionsForNamespace(null).size());
+      }
+    });
+  }
+
+  public void testJspHighlighting() throws Throwable {
+    long total = 0;
+    long max = 0;
+    for (int module = 0; module < myGenerator.getModulesCount(); module++) {
+      for (int jsp = 0; jsp < StrutsBenchmarkProjectGenerator.JSPS_PER_MODULE; jsp++) {
+        final String jspName = myGenerator.getJspName(module, jsp);
+        myFixture.configureFromTempProjectFile(jspName);
+        final long duration = myReport.measure("highlighting." + jspName, new Runnable() {
+          @Override
+          public void run() {
+            myFixture.doHighlighting();
+          }
+        });
+        total += duration;
+        max = Math.max(max, duration);
+      }
+    }
+
+    final int jspCount = myGenerator.getModulesCount() * StrutsBenchmarkProjectGenerator.JSPS_PER_MODULE;
+    myReport.record("highlighting.average", total / jspCount);
+    myReport.record("highlighting.max", max);
+  }
+
+  private void generateProject() {
+    myFixture.addClass(myGenerator.getActionClassText());
+
+    final StrutsFacet strutsFacet = StrutsFacet.getInstance(myModule);
+    assertNotNull(strutsFacet);
+    final StrutsFacetConfiguration facetConfiguration = strutsFacet.getConfiguration();
+    final StrutsFileSet fileSet = new StrutsFileSet("benchmark", "benchmark", facetConfiguration);
+
+    final PsiFile rootStrutsXml = myFixture.addFileToProject(STRUTS_XML, myGenerator.getRootStrutsXml());
+    fileSet.addFile(rootStrutsXml.getVirtualFile());
+
+    for (int module = 0; module < myGenerator.getModulesCount(); module++) {
+      final PsiFile moduleStrutsXml = myFixture.addFileToProject(myGenerator.getModuleStrutsXmlName(module),
+                                                                 myGenerator.getModuleStrutsXml(module));
+      fileSet.addFile(moduleStrutsXml.getVirtualFile());
+
+      for (int jsp = 0; jsp < StrutsBenchmarkProjectGenerator.JSPS_PER_MODULE; jsp++) {
+        myFixture.addFileToProject(myGenerator.getJspName(module, jsp), myGenerator.getJsp(module));
+      }
+    }
+
+    facetConfiguration.getFileSets().add(fileSet);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.validator;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.util.Function;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Tests for {@link ValidatorManager}.
+ */
+public class ValidatorManagerTest extends BasicLightHighlightingTestCase {
+
+  @Override
+  @NotNull
+  protected String getTestDataLocation() {
+    return "validationXml/manager";
+  }
+
+  public void testFindValidationFilesFor() throws Throwable {
+    myFixture.copyFileToProject("com/MyAction.java");
+    myFixture.copyFileToProject("com/MyAction-validation.xml");
+    myFixture.copyFileToProject("com/MyAction-alias-validation.xml");
+    myFixture.copyFileToProject("com/MyActionOther-validation.xml");
+
+    final PsiClass myAction = myFixture.findClass("com.MyAction");
+    final List<XmlFile> files = ValidatorManager.getInstance(getProject()).findValidationFilesFor(myAction);
+    final List<String> fileNames = ContainerUtil.map(files, new Function<XmlFile, String>() {
+      @Override
+      public String fun(final XmlFile xmlFile) {
+        return xmlFile.getName();
+      }
+    });
+    assertSameElements(fileNames, "MyAction-validation.xml", "MyAction-alias-validation.xml");
+  }
+
+  public void testGetActionClassName() throws Throwable {
+    assertEquals("MyAction", ValidationFileIndex.getActionClassName("MyAction-validation.xml"));
+    assertEquals("MyAction", ValidationFileIndex.getActionClassName("MyAction-alias-validation.xml"));
+    assertNull(ValidationFileIndex.getActionClassName("validation.xml"));
+    assertNull(ValidationFileIndex.getActionClassName("-validation.xml"));
+  }
+}
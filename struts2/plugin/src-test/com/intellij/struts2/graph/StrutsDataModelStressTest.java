@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.graph;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.model.StrutsManager;
+import com.intellij.struts2.dom.struts.model.StrutsModel;
+import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.struts2.facet.StrutsFacet;
+import com.intellij.struts2.facet.StrutsFacetConfiguration;
+import com.intellij.struts2.facet.ui.StrutsFileSet;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Builds {@link StrutsDataModel} for a generated struts.xml with 5000 actions and measures build/update latency.
+ */
+public class StrutsDataModelStressTest extends BasicLightHighlightingTestCase {
+
+  private static final int PACKAGES_COUNT = 50;
+  private static final int ACTIONS_PER_PACKAGE = 100;
+
+  @NotNull
+  @Override
+  protected String getTestDataLocation() {
+    return "";
+  }
+
+  public void testIncrementalUpdate() throws Throwable {
+    final XmlFile strutsXml = (XmlFile) myFixture.addFileToProject("struts.xml", generateStrutsXml());
+    final StrutsFacet strutsFacet = StrutsFacet.getInstance(myModule);
+    assertNotNull(strutsFacet);
+    final StrutsFacetConfiguration facetConfiguration = strutsFacet.getConfiguration();
+    final StrutsFileSet fileSet = new StrutsFileSet("test", "test", facetConfiguration);
+    fileSet.addFile(strutsXml.getVirtualFile());
+    facetConfiguration.getFileSets().add(fileSet);
+
+    final StrutsDataModel dataModel = new StrutsDataModel(strutsXml);
+
+    final int collapsedNodesCount = dataModel.getNodes().size();
+
+    assertTrue(dataModel.isClusteringMode());
+    assertEquals(PACKAGES_COUNT, collapsedNodesCount);
+    assertEquals(PACKAGES_COUNT, dataModel.getRebuiltClustersCount());
+
+    final StrutsModel strutsModel = StrutsManager.getInstance(getProject()).getModelByFile(strutsXml);
+    assertNotNull(strutsModel);
+    final StrutsPackage firstPackage = strutsModel.getStrutsPackages().get(0);
+
+    dataModel.setExpanded(firstPackage, true);
+    assertEquals(PACKAGES_COUNT - 1 + 2 * ACTIONS_PER_PACKAGE, dataModel.getNodes().size());
+
+    final Action action = firstPackage.getActions().get(0);
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        action.getName().setStringValue("renamedAction");
+      }
+    }.execute().throwException();
+    dataModel.markDirty(action);
+
+    assertEquals(PACKAGES_COUNT - 1 + 2 * ACTIONS_PER_PACKAGE, dataModel.getNodes().size());
+
+    assertEquals("only changed package must be rebuilt", PACKAGES_COUNT + 1, dataModel.getRebuiltClustersCount());
+  }
+
+  private static String generateStrutsXml() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n" +
+              "<!DOCTYPE struts PUBLIC\n" +
+              "    \"-//Apache Software Foundation//DTD Struts Configuration 2.0//EN\"\n" +
+              "    \"http://struts.apache.org/dtds/struts-2.0.dtd\">\n" +
+              "<struts>\n");
+    for (int i = 0; i < PACKAGES_COUNT; i++) {
+      sb.append("  <package name=\"package").append(i).append("\" namespace=\"/ns").append(i).append("\"");
+      if (i > 0) {
+        sb.append(" extends=\"package").append(i - 1).append("\"");
+      }
+      sb.append(">\n");
+      for (int j = 0; j < ACTIONS_PER_PACKAGE; j++) {
+        sb.append("    <action name=\"action").append(j).append("\">\n")
+          .append("      <result>/result").append(j).append(".jsp</result>\n")
+          .append("    </action>\n");
+      }
+      sb.append("  </package>\n");
+    }
+    sb.append("</struts>");
+    return sb.toString();
+  }
+}
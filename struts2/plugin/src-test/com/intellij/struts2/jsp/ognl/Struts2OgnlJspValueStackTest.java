@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.struts2.jsp.ognl;
+
+import com.intellij.javaee.web.facet.WebFacet;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.testFramework.LightProjectDescriptor;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * @see OgnlStruts2JspValueStackContributor
+ */
+public class Struts2OgnlJspValueStackTest extends BasicLightHighlightingTestCase {
+
+  @Override
+  @NotNull
+  protected String getTestDataLocation() {
+    return "/jsp/ognl/valueStack";
+  }
+
+  @NotNull
+  @Override
+  protected LightProjectDescriptor getProjectDescriptor() {
+    return createWebDescriptor();
+  }
+
+  @Override
+  protected void performSetUp() throws Exception {
+    final WebFacet webFacet = ContainerUtil.getFirstItem(WebFacet.getInstances(myModule));
+    assert webFacet != null;
+    webFacet.addWebRoot(myFixture.getTempDirFixture().getFile("").getUrl(), "/");
+  }
+
+  public void testActionPropertyPathCompletion() {
+    myFixture.copyFileToProject("com/UserAction.java");
+    createStrutsFileSet("struts-valuestack.xml");
+
+    myFixture.testCompletionVariants("struts2-jsp-property-completion.jsp", "city", "street");
+  }
+}
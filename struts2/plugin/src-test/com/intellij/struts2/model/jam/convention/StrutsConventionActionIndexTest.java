@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.struts2.model.jam.convention;
+
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Tests for {@link StrutsConventionActionIndex}.
+ */
+public class StrutsConventionActionIndexTest extends JamConventionLightTestCase {
+
+  @NotNull
+  @Override
+  protected String getTestDataFolder() {
+    return "actionIndex";
+  }
+
+  public void testActionName() throws Exception {
+    assertEquals("user-profile", StrutsConventionActionIndex.toActionName("UserProfileAction"));
+    assertEquals("hello", StrutsConventionActionIndex.toActionName("HelloAction"));
+  }
+
+  public void testClassNameMapping() throws Exception {
+    myFixture.copyFileToProject("com/example/actions/admin/UserProfileAction.java");
+
+    final ConventionActionMapping mapping = assertOneElement(findActions("user-profile", "/admin"));
+    assertEquals("com.example.actions.admin.UserProfileAction", mapping.getClassName());
+    assertNull(mapping.getMethodName());
+    assertEquals("/WEB-INF/content/admin/user-profile", mapping.getResultLocationPrefix());
+  }
+
+  public void testAbsoluteActionAnnotation() throws Exception {
+    myFixture.copyFileToProject("com/example/actions/admin/UserProfileAction.java");
+
+    final ConventionActionMapping mapping = assertOneElement(findActions("edit", "/global"));
+    assertEquals("edit", mapping.getMethodName());
+    assertEmpty(findActions("edit", "/admin"));
+  }
+
+  public void testActionsAnnotation() throws Exception {
+    myFixture.copyFileToProject("com/example/actions/admin/UserProfileAction.java");
+
+    assertOneElement(findActions("view", "/admin"));
+    final ConventionActionMapping show = assertOneElement(findActions("show", "/admin"));
+    assertInstanceOf(show.resolve(myFixture.getJavaFacade(), GlobalSearchScope.allScope(getProject())), PsiMethod.class);
+  }
+
+  public void testActionsForNamespace() throws Exception {
+    myFixture.copyFileToProject("com/example/actions/admin/UserProfileAction.java");
+
+    final GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+    final List<ConventionActionMapping> admin = StrutsConventionActionIndex.findActionsForNamespace("/admin", scope);
+    assertSize(3, admin);
+    final ConventionActionMapping global =
+      assertOneElement(StrutsConventionActionIndex.findActionsForNamespace("/global", scope));
+    assertEquals("edit", global.getName());
+    assertSize(4, StrutsConventionActionIndex.findActionsForNamespace(null, scope));
+  }
+
+  public void testCandidatePrefilter() throws Exception {
+    assertTrue(StrutsConventionActionIndex.isCandidate("package com.example.actions.admin;\nclass UserAction {}"));
+    assertTrue(StrutsConventionActionIndex.isCandidate(
+      "package com.example;\nimport org.apache.struts2.convention.annotation.Action;\nclass Some {}"));
+    assertFalse(StrutsConventionActionIndex.isCandidate("package com.example.actions;\nclass Helper {}"));
+    assertFalse(StrutsConventionActionIndex.isCandidate("package com.example.service;\nclass UserAction {}"));
+  }
+
+  private List<ConventionActionMapping> findActions(final String name, final String namespace) {
+    return StrutsConventionActionIndex.findActions(name, namespace, GlobalSearchScope.allScope(getProject()));
+  }
+}
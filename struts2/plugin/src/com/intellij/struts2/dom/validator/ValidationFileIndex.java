@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.validator;
+
+import com.intellij.ide.highlighter.XmlFileType;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Maps {@code ActionClass-[ActionPath-]validation.xml} files to the simple name of their action class.
+ * <p/>
+ * Depends on file name only, so no content needs to be loaded during indexing.
+ */
+public class ValidationFileIndex extends ScalarIndexExtension<String> {
+
+  private static final ID<String, Void> NAME = ID.create("struts2.validation.xml");
+
+  @NonNls
+  private static final String VALIDATION_XML_SUFFIX = "-validation.xml";
+
+  private final KeyDescriptor<String> myKeyDescriptor = new EnumeratorStringDescriptor();
+
+  @NotNull
+  @Override
+  public ID<String, Void> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, Void, FileContent> getIndexer() {
+    return new DataIndexer<String, Void, FileContent>() {
+      @NotNull
+      @Override
+      public Map<String, Void> map(@NotNull final FileContent inputData) {
+        final String className = getActionClassName(inputData.getFileName());
+        if (className == null) {
+          return Collections.emptyMap();
+        }
+        return Collections.singletonMap(className, null);
+      }
+    };
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return myKeyDescriptor;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(XmlFileType.INSTANCE) {
+      @Override
+      public boolean acceptInput(@NotNull final VirtualFile file) {
+        return StringUtil.endsWith(file.getName(), VALIDATION_XML_SUFFIX);
+      }
+    };
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return false;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  /**
+   * Returns all validation.xml files for the given action class name.
+   *
+   * @param className Simple name of action class.
+   * @param scope     Search scope, usually the package of the action class.
+   * @return Matching files, not checked for valid content.
+   */
+  @NotNull
+  static Collection<VirtualFile> getValidationFiles(@NotNull final String className,
+                                                    @NotNull final GlobalSearchScope scope) {
+    return FileBasedIndex.getInstance().getContainingFiles(NAME, className, scope);
+  }
+
+  /**
+   * Extracts the action class name from {@code ActionClass-validation.xml} or
+   * {@code ActionClass-alias-validation.xml}.
+   *
+   * @param fileName File name.
+   * @return {@code null} if not a validation.xml file name.
+   */
+  @Nullable
+  static String getActionClassName(@NotNull final String fileName) {
+    if (!StringUtil.endsWith(fileName, VALIDATION_XML_SUFFIX)) {
+      return null;
+    }
+
+    final int classNameEnd = fileName.indexOf('-');
+    if (classNameEnd <= 0) {
+      return null;
+    }
+    return fileName.substring(0, classNameEnd);
+  }
+
+}
@@ -18,29 +18,33 @@ package com.intellij.struts2.dom.validator;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ResourceFileUtil;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Comparing;
-import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.PackageScope;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.util.PsiUtilCore;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.struts2.dom.validator.config.ValidatorConfig;
 import com.intellij.struts2.dom.validator.config.ValidatorsConfig;
 import com.intellij.struts2.facet.ui.StrutsVersionDetector;
-import com.intellij.util.Function;
-import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.SmartList;
 import com.intellij.util.xml.DomFileElement;
 import com.intellij.util.xml.DomManager;
-import com.intellij.util.xml.DomService;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -55,6 +59,12 @@ public class ValidatorManagerImpl extends ValidatorManager {
   @NonNls
   private static final String VALIDATORS_DEFAULT_XML = "default.xml";
 
+  /**
+   * Caches merged default and custom validators per module.
+   */
+  private static final Key<CachedValue<List<ValidatorConfig>>> KEY_VALIDATORS =
+      Key.create("STRUTS2_VALIDATORS");
+
   public boolean isValidatorsFile(@NotNull final XmlFile xmlFile) {
     return DomManager.getDomManager(xmlFile.getProject()).getFileElement(xmlFile, Validators.class) != null;
   }
@@ -69,6 +79,25 @@ public class ValidatorManagerImpl extends ValidatorManager {
   }
 
   public List<ValidatorConfig> getValidators(@NotNull final Module module) {
+    CachedValue<List<ValidatorConfig>> validators = module.getUserData(KEY_VALIDATORS);
+    if (validators == null) {
+      final Project project = module.getProject();
+      validators = CachedValuesManager.getManager(project).createCachedValue(
+          new CachedValueProvider<List<ValidatorConfig>>() {
+            public Result<List<ValidatorConfig>> compute() {
+              return Result.create(computeValidators(module),
+                                   PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT,
+                                   ProjectRootManager.getInstance(project));
+            }
+          }, false);
+
+      module.putUserData(KEY_VALIDATORS, validators);
+    }
+
+    return validators.getValue();
+  }
+
+  private List<ValidatorConfig> computeValidators(@NotNull final Module module) {
     final PsiFile validatorsFile = getValidatorConfigFile(module);
     if (validatorsFile == null) {
       return Collections.emptyList();
@@ -128,6 +157,11 @@ public class ValidatorManagerImpl extends ValidatorManager {
   @NotNull
   @Override
   public List<XmlFile> findValidationFilesFor(@NotNull final PsiClass clazz) {
+    final String className = clazz.getName();
+    if (className == null) {
+      return Collections.emptyList();
+    }
+
     final PsiFile psiFile = clazz.getContainingFile().getOriginalFile();
     final PsiDirectory containingDirectory = psiFile.getContainingDirectory();
     if (containingDirectory == null) {
@@ -140,24 +174,21 @@ public class ValidatorManagerImpl extends ValidatorManager {
     }
 
     final PackageScope searchScope = new PackageScope(containingPackage, false, true);
-    final List<DomFileElement<Validators>> validationRoots =
-        DomService.getInstance().getFileElements(Validators.class, clazz.getProject(), searchScope);
-
-    final List<DomFileElement<Validators>> filtered =
-        ContainerUtil.filter(validationRoots, new Condition<DomFileElement<Validators>>() {
-          @Override
-          public boolean value(final DomFileElement<Validators> validatorDomFileElement) {
-            final String fileName = validatorDomFileElement.getFile().getName();
-            return StringUtil.startsWith(fileName, clazz.getName());
-          }
-        });
-
-    return ContainerUtil.map(filtered, new Function<DomFileElement<Validators>, XmlFile>() {
-      @Override
-      public XmlFile fun(final DomFileElement<Validators> validatorsDomFileElement) {
-        return validatorsDomFileElement.getFile();
+    final Collection<VirtualFile> validationFiles = ValidationFileIndex.getValidationFiles(className, searchScope);
+    if (validationFiles.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final PsiManager psiManager = clazz.getManager();
+    final List<XmlFile> result = new SmartList<XmlFile>();
+    for (final VirtualFile validationFile : validationFiles) {
+      final PsiFile file = psiManager.findFile(validationFile);
+      if (file instanceof XmlFile &&
+          isValidatorsFile((XmlFile) file)) {
+        result.add((XmlFile) file);
       }
-    });
+    }
+    return result;
   }
 
   /**
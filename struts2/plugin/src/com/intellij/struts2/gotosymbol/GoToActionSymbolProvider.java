@@ -17,10 +17,15 @@ package com.intellij.struts2.gotosymbol;
 
 import com.intellij.navigation.NavigationItem;
 import com.intellij.openapi.module.Module;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.struts2.dom.struts.action.Action;
 import com.intellij.struts2.dom.struts.model.StrutsManager;
 import com.intellij.struts2.dom.struts.model.StrutsModel;
 import com.intellij.struts2.facet.StrutsFacet;
+import com.intellij.struts2.model.jam.convention.ConventionActionMapping;
+import com.intellij.struts2.model.jam.convention.StrutsConventionActionIndex;
 import com.intellij.util.Processor;
 import com.intellij.util.xml.model.gotosymbol.GoToSymbolProvider;
 import icons.Struts2Icons;
@@ -41,6 +46,8 @@ public class GoToActionSymbolProvider extends GoToSymbolProvider {
   }
 
   protected void addNames(@NotNull final Module module, final Set<String> result) {
+    result.addAll(StrutsConventionActionIndex.getAllActionNames(module.getProject()));
+
     final StrutsModel strutsModel = StrutsManager.getInstance(module.getProject()).getCombinedModel(module);
     if (strutsModel == null) {
       return;
@@ -55,6 +62,8 @@ public class GoToActionSymbolProvider extends GoToSymbolProvider {
   }
 
   protected void addItems(@NotNull final Module module, final String name, final List<NavigationItem> result) {
+    addConventionItems(module, name, result);
+
     final StrutsModel strutsModel = StrutsManager.getInstance(module.getProject()).getCombinedModel(module);
     if (strutsModel == null) {
       return;
@@ -70,4 +79,17 @@ public class GoToActionSymbolProvider extends GoToSymbolProvider {
     }
   }
 
+  private void addConventionItems(@NotNull final Module module, final String name, final List<NavigationItem> result) {
+    final JavaPsiFacade javaPsiFacade = JavaPsiFacade.getInstance(module.getProject());
+    final GlobalSearchScope scope = GlobalSearchScope.moduleWithDependenciesScope(module);
+    for (final ConventionActionMapping mapping : StrutsConventionActionIndex.findActions(name, null, scope)) {
+      final PsiElement element = mapping.resolve(javaPsiFacade, scope);
+      if (element != null) {
+        result.add(createNavigationItem(element,
+                                        mapping.getName() + " [" + mapping.getNamespace() + "]",
+                                        Struts2Icons.Action));
+      }
+    }
+  }
+
 }
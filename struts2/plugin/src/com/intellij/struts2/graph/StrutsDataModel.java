@@ -24,6 +24,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlElement;
 import com.intellij.psi.xml.XmlFile;
+import com.intellij.struts2.dom.struts.StrutsRoot;
 import com.intellij.struts2.dom.struts.action.Action;
 import com.intellij.struts2.dom.struts.action.Result;
 import com.intellij.struts2.dom.struts.model.StrutsManager;
@@ -32,37 +33,64 @@ import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
 import com.intellij.struts2.graph.beans.ActionNode;
 import com.intellij.struts2.graph.beans.BasicStrutsEdge;
 import com.intellij.struts2.graph.beans.BasicStrutsNode;
+import com.intellij.struts2.graph.beans.PackageNode;
 import com.intellij.struts2.graph.beans.ResultNode;
 import com.intellij.ui.Colors;
 import com.intellij.ui.Gray;
 import com.intellij.util.containers.HashSet;
+import com.intellij.util.xml.DomElement;
+import com.intellij.util.xml.DomFileElement;
+import com.intellij.util.xml.DomUtil;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.List;
 
 /**
+ * Graph model for a {@code struts.xml} file.
+ * <p/>
+ * Nodes and edges are cached per {@link StrutsPackage} ("cluster"), only packages touched by DOM changes
+ * (see {@link #markDirty(DomElement)}) are rebuilt on refresh.
+ * <p/>
+ * Large configurations (see {@link #CLUSTERING_THRESHOLD}) switch to clustering mode: every package is shown
+ * as single collapsed {@link PackageNode}, its actions/results are only built once expanded.
+ *
  * @author Yann C&eacute;bron
  * @author Sergey Vasiliev
  */
 public class StrutsDataModel extends GraphDataModel<BasicStrutsNode, BasicStrutsEdge> {
 
+  /**
+   * Minimum number of actions in model to enable clustering mode.
+   */
+  static final int CLUSTERING_THRESHOLD = 500;
+
   private final Set<BasicStrutsNode> myNodes = new HashSet<BasicStrutsNode>();
   private final Set<BasicStrutsEdge> myEdges = new HashSet<BasicStrutsEdge>();
 
   private final Map<PsiFile, NodesGroup> myGroups = new HashMap<PsiFile, NodesGroup>();
 
+  private final Map<StrutsPackage, PackageCluster> myClusters = new LinkedHashMap<StrutsPackage, PackageCluster>();
+  private final Set<StrutsPackage> myDirtyPackages = new HashSet<StrutsPackage>();
+  private boolean myAllDirty = true;
+
+  private final Set<StrutsPackage> myExpandedPackages = new HashSet<StrutsPackage>();
+  private boolean myClusteringMode;
+
+  private int myRebuiltClustersCount;
+
   private final Project myProject;
   private final XmlFile myFile;
 
   @NonNls
   private static final String UNKNOWN = "???";
 
+  @NonNls
+  private static final String EXTENDS = "extends";
+
   public StrutsDataModel(final XmlFile file) {
     myFile = file;
     myProject = file.getProject();
@@ -106,6 +134,63 @@ public class StrutsDataModel extends GraphDataModel<BasicStrutsNode, BasicStruts
   public void dispose() {
   }
 
+  /**
+   * Marks the package containing the changed element for rebuild on next refresh.
+   *
+   * @param element Changed DOM element, {@code null} to rebuild all packages (also done for invalidated elements).
+   */
+  public void markDirty(@Nullable final DomElement element) {
+    if (element == null || !element.isValid()) {
+      myAllDirty = true;
+      return;
+    }
+
+    final DomFileElement<DomElement> fileElement = DomUtil.getFileElement(element);
+    if (!(fileElement.getRootElement() instanceof StrutsRoot)) {
+      return;
+    }
+
+    final StrutsPackage strutsPackage = element.getParentOfType(StrutsPackage.class, false);
+    if (strutsPackage == null) {
+      myAllDirty = true;
+    }
+    else {
+      myDirtyPackages.add(strutsPackage);
+    }
+  }
+
+  public boolean isClusteringMode() {
+    return myClusteringMode;
+  }
+
+  /**
+   * Expands/collapses the given package in clustering mode.
+   *
+   * @param strutsPackage Package.
+   * @param expanded      Expand or collapse.
+   */
+  public void setExpanded(@NotNull final StrutsPackage strutsPackage, final boolean expanded) {
+    if (expanded) {
+      myExpandedPackages.add(strutsPackage);
+    }
+    else {
+      myExpandedPackages.remove(strutsPackage);
+    }
+  }
+
+  public void collapseAll() {
+    myExpandedPackages.clear();
+  }
+
+  /**
+   * Number of packages (re-)built since creation, for testing purposes.
+   *
+   * @return Count.
+   */
+  int getRebuiltClustersCount() {
+    return myRebuiltClustersCount;
+  }
+
   private void refreshDataModel() {
     myNodes.clear();
     myEdges.clear();
@@ -181,28 +266,170 @@ public class StrutsDataModel extends GraphDataModel<BasicStrutsNode, BasicStruts
   private void updateDataModel() {
     final StrutsModel model = StrutsManager.getInstance(myProject).getModelByFile(myFile);
     if (model == null) {
+      myClusters.clear();
+      myDirtyPackages.clear();
+      myAllDirty = true;
       return;
     }
 
-    for (final StrutsPackage strutsPackage : model.getStrutsPackages()) {
-      for (final Action action : strutsPackage.getActions()) {
+    final List<StrutsPackage> strutsPackages = model.getStrutsPackages();
+    updateClusters(strutsPackages);
+
+    int actionsCount = 0;
+    for (final PackageCluster cluster : myClusters.values()) {
+      actionsCount += cluster.getActionsCount();
+    }
+    myClusteringMode = actionsCount >= CLUSTERING_THRESHOLD;
+
+    for (final PackageCluster cluster : myClusters.values()) {
+      if (isCollapsed(cluster)) {
+        addNode(cluster.getPackageNode());
+        continue;
+      }
+
+      for (final BasicStrutsNode node : cluster.getNodes()) {
+        addNode(node);
+      }
+      for (final BasicStrutsEdge edge : cluster.getEdges()) {
+        addEdge(edge);
+      }
+    }
+
+    if (myClusteringMode) {
+      addPackageEdges();
+    }
+  }
+
+  /**
+   * Drops all clusters for removed or dirty packages and creates (empty) clusters for new ones.
+   *
+   * @param strutsPackages Current packages of model.
+   */
+  private void updateClusters(final List<StrutsPackage> strutsPackages) {
+    if (myAllDirty) {
+      myClusters.clear();
+    }
+    else {
+      final Set<StrutsPackage> current = new HashSet<StrutsPackage>(strutsPackages);
+      for (final Iterator<StrutsPackage> it = myClusters.keySet().iterator(); it.hasNext(); ) {
+        final StrutsPackage strutsPackage = it.next();
+        if (!strutsPackage.isValid() ||
+            !current.contains(strutsPackage) ||
+            myDirtyPackages.contains(strutsPackage)) {
+          it.remove();
+        }
+      }
+    }
+
+    myAllDirty = false;
+    myDirtyPackages.clear();
+
+    final Map<StrutsPackage, PackageCluster> oldClusters = new HashMap<StrutsPackage, PackageCluster>(myClusters);
+    myClusters.clear();
+    for (final StrutsPackage strutsPackage : strutsPackages) {
+      PackageCluster cluster = oldClusters.get(strutsPackage);
+      if (cluster == null) {
+        cluster = new PackageCluster(strutsPackage);
+        myRebuiltClustersCount++;
+      }
+      myClusters.put(strutsPackage, cluster);
+    }
+
+    myExpandedPackages.retainAll(myClusters.keySet());
+  }
+
+  private boolean isCollapsed(final PackageCluster cluster) {
+    return myClusteringMode && !myExpandedPackages.contains(cluster.getStrutsPackage());
+  }
+
+  /**
+   * Adds "extends" edges between collapsed packages.
+   */
+  private void addPackageEdges() {
+    for (final PackageCluster cluster : myClusters.values()) {
+      if (!isCollapsed(cluster)) {
+        continue;
+      }
+
+      final List<StrutsPackage> extendsList = cluster.getStrutsPackage().getExtends().getValue();
+      if (extendsList == null) {
+        continue;
+      }
+
+      for (final StrutsPackage parent : extendsList) {
+        final PackageCluster parentCluster = myClusters.get(parent);
+        if (parentCluster != null && isCollapsed(parentCluster)) {
+          addEdge(new BasicStrutsEdge(cluster.getPackageNode(), parentCluster.getPackageNode(), EXTENDS));
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Caches nodes and edges for a single package, built lazily on first access.
+   */
+  private static class PackageCluster {
+
+    private final StrutsPackage myStrutsPackage;
+    private final PackageNode myPackageNode;
+    private final int myActionsCount;
+
+    private List<BasicStrutsNode> myNodes;
+    private List<BasicStrutsEdge> myEdges;
+
+    private PackageCluster(final StrutsPackage strutsPackage) {
+      myStrutsPackage = strutsPackage;
+      myPackageNode = new PackageNode(strutsPackage, strutsPackage.getName().getStringValue());
+      myActionsCount = strutsPackage.getActions().size();
+    }
+
+    private StrutsPackage getStrutsPackage() {
+      return myStrutsPackage;
+    }
+
+    private PackageNode getPackageNode() {
+      return myPackageNode;
+    }
+
+    private int getActionsCount() {
+      return myActionsCount;
+    }
+
+    private List<BasicStrutsNode> getNodes() {
+      build();
+      return myNodes;
+    }
+
+    private List<BasicStrutsEdge> getEdges() {
+      build();
+      return myEdges;
+    }
+
+    private void build() {
+      if (myNodes != null) {
+        return;
+      }
+
+      myNodes = new ArrayList<BasicStrutsNode>();
+      myEdges = new ArrayList<BasicStrutsEdge>();
+
+      for (final Action action : myStrutsPackage.getActions()) {
         final ActionNode actionNode = new ActionNode(action, action.getName().getStringValue());
-        addNode(actionNode);
+        myNodes.add(actionNode);
 
         for (final Result result : action.getResults()) {
           final PathReference pathReference = result.getValue();
           final String path = pathReference != null ? pathReference.getPath() : UNKNOWN;
 
           final ResultNode resultNode = new ResultNode(result, path);
-          addNode(resultNode);
+          myNodes.add(resultNode);
 
           final String resultName = result.getName().getStringValue();
-          addEdge(new BasicStrutsEdge(actionNode, resultNode, resultName != null ? resultName : Result.DEFAULT_NAME));
+          myEdges.add(new BasicStrutsEdge(actionNode, resultNode, resultName != null ? resultName : Result.DEFAULT_NAME));
         }
-
       }
     }
-
   }
 
-}
\ No newline at end of file
+}
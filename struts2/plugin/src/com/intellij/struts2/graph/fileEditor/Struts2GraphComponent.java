@@ -14,6 +14,7 @@
  */
 package com.intellij.struts2.graph.fileEditor;
 
+import com.intellij.icons.AllIcons;
 import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.graph.GraphManager;
@@ -34,6 +35,7 @@ import com.intellij.struts2.graph.StrutsDataModel;
 import com.intellij.struts2.graph.StrutsPresentationModel;
 import com.intellij.struts2.graph.beans.BasicStrutsEdge;
 import com.intellij.struts2.graph.beans.BasicStrutsNode;
+import com.intellij.struts2.graph.beans.PackageNode;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.xml.DomElement;
 import com.intellij.util.xml.DomEventListener;
@@ -55,6 +57,7 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
   private static final String STRUTS2_DESIGNER_COMPONENT = "STRUTS2_DESIGNER_COMPONENT";
 
   private final GraphBuilder<BasicStrutsNode, BasicStrutsEdge> myBuilder;
+  private final StrutsDataModel myDataModel;
 
   public Struts2GraphComponent(final XmlFile xmlFile) {
     final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
@@ -65,7 +68,7 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
     final Graph2DView view = GraphManager.getGraphManager().createGraph2DView();
 
     progress.setText("Building model...");
-    final StrutsDataModel myDataModel = new StrutsDataModel(xmlFile);
+    myDataModel = new StrutsDataModel(xmlFile);
     final StrutsPresentationModel presentationModel = new StrutsPresentationModel(graph);
 
     progress.setText("Setup graph...");
@@ -85,6 +88,7 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
 
     DomManager.getDomManager(myBuilder.getProject()).addDomEventListener(new DomEventListener() {
       public void eventOccured(final DomEvent event) {
+        myDataModel.markDirty(event.getElement());
         if (isShowing()) {
           myBuilder.queueUpdate();
         }
@@ -95,6 +99,9 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
   private JComponent createToolbarPanel() {
     final DefaultActionGroup actions = new DefaultActionGroup();
     actions.add(GraphViewUtil.getBasicToolbar(myBuilder));
+    actions.addSeparator();
+    actions.add(new ExpandSelectedPackagesAction());
+    actions.add(new CollapseAllPackagesAction());
     final ActionToolbar actionToolbar = ActionManager.getInstance().createActionToolbar(ActionPlaces.UNKNOWN,
                                                                                         actions,
                                                                                         true);
@@ -103,13 +110,18 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
 
   public List<DomElement> getSelectedDomElements() {
     final List<DomElement> selected = new ArrayList<DomElement>();
+    for (final BasicStrutsNode nodeObject : getSelectedNodes()) {
+      ContainerUtil.addIfNotNull(nodeObject.getIdentifyingElement(), selected);
+    }
+    return selected;
+  }
+
+  private List<BasicStrutsNode> getSelectedNodes() {
+    final List<BasicStrutsNode> selected = new ArrayList<BasicStrutsNode>();
     final Graph2D graph = myBuilder.getGraph();
     for (final Node node : graph.getNodeArray()) {
       if (graph.isSelected(node)) {
-        final BasicStrutsNode nodeObject = myBuilder.getNodeObject(node);
-        if (nodeObject != null) {
-          ContainerUtil.addIfNotNull(nodeObject.getIdentifyingElement(), selected);
-        }
+        ContainerUtil.addIfNotNull(myBuilder.getNodeObject(node), selected);
       }
     }
     return selected;
@@ -162,4 +174,51 @@ public class Struts2GraphComponent extends JPanel implements DataProvider, Dispo
     return null;
   }
 
-}
\ No newline at end of file
+
+  /**
+   * Expands the selected collapsed packages in clustering mode.
+   */
+  private class ExpandSelectedPackagesAction extends AnAction {
+
+    private ExpandSelectedPackagesAction() {
+      super("Expand Selected Packages", null, AllIcons.Actions.Expandall);
+    }
+
+    @Override
+    public void actionPerformed(final AnActionEvent e) {
+      for (final BasicStrutsNode node : getSelectedNodes()) {
+        if (node instanceof PackageNode) {
+          myDataModel.setExpanded(((PackageNode) node).getIdentifyingElement(), true);
+        }
+      }
+      myBuilder.queueUpdate();
+    }
+
+    @Override
+    public void update(final AnActionEvent e) {
+      e.getPresentation().setEnabled(myDataModel.isClusteringMode());
+    }
+  }
+
+  /**
+   * Collapses all packages in clustering mode.
+   */
+  private class CollapseAllPackagesAction extends AnAction {
+
+    private CollapseAllPackagesAction() {
+      super("Collapse All Packages", null, AllIcons.Actions.Collapseall);
+    }
+
+    @Override
+    public void actionPerformed(final AnActionEvent e) {
+      myDataModel.collapseAll();
+      myBuilder.queueUpdate();
+    }
+
+    @Override
+    public void update(final AnActionEvent e) {
+      e.getPresentation().setEnabled(myDataModel.isClusteringMode());
+    }
+  }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.struts2.jsp.ognl;
+
+import com.intellij.lang.injection.InjectedLanguageManager;
+import com.intellij.lang.ognl.psi.resolve.property.OgnlValueStackContributor;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.paths.PathReference;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.jsp.JspFile;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.action.Result;
+import com.intellij.struts2.dom.struts.model.StrutsManager;
+import com.intellij.struts2.dom.struts.model.StrutsModel;
+import com.intellij.struts2.facet.StrutsFacet;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Provides the action class(es) whose results point to the current JSP as OGNL value stack root.
+ */
+public class OgnlStruts2JspValueStackContributor extends OgnlValueStackContributor {
+
+  private static final Key<CachedValue<List<PsiClass>>> ACTION_CLASSES_KEY = Key.create("STRUTS2_JSP_ACTION_CLASSES");
+
+  @Override
+  public boolean process(@NotNull PsiElement element,
+                         @NotNull PsiFile containingFile,
+                         @NotNull Processor<PsiClass> processor) {
+    final PsiFile topLevelFile = InjectedLanguageManager.getInstance(containingFile.getProject()).getTopLevelFile(element);
+    if (!(topLevelFile instanceof JspFile)) {
+      return true;
+    }
+
+    if (StrutsFacet.getInstance(element) == null) {
+      return true;
+    }
+
+    for (PsiClass actionClass : getActionClasses(topLevelFile.getOriginalFile())) {
+      if (!processor.process(actionClass)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<PsiClass> getActionClasses(@NotNull final PsiFile jspFile) {
+    CachedValue<List<PsiClass>> actionClasses = jspFile.getUserData(ACTION_CLASSES_KEY);
+    if (actionClasses == null) {
+      actionClasses = CachedValuesManager.getManager(jspFile.getProject()).createCachedValue(
+        new CachedValueProvider<List<PsiClass>>() {
+          @Override
+          public Result<List<PsiClass>> compute() {
+            return Result.create(findActionClasses(jspFile),
+                                 PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT,
+                                 ProjectRootManager.getInstance(jspFile.getProject()));
+          }
+        }, false);
+      jspFile.putUserData(ACTION_CLASSES_KEY, actionClasses);
+    }
+    return actionClasses.getValue();
+  }
+
+  /**
+   * Collects classes of all actions having a result pointing to the given JSP.
+   *
+   * @param jspFile JSP.
+   * @return Action classes.
+   */
+  private static List<PsiClass> findActionClasses(@NotNull final PsiFile jspFile) {
+    final Module module = ModuleUtilCore.findModuleForPsiElement(jspFile);
+    if (module == null) {
+      return Collections.emptyList();
+    }
+
+    final StrutsModel strutsModel = StrutsManager.getInstance(jspFile.getProject()).getCombinedModel(module);
+    if (strutsModel == null) {
+      return Collections.emptyList();
+    }
+
+    final String jspFileName = jspFile.getName();
+    final Set<PsiClass> actionClasses = new LinkedHashSet<PsiClass>();
+    strutsModel.processActions(new Processor<Action>() {
+      @Override
+      public boolean process(final Action action) {
+        for (final Result result : action.getResults()) {
+          final String path = result.getStringValue();
+          if (path == null ||
+              !StringUtil.endsWith(path.trim(), jspFileName)) {
+            continue;
+          }
+
+          final PathReference pathReference = result.getValue();
+          if (pathReference != null &&
+              jspFile.equals(pathReference.resolve())) {
+            final PsiClass actionClass = action.searchActionClass();
+            if (actionClass != null) {
+              actionClasses.add(actionClass);
+            }
+            break;
+          }
+        }
+        return true;
+      }
+    });
+    return new ArrayList<PsiClass>(actionClasses);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.model.jam.convention;
+
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Action mapping derived by the convention plugin, either from class name/package or {@code @Action}.
+ */
+public class ConventionActionMapping {
+
+  /**
+   * Default value of {@code struts.convention.package.locators}.
+   */
+  @NonNls
+  private static final String[] PACKAGE_LOCATORS = {"action", "actions", "struts", "struts2"};
+
+  /**
+   * Default value of {@code struts.convention.result.path}.
+   */
+  @NonNls
+  private static final String DEFAULT_RESULT_PATH = "/WEB-INF/content/";
+
+  @NotNull
+  private final String myName;
+
+  @NotNull
+  private final String myClassName;
+
+  @Nullable
+  private final String myMethodName;
+
+  @Nullable
+  private final String myNamespace;
+
+  @Nullable
+  private final String myResultPath;
+
+  /**
+   * @param name       Action name.
+   * @param className  FQN of action class.
+   * @param methodName Annotated method, {@code null} for class-level mapping.
+   * @param namespace  Explicit namespace ({@code @Namespace} or absolute {@code @Action}), {@code null} to derive from package.
+   * @param resultPath Value of {@code @ResultPath}, {@code null} for default.
+   */
+  public ConventionActionMapping(@NotNull final String name,
+                                 @NotNull final String className,
+                                 @Nullable final String methodName,
+                                 @Nullable final String namespace,
+                                 @Nullable final String resultPath) {
+    myName = name;
+    myClassName = className;
+    myMethodName = methodName;
+    myNamespace = namespace;
+    myResultPath = resultPath;
+  }
+
+  @NotNull
+  public String getName() {
+    return myName;
+  }
+
+  @NotNull
+  public String getClassName() {
+    return myClassName;
+  }
+
+  @Nullable
+  public String getMethodName() {
+    return myMethodName;
+  }
+
+  @Nullable
+  String getExplicitNamespace() {
+    return myNamespace;
+  }
+
+  @Nullable
+  String getResultPath() {
+    return myResultPath;
+  }
+
+  /**
+   * Returns the explicit namespace or the one derived from the package after the last package locator,
+   * e.g. {@code /admin} for {@code com.example.actions.admin}.
+   *
+   * @return Namespace, {@code "/"} for root.
+   */
+  @NotNull
+  public String getNamespace() {
+    if (myNamespace != null) {
+      return myNamespace;
+    }
+
+    final String packageName = StringUtil.getPackageName(myClassName);
+    final String[] segments = packageName.split("\\.");
+    int locatorIndex = -1;
+    for (int i = 0; i < segments.length; i++) {
+      for (final String locator : PACKAGE_LOCATORS) {
+        if (Comparing.equal(locator, segments[i])) {
+          locatorIndex = i;
+        }
+      }
+    }
+
+    if (locatorIndex == -1) {
+      return "/";
+    }
+
+    final StringBuilder namespace = new StringBuilder();
+    for (int i = locatorIndex + 1; i < segments.length; i++) {
+      namespace.append('/').append(segments[i]);
+    }
+    return namespace.length() == 0 ? "/" : namespace.toString();
+  }
+
+  /**
+   * Returns the location prefix for result JSPs, e.g. {@code /WEB-INF/content/admin/user}.
+   *
+   * @return Result location prefix.
+   */
+  @NotNull
+  public String getResultLocationPrefix() {
+    final String resultPath = myResultPath != null ? StringUtil.trimEnd(myResultPath, "/") + "/" : DEFAULT_RESULT_PATH;
+    final String namespace = getNamespace();
+    return resultPath + (namespace.equals("/") ? "" : namespace.substring(1) + "/") + myName;
+  }
+
+  /**
+   * Whether the convention plugin can map the given class, i.e. it resides in a package matching a package locator.
+   *
+   * @param packageName Package name.
+   * @return {@code true} if located.
+   */
+  static boolean isLocatedPackage(@NotNull final String packageName) {
+    for (final String segment : packageName.split("\\.")) {
+      for (final String locator : PACKAGE_LOCATORS) {
+        if (Comparing.equal(locator, segment)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Resolves to the annotated method or action class.
+   *
+   * @param scope Search scope.
+   * @return {@code null} if class not found.
+   */
+  @Nullable
+  public PsiElement resolve(@NotNull final JavaPsiFacade javaPsiFacade, @NotNull final GlobalSearchScope scope) {
+    final PsiClass psiClass = javaPsiFacade.findClass(myClassName, scope);
+    if (psiClass == null || myMethodName == null) {
+      return psiClass;
+    }
+
+    final PsiMethod[] methods = psiClass.findMethodsByName(myMethodName, false);
+    return methods.length != 0 ? methods[0] : psiClass;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+
+    final ConventionActionMapping that = (ConventionActionMapping) o;
+    return myName.equals(that.myName) &&
+           myClassName.equals(that.myClassName) &&
+           Comparing.equal(myMethodName, that.myMethodName) &&
+           Comparing.equal(myNamespace, that.myNamespace) &&
+           Comparing.equal(myResultPath, that.myResultPath);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = myName.hashCode();
+    result = 31 * result + myClassName.hashCode();
+    result = 31 * result + (myMethodName != null ? myMethodName.hashCode() : 0);
+    return result;
+  }
+
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.model.jam.convention;
+
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes action mappings derived by the convention plugin (action name to {@link ConventionActionMapping}).
+ * <p/>
+ * Considers public non-abstract classes in packages matching the default package locators with {@code Action} suffix
+ * and all classes/methods annotated with {@code @Action}/{@code @Actions}.
+ * Annotations are matched by name and imports only, inheritance from {@code com.opensymphony.xwork2.Action} is not considered.
+ */
+public class StrutsConventionActionIndex extends FileBasedIndexExtension<String, List<ConventionActionMapping>> {
+
+  private static final ID<String, List<ConventionActionMapping>> NAME = ID.create("struts2.convention.action");
+
+  @NonNls
+  private static final String ANNOTATION_PACKAGE = "org.apache.struts2.convention.annotation";
+
+  @NonNls
+  private static final String ACTION_SUFFIX = "Action";
+
+  private static final Pattern PACKAGE_PATTERN = Pattern.compile("\\bpackage\\s+([\\w.]+)\\s*;");
+
+  static final DataExternalizer<List<ConventionActionMapping>> MAPPINGS_EXTERNALIZER =
+    new DataExternalizer<List<ConventionActionMapping>>() {
+      @Override
+      public void save(@NotNull final DataOutput out, final List<ConventionActionMapping> value) throws IOException {
+        out.writeInt(value.size());
+        for (final ConventionActionMapping mapping : value) {
+          out.writeUTF(mapping.getName());
+          out.writeUTF(mapping.getClassName());
+          writeNullable(out, mapping.getMethodName());
+          writeNullable(out, mapping.getExplicitNamespace());
+          writeNullable(out, mapping.getResultPath());
+        }
+      }
+
+      @Override
+      public List<ConventionActionMapping> read(@NotNull final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final List<ConventionActionMapping> result = new ArrayList<ConventionActionMapping>(size);
+        for (int i = 0; i < size; i++) {
+          result.add(new ConventionActionMapping(in.readUTF(), in.readUTF(),
+                                                 readNullable(in), readNullable(in), readNullable(in)));
+        }
+        return result;
+      }
+    };
+
+  private final KeyDescriptor<String> myKeyDescriptor = new EnumeratorStringDescriptor();
+
+  @NotNull
+  @Override
+  public ID<String, List<ConventionActionMapping>> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, List<ConventionActionMapping>, FileContent> getIndexer() {
+    return new DataIndexer<String, List<ConventionActionMapping>, FileContent>() {
+      @NotNull
+      @Override
+      public Map<String, List<ConventionActionMapping>> map(@NotNull final FileContent inputData) {
+        return indexFile(inputData);
+      }
+    };
+  }
+
+  /**
+   * Builds PSI only for files whose text may contain convention actions.
+   */
+  @NotNull
+  static Map<String, List<ConventionActionMapping>> indexFile(@NotNull final FileContent inputData) {
+    if (!isCandidate(inputData.getContentAsText().toString())) {
+      return Collections.emptyMap();
+    }
+
+    final PsiFile psiFile = inputData.getPsiFile();
+    if (!(psiFile instanceof PsiJavaFile)) {
+      return Collections.emptyMap();
+    }
+    return indexJavaFile((PsiJavaFile) psiFile);
+  }
+
+  /**
+   * Text-only prefilter: both class name suffix and {@code @Action} contain {@code Action}, the file must
+   * reference the annotation package or declare a package matching a package locator.
+   *
+   * @param text File text.
+   * @return {@code false} if file cannot contain convention actions.
+   */
+  static boolean isCandidate(@NotNull final String text) {
+    if (!text.contains(ACTION_SUFFIX)) {
+      return false;
+    }
+    if (text.contains(ANNOTATION_PACKAGE)) {
+      return true;
+    }
+
+    final Matcher matcher = PACKAGE_PATTERN.matcher(text);
+    return matcher.find() && ConventionActionMapping.isLocatedPackage(matcher.group(1));
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return myKeyDescriptor;
+  }
+
+  @NotNull
+  @Override
+  public DataExternalizer<List<ConventionActionMapping>> getValueExternalizer() {
+    return MAPPINGS_EXTERNALIZER;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(StdFileTypes.JAVA);
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  /**
+   * Returns all action names in project.
+   *
+   * @param project Project.
+   * @return Action names, may contain names of deleted actions.
+   */
+  @NotNull
+  public static Collection<String> getAllActionNames(@NotNull final Project project) {
+    return FileBasedIndex.getInstance().getAllKeys(NAME, project);
+  }
+
+  /**
+   * Finds all actions with the given name and optionally namespace.
+   *
+   * @param name      Action name.
+   * @param namespace Namespace, {@code null} for all.
+   * @param scope     Search scope.
+   * @return Mappings.
+   */
+  @NotNull
+  public static List<ConventionActionMapping> findActions(@NotNull final String name,
+                                                          @Nullable final String namespace,
+                                                          @NotNull final GlobalSearchScope scope) {
+    final List<ConventionActionMapping> result = new SmartList<ConventionActionMapping>();
+    for (final List<ConventionActionMapping> mappings : FileBasedIndex.getInstance().getValues(NAME, name, scope)) {
+      for (final ConventionActionMapping mapping : mappings) {
+        if (namespace == null ||
+            Comparing.equal(namespace, mapping.getNamespace())) {
+          result.add(mapping);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finds all actions in the given namespace.
+   *
+   * @param namespace Namespace, {@code null} for all.
+   * @param scope     Search scope.
+   * @return Mappings.
+   */
+  @NotNull
+  public static List<ConventionActionMapping> findActionsForNamespace(@Nullable final String namespace,
+                                                                      @NotNull final GlobalSearchScope scope) {
+    return StrutsConventionNamespaceIndex.findActions(namespace, scope);
+  }
+
+  private static Map<String, List<ConventionActionMapping>> indexJavaFile(@NotNull final PsiJavaFile javaFile) {
+    final boolean annotationsImported = isAnnotationPackageImported(javaFile);
+    final boolean locatedPackage = ConventionActionMapping.isLocatedPackage(javaFile.getPackageName());
+    if (!annotationsImported && !locatedPackage) {
+      return Collections.emptyMap();
+    }
+
+    final Map<String, List<ConventionActionMapping>> map = new THashMap<String, List<ConventionActionMapping>>();
+    for (final PsiClass psiClass : javaFile.getClasses()) {
+      final String className = psiClass.getQualifiedName();
+      final String simpleName = psiClass.getName();
+      if (className == null ||
+          simpleName == null ||
+          psiClass.isInterface() ||
+          psiClass.isEnum() ||
+          psiClass.isAnnotationType() ||
+          !psiClass.hasModifierProperty(PsiModifier.PUBLIC) ||
+          psiClass.hasModifierProperty(PsiModifier.ABSTRACT)) {
+        continue;
+      }
+
+      final PsiModifierList classModifiers = psiClass.getModifierList();
+      final String namespace = getAnnotationValue(classModifiers, StrutsConventionConstants.NAMESPACE);
+      final String resultPath = getAnnotationValue(classModifiers, JamResultPath.ANNOTATION_NAME);
+
+      final List<String> classActions = getActionValues(classModifiers);
+      if (!classActions.isEmpty()) {
+        for (final String value : classActions) {
+          addMapping(map, value, className, null, namespace, resultPath);
+        }
+      }
+      else if (locatedPackage && StringUtil.endsWith(simpleName, ACTION_SUFFIX)) {
+        addMapping(map, toActionName(simpleName), className, null, namespace, resultPath);
+      }
+
+      if (!annotationsImported) {
+        continue;
+      }
+      for (final PsiMethod method : psiClass.getMethods()) {
+        for (final String value : getActionValues(method.getModifierList())) {
+          addMapping(map, value, className, method.getName(), namespace, resultPath);
+        }
+      }
+    }
+    return map;
+  }
+
+  private static void addMapping(final Map<String, List<ConventionActionMapping>> map,
+                                 final String value,
+                                 final String className,
+                                 @Nullable final String methodName,
+                                 @Nullable final String namespace,
+                                 @Nullable final String resultPath) {
+    final String actionName;
+    final String actionNamespace;
+    if (StringUtil.startsWithChar(value, '/')) {
+      final int lastSlash = value.lastIndexOf('/');
+      actionName = value.substring(lastSlash + 1);
+      actionNamespace = lastSlash == 0 ? "/" : value.substring(0, lastSlash);
+    }
+    else {
+      actionName = value;
+      actionNamespace = namespace;
+    }
+
+    if (actionName.length() == 0) {
+      return;
+    }
+
+    List<ConventionActionMapping> mappings = map.get(actionName);
+    if (mappings == null) {
+      mappings = new SmartList<ConventionActionMapping>();
+      map.put(actionName, mappings);
+    }
+    mappings.add(new ConventionActionMapping(actionName, className, methodName, actionNamespace, resultPath));
+  }
+
+  /**
+   * Converts class name to action name using default name separator, e.g. {@code HelloWorldAction -> hello-world}.
+   *
+   * @param simpleClassName Class name.
+   * @return Action name.
+   */
+  @NotNull
+  static String toActionName(@NotNull final String simpleClassName) {
+    final String baseName = StringUtil.trimEnd(simpleClassName, ACTION_SUFFIX);
+    final StringBuilder sb = new StringBuilder(baseName.length() + 4);
+    for (int i = 0; i < baseName.length(); i++) {
+      final char c = baseName.charAt(i);
+      if (Character.isUpperCase(c)) {
+        if (i > 0) {
+          sb.append('-');
+        }
+        sb.append(Character.toLowerCase(c));
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static boolean isAnnotationPackageImported(final PsiJavaFile javaFile) {
+    final PsiImportList importList = javaFile.getImportList();
+    if (importList == null) {
+      return false;
+    }
+
+    return importList.findOnDemandImportStatement(ANNOTATION_PACKAGE) != null ||
+           importList.findSingleClassImportStatement(StrutsConventionConstants.ACTION) != null ||
+           importList.findSingleClassImportStatement(StrutsConventionConstants.ACTIONS) != null ||
+           Comparing.equal(javaFile.getPackageName(), ANNOTATION_PACKAGE);
+  }
+
+  /**
+   * Collects {@code @Action} values, including nested in {@code @Actions}.
+   */
+  private static List<String> getActionValues(@Nullable final PsiModifierList modifierList) {
+    if (modifierList == null) {
+      return Collections.emptyList();
+    }
+
+    final List<String> values = new SmartList<String>();
+    for (final PsiAnnotation annotation : modifierList.getAnnotations()) {
+      if (isAnnotation(annotation, StrutsConventionConstants.ACTION)) {
+        ContainerUtil.addIfNotNull(getStringValue(annotation), values);
+      }
+      else if (isAnnotation(annotation, StrutsConventionConstants.ACTIONS)) {
+        final PsiAnnotationMemberValue actions = annotation.findDeclaredAttributeValue(null);
+        if (actions instanceof PsiAnnotation) {
+          ContainerUtil.addIfNotNull(getStringValue((PsiAnnotation) actions), values);
+        }
+        else if (actions instanceof PsiArrayInitializerMemberValue) {
+          for (final PsiAnnotationMemberValue action : ((PsiArrayInitializerMemberValue) actions).getInitializers()) {
+            if (action instanceof PsiAnnotation) {
+              ContainerUtil.addIfNotNull(getStringValue((PsiAnnotation) action), values);
+            }
+          }
+        }
+      }
+    }
+    return values;
+  }
+
+  @Nullable
+  private static String getAnnotationValue(@Nullable final PsiModifierList modifierList,
+                                           @NotNull final String annotationFqn) {
+    if (modifierList == null) {
+      return null;
+    }
+
+    for (final PsiAnnotation annotation : modifierList.getAnnotations()) {
+      if (isAnnotation(annotation, annotationFqn)) {
+        return getStringValue(annotation);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Matches by reference text only, resolving is not allowed during indexing.
+   */
+  private static boolean isAnnotation(@NotNull final PsiAnnotation annotation, @NotNull final String annotationFqn) {
+    final PsiJavaCodeReferenceElement referenceElement = annotation.getNameReferenceElement();
+    if (referenceElement == null) {
+      return false;
+    }
+
+    final String text = referenceElement.getText();
+    return Comparing.equal(text, annotationFqn) ||
+           Comparing.equal(text, StringUtil.getShortName(annotationFqn));
+  }
+
+  @Nullable
+  private static String getStringValue(@NotNull final PsiAnnotation annotation) {
+    final PsiAnnotationMemberValue value = annotation.findDeclaredAttributeValue(null);
+    if (!(value instanceof PsiLiteralExpression)) {
+      return null;
+    }
+
+    final Object literalValue = ((PsiLiteralExpression) value).getValue();
+    return literalValue instanceof String ? (String) literalValue : null;
+  }
+
+  private static void writeNullable(final DataOutput out, @Nullable final String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  @Nullable
+  private static String readNullable(final DataInput in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+}
@@ -32,4 +32,7 @@ public class StrutsConventionConstants {
 
   @NonNls
   public static final String ACTIONS = "org.apache.struts2.convention.annotation.Actions";
+
+  @NonNls
+  public static final String NAMESPACE = "org.apache.struts2.convention.annotation.Namespace";
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.model.jam.convention;
+
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.SmartList;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes convention plugin action mappings by namespace, so actions of one namespace are found with a single lookup.
+ * @see StrutsConventionActionIndex
+ */
+public class StrutsConventionNamespaceIndex extends FileBasedIndexExtension<String, List<ConventionActionMapping>> {
+
+  private static final ID<String, List<ConventionActionMapping>> NAME = ID.create("struts2.convention.namespace");
+
+  private final KeyDescriptor<String> myKeyDescriptor = new EnumeratorStringDescriptor();
+
+  @NotNull
+  @Override
+  public ID<String, List<ConventionActionMapping>> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, List<ConventionActionMapping>, FileContent> getIndexer() {
+    return new DataIndexer<String, List<ConventionActionMapping>, FileContent>() {
+      @NotNull
+      @Override
+      public Map<String, List<ConventionActionMapping>> map(@NotNull final FileContent inputData) {
+        final Map<String, List<ConventionActionMapping>> byName = StrutsConventionActionIndex.indexFile(inputData);
+        if (byName.isEmpty()) {
+          return Collections.emptyMap();
+        }
+
+        final Map<String, List<ConventionActionMapping>> byNamespace = new THashMap<String, List<ConventionActionMapping>>();
+        for (final List<ConventionActionMapping> mappings : byName.values()) {
+          for (final ConventionActionMapping mapping : mappings) {
+            final String namespace = mapping.getNamespace();
+            List<ConventionActionMapping> namespaceMappings = byNamespace.get(namespace);
+            if (namespaceMappings == null) {
+              namespaceMappings = new SmartList<ConventionActionMapping>();
+              byNamespace.put(namespace, namespaceMappings);
+            }
+            namespaceMappings.add(mapping);
+          }
+        }
+        return byNamespace;
+      }
+    };
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return myKeyDescriptor;
+  }
+
+  @NotNull
+  @Override
+  public DataExternalizer<List<ConventionActionMapping>> getValueExternalizer() {
+    return StrutsConventionActionIndex.MAPPINGS_EXTERNALIZER;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(StdFileTypes.JAVA);
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return 1;
+  }
+
+  /**
+   * Finds all actions in the given namespace.
+   *
+   * @param namespace Namespace, {@code null} for all.
+   * @param scope     Search scope.
+   * @return Mappings.
+   */
+  @NotNull
+  static List<ConventionActionMapping> findActions(@Nullable final String namespace,
+                                                   @NotNull final GlobalSearchScope scope) {
+    final FileBasedIndex fileBasedIndex = FileBasedIndex.getInstance();
+    if (namespace != null) {
+      return flatten(fileBasedIndex.getValues(NAME, namespace, scope));
+    }
+
+    final Project project = scope.getProject();
+    if (project == null) {
+      return Collections.emptyList();
+    }
+
+    final List<ConventionActionMapping> result = new ArrayList<ConventionActionMapping>();
+    for (final String key : fileBasedIndex.getAllKeys(NAME, project)) {
+      result.addAll(flatten(fileBasedIndex.getValues(NAME, key, scope)));
+    }
+    return result;
+  }
+
+  private static List<ConventionActionMapping> flatten(@NotNull final List<List<ConventionActionMapping>> values) {
+    final List<ConventionActionMapping> result = new ArrayList<ConventionActionMapping>();
+    for (final List<ConventionActionMapping> mappings : values) {
+      result.addAll(mappings);
+    }
+    return result;
+  }
+}
@@ -19,16 +19,22 @@ import com.intellij.codeInsight.daemon.EmptyResolveMessageProvider;
 import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.PsiReferenceBase;
 import com.intellij.psi.PsiReferenceProvider;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.xml.XmlAttributeValue;
 import com.intellij.psi.xml.XmlTag;
 import com.intellij.struts2.dom.struts.action.Action;
 import com.intellij.struts2.dom.struts.model.StrutsManager;
 import com.intellij.struts2.dom.struts.model.StrutsModel;
+import com.intellij.struts2.facet.StrutsFacet;
+import com.intellij.struts2.model.jam.convention.ConventionActionMapping;
+import com.intellij.struts2.model.jam.convention.StrutsConventionActionIndex;
+import com.intellij.struts2.model.jam.convention.StrutsConventionConstants;
 import com.intellij.struts2.reference.TaglibUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.ProcessingContext;
@@ -38,6 +44,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -52,7 +59,8 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
                                                @NotNull final ProcessingContext context) {
     final StrutsManager strutsManager = StrutsManager.getInstance(psiElement.getProject());
     final StrutsModel strutsModel = strutsManager.getCombinedModel(psiElement);
-    if (strutsModel == null) {
+    if (strutsModel == null &&
+        !isConventionPluginPresent(psiElement)) {
       return PsiReference.EMPTY_ARRAY;
     }
 
@@ -62,7 +70,9 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
     // resolve to <action>
     final String actionName = TaglibUtil.trimActionPath(path);
     final String namespace = getNamespace(xmlAttributeValue);
-    final List<Action> actions = strutsModel.findActionsByName(actionName, namespace);
+    final List<Action> actions = strutsModel != null ?
+                                 strutsModel.findActionsByName(actionName, namespace) :
+                                 Collections.<Action>emptyList();
     final Action action = actions.isEmpty() ? null : actions.get(0);
 
     final int bangIndex = StringUtil.indexOf(path, TaglibUtil.BANG_SYMBOL);
@@ -74,6 +84,21 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
                               new ActionMethodReference(xmlAttributeValue, action, bangIndex)};
   }
 
+  /**
+   * Annotation-only applications might not have any struts.xml in {@link StrutsFacet} configuration.
+   *
+   * @param psiElement Current element.
+   * @return {@code true} if convention plugin is available and facet present.
+   */
+  private static boolean isConventionPluginPresent(@NotNull final PsiElement psiElement) {
+    if (StrutsFacet.getInstance(psiElement) == null) {
+      return false;
+    }
+
+    return JavaPsiFacade.getInstance(psiElement.getProject())
+                        .findClass(StrutsConventionConstants.CONVENTIONS_SERVICE, psiElement.getResolveScope()) != null;
+  }
+
   @Nullable
   private static String getNamespace(@NotNull final XmlAttributeValue xmlAttributeValue) {
     final XmlTag tag = PsiTreeUtil.getParentOfType(xmlAttributeValue, XmlTag.class);
@@ -128,12 +153,13 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
 
     private final Action action;
     private final String namespace;
+    @Nullable
     private final StrutsModel strutsModel;
 
     private ActionReference(final XmlAttributeValue xmlAttributeValue,
                             @Nullable final Action action,
                             @Nullable @NonNls final String namespace,
-                            final StrutsModel strutsModel) {
+                            @Nullable final StrutsModel strutsModel) {
       super(xmlAttributeValue);
       this.action = action;
       this.namespace = namespace;
@@ -145,16 +171,30 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
         return myElement;
       }
 
-      if (action == null) {
+      if (action != null) {
+        return action.getXmlTag();
+      }
+
+      return resolveConventionAction();
+    }
+
+    @Nullable
+    private PsiElement resolveConventionAction() {
+      final GlobalSearchScope scope = myElement.getResolveScope();
+      final List<ConventionActionMapping> mappings =
+        StrutsConventionActionIndex.findActions(TaglibUtil.trimActionPath(getValue()), namespace, scope);
+      if (mappings.isEmpty()) {
         return null;
       }
 
-      return action.getXmlTag();
+      return mappings.get(0).resolve(JavaPsiFacade.getInstance(myElement.getProject()), scope);
     }
 
     @NotNull
     public Object[] getVariants() {
-      final List<Action> actionList = strutsModel.getActionsForNamespace(namespace);
+      final List<Action> actionList = strutsModel != null ?
+                                      strutsModel.getActionsForNamespace(namespace) :
+                                      Collections.<Action>emptyList();
 
       final List<Object> variants = new ArrayList<Object>(actionList.size());
       for (final Action action : actionList) {
@@ -165,6 +205,13 @@ public class ActionReferenceProvider extends PsiReferenceProvider {
                          .withTypeText(action.getNamespace()));
         }
       }
+
+      for (final ConventionActionMapping mapping :
+        StrutsConventionActionIndex.findActionsForNamespace(namespace, myElement.getResolveScope())) {
+        variants.add(LookupElementBuilder.create(mapping.getName())
+                       .withIcon(Struts2Icons.Action)
+                       .withTypeText(mapping.getNamespace()));
+      }
       return ArrayUtil.toObjectArray(variants);
     }
 
@@ -0,0 +1,32 @@
+package com;
+
+public class UserAction {
+
+  public User getUser() {
+    return null;
+  }
+
+  public String execute() {
+    return "success";
+  }
+
+  public static class User {
+    public Address getAddress() {
+      return null;
+    }
+
+    public String getName() {
+      return null;
+    }
+  }
+
+  public static class Address {
+    public String getCity() {
+      return null;
+    }
+
+    public String getStreet() {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,3 @@
+<%@ taglib prefix="s" uri="/struts-tags" %>
+
+<s:url action="%{user.address.<caret>}"/>
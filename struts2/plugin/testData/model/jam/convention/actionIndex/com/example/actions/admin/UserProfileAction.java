@@ -0,0 +1,21 @@
+package com.example.actions.admin;
+
+import org.apache.struts2.convention.annotation.Action;
+import org.apache.struts2.convention.annotation.Actions;
+
+public class UserProfileAction {
+
+  public String execute() {
+    return "success";
+  }
+
+  @Action("/global/edit")
+  public String edit() {
+    return "success";
+  }
+
+  @Actions({@Action("view"), @Action("show")})
+  public String view() {
+    return "success";
+  }
+}
@@ -0,0 +1,24 @@
+package com;
+
+public class MyAction {
+
+  private String myField;
+  private boolean myBooleanField;
+
+  public String getMyField() {
+    return myField;
+  }
+
+  public void setMyField(String myField) {
+    this.myField = myField;
+  }
+
+  public boolean isMyBooleanField() {
+    return myBooleanField;
+  }
+
+  public void setMyBooleanField(boolean myBooleanField) {
+    this.myBooleanField = myBooleanField;
+  }
+
+}
\ No newline at end of file